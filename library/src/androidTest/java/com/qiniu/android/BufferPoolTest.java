@@ -0,0 +1,48 @@
+package com.qiniu.android;
+
+import com.qiniu.android.utils.BufferPool;
+
+public class BufferPoolTest extends BaseTest {
+
+    public void testObtainAndRecycle() {
+        BufferPool pool = BufferPool.getInstance();
+        // 清空其它用例归还的 buffer，保证复用的是本用例归还的 buffer
+        pool.trim();
+        long outstandingCount = pool.outstandingCount();
+        long outstandingBytes = pool.outstandingBytes();
+
+        byte[] small = pool.obtain(1);
+        assertEquals(BufferPool.MinBufferSize, small.length);
+        byte[] chunk = pool.obtain(2 * 1024 * 1024 + 1);
+        assertEquals(4 * 1024 * 1024, chunk.length);
+        assertEquals(outstandingCount + 2, pool.outstandingCount());
+        assertEquals(outstandingBytes + BufferPool.MinBufferSize + 4 * 1024 * 1024, pool.outstandingBytes());
+
+        pool.recycle(chunk);
+        pool.recycle(small);
+        assertEquals(outstandingCount, pool.outstandingCount());
+        assertEquals(outstandingBytes, pool.outstandingBytes());
+
+        // 归还的 buffer 会被复用
+        byte[] reused = pool.obtain(3 * 1024 * 1024);
+        assertTrue(reused == chunk);
+        pool.recycle(reused);
+    }
+
+    public void testUnpooledBuffer() {
+        BufferPool pool = BufferPool.getInstance();
+        long outstandingCount = pool.outstandingCount();
+
+        byte[] large = pool.obtain(BufferPool.MaxBufferSize + 1);
+        assertEquals(BufferPool.MaxBufferSize + 1, large.length);
+        assertEquals(outstandingCount, pool.outstandingCount());
+
+        // 非 obtain 获取的 buffer 不会被缓存
+        pool.recycle(large);
+        pool.recycle(new byte[1000]);
+        assertEquals(outstandingCount, pool.outstandingCount());
+
+        pool.trim();
+        assertEquals(0, pool.pooledBytes());
+    }
+}
@@ -126,6 +126,60 @@ public class ComplexUploadSceneTest extends UploadBaseTest {
         assertTrue("success count" + param.successCount, param.successCount == (param.completeCount));
     }
 
+    public void testMutiUploadWithQueue(){
+
+        final int maxCount = 6;
+
+        final TestParam param = new TestParam();
+        param.completeCount = 0;
+        param.successCount = 0;
+        final CountDownLatch queueSignal = new CountDownLatch(1);
+
+        Configuration config = new Configuration.Builder()
+                .resumeUploadVersion(Configuration.RESUME_UPLOAD_VERSION_V2)
+                .useConcurrentResumeUpload(true)
+                .concurrentTaskCount(3)
+                .queueMaxRequestCount(4)
+                .queueMaxRequestBytes(8 * 1024 * 1024)
+                .build();
+        UploadManager manager = new UploadManager(config);
+
+        for (int i = 0; i < maxCount; i++) {
+            // 大小文件交替，小文件使用表单上传
+            int size = (i % 2 == 0) ? (i + 1) * 1024 : 64;
+            final String keyUp = "android_complex_upload_queue_" + size + "k";
+            File file = null;
+            try {
+                file = TempFile.createFile(size);
+            } catch (IOException e) {
+                continue;
+            }
+
+            manager.put(file, keyUp, TestConfig.token_z0, new UpCompletionHandler() {
+                @Override
+                public void complete(String key, ResponseInfo info, JSONObject response) {
+                    synchronized (param){
+                        param.completeCount += 1;
+                        if (info != null && info.isOK()){
+                            param.successCount += 1;
+                        }
+                        if (param.completeCount == maxCount){
+                            queueSignal.countDown();
+                        }
+                    }
+                    Log.d("upload key:" + keyUp, "complex_upload_queue response: " + info);
+                }
+            }, null);
+        }
+
+        try {
+            queueSignal.await(); // wait for callback
+        } catch (InterruptedException e) {
+        }
+
+        Log.d("ComplexUploadSceneTest", "complex_upload_queue successCount: " + param.successCount);
+        assertTrue("success count" + param.successCount, param.successCount == param.completeCount);
+    }
 
     private class TestParam{
         int successCount = 0;
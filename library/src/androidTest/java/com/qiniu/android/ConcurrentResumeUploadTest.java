@@ -105,6 +105,47 @@ public class ConcurrentResumeUploadTest extends UploadFlowTest {
         }
     }
 
+    public void testPrefetchV1(){
+        Configuration configuration = new Configuration.Builder()
+                .resumeUploadVersion(Configuration.RESUME_UPLOAD_VERSION_V1)
+                .useConcurrentResumeUpload(true)
+                .prefetchDataCount(2)
+                .useHttps(true)
+                .build();
+        int[] sizeArray = {5000, 10000, 20000};
+        for (int size : sizeArray) {
+            String key = "android_concurrent_resume_prefetch_v1_" + size + "k";
+            try {
+                File file = TempFile.createFile(size, key);
+                uploadFileAndAssertSuccessResult(file, key, configuration, null);
+                TempFile.remove(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public void testPreconnectV2(){
+        Configuration configuration = new Configuration.Builder()
+                .resumeUploadVersion(Configuration.RESUME_UPLOAD_VERSION_V2)
+                .useConcurrentResumeUpload(true)
+                .preconnectServer(true)
+                .preconnectBackupServer(true)
+                .useHttps(true)
+                .build();
+        int[] sizeArray = {500, 5000};
+        for (int size : sizeArray) {
+            String key = "android_concurrent_resume_preconnect_v2_" + size + "k";
+            try {
+                File file = TempFile.createFile(size, key);
+                uploadFileAndAssertSuccessResult(file, key, configuration, null);
+                TempFile.remove(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     public void testReuploadV1(){
         Configuration configuration = new Configuration.Builder()
                 .resumeUploadVersion(Configuration.RESUME_UPLOAD_VERSION_V1)
@@ -257,6 +298,26 @@ public class ConcurrentResumeUploadTest extends UploadFlowTest {
         }
     }
 
+    public void testPrefetchV2(){
+        Configuration configuration = new Configuration.Builder()
+                .resumeUploadVersion(Configuration.RESUME_UPLOAD_VERSION_V2)
+                .useConcurrentResumeUpload(true)
+                .prefetchDataCount(2)
+                .useHttps(true)
+                .build();
+        int[] sizeArray = {5000, 10000, 20000};
+        for (int size : sizeArray) {
+            String key = "android_concurrent_resume_prefetch_v2_" + size + "k";
+            try {
+                File file = TempFile.createFile(size, key);
+                uploadFileAndAssertSuccessResult(file, key, configuration, null);
+                TempFile.remove(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     public void testReuploadV2(){
         Configuration configuration = new Configuration.Builder()
                 .resumeUploadVersion(Configuration.RESUME_UPLOAD_VERSION_V2)
@@ -1,6 +1,7 @@
 package com.qiniu.android;
 
 import com.qiniu.android.http.connectCheck.ConnectChecker;
+import com.qiniu.android.http.metrics.UploadSingleRequestMetrics;
 import com.qiniu.android.storage.GlobalConfiguration;
 
 public class ConnectCheckTest extends BaseTest {
@@ -43,4 +44,36 @@ public class ConnectCheckTest extends BaseTest {
 
         assertEquals("maxCount:" + maxCount + " successCount:" + successCount, 0, successCount);
     }
+
+    public void testAsyncCheck() {
+        GlobalConfiguration.getInstance().connectCheckURLStrings = new String[]{"https://www.qiniu.com", "https://www.baidu.com"};
+        ConnectChecker.invalidate();
+
+        final WaitCondition waitCondition = new WaitCondition();
+        final int[] successCount = {0};
+        final int maxCount = 10;
+        for (int i = 0; i < maxCount; i++) {
+            ConnectChecker.check(new ConnectChecker.CheckCompleteHandler() {
+                @Override
+                public void complete(UploadSingleRequestMetrics metrics) {
+                    synchronized (successCount) {
+                        if (ConnectChecker.isConnected(metrics)) {
+                            successCount[0] += 1;
+                        }
+                        if (successCount[0] == maxCount) {
+                            waitCondition.shouldWait = false;
+                        }
+                    }
+                }
+            });
+        }
+
+        wait(waitCondition, 10);
+        assertEquals(maxCount, successCount[0]);
+
+        // 有效期内直接使用缓存的检测结果
+        long start = System.currentTimeMillis();
+        assertTrue(ConnectChecker.isConnected(ConnectChecker.check()));
+        assertTrue(System.currentTimeMillis() - start < 100);
+    }
 }
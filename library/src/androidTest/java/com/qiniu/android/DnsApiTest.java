@@ -2,8 +2,10 @@ package com.qiniu.android;
 
 import com.qiniu.android.common.AutoZone;
 import com.qiniu.android.common.FixedZone;
+import com.qiniu.android.http.dns.Dns;
 import com.qiniu.android.http.dns.DnsPrefetcher;
 import com.qiniu.android.http.dns.IDnsNetworkAddress;
+import com.qiniu.android.storage.GlobalConfiguration;
 import com.qiniu.android.storage.UpToken;
 
 import android.util.Log;
@@ -120,6 +122,80 @@ public class DnsApiTest extends BaseTest {
         assertTrue((param.successCount <= 1));
     }
 
+    public void testParallelPrefetchWithCustomDns() {
+
+        final String[] hosts = new String[]{"prefetch-a.qiniu.test", "prefetch-b.qiniu.test", "prefetch-c.qiniu.test"};
+        final TestParam param = new TestParam();
+        GlobalConfiguration.getInstance().dns = new Dns() {
+            @Override
+            public List<IDnsNetworkAddress> lookup(final String hostname) throws UnknownHostException {
+                synchronized (param) {
+                    param.completeCount += 1;
+                }
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ignored) {
+                }
+                List<IDnsNetworkAddress> addressList = new ArrayList<>();
+                addressList.add(testAddress(hostname, "10.0.0.1"));
+                addressList.add(testAddress(hostname, "10.0.0.2"));
+                return addressList;
+            }
+        };
+
+        try {
+            DnsPrefetcher dnsPrefetcher = DnsPrefetcher.getInstance();
+            long start = System.currentTimeMillis();
+            assertTrue(dnsPrefetcher.checkAndPrefetchDnsIfNeed(new FixedZone(hosts), UpToken.parse(TestConfig.token_z0)));
+            // 并行解析，总耗时小于逐个解析
+            assertTrue(System.currentTimeMillis() - start < hosts.length * 1000);
+            for (String host : hosts) {
+                assertEquals(2, dnsPrefetcher.getInetAddressByHost(host).size());
+            }
+            assertEquals(hosts.length, param.completeCount);
+
+            // 未过期的地址不重新解析
+            dnsPrefetcher.checkAndPrefetchDnsIfNeed(new FixedZone(hosts), UpToken.parse(TestConfig.token_z0));
+            assertEquals(hosts.length, param.completeCount);
+
+            dnsPrefetcher.invalidNetworkAddress(testAddress(hosts[0], "10.0.0.1"));
+            List<IDnsNetworkAddress> addressList = dnsPrefetcher.getInetAddressByHost(hosts[0]);
+            assertEquals(1, addressList.size());
+            assertEquals("10.0.0.2", addressList.get(0).getIpValue());
+        } finally {
+            GlobalConfiguration.getInstance().dns = null;
+        }
+    }
+
+    private static IDnsNetworkAddress testAddress(final String host, final String ip) {
+        return new IDnsNetworkAddress() {
+            @Override
+            public String getHostValue() {
+                return host;
+            }
+
+            @Override
+            public String getIpValue() {
+                return ip;
+            }
+
+            @Override
+            public Long getTtlValue() {
+                return 600L;
+            }
+
+            @Override
+            public String getSourceValue() {
+                return "customized";
+            }
+
+            @Override
+            public Long getTimestampValue() {
+                return null;
+            }
+        };
+    }
+
     private static class TestParam{
         int count = 100;
         int successCount = 0;
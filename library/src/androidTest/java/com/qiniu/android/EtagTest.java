@@ -8,8 +8,12 @@ import com.qiniu.android.utils.Etag;
 
 import junit.framework.Assert;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 
 public class EtagTest extends AndroidTestCase {
@@ -43,6 +47,48 @@ public class EtagTest extends AndroidTestCase {
         TempFile.remove(f);
     }
 
+    public void testStreamShortRead() throws IOException {
+        byte[] data = new byte[5 * 1024 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        // 每次最多读取 1000 字节
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(data)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 1000));
+            }
+        };
+        Assert.assertEquals(Etag.data(data), Etag.stream(in, data.length));
+    }
+
+    public void testHasher() throws IOException {
+        File f = TempFile.createFile(9 * 1024);
+        int size = (int) f.length();
+        byte[] data = new byte[size];
+        FileInputStream in = new FileInputStream(f);
+        int read = 0;
+        while (read < size) {
+            read += in.read(data, read, size - read);
+        }
+        in.close();
+
+        // 按块倒序传入，块内分两段
+        Etag.Hasher hasher = new Etag.Hasher(size);
+        int blockSize = Configuration.BLOCK_SIZE;
+        for (int start = (size - 1) / blockSize * blockSize; start >= 0; start -= blockSize) {
+            int end = Math.min(size, start + blockSize);
+            int middle = (start + end) / 2;
+            Assert.assertNull(hasher.etag());
+            Assert.assertTrue(hasher.update(start, data, start, middle - start));
+            Assert.assertFalse("块内数据不连续", hasher.update(end - 1, data, end - 1, 1));
+            Assert.assertTrue(hasher.update(middle, data, middle, end - middle));
+        }
+        Assert.assertEquals(Etag.file(f), hasher.etag());
+        Assert.assertEquals("lvlmp343GVuq367WF4XTMetchhid", hasher.etag());
+        TempFile.remove(f);
+    }
+
     public void testLongToInt() {
         long len = 2323435710l;
         int b = (int) ((len + Configuration.BLOCK_SIZE - 1) / Configuration.BLOCK_SIZE);
@@ -0,0 +1,63 @@
+package com.qiniu.android;
+
+import com.qiniu.android.utils.AsyncRun;
+import com.qiniu.android.utils.GroupTaskExecutor;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class GroupTaskExecutorTest extends BaseTest {
+
+    public void testComplete() {
+        final int taskCount = 10;
+        final AtomicInteger completeTaskCount = new AtomicInteger(0);
+        final AtomicInteger groupCompleteCount = new AtomicInteger(0);
+
+        GroupTaskExecutor executor = new GroupTaskExecutor(new GroupTaskExecutor.GroupTaskCompleteHandler() {
+            @Override
+            public void complete() {
+                groupCompleteCount.incrementAndGet();
+            }
+        });
+        for (int i = 0; i < taskCount; i++) {
+            final int delay = 10 * i;
+            executor.addTask(new GroupTaskExecutor.GroupTask() {
+                @Override
+                public void run(final GroupTaskExecutor.GroupTask task) {
+                    AsyncRun.runInBack(delay, new Runnable() {
+                        @Override
+                        public void run() {
+                            completeTaskCount.incrementAndGet();
+                            task.taskComplete();
+                            // 重复调用不影响计数
+                            task.taskComplete();
+                        }
+                    });
+                }
+            });
+        }
+        executor.execute();
+
+        wait(new WaitConditional() {
+            @Override
+            public boolean shouldWait() {
+                return groupCompleteCount.get() == 0;
+            }
+        }, 10);
+
+        assertEquals(taskCount, completeTaskCount.get());
+        assertEquals(1, groupCompleteCount.get());
+    }
+
+    public void testEmptyGroup() {
+        final AtomicInteger groupCompleteCount = new AtomicInteger(0);
+        GroupTaskExecutor executor = new GroupTaskExecutor(new GroupTaskExecutor.GroupTaskCompleteHandler() {
+            @Override
+            public void complete() {
+                groupCompleteCount.incrementAndGet();
+            }
+        });
+        executor.execute();
+
+        assertEquals(1, groupCompleteCount.get());
+    }
+}
@@ -0,0 +1,44 @@
+package com.qiniu.android;
+
+import com.qiniu.android.http.networkStatus.NetworkStatusManager;
+
+public class NetworkStatusManagerTest extends BaseTest {
+
+    public void testScore() {
+
+        NetworkStatusManager manager = NetworkStatusManager.getInstance();
+        String fastType = "network-status-test-fast-" + System.currentTimeMillis();
+        String slowType = "network-status-test-slow-" + System.currentTimeMillis();
+
+        for (int i = 0; i < 10; i++) {
+            manager.updateNetworkStatus(fastType, true, 4 * 1024 * 1024, 1000, 50);
+            manager.updateNetworkStatus(slowType, true, 4 * 1024 * 1024, 4000, 200);
+        }
+        NetworkStatusManager.NetworkStatus fastStatus = manager.getNetworkStatus(fastType);
+        NetworkStatusManager.NetworkStatus slowStatus = manager.getNetworkStatus(slowType);
+        assertTrue(fastStatus.getSampleCount() > 9);
+        assertTrue(fastStatus.score() < slowStatus.score());
+
+        // 失败的请求不影响吞吐量，但计入失败率
+        int speed = fastStatus.getSpeed();
+        manager.updateNetworkStatus(fastType, false, 0, 0, 0);
+        assertEquals(speed, fastStatus.getSpeed());
+        assertTrue(fastStatus.getFailureRate() > 0);
+    }
+
+    public void testOneSampleDoesNotDominate() {
+
+        NetworkStatusManager manager = NetworkStatusManager.getInstance();
+        String luckyType = "network-status-test-lucky-" + System.currentTimeMillis();
+        String stableType = "network-status-test-stable-" + System.currentTimeMillis();
+
+        manager.updateNetworkStatus(luckyType, true, 4 * 1024 * 1024, 500, 50);
+        for (int i = 0; i < 10; i++) {
+            manager.updateNetworkStatus(stableType, true, 4 * 1024 * 1024, 500, 50);
+        }
+        NetworkStatusManager.NetworkStatus luckyStatus = manager.getNetworkStatus(luckyType);
+        NetworkStatusManager.NetworkStatus stableStatus = manager.getNetworkStatus(stableType);
+        assertEquals(luckyStatus.getSpeed(), stableStatus.getSpeed());
+        assertTrue(stableStatus.score() < luckyStatus.score());
+    }
+}
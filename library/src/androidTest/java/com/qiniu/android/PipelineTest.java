@@ -3,7 +3,9 @@ package com.qiniu.android;
 
 import android.test.InstrumentationTestCase;
 
+import com.qiniu.android.bigdata.Configuration;
 import com.qiniu.android.bigdata.pipeline.Pipeline;
+import com.qiniu.android.bigdata.pipeline.PipelineWriter;
 import com.qiniu.android.bigdata.pipeline.Points;
 import com.qiniu.android.http.ResponseInfo;
 
@@ -153,6 +155,39 @@ public class PipelineTest extends InstrumentationTestCase {
 //        Assert.assertTrue(info.isOK());
     }
 
+    public void testWriter() {
+        Configuration config = new Configuration();
+        config.batchMaxCount = 5;
+        config.useGzip = true;
+        Pipeline pipe = new Pipeline(config);
+        PipelineWriter writer = pipe.writer("testsdk", "Pandora le0xKwjp2_9ZGZMkCok7Gko6aG5GnIHValG82deI:yIl-J0zNjJCUii_7jag6-U79DPY=:eyJyZXNvdXJjZSI6Ii92Mi9yZXBvcy90ZXN0c2RrL2RhdGEiLCJleHBpcmVzIjo1MTAxMDQ1Njg0LCJjb250ZW50TUQ1IjoiIiwiY29udGVudFR5cGUiOiJ0ZXh0L3BsYWluIiwiaGVhZGVycyI6IiIsIm1ldGhvZCI6IlBPU1QifQ==");
+        Assert.assertTrue(writer == pipe.writer("testsdk", "Pandora le0xKwjp2_9ZGZMkCok7Gko6aG5GnIHValG82deI:yIl-J0zNjJCUii_7jag6-U79DPY=:eyJyZXNvdXJjZSI6Ii92Mi9yZXBvcy90ZXN0c2RrL2RhdGEiLCJleHBpcmVzIjo1MTAxMDQ1Njg0LCJjb250ZW50TUQ1IjoiIiwiY29udGVudFR5cGUiOiJ0ZXh0L3BsYWluIiwiaGVhZGVycyI6IiIsIm1ldGhvZCI6IlBPU1QifQ=="));
+
+        // 10 个数据点按 batchMaxCount 分为 2 批发送
+        final CountDownLatch batchSignal = new CountDownLatch(2);
+        writer.setCompleteHandler(new Pipeline.PumpCompleteHandler() {
+            @Override
+            public void complete(ResponseInfo inf) {
+                info = inf;
+                batchSignal.countDown();
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("platform", "android");
+            map.put("index", i);
+            map.put("td", new Date());
+            writer.write(map);
+        }
+
+        try {
+            Assert.assertTrue("timeout", batchSignal.await(120, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        System.out.println(info);
+    }
+
     static class A {
         public Integer a;
 
@@ -3,6 +3,7 @@ package com.qiniu.android;
 import com.qiniu.android.common.FixedZone;
 import com.qiniu.android.common.Zone;
 import com.qiniu.android.http.ResponseInfo;
+import com.qiniu.android.http.request.RetryBackoff;
 import com.qiniu.android.storage.Configuration;
 import com.qiniu.android.storage.UpCompletionHandler;
 import com.qiniu.android.storage.UpProgressHandler;
@@ -16,6 +17,7 @@ import org.json.JSONObject;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
 
 /**
  * Created by yangsen on 2020/6/3
@@ -130,6 +132,45 @@ public class RetryTest extends BaseTest {
         assertTrue((param.successCount == 0));
     }
 
+    public void testRetryBackoff() {
+
+        Configuration config = new Configuration.Builder()
+                .retryInterval(500)
+                .retryBackoffMultiplier(2)
+                .retryMaxInterval(3000)
+                .build();
+        assertEquals(500, RetryBackoff.retryDelay(config, 1, null));
+        assertEquals(1000, RetryBackoff.retryDelay(config, 2, null));
+        assertEquals(2000, RetryBackoff.retryDelay(config, 3, null));
+        assertEquals(3000, RetryBackoff.retryDelay(config, 4, null));
+
+        HashMap<String, String> header = new HashMap<>();
+        header.put("retry-after", "2");
+        ResponseInfo responseInfo = ResponseInfo.create(null, 503, header, null, "retry later");
+        assertEquals(2000, RetryBackoff.retryDelay(config, 1, responseInfo));
+        header.put("retry-after", "20");
+        responseInfo = ResponseInfo.create(null, 503, header, null, "retry later");
+        assertEquals(3000, RetryBackoff.retryDelay(config, 1, responseInfo));
+
+        // 默认不限制重试间隔
+        Configuration defaultConfig = new Configuration.Builder()
+                .retryInterval(60 * 1000)
+                .build();
+        assertEquals(60 * 1000, RetryBackoff.retryDelay(defaultConfig, 1, null));
+
+        Configuration jitterConfig = new Configuration.Builder()
+                .retryInterval(1000)
+                .retryJitter(0.2)
+                .build();
+        for (int i = 0; i < 20; i++) {
+            long delay = RetryBackoff.retryDelay(jitterConfig, 1, null);
+            assertTrue("delay:" + delay, delay >= 800 && delay <= 1200);
+        }
+
+        assertEquals(0, RetryBackoff.parseRetryAfter("abc", 0));
+        assertEquals(5000, RetryBackoff.parseRetryAfter("Thu, 01 Jan 1970 00:00:05 GMT", 0));
+    }
+
     private void template(int size, boolean hasValidHost, final CompleteHandler completeHandler) throws Throwable{
 
         final WaitCondition waitCondition = new WaitCondition();
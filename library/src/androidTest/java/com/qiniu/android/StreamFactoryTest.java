@@ -0,0 +1,160 @@
+package com.qiniu.android;
+
+import android.test.AndroidTestCase;
+
+import com.qiniu.android.http.request.httpclient.MultipartBody;
+import com.qiniu.android.http.request.httpclient.StreamRegionBody;
+import com.qiniu.android.storage.stream.StreamRegion;
+import com.qiniu.android.storage.stream.impl.ByteStreamFactory;
+import com.qiniu.android.storage.stream.impl.FileStreamFactory;
+import com.qiniu.android.utils.Crc32;
+
+import junit.framework.Assert;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.Arrays;
+
+import okhttp3.MediaType;
+import okio.Buffer;
+
+public class StreamFactoryTest extends AndroidTestCase {
+
+    public void testBytePositionalRead() throws Exception {
+        byte[] data = "Hello, World!".getBytes();
+        ByteStreamFactory factory = new ByteStreamFactory(data);
+
+        ByteBuffer buffer = ByteBuffer.allocate(5);
+        int len = factory.read(7, buffer);
+        Assert.assertEquals(5, len);
+        Assert.assertEquals("World", new String(buffer.array(), 0, len));
+
+        buffer.clear();
+        Assert.assertEquals(1, factory.read(12, buffer));
+        buffer.clear();
+        Assert.assertEquals(-1, factory.read(13, buffer));
+
+        InputStream stream = factory.newStreamWithOffset(7);
+        byte[] streamData = new byte[5];
+        Assert.assertEquals(5, stream.read(streamData));
+        Assert.assertEquals("World", new String(streamData));
+    }
+
+    public void testFilePositionalRead() throws Exception {
+        File file = TempFile.createFile(1024);
+        FileStreamFactory factory = new FileStreamFactory(file);
+
+        int regionSize = 256 * 1024;
+        for (int i = 0; i < 4; i++) {
+            long offset = (long) i * regionSize;
+
+            InputStream stream = factory.newStreamWithOffset(offset);
+            byte[] expected = new byte[regionSize];
+            int read = 0;
+            while (read < regionSize) {
+                read += stream.read(expected, read, regionSize - read);
+            }
+            stream.close();
+
+            StreamRegion region = new StreamRegion(factory, offset, regionSize);
+            StreamRegion.Reader reader = region.newReader();
+            byte[] buffer = new byte[region.bufferSize()];
+            int len;
+            while ((len = reader.read(buffer, 0, buffer.length)) > 0) {
+                region.updateCrc32(buffer, 0, len);
+            }
+            reader.close();
+
+            Assert.assertEquals(0, reader.remaining());
+            Assert.assertEquals(Crc32.bytes(expected), region.crc32());
+        }
+
+        factory.close();
+        TempFile.remove(file);
+    }
+
+    public void testFileReadAfterInterruptAndClose() throws Exception {
+        File file = TempFile.createFile(1);
+        FileStreamFactory factory = new FileStreamFactory(file);
+
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        Assert.assertEquals(16, factory.read(0, buffer));
+
+        // 中断导致 channel 关闭后，再次读取会重新打开文件
+        Thread.currentThread().interrupt();
+        buffer.clear();
+        try {
+            factory.read(0, buffer);
+            Assert.fail("read should be interrupted");
+        } catch (ClosedByInterruptException ignored) {
+        }
+        Assert.assertTrue(Thread.interrupted());
+        buffer.clear();
+        Assert.assertEquals(16, factory.read(16, buffer));
+
+        // 关闭后不可再读取
+        factory.close();
+        buffer.clear();
+        try {
+            factory.read(0, buffer);
+            Assert.fail("read should fail after close");
+        } catch (IOException ignored) {
+        }
+
+        TempFile.remove(file);
+    }
+
+    public void testStreamRegionBodyRewrite() throws Exception {
+        File file = TempFile.createFile(1024);
+        FileStreamFactory factory = new FileStreamFactory(file);
+
+        long offset = 100 * 1024 + 7;
+        int size = 512 * 1024 + 3;
+        InputStream stream = factory.newStreamWithOffset(offset);
+        byte[] expected = new byte[size];
+        int read = 0;
+        while (read < size) {
+            read += stream.read(expected, read, size - read);
+        }
+        stream.close();
+
+        StreamRegion region = new StreamRegion(factory, offset, size);
+        StreamRegionBody body = new StreamRegionBody(MediaType.parse("application/octet-stream"), region);
+        Assert.assertEquals(size, body.contentLength());
+
+        // 重试时请求体会被再次写入，两次写入的数据及 crc32 均相同
+        for (int i = 0; i < 2; i++) {
+            Buffer buffer = new Buffer();
+            body.writeTo(buffer);
+            Assert.assertTrue(Arrays.equals(expected, buffer.readByteArray()));
+            Assert.assertEquals(Crc32.bytes(expected), region.crc32());
+        }
+
+        factory.close();
+        TempFile.remove(file);
+    }
+
+    public void testStreamingFormBody() throws Exception {
+        byte[] data = "Hello, World!".getBytes();
+        StreamRegion region = new StreamRegion(new ByteStreamFactory(data), 0, data.length);
+        Assert.assertEquals(Long.valueOf(Crc32.bytes(data)), region.calculateCrc32());
+
+        MultipartBody body = new MultipartBody.Builder()
+                .setType(MultipartBody.FORM)
+                .addFormDataPart("key", "form_key")
+                .addFormDataPart("file", "hello.txt", new StreamRegionBody(MediaType.parse("text/plain"), region))
+                .build();
+
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+        String content = buffer.readUtf8();
+
+        Assert.assertEquals(body.contentLength(), content.length());
+        Assert.assertTrue(content.contains("filename=\"hello.txt\""));
+        Assert.assertTrue(content.contains("Hello, World!"));
+        Assert.assertEquals(Crc32.bytes(data), region.crc32());
+    }
+}
@@ -1,6 +1,7 @@
 package com.qiniu.android;
 
 import com.qiniu.android.http.ResponseInfo;
+import com.qiniu.android.storage.BufferedFileRecorder;
 import com.qiniu.android.storage.Configuration;
 import com.qiniu.android.storage.UpCancellationSignal;
 import com.qiniu.android.storage.UpCompletionHandler;
@@ -213,4 +214,87 @@ public class TestFileRecorder extends BaseTest {
         long m4 = recorderFile.lastModified();
         assertTrue(m4 > m1);
     }
+
+    public void testAppend() throws IOException {
+        File f = File.createTempFile("qiniutest", "b");
+        String folder = f.getParent();
+        FileRecorder fr = new FileRecorder(folder);
+
+        String key = "test_append_profile_key";
+        fr.del(key);
+
+        fr.set(key, "head".getBytes());
+        fr.append(key, "_a".getBytes());
+        fr.append(key, "_b".getBytes());
+        assertEquals("head_a_b", new String(fr.get(key)));
+
+        // set 会覆盖之前追加的内容
+        fr.set(key, "new".getBytes());
+        assertEquals("new", new String(fr.get(key)));
+
+        fr.del(key);
+        assertNull(fr.get(key));
+    }
+
+    public void testBufferedRecorder() throws IOException {
+        File f = File.createTempFile("qiniutest", "b");
+        String folder = f.getParent();
+        BufferedFileRecorder recorder = new BufferedFileRecorder(folder, 200, BufferedFileRecorder.SyncOnRewrite);
+
+        String key = "test_buffered_profile_key";
+        recorder.del(key);
+
+        recorder.set(key, "head".getBytes());
+        recorder.append(key, "_a".getBytes());
+        // 未写入文件时从缓存读取
+        assertEquals("head_a", new String(recorder.get(key)));
+
+        recorder.flush();
+        recorder.append(key, "_b".getBytes());
+        recorder.flush();
+
+        // 与 FileRecorder 文件格式相同
+        FileRecorder fileRecorder = new FileRecorder(folder);
+        assertEquals("head_a_b", new String(fileRecorder.get(key)));
+
+        // 重写后立即写入，不依赖后台延迟写入的时机
+        recorder.set(key, "new".getBytes());
+        recorder.flush();
+        assertEquals("new", new String(fileRecorder.get(key)));
+        assertFalse(new File(folder, hash(key) + ".tmp").exists());
+
+        recorder.del(key);
+        assertNull(recorder.get(key));
+        assertNull(fileRecorder.get(key));
+    }
+
+    public void testBufferedRecorderWriteRetry() throws IOException {
+        final File folder = new File(System.getProperty("java.io.tmpdir"), "qiniu_buffered_retry_" + new Date().getTime());
+        BufferedFileRecorder recorder = new BufferedFileRecorder(folder.getPath(), 50, BufferedFileRecorder.SyncOnRewrite);
+        final String key = "test_buffered_retry_key";
+
+        // 目录不存在，写入失败
+        assertTrue(folder.delete());
+        recorder.set(key, "data".getBytes());
+        try {
+            Thread.sleep(300);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        assertFalse(new File(folder, hash(key)).exists());
+        assertEquals("data", new String(recorder.get(key)));
+
+        // 目录恢复后，失败的记录被重新写入
+        assertTrue(folder.mkdirs());
+        wait(new WaitConditional() {
+            @Override
+            public boolean shouldWait() {
+                return !new File(folder, hash(key)).exists();
+            }
+        }, 5);
+        assertEquals("data", new String(new FileRecorder(folder.getPath()).get(key)));
+
+        recorder.del(key);
+        folder.delete();
+    }
 }
@@ -8,6 +8,7 @@ import com.qiniu.android.utils.LogUtil;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.Date;
 import java.util.concurrent.CountDownLatch;
@@ -77,6 +78,38 @@ public class UploadInfoReporterTest extends BaseTest {
 
     }
 
+    public void testReportWithoutBlocking(){
+
+        UploadInfoReporter.getInstance().clean();
+        long start = new Date().getTime();
+        // 超过内存缓存上限的打点会被采样或丢弃，report 不阻塞调用线程
+        for (int i = 0; i < 5000; i++) {
+            ReportItem item = new ReportItem();
+            item.setReport(ReportItem.LogTypeRequest, ReportItem.RequestKeyLogType);
+            item.setReport((new Date().getTime() / 1000), ReportItem.RequestKeyUpTime);
+            item.setReport(i, ReportItem.RequestKeyStatusCode);
+            report(item);
+        }
+        assertTrue((new Date().getTime() - start) < 5000);
+
+        wait(null, 3);
+
+        // 打点写入记录文件 qiniu.log，达到上报条件后轮转为分段文件 qiniuTemp-*.log，分段最多保留 8 个
+        File recordDirectory = new File(ReportConfig.getInstance().recordDirectory);
+        File[] segments = recordDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("qiniuTemp") && name.endsWith(".log");
+            }
+        });
+        int segmentCount = segments != null ? segments.length : 0;
+        for (int i = 0; i < segmentCount; i++) {
+            LogUtil.d("== log segment:" + segments[i].getName() + " size:" + segments[i].length());
+        }
+        assertTrue(new File(recordDirectory, "qiniu.log").exists() || segmentCount > 0);
+        assertTrue(segmentCount <= 8);
+    }
+
     private void report(ReportItem item){
         UploadInfoReporter reporter = UploadInfoReporter.getInstance();
         reporter.report(item, TestConfig.token_z0);
@@ -1,5 +1,6 @@
 package com.qiniu.android;
 
+import com.qiniu.android.collect.ReportContext;
 import com.qiniu.android.collect.ReportItem;
 import com.qiniu.android.http.ResponseInfo;
 import com.qiniu.android.http.request.Request;
@@ -24,6 +25,33 @@ public class UploadReportItemTest extends BaseTest {
         assertTrue(json.equals("{}"));
     }
 
+    public void testToJson() throws Exception {
+
+        ReportItem reportItem = new ReportItem();
+        reportItem.setReport(ReportItem.LogTypeRequest, ReportItem.RequestKeyLogType);
+        reportItem.setReport(200, ReportItem.RequestKeyStatusCode);
+        reportItem.setReport(1024L, ReportItem.RequestKeyBytesSent);
+        reportItem.setReport("a\"b\n", ReportItem.RequestKeyErrorDescription);
+        // 未在 ReportItem 中定义的 key
+        reportItem.setReport("custom", "custom_key");
+
+        JSONObject json = new JSONObject(reportItem.toJson());
+        assertEquals(ReportItem.LogTypeRequest, json.getString(ReportItem.RequestKeyLogType));
+        assertEquals(200, json.getInt(ReportItem.RequestKeyStatusCode));
+        assertEquals(1024L, json.getLong(ReportItem.RequestKeyBytesSent));
+        assertEquals("a\"b\n", json.getString(ReportItem.RequestKeyErrorDescription));
+        assertEquals("custom", json.getString("custom_key"));
+        assertEquals(5, json.length());
+    }
+
+    public void testReportContext(){
+        ReportContext context = ReportContext.current();
+        assertNotNull(context);
+        assertNotNull(context.sdkVersion);
+        // 有效期内共享同一份快照
+        assertTrue(context == ReportContext.current());
+    }
+
     public void testReportStatusCode(){
         ResponseInfo responseInfo = createResponseInfo(ResponseInfo.Cancelled);
         assertTrue(ReportItem.requestReportStatusCode(responseInfo) != null);
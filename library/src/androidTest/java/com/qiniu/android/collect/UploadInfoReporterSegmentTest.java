@@ -0,0 +1,24 @@
+package com.qiniu.android.collect;
+
+import com.qiniu.android.BaseTest;
+
+import java.io.File;
+
+public class UploadInfoReporterSegmentTest extends BaseTest {
+
+    public void testSortSegmentFiles() {
+        File[] files = new File[]{
+                new File("qiniuTemp-1600000000002-001.log"),
+                new File("qiniuTemp-1600000000001-999.log"),
+                new File("qiniuTemp.log"),
+                new File("qiniuTemp-1600000000002-000.log"),
+        };
+        UploadInfoReporter.sortSegmentFiles(files);
+
+        // 旧版本的 qiniuTemp.log 最早，之后按轮转时间排序
+        assertEquals("qiniuTemp.log", files[0].getName());
+        assertEquals("qiniuTemp-1600000000001-999.log", files[1].getName());
+        assertEquals("qiniuTemp-1600000000002-000.log", files[2].getName());
+        assertEquals("qiniuTemp-1600000000002-001.log", files[3].getName());
+    }
+}
@@ -4,9 +4,14 @@ import com.qiniu.android.BaseTest;
 import com.qiniu.android.TestConfig;
 import com.qiniu.android.http.ResponseInfo;
 import com.qiniu.android.http.metrics.UploadRegionRequestMetrics;
+import com.qiniu.android.storage.FileRecorder;
 import com.qiniu.android.storage.UpToken;
 import com.qiniu.android.utils.LogUtil;
 
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 
@@ -97,6 +102,56 @@ public class AutoZoneTest extends BaseTest {
         assertTrue(autoZone.getZonesInfo(null) == null);
     }
 
+    public void testZoneCache() throws Exception {
+        String cacheKey = "autoZoneCacheTest";
+        String response = "{\"hosts\":[{\"region\":\"z0\",\"ttl\":86400,\"up\":{\"domains\":[\"upload.qiniup.com\"]}}]}";
+        AutoZoneCache.getInstance().set(cacheKey, new JSONObject(response));
+
+        AutoZoneCache.Entry entry = AutoZoneCache.getInstance().get(cacheKey);
+        assertTrue(entry != null);
+        assertEquals(86400 * 1000L, entry.ttl);
+        assertFalse(entry.isExpired());
+        assertTrue(entry.isUsable());
+        assertTrue(entry.zonesInfo().isValid());
+
+        // ttl 为 0 时立即过期
+        String expiredResponse = "{\"hosts\":[{\"region\":\"z0\",\"ttl\":0,\"up\":{\"domains\":[\"upload.qiniup.com\"]}}]}";
+        AutoZoneCache.getInstance().set(cacheKey, new JSONObject(expiredResponse));
+        entry = AutoZoneCache.getInstance().get(cacheKey);
+        assertTrue(entry != null);
+        assertTrue(entry.isExpired());
+    }
+
+    public void testRecentBuckets() throws Exception {
+        // 使用单独的缓存目录，不影响共享的最近使用 bucket 记录
+        File directory = new File(System.getProperty("java.io.tmpdir"), "autoZoneCacheTest" + System.currentTimeMillis());
+        try {
+            AutoZoneCache cache = new AutoZoneCache(new FileRecorder(directory.getPath()));
+            cache.recordBucket(UpToken.queryToken("ak0", "bucket0"));
+            cache.recordBucket(UpToken.queryToken("ak1", "bucket1"));
+            cache.recordBucket(UpToken.queryToken("ak0", "bucket0"));
+
+            List<UpToken> tokens = cache.recentBucketTokens();
+            assertEquals(2, tokens.size());
+            assertEquals("bucket0", tokens.get(0).bucket);
+            assertEquals("bucket1", tokens.get(1).bucket);
+            assertEquals("ak1", tokens.get(1).accessKey);
+
+            // 从磁盘缓存恢复
+            tokens = new AutoZoneCache(new FileRecorder(directory.getPath())).recentBucketTokens();
+            assertEquals(2, tokens.size());
+            assertEquals("bucket0", tokens.get(0).bucket);
+        } finally {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+
     public void testMufiHttp() {
 
         final TestParam param = new TestParam();
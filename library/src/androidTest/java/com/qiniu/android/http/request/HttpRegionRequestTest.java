@@ -0,0 +1,98 @@
+package com.qiniu.android.http.request;
+
+import com.qiniu.android.BaseTest;
+import com.qiniu.android.TestConfig;
+import com.qiniu.android.common.FixedZone;
+import com.qiniu.android.http.ResponseInfo;
+import com.qiniu.android.http.metrics.UploadRegionRequestMetrics;
+import com.qiniu.android.http.metrics.UploadSingleRequestMetrics;
+import com.qiniu.android.http.request.handler.RequestShouldRetryHandler;
+import com.qiniu.android.http.serverRegion.UploadDomainRegion;
+import com.qiniu.android.storage.Configuration;
+import com.qiniu.android.storage.UpToken;
+import com.qiniu.android.storage.UploadOptions;
+
+import org.json.JSONObject;
+
+public class HttpRegionRequestTest extends BaseTest {
+
+    private static final String Host = "upload.qiniup.com";
+
+    private volatile boolean isPreconnectComplete;
+    private volatile UploadRegionRequestMetrics requestMetrics;
+
+    public void testPreconnectServerSelected() {
+        UploadDomainRegion region = createRegion();
+
+        UploadRequestState preconnectState = new UploadRequestState();
+        preconnectState.setPreconnect(true);
+        IUploadServer preconnectServer = region.getNextServer(preconnectState, null, null);
+        assertNotNull(preconnectServer);
+        assertNotNull(preconnectServer.getIp());
+
+        // 之后的请求均选择预连接的 IP
+        for (int i = 0; i < 10; i++) {
+            IUploadServer server = region.getNextServer(new UploadRequestState(), null, null);
+            assertNotNull(server);
+            assertEquals(preconnectServer.getIp(), server.getIp());
+        }
+    }
+
+    public void testFirstRequestReusePreconnection() {
+        Configuration config = new Configuration.Builder().build();
+        UpToken token = UpToken.parse(TestConfig.commonToken);
+        UploadDomainRegion region = createRegion();
+
+        isPreconnectComplete = false;
+        new HttpRegionRequest(config, UploadOptions.defaultOptions(), token, region, new UploadRequestInfo(), new UploadRequestState())
+                .preconnect(1, new HttpRegionRequest.PreconnectCompleteHandler() {
+                    @Override
+                    public void complete() {
+                        isPreconnectComplete = true;
+                    }
+                });
+
+        wait(new WaitConditional() {
+            @Override
+            public boolean shouldWait() {
+                return !isPreconnectComplete;
+            }
+        }, 30);
+        assertTrue(isPreconnectComplete);
+
+        requestMetrics = null;
+        new HttpRegionRequest(config, UploadOptions.defaultOptions(), token, region, new UploadRequestInfo(), new UploadRequestState())
+                .get("/", true, null, new RequestShouldRetryHandler() {
+                    @Override
+                    public boolean shouldRetry(ResponseInfo responseInfo, JSONObject response) {
+                        return false;
+                    }
+                }, new HttpRegionRequest.RequestCompleteHandler() {
+                    @Override
+                    public void complete(ResponseInfo responseInfo, UploadRegionRequestMetrics metrics, JSONObject response) {
+                        requestMetrics = metrics;
+                    }
+                });
+
+        wait(new WaitConditional() {
+            @Override
+            public boolean shouldWait() {
+                return requestMetrics == null;
+            }
+        }, 30);
+
+        assertNotNull(requestMetrics);
+        UploadSingleRequestMetrics metrics = requestMetrics.lastMetrics();
+        assertNotNull(metrics);
+        // 复用预连接建立的连接，无需建立 TCP 连接及 TLS 握手
+        assertNull(metrics.connectStartDate);
+        assertEquals(0, metrics.totalConnectTime());
+        assertEquals(0, metrics.totalSecureConnectTime());
+    }
+
+    private UploadDomainRegion createRegion() {
+        UploadDomainRegion region = new UploadDomainRegion();
+        region.setupRegionData(new FixedZone(new String[]{Host}).getZonesInfo(null).zonesInfo.get(0));
+        return region;
+    }
+}
@@ -0,0 +1,48 @@
+package com.qiniu.android.http.request.httpclient;
+
+import com.qiniu.android.BaseTest;
+import com.qiniu.android.http.ProxyConfiguration;
+import com.qiniu.android.http.request.Request;
+
+import okhttp3.OkHttpClient;
+
+public class SystemHttpClientTest extends BaseTest {
+
+    private static final String Host = "upload.qiniup.com";
+
+    public void testSharedHttpClient() {
+        ProxyConfiguration proxy = new ProxyConfiguration("127.0.0.1", 8080);
+
+        // timeout、代理及 IP 相同的请求共用同一个 client
+        OkHttpClient client = SystemHttpClient.httpClient(createRequest(10, "1.1.1.1"), proxy);
+        assertNotNull(client);
+        assertSame(client, SystemHttpClient.httpClient(createRequest(10, "1.1.1.1"), proxy));
+
+        // IP 不同时使用不同的 client，连接池只复用连接到相同 IP 的连接
+        OkHttpClient otherIpClient = SystemHttpClient.httpClient(createRequest(10, "2.2.2.2"), proxy);
+        assertNotSame(client, otherIpClient);
+        assertSame(otherIpClient, SystemHttpClient.httpClient(createRequest(10, "2.2.2.2"), proxy));
+
+        // timeout 或代理不同时使用不同的 client
+        assertNotSame(client, SystemHttpClient.httpClient(createRequest(20, "1.1.1.1"), proxy));
+        assertNotSame(client, SystemHttpClient.httpClient(createRequest(10, "1.1.1.1"), null));
+
+        // 派生的 client 共用连接池及 Dispatcher
+        assertSame(client.connectionPool(), otherIpClient.connectionPool());
+        assertSame(client.dispatcher(), otherIpClient.dispatcher());
+    }
+
+    public void testSharedHttpClientWithoutIp() {
+        OkHttpClient client = SystemHttpClient.httpClient(createRequest(10, null), null);
+        assertNotNull(client);
+        assertSame(client, SystemHttpClient.httpClient(createRequest(10, null), null));
+        assertNotSame(client, SystemHttpClient.httpClient(createRequest(10, "1.1.1.1"), null));
+    }
+
+    private Request createRequest(int timeout, String ip) {
+        Request request = new Request("https://" + Host + "/", Request.HttpMethodGet, null, null, timeout);
+        request.host = Host;
+        request.ip = ip;
+        return request;
+    }
+}
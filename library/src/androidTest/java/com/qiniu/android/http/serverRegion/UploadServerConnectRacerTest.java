@@ -0,0 +1,171 @@
+package com.qiniu.android.http.serverRegion;
+
+import com.qiniu.android.BaseTest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class UploadServerConnectRacerTest extends BaseTest {
+
+    private static final String Host = "upload.qiniup.com";
+    // 监听并接受连接
+    private static final String AcceptIp = "127.0.0.2";
+    // 监听但连接队列已满，连接一直等待至超时
+    private static final String BlockIp = "127.0.0.3";
+    // 未监听，连接被拒绝
+    private static final String RefuseIp = "127.0.0.4";
+
+    private ServerSocket acceptServer;
+    private ServerSocket blockServer;
+    private final List<Socket> blockSockets = new ArrayList<>();
+    private int port;
+
+    private final List<Result> results = Collections.synchronizedList(new ArrayList<Result>());
+    private final UploadServerConnectRacer.ResultHandler resultHandler = new UploadServerConnectRacer.ResultHandler() {
+        @Override
+        public void complete(UploadServer server, boolean isConnected, long connectTime) {
+            long endTime = System.currentTimeMillis();
+            results.add(new Result(server, isConnected, endTime - connectTime, endTime));
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        results.clear();
+
+        blockServer = new ServerSocket();
+        blockServer.bind(new InetSocketAddress(BlockIp, 0), 1);
+        port = blockServer.getLocalPort();
+        // 填满连接队列，之后的连接不会完成
+        for (int i = 0; i < 2; i++) {
+            Socket socket = new Socket();
+            socket.connect(new InetSocketAddress(BlockIp, port), 1000);
+            blockSockets.add(socket);
+        }
+
+        acceptServer = new ServerSocket();
+        acceptServer.bind(new InetSocketAddress(AcceptIp, port));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (Socket socket : blockSockets) {
+            close(socket);
+        }
+        blockSockets.clear();
+        close(blockServer);
+        close(acceptServer);
+        super.tearDown();
+    }
+
+    public void testWinnerAfterFailure() {
+        UploadServer refuseServer = createServer(RefuseIp);
+        UploadServer acceptServer = createServer(AcceptIp);
+
+        // 预热连接失败的处理流程，避免首次加载类的耗时影响计时
+        assertNull(UploadServerConnectRacer.race(Arrays.asList(refuseServer), port, 1000, null));
+
+        UploadServer winner = UploadServerConnectRacer.race(Arrays.asList(refuseServer, acceptServer), port, 1000, resultHandler);
+        assertSame(acceptServer, winner);
+
+        waitForResults(2);
+        Result refuseResult = resultOf(refuseServer);
+        Result acceptResult = resultOf(acceptServer);
+        assertFalse(refuseResult.isConnected);
+        assertTrue(acceptResult.isConnected);
+        // 前一个连接失败时立即开始下一个，无需等待 StaggerDelay
+        assertTrue(acceptResult.startTime - refuseResult.startTime < UploadServerConnectRacer.StaggerDelay);
+    }
+
+    public void testStaggerDelay() {
+        UploadServer blockServer = createServer(BlockIp);
+        UploadServer acceptServer = createServer(AcceptIp);
+
+        UploadServer winner = UploadServerConnectRacer.race(Arrays.asList(blockServer, acceptServer), port, 1000, resultHandler);
+        assertSame(acceptServer, winner);
+
+        // 胜出 server 的连接结果可能在 race 返回后回调，落选的连接超时失败后仍会回调
+        waitForResults(2);
+        Result acceptResult = resultOf(acceptServer);
+        Result blockResult = resultOf(blockServer);
+        assertTrue(acceptResult.isConnected);
+        assertFalse(blockResult.isConnected);
+        assertTrue(blockResult.endTime - blockResult.startTime >= 1000);
+        // 竞速结束时落选的连接尚未完成
+        assertTrue(acceptResult.endTime < blockResult.endTime);
+
+        // 前一个连接未完成时，间隔 StaggerDelay 后开始下一个；计时精度为毫秒，允许少量误差
+        assertTrue(acceptResult.startTime - blockResult.startTime >= UploadServerConnectRacer.StaggerDelay - 10);
+    }
+
+    public void testAllFailed() {
+        UploadServer refuseServer = createServer(RefuseIp);
+        UploadServer blockServer = createServer(BlockIp);
+
+        long start = System.currentTimeMillis();
+        UploadServer winner = UploadServerConnectRacer.race(Arrays.asList(refuseServer, blockServer), port, 500, resultHandler);
+        long raceTime = System.currentTimeMillis() - start;
+
+        // 均失败或超时时没有胜出的 server
+        assertNull(winner);
+        assertTrue(raceTime >= 500);
+        waitForResults(2);
+        assertFalse(resultOf(refuseServer).isConnected);
+        assertFalse(resultOf(blockServer).isConnected);
+    }
+
+    private UploadServer createServer(String ip) {
+        return new UploadServer(Host, Host, ip, null, null);
+    }
+
+    private Result resultOf(UploadServer server) {
+        synchronized (results) {
+            for (Result result : results) {
+                if (result.server == server) {
+                    return result;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void waitForResults(final int count) {
+        wait(new WaitConditional() {
+            @Override
+            public boolean shouldWait() {
+                return results.size() < count;
+            }
+        }, 5);
+        assertEquals(count, results.size());
+    }
+
+    private static void close(java.io.Closeable closeable) {
+        try {
+            if (closeable != null) {
+                closeable.close();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static class Result {
+        private final UploadServer server;
+        private final boolean isConnected;
+        private final long startTime;
+        private final long endTime;
+
+        private Result(UploadServer server, boolean isConnected, long startTime, long endTime) {
+            this.server = server;
+            this.isConnected = isConnected;
+            this.startTime = startTime;
+            this.endTime = endTime;
+        }
+    }
+}
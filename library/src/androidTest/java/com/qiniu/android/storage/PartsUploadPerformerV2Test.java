@@ -0,0 +1,127 @@
+package com.qiniu.android.storage;
+
+import com.qiniu.android.BaseTest;
+import com.qiniu.android.TestConfig;
+import com.qiniu.android.common.FixedZone;
+import com.qiniu.android.http.serverRegion.UploadDomainRegion;
+import com.qiniu.android.storage.stream.impl.ByteStreamFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+public class PartsUploadPerformerV2Test extends BaseTest {
+
+    private static final long MB = 1024 * 1024;
+
+    static PartsUploadPerformerV2 createPerformer(Configuration config, byte[] data, String recorderKey) {
+        UpToken token = UpToken.parse(TestConfig.commonToken);
+        return new PartsUploadPerformerV2(new ByteStreamFactory(data), "file", "adaptive_key", token,
+                UploadOptions.defaultOptions(), config, recorderKey);
+    }
+
+    public void testLazyPartition() {
+        Configuration config = new Configuration.Builder()
+                .useAdaptiveResumeUpload(true)
+                .chunkSize((int) (2 * MB))
+                .build();
+        long size = 5 * MB + 100;
+        PartsUploadPerformerV2 performer = createPerformer(config, new byte[(int) size], null);
+        UploadFileInfoPartV2 fileInfo = (UploadFileInfoPartV2) performer.fileInfo;
+
+        // 自适应时分片按需划分
+        assertEquals(0, fileInfo.dataCount());
+        assertEquals(size, fileInfo.unpartitionedSize());
+        assertFalse(fileInfo.isAllUploaded());
+
+        // nextDataSize 只预估，不划分分片
+        assertEquals(2 * MB, performer.nextDataSize());
+        assertEquals(0, fileInfo.dataCount());
+
+        UploadData data0;
+        UploadData data1;
+        UploadData data2;
+        synchronized (performer) {
+            data0 = performer.partitionNextData(fileInfo);
+            data1 = performer.partitionNextData(fileInfo);
+            data2 = performer.partitionNextData(fileInfo);
+            assertNull(performer.partitionNextData(fileInfo));
+        }
+        assertEquals(0, data0.offset);
+        assertEquals(2 * MB, data0.size);
+        assertEquals(1, data0.index);
+        assertEquals(2 * MB, data1.offset);
+        assertEquals(3, data2.index);
+        assertEquals(MB + 100, data2.size);
+        assertEquals(0, fileInfo.unpartitionedSize());
+
+        // 已划分的分片等待上传时，nextDataSize 为该分片的大小
+        assertEquals(2 * MB, performer.nextDataSize());
+        data0.startUpload();
+        data1.startUpload();
+        assertEquals(MB + 100, performer.nextDataSize());
+
+        for (UploadData data : new UploadData[]{data0, data1, data2}) {
+            data.startUpload();
+            data.completeUpload("etag" + data.index);
+        }
+        assertTrue(fileInfo.isAllUploaded());
+        assertEquals(1, fileInfo.progress(), 0.0001);
+    }
+
+    public void testRecoverPartitionedData() throws IOException {
+        File directory = new File(System.getProperty("java.io.tmpdir"), "adaptiveRecorderTest" + System.currentTimeMillis());
+        FileRecorder recorder = new FileRecorder(directory.getPath());
+        String recorderKey = "adaptive_recorder_key";
+
+        Configuration config = new Configuration.Builder()
+                .recorder(recorder)
+                .useAdaptiveResumeUpload(true)
+                .chunkSize((int) (2 * MB))
+                .build();
+        byte[] data = new byte[(int) (5 * MB + 100)];
+
+        PartsUploadPerformerV2 performer = createPerformer(config, data, recorderKey);
+        UploadDomainRegion region = new UploadDomainRegion();
+        region.setupRegionData(new FixedZone(new String[]{"upload.qiniup.com"}).getZonesInfo(null).zonesInfo.get(0));
+        performer.switchRegion(region);
+
+        UploadFileInfoPartV2 fileInfo = (UploadFileInfoPartV2) performer.fileInfo;
+        fileInfo.uploadId = "upload_id";
+        fileInfo.expireAt = System.currentTimeMillis() / 1000 + 3600 * 24 * 7;
+        // 快照中还没有分片
+        performer.recordUploadInfo();
+
+        UploadData data0;
+        UploadData data1;
+        synchronized (performer) {
+            data0 = performer.partitionNextData(fileInfo);
+            data1 = performer.partitionNextData(fileInfo);
+        }
+        data0.startUpload();
+        data0.completeUpload("etag1");
+        performer.recordUploadInfo(-1, data0, "etag1");
+
+        PartsUploadPerformerV2 recoverPerformer = createPerformer(config, data, recorderKey);
+        UploadFileInfoPartV2 recoverInfo = (UploadFileInfoPartV2) recoverPerformer.fileInfo;
+        assertNotNull(recoverPerformer.recoveredFrom);
+        assertEquals(data0.size, recoverPerformer.recoveredFrom.longValue());
+        assertEquals("upload_id", recoverInfo.uploadId);
+        assertEquals(2, recoverInfo.dataCount());
+        assertEquals(data.length - data0.size - data1.size, recoverInfo.unpartitionedSize());
+
+        UploadData recoverData0 = recoverInfo.uploadDataTable.getData(0);
+        UploadData recoverData1 = recoverInfo.uploadDataTable.getData(1);
+        assertTrue(recoverData0.isCompleted);
+        assertEquals("etag1", recoverData0.etag);
+        assertEquals(data1.offset, recoverData1.offset);
+        assertEquals(data1.size, recoverData1.size);
+        assertFalse(recoverData1.isCompleted);
+
+        // 恢复后继续上传已划分的分片，再按需划分剩余分片
+        assertSame(recoverData1, recoverInfo.nextUploadData());
+        assertEquals(data1.size, recoverPerformer.nextDataSize());
+
+        recorder.del(recorderKey);
+        directory.delete();
+    }
+}
@@ -0,0 +1,194 @@
+package com.qiniu.android.storage;
+
+import android.os.Looper;
+
+import com.qiniu.android.BaseTest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class UpProgressDispatcherTest extends BaseTest {
+
+    private final List<Double> percents = Collections.synchronizedList(new ArrayList<Double>());
+    private final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+
+    private final UpProgressHandler progressHandler = new UpProgressHandler() {
+        @Override
+        public void progress(String key, double percent) {
+            percents.add(percent);
+            threads.add(Thread.currentThread());
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        percents.clear();
+        threads.clear();
+    }
+
+    public void testDirectCoalescing() {
+        // 间隔足够长，只有进度增长超过 minDelta 时回调
+        Configuration config = new Configuration.Builder()
+                .progressCallbackThread(Configuration.PROGRESS_CALLBACK_DIRECT)
+                .progressInterval(60 * 1000)
+                .progressMinDelta(0.125)
+                .build();
+        UpProgressDispatcher dispatcher = new UpProgressDispatcher("key", progressHandler, config);
+
+        for (int i = 1; i < 1024; i++) {
+            dispatcher.progress(i / 1024.0);
+            // 进度只增不减
+            dispatcher.progress((i - 1) / 1024.0);
+        }
+
+        // 首次立即回调，之后每增长 0.125 回调一次
+        double[] expected = {1, 129, 257, 385, 513, 641, 769, 897};
+        assertEquals(expected.length, percents.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i] / 1024.0, percents.get(i), 0);
+            assertSame(Thread.currentThread(), threads.get(i));
+        }
+
+        // 完成时立即回调 1.0，之后的进度被忽略
+        dispatcher.complete();
+        dispatcher.progress(0.5);
+        dispatcher.complete();
+        assertEquals(expected.length + 1, percents.size());
+        assertEquals(1.0, percents.get(percents.size() - 1), 0);
+    }
+
+    public void testIntervalCoalescing() {
+        Configuration config = new Configuration.Builder()
+                .progressCallbackThread(Configuration.PROGRESS_CALLBACK_DIRECT)
+                .progressInterval(200)
+                .progressMinDelta(1)
+                .build();
+        UpProgressDispatcher dispatcher = new UpProgressDispatcher("key", progressHandler, config);
+
+        dispatcher.progress(0.1);
+        dispatcher.progress(0.2);
+        dispatcher.progress(0.3);
+        assertEquals(1, percents.size());
+        assertEquals(0.1, percents.get(0), 0);
+
+        // 被合并的进度在间隔到期后回调最新值
+        wait(new WaitConditional() {
+            @Override
+            public boolean shouldWait() {
+                return percents.size() < 2;
+            }
+        }, 5);
+        assertEquals(2, percents.size());
+        assertEquals(0.3, percents.get(1), 0);
+        assertNotSame(Thread.currentThread(), threads.get(1));
+
+        dispatcher.complete();
+        assertEquals(3, percents.size());
+        assertEquals(1.0, percents.get(2), 0);
+    }
+
+    public void testBackgroundCallback() {
+        Configuration config = new Configuration.Builder()
+                .progressCallbackThread(Configuration.PROGRESS_CALLBACK_BACKGROUND)
+                .progressInterval(0)
+                .build();
+        UpProgressDispatcher dispatcher = new UpProgressDispatcher("key", progressHandler, config);
+
+        for (int i = 1; i <= 1000; i++) {
+            dispatcher.progress(i / 1000.0 * 0.95);
+        }
+        dispatcher.complete();
+
+        waitForComplete();
+        assertIncreasing();
+        for (Thread thread : threads) {
+            assertNotSame(Thread.currentThread(), thread);
+        }
+    }
+
+    public void testMainCallback() {
+        Configuration config = new Configuration.Builder()
+                .progressCallbackThread(Configuration.PROGRESS_CALLBACK_MAIN)
+                .progressInterval(0)
+                .build();
+        UpProgressDispatcher dispatcher = new UpProgressDispatcher("key", progressHandler, config);
+
+        for (int i = 1; i <= 100; i++) {
+            dispatcher.progress(i / 100.0 * 0.95);
+        }
+        dispatcher.complete();
+
+        waitForComplete();
+        assertIncreasing();
+        for (Thread thread : threads) {
+            assertSame(Looper.getMainLooper().getThread(), thread);
+        }
+    }
+
+    public void testConcurrentPartsProgress() throws InterruptedException {
+        final long MB = 1024 * 1024;
+        Configuration config = new Configuration.Builder()
+                .chunkSize((int) MB)
+                .build();
+        PartsUploadPerformerV2 performer = PartsUploadPerformerV2Test.createPerformer(config, new byte[(int) (4 * MB)], null);
+        final UploadFileInfoPartV2 fileInfo = (UploadFileInfoPartV2) performer.fileInfo;
+        assertEquals(4, fileInfo.dataCount());
+
+        Configuration dispatcherConfig = new Configuration.Builder()
+                .progressCallbackThread(Configuration.PROGRESS_CALLBACK_DIRECT)
+                .progressInterval(0)
+                .build();
+        performer.progressDispatcher = new UpProgressDispatcher("key", progressHandler, dispatcherConfig);
+
+        // 多个分片同时上传，进度由各自的线程更新
+        final PartsUploadPerformerV2 uploadPerformer = performer;
+        ArrayList<Thread> uploadThreads = new ArrayList<>();
+        for (final UploadData data : fileInfo.uploadDataTable.allData()) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    data.startUpload();
+                    for (int i = 1; i <= 100; i++) {
+                        data.updateProgress(i / 100.0);
+                        uploadPerformer.notifyProgress();
+                    }
+                    data.completeUpload("etag" + data.index);
+                    uploadPerformer.notifyProgress();
+                }
+            });
+            uploadThreads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : uploadThreads) {
+            thread.join();
+        }
+
+        assertEquals(4 * MB, fileInfo.uploadedBytes.get());
+        assertEquals(1, fileInfo.progress(), 0);
+        assertTrue(fileInfo.isAllUploaded());
+
+        // 完成前进度最大为 0.95
+        assertIncreasing();
+        assertEquals(0.95, percents.get(percents.size() - 1), 0);
+        performer.progressDispatcher.complete();
+        assertEquals(1.0, percents.get(percents.size() - 1), 0);
+    }
+
+    private void waitForComplete() {
+        wait(new WaitConditional() {
+            @Override
+            public boolean shouldWait() {
+                return percents.size() == 0 || percents.get(percents.size() - 1) < 1.0;
+            }
+        }, 5);
+        assertEquals(1.0, percents.get(percents.size() - 1), 0);
+    }
+
+    private void assertIncreasing() {
+        for (int i = 1; i < percents.size(); i++) {
+            assertTrue(percents.get(i) > percents.get(i - 1));
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.qiniu.android.storage;
+
+import com.qiniu.android.BaseTest;
+
+public class UploadAdaptiveControllerTest extends BaseTest {
+
+    private static final long MB = 1024 * 1024;
+
+    public void testPartSizeBounds() {
+        TestController controller = new TestController(100 * 1024, 1, 2, 60);
+        // 初始分片大小不小于 1M
+        assertEquals(MB, controller.nextPartSize(100 * MB, 0));
+
+        // 速度很快时分片大小逐步翻倍，最大为 1G
+        controller.partComplete(MB, 1, true);
+        long lastPartSize = MB;
+        for (int i = 0; i < 20; i++) {
+            long partSize = controller.nextPartSize(5 * 1024 * MB, i);
+            assertTrue(partSize <= lastPartSize * 2);
+            assertTrue(partSize <= UploadAdaptiveController.MaxPartSize);
+            assertEquals(0, partSize % MB);
+            lastPartSize = partSize;
+        }
+        assertEquals(UploadAdaptiveController.MaxPartSize, lastPartSize);
+
+        // 速度很慢时分片大小逐步减半，最小为 1M
+        for (int i = 0; i < 10; i++) {
+            controller.partComplete(MB, 1000 * 1000, false);
+            controller.partComplete(MB, 1000 * 1000, true);
+        }
+        for (int i = 0; i < 20; i++) {
+            long partSize = controller.nextPartSize(5 * 1024 * MB, i);
+            assertTrue(partSize >= lastPartSize / 2);
+            assertTrue(partSize >= UploadAdaptiveController.MinPartSize);
+            lastPartSize = partSize;
+        }
+        assertEquals(UploadAdaptiveController.MinPartSize, lastPartSize);
+
+        // 剩余分片数不足时，即使超过 10000 个分片，分片大小也不超过 1G
+        assertEquals(UploadAdaptiveController.MaxPartSize,
+                controller.nextPartSize(1024 * 1024 * MB, UploadAdaptiveController.MaxPartCount));
+    }
+
+    public void testMaxPartCount() {
+        TestController controller = new TestController(MB, 1, 2, 60);
+        long restSize = 15000 * MB + 123;
+        // 分片个数不超过 10000，分片大小至少为 restSize / 10000
+        assertEquals((restSize + UploadAdaptiveController.MaxPartCount - 1) / UploadAdaptiveController.MaxPartCount, controller.peekPartSize(restSize, 0));
+
+        int partCount = 0;
+        while (restSize > 0) {
+            long partSize = controller.nextPartSize(restSize, partCount);
+            assertTrue(partSize >= UploadAdaptiveController.MinPartSize);
+            restSize -= Math.min(partSize, restSize);
+            partCount += 1;
+        }
+        assertTrue(partCount <= UploadAdaptiveController.MaxPartCount);
+    }
+
+    public void testPeekPartSize() {
+        TestController controller = new TestController(MB, 1, 2, 60);
+        controller.partComplete(MB, 1, true);
+        long peekSize = controller.peekPartSize(100 * MB, 0);
+        assertEquals(peekSize, controller.peekPartSize(100 * MB, 0));
+        assertEquals(peekSize, controller.nextPartSize(100 * MB, 0));
+        assertTrue(controller.peekPartSize(100 * MB, 1) > peekSize);
+    }
+
+    public void testAIMD() {
+        TestController controller = new TestController(MB, 2, 4, 60);
+        assertEquals(2, controller.concurrency());
+
+        // 第一轮：2 个分片，1s 上传 2M
+        controller.now = 10000;
+        controller.partComplete(MB, 1000, true);
+        assertEquals(2, controller.concurrency());
+        controller.partComplete(MB, 1000, true);
+        assertEquals(3, controller.concurrency());
+
+        // 第二轮：3 个分片，1s 上传 3M，速度提升，并发数加 1
+        controller.now = 11000;
+        for (int i = 0; i < 3; i++) {
+            controller.partComplete(MB, 1000, true);
+        }
+        assertEquals(4, controller.concurrency());
+
+        // 第三轮：速度继续提升，但并发数不超过最大值
+        controller.now = 12000;
+        for (int i = 0; i < 4; i++) {
+            controller.partComplete(MB, 1000, true);
+        }
+        assertEquals(4, controller.concurrency());
+
+        // 分片大小稳定在 速度 * 目标耗时（8s）
+        long partSize = 0;
+        for (int i = 0; i < 10; i++) {
+            partSize = controller.nextPartSize(1024 * MB, i);
+        }
+        assertTrue(partSize > 6 * MB && partSize <= 8 * MB);
+
+        // 失败：并发数减半，速度减半
+        controller.partComplete(MB, 1000, false);
+        assertEquals(2, controller.concurrency());
+        long partSizeAfterFailure = controller.peekPartSize(1024 * MB, 10);
+        assertTrue(partSizeAfterFailure <= partSize / 2 + MB && partSizeAfterFailure >= partSize / 2 - MB);
+
+        // 速度没有提升时并发数不变
+        controller.now = 13000;
+        controller.partComplete(MB, 1000, true);
+        controller.partComplete(MB, 1000, true);
+        assertEquals(2, controller.concurrency());
+        controller.now = 14000;
+        controller.partComplete(MB, 1000, true);
+        controller.partComplete(MB, 1000, true);
+        assertEquals(2, controller.concurrency());
+
+        // 连续失败并发数最小为 1
+        controller.partComplete(MB, 1000, false);
+        controller.partComplete(MB, 1000, false);
+        assertEquals(1, controller.concurrency());
+    }
+
+    public void testMaxConcurrency() {
+        TestController controller = new TestController(MB, 3, 6, 60);
+        long now = 10000;
+        for (int round = 0; round < 20; round++) {
+            now += 1000;
+            controller.now = now;
+            int concurrency = controller.concurrency();
+            for (int i = 0; i < concurrency; i++) {
+                // 每轮速度均提升
+                controller.partComplete((round + 1) * MB, 1000, true);
+            }
+            assertTrue(controller.concurrency() <= 6);
+        }
+        assertEquals(6, controller.concurrency());
+
+        // 并发上传时最大并发数为 concurrentTaskCount 的 2 倍
+        Configuration config = new Configuration.Builder()
+                .useConcurrentResumeUpload(true)
+                .concurrentTaskCount(3)
+                .useAdaptiveResumeUpload(true)
+                .build();
+        UploadAdaptiveController performerController = PartsUploadPerformerV2Test.createPerformer(config, new byte[(int) MB], null).adaptiveController;
+        assertNotNull(performerController);
+        assertEquals(3, performerController.concurrency());
+        assertEquals(6, performerController.maxConcurrency());
+    }
+
+    private static class TestController extends UploadAdaptiveController {
+
+        private long now = 10000;
+
+        private TestController(long initPartSize, int initConcurrency, int maxConcurrency, int requestTimeout) {
+            super(initPartSize, initConcurrency, maxConcurrency, requestTimeout);
+        }
+
+        @Override
+        long currentTimestamp() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.qiniu.android.storage;
+
+import com.qiniu.android.BaseTest;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+
+public class UploadDataTableTest extends BaseTest {
+
+    private long listenerUploadedBytes;
+    private int listenerCallCount;
+
+    public void testNextUploadData() {
+        ArrayList<UploadData> dataList = createDataList(4, 10);
+        UploadDataTable table = new UploadDataTable(dataList, 40);
+
+        assertSame(dataList.get(0), table.nextUploadData());
+        assertTrue(table.hasWaitingData());
+
+        dataList.get(0).startUpload();
+        assertSame(dataList.get(1), table.nextUploadData());
+        dataList.get(1).startUpload();
+        assertSame(dataList.get(2), table.nextUploadData());
+
+        // 取消后重新等待上传，游标回退
+        dataList.get(0).cancelUpload();
+        assertSame(dataList.get(0), table.nextUploadData());
+
+        ArrayList<UploadData> waitingData = table.waitingData(2);
+        assertEquals(2, waitingData.size());
+        assertSame(dataList.get(0), waitingData.get(0));
+        assertSame(dataList.get(2), waitingData.get(1));
+
+        for (UploadData data : dataList) {
+            data.startUpload();
+        }
+        assertNull(table.nextUploadData());
+        assertFalse(table.hasWaitingData());
+        assertFalse(table.isAllCompleted());
+    }
+
+    public void testCompleteAndProgress() {
+        ArrayList<UploadData> dataList = createDataList(4, 10);
+        UploadDataTable table = new UploadDataTable(dataList, 40);
+
+        listenerUploadedBytes = 0;
+        listenerCallCount = 0;
+        table.setChangeListener(new UploadDataTable.ChangeListener() {
+            @Override
+            public void tableChanged(UploadDataTable table, boolean oldHasWaiting, boolean oldAllCompleted, long uploadedBytesDelta) {
+                listenerUploadedBytes += uploadedBytesDelta;
+                listenerCallCount += 1;
+            }
+        });
+
+        assertEquals(0, table.uploadedBytes());
+        assertEquals(0, table.progress(), 0.0001);
+
+        UploadData data = dataList.get(0);
+        data.startUpload();
+        data.updateProgress(0.5);
+        assertEquals(5, table.uploadedBytes());
+        assertEquals(0.125, table.progress(), 0.0001);
+
+        data.completeUpload("etag0");
+        assertEquals(10, table.uploadedBytes());
+        assertFalse(table.isAllCompleted());
+
+        for (int i = 1; i < dataList.size(); i++) {
+            dataList.get(i).startUpload();
+            dataList.get(i).completeUpload("etag" + i);
+        }
+        assertTrue(table.isAllCompleted());
+        assertFalse(table.hasWaitingData());
+        assertNull(table.nextUploadData());
+        assertEquals(40, table.uploadedBytes());
+        assertEquals(1, table.progress(), 0.0001);
+
+        // 增量回调与统计一致
+        assertEquals(table.uploadedBytes(), listenerUploadedBytes);
+        assertEquals(1 + 1 + 1 + 2 * 3, listenerCallCount);
+
+        // 清除状态后重新等待上传
+        dataList.get(2).clearUploadState();
+        assertFalse(table.isAllCompleted());
+        assertTrue(table.hasWaitingData());
+        assertSame(dataList.get(2), table.nextUploadData());
+        assertNull(dataList.get(2).etag);
+    }
+
+    public void testAddData() {
+        UploadDataTable table = new UploadDataTable(new ArrayList<UploadData>(), 30);
+        assertNull(table.nextUploadData());
+        assertTrue(table.isAllCompleted());
+
+        UploadData data0 = new UploadData(0, 10, 1);
+        table.addData(data0);
+        assertEquals(0, data0.position);
+        assertSame(data0, table.nextUploadData());
+
+        data0.startUpload();
+        assertNull(table.nextUploadData());
+
+        UploadData data1 = new UploadData(10, 10, 2);
+        table.addData(data1);
+        assertEquals(1, data1.position);
+        assertEquals(2, table.dataCount());
+        assertSame(data1, table.nextUploadData());
+
+        data0.completeUpload("etag0");
+        data1.startUpload();
+        data1.completeUpload("etag1");
+        assertTrue(table.isAllCompleted());
+        assertEquals(20, table.uploadedBytes());
+    }
+
+    public void testRecoveredState() {
+        ArrayList<UploadData> dataList = createDataList(3, 10);
+        dataList.get(0).isCompleted = true;
+        dataList.get(0).progress = 1;
+        dataList.get(1).progress = 0.5;
+
+        UploadDataTable table = new UploadDataTable(dataList, 30);
+        assertEquals(15, table.uploadedBytes());
+        assertEquals(0.5, table.progress(), 0.0001);
+        assertSame(dataList.get(1), table.nextUploadData());
+        assertFalse(table.isAllCompleted());
+    }
+
+    public void testFileInfoV1() {
+        // block：4、4、2，chunk：2
+        UploadFileInfoPartV1 fileInfo = new UploadFileInfoPartV1(10, 4, 2, 0);
+        assertEquals(3, fileInfo.uploadBlocks.size());
+        assertEquals(5, fileInfo.dataCount());
+
+        UploadBlock block0 = fileInfo.uploadBlocks.get(0);
+        UploadBlock block1 = fileInfo.uploadBlocks.get(1);
+        assertSame(block0, fileInfo.nextUploadBlock());
+
+        for (UploadData data : block0.uploadDataList) {
+            data.startUpload();
+        }
+        // block0 没有待上传的 chunk
+        assertSame(block1, fileInfo.nextUploadBlock());
+
+        block0.uploadDataList.get(1).cancelUpload();
+        assertSame(block0, fileInfo.nextUploadBlock());
+        assertSame(block0.uploadDataList.get(1), block0.nextUploadData());
+
+        block0.uploadDataList.get(0).completeUpload(null);
+        block0.uploadDataList.get(1).startUpload();
+        block0.uploadDataList.get(1).completeUpload(null);
+        assertTrue(block0.isCompleted());
+        assertEquals(0.4, fileInfo.progress(), 0.0001);
+        assertFalse(fileInfo.isAllUploaded());
+
+        for (UploadBlock block : fileInfo.uploadBlocks) {
+            for (UploadData data : block.uploadDataList) {
+                if (!data.isCompleted) {
+                    data.startUpload();
+                    data.completeUpload(null);
+                }
+            }
+        }
+        assertTrue(fileInfo.isAllUploaded());
+        assertNull(fileInfo.nextUploadBlock());
+        assertEquals(1, fileInfo.progress(), 0.0001);
+
+        fileInfo.clearUploadState();
+        assertFalse(fileInfo.isAllUploaded());
+        assertSame(block0, fileInfo.nextUploadBlock());
+        assertNull(block0.context);
+    }
+
+    public void testJournalReplay() throws Exception {
+        UploadFileInfoPartV1 fileInfo = new UploadFileInfoPartV1(10, 4, 2, 0);
+        byte[] snapshot = fileInfo.toJsonObject().toString().getBytes();
+
+        UploadData data00 = fileInfo.uploadBlocks.get(0).uploadDataList.get(0);
+        UploadData data11 = fileInfo.uploadBlocks.get(1).uploadDataList.get(1);
+
+        ByteArrayOutputStream journalData = new ByteArrayOutputStream();
+        journalData.write(UploadInfoJournal.header(snapshot));
+        journalData.write(UploadInfoJournal.record(0, data00, "ctx0"));
+        journalData.write(UploadInfoJournal.record(1, data11, "ctx1"));
+        // 末尾写入不完整的记录被忽略
+        byte[] lastRecord = UploadInfoJournal.record(2, fileInfo.uploadBlocks.get(2).uploadDataList.get(0), "ctx2");
+        journalData.write(lastRecord, 0, lastRecord.length - 3);
+
+        UploadInfoJournal journal = UploadInfoJournal.parse(journalData.toByteArray());
+        assertNotNull(journal);
+        assertEquals(2, journal.records.size());
+
+        UploadFileInfoPartV1 recoverInfo = UploadFileInfoPartV1.fileFromJson(new JSONObject(new String(journal.snapshot)));
+        for (UploadInfoJournal.Record record : journal.records) {
+            assertTrue(recoverInfo.applyJournalRecord(record));
+        }
+        // 位置无效的记录
+        assertFalse(recoverInfo.applyJournalRecord(new UploadInfoJournal.Record(5, 0, "ctx", -1, -1)));
+        assertFalse(recoverInfo.applyJournalRecord(new UploadInfoJournal.Record(0, 0, "", -1, -1)));
+
+        UploadBlock block0 = recoverInfo.uploadBlocks.get(0);
+        UploadBlock block1 = recoverInfo.uploadBlocks.get(1);
+        assertEquals("ctx0", block0.context);
+        assertEquals("ctx1", block1.context);
+        assertTrue(block0.uploadDataList.get(0).isCompleted);
+        assertTrue(block1.uploadDataList.get(1).isCompleted);
+        assertEquals(0.4, recoverInfo.progress(), 0.0001);
+        assertFalse(recoverInfo.isAllUploaded());
+
+        assertSame(block0, recoverInfo.nextUploadBlock());
+        assertSame(block0.uploadDataList.get(1), block0.nextUploadData());
+
+        // 非日志格式返回 null
+        assertNull(UploadInfoJournal.parse(snapshot));
+    }
+
+    private ArrayList<UploadData> createDataList(int count, long size) {
+        ArrayList<UploadData> dataList = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            dataList.add(new UploadData(i * size, size, i + 1));
+        }
+        return dataList;
+    }
+}
@@ -22,6 +22,46 @@ public final class Configuration implements Cloneable {
      */
     public int responseTimeout = 10;
 
+    /**
+     * PipelineWriter 每批数据的最大字节数（压缩前），达到后立即发送 单位：字节
+     */
+    public int batchMaxSize = 512 * 1024;
+
+    /**
+     * PipelineWriter 每批最多的数据点个数，达到后立即发送
+     */
+    public int batchMaxCount = 1000;
+
+    /**
+     * PipelineWriter 数据点写入后最长等待多久发送 单位：毫秒
+     */
+    public int batchFlushInterval = 5000;
+
+    /**
+     * 是否对请求体进行 gzip 压缩
+     */
+    public boolean useGzip = false;
+
+    /**
+     * PipelineWriter 同时发送的最大请求数，所有 repo 共享；同一个 repo 的数据按写入顺序逐批发送
+     */
+    public int maxConcurrentRequests = 2;
+
+    /**
+     * PipelineWriter 服务端错误时的最大重试次数，网络不通时不计次数，数据缓存到磁盘直到发送成功
+     */
+    public int maxRetryCount = 3;
+
+    /**
+     * PipelineWriter 离线数据的缓存目录，为 null 时使用 sdk 目录下的 pipeline 目录
+     */
+    public String spoolDirectory;
+
+    /**
+     * PipelineWriter 每个 repo 离线缓存的最大字节数，超过时删除最旧的数据 单位：字节
+     */
+    public long maxSpoolSize = 10 * 1024 * 1024;
+
     public static Configuration copy(Configuration config) {
         if (config == null) {
             return new Configuration();
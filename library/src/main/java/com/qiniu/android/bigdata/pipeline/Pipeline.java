@@ -4,13 +4,17 @@ import com.qiniu.android.bigdata.Configuration;
 import com.qiniu.android.bigdata.client.Client;
 import com.qiniu.android.bigdata.client.CompletionHandler;
 import com.qiniu.android.http.ResponseInfo;
+import com.qiniu.android.utils.AsyncRun;
 import com.qiniu.android.utils.StringMap;
 import com.qiniu.android.utils.StringUtils;
 
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by long on 2017/7/25.
@@ -19,8 +23,13 @@ import java.util.Map;
 public final class Pipeline {
     private static final String HTTPHeaderAuthorization = "Authorization";
     private static final String TEXT_PLAIN = "text/plain";
+    private static final String HTTPHeaderContentEncoding = "Content-Encoding";
     private final Configuration config;
     private final Client client;
+    private final ConcurrentHashMap<String, PipelineWriter> writers = new ConcurrentHashMap<>();
+    // 正在发送的 PipelineWriter 请求数及等待发送的 PipelineWriter
+    private int sendingCount = 0;
+    private final ArrayDeque<PipelineWriter> waitingWriters = new ArrayDeque<>();
 
     public Pipeline(Configuration config) {
         this.config = Configuration.copy(config);
@@ -59,6 +68,42 @@ public final class Pipeline {
         send(repo, b, token, handler);
     }
 
+    /**
+     * 获取 repo 对应的批量写入器，同一个 repo 共用一个写入器；token 与已有写入器不同时更新写入器的 token；
+     * 离线数据按 repo 存放在 spoolDirectory 中，同一个 repo 不要同时在多个 Pipeline 中使用写入器
+     *
+     * @param repo  repo
+     * @param token token
+     * @return 写入器
+     */
+    public PipelineWriter writer(String repo, String token) {
+        if (StringUtils.isBlank(token)) {
+            throw new IllegalArgumentException("no token");
+        }
+        if (StringUtils.isBlank(repo)) {
+            throw new IllegalArgumentException("no repo");
+        }
+
+        PipelineWriter writer = writers.get(repo);
+        if (writer == null) {
+            PipelineWriter newWriter = new PipelineWriter(this, config, repo, token);
+            writer = writers.putIfAbsent(repo, newWriter);
+            if (writer == null) {
+                writer = newWriter;
+                // 在后台发送上次未发送成功的离线数据
+                final PipelineWriter spoolWriter = newWriter;
+                AsyncRun.runInBack(new Runnable() {
+                    @Override
+                    public void run() {
+                        spoolWriter.sendNextIfNeeded();
+                    }
+                });
+            }
+        }
+        writer.setToken(token);
+        return writer;
+    }
+
     private void send(String repo, StringBuilder builder, String token, final PumpCompleteHandler handler) {
         if (handler == null) {
             throw new IllegalArgumentException("no CompletionHandler");
@@ -69,12 +114,31 @@ public final class Pipeline {
         if (StringUtils.isBlank(repo)) {
             throw new IllegalArgumentException("no repo");
         }
-        byte[] data = builder.toString().getBytes();
+        PointsBuffer data = new PointsBuffer(builder.length());
+        data.writeUtf8(builder);
+        post(repo, token, data, new PumpCompleteHandler() {
+            @Override
+            public void complete(ResponseInfo info) {
+                handler.complete(info);
+            }
+        });
+    }
+
+    void post(String repo, String token, PointsBuffer data, final PumpCompleteHandler handler) {
         StringMap headers = new StringMap();
         headers.put(HTTPHeaderAuthorization, token);
         headers.put(Client.ContentTypeHeader, TEXT_PLAIN);
+        if (config.useGzip) {
+            try {
+                data = data.gzip();
+                headers.put(HTTPHeaderContentEncoding, "gzip");
+            } catch (IOException e) {
+                handler.complete(ResponseInfo.localIOError(e.getMessage()));
+                return;
+            }
+        }
         // TODO: 2020-04-15  repo上报时不记录，logHandler为null
-        client.asyncPost(url(repo), data, headers, null, data.length, null, new CompletionHandler() {
+        client.asyncPost(url(repo), data.buffer(), 0, data.size(), headers, null, data.size(), null, new CompletionHandler() {
             @Override
             public void complete(ResponseInfo info, JSONObject response) {
                 handler.complete(info);
@@ -82,6 +146,43 @@ public final class Pipeline {
         }, null);
     }
 
+    /**
+     * PipelineWriter 发送前申请发送名额，名额已满时记录 writer，名额释放后由 releaseSendSlot 通知
+     *
+     * @return 是否申请成功
+     */
+    synchronized boolean acquireSendSlot(PipelineWriter writer) {
+        if (sendingCount < Math.max(config.maxConcurrentRequests, 1)) {
+            sendingCount += 1;
+            return true;
+        }
+        if (!waitingWriters.contains(writer)) {
+            waitingWriters.add(writer);
+        }
+        return false;
+    }
+
+    /**
+     * 释放发送名额，并通知等待中的 writer 发送，调用时不能持有 writer 的锁
+     */
+    void releaseSendSlot() {
+        synchronized (this) {
+            sendingCount -= 1;
+        }
+        while (true) {
+            PipelineWriter writer;
+            synchronized (this) {
+                if (sendingCount >= Math.max(config.maxConcurrentRequests, 1)) {
+                    return;
+                }
+                writer = waitingWriters.poll();
+            }
+            if (writer == null || writer.sendNextIfNeeded()) {
+                return;
+            }
+        }
+    }
+
     private String url(String repo) {
         return config.pipelineHost + "/v2/repos/" + repo + "/data";
     }
@@ -0,0 +1,531 @@
+package com.qiniu.android.bigdata.pipeline;
+
+import com.qiniu.android.bigdata.Configuration;
+import com.qiniu.android.http.ResponseInfo;
+import com.qiniu.android.utils.AsyncRun;
+import com.qiniu.android.utils.LogUtil;
+import com.qiniu.android.utils.NetworkChangeMonitor;
+import com.qiniu.android.utils.UrlSafeBase64;
+import com.qiniu.android.utils.Utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * repo 的批量写入器，通过 Pipeline.writer 获取：
+ * 1. 数据点写入时直接编码到当前批次，批次达到 batchMaxSize、batchMaxCount 或写入后超过 batchFlushInterval 时发送；
+ * 2. 同一个 repo 的批次按写入顺序逐批发送，所有 repo 同时发送的请求数不超过 maxConcurrentRequests；
+ * 3. 服务端错误时按指数退避重试，最多 maxRetryCount 次；网络不通时批次写入磁盘，等待网络变化后按顺序继续发送，
+ * 离线数据在下次创建写入器时同样会发送；
+ * 4. 批次在封存时分配序号，磁盘中的批次按序号发送；写磁盘在后台执行，不阻塞写入线程
+ */
+public final class PipelineWriter {
+
+    private static final String SpoolFileSuffix = ".batch";
+    // 内存中等待发送的批次上限，超过时写入磁盘
+    private static final int MaxMemoryBatchCount = 4;
+    // 重试的最小及最大间隔，单位：毫秒
+    private static final long MinRetryDelay = 1000;
+    private static final long MaxRetryDelay = 60 * 1000;
+    // 网络不通时等待网络变化，无法监听网络变化时（如：没有 Context）按此间隔重试，单位：毫秒
+    private static final long OfflineRetryDelay = 5 * 60 * 1000;
+
+    private final Pipeline pipeline;
+    private final Configuration config;
+    private final String repo;
+    private final File spoolDirectory;
+    private volatile String token;
+    private volatile Pipeline.PumpCompleteHandler completeHandler;
+
+    // 待发送的批次，按写入顺序排列，队首为正在发送或等待重试的批次
+    private final ArrayDeque<Batch> pendingBatches = new ArrayDeque<>();
+    private final StringBuilder pointBuilder = new StringBuilder();
+    private PointsBuffer currentBuffer;
+    private int currentCount = 0;
+    // 每次开始新批次时加 1，用于忽略已失效的定时发送
+    private long batchGeneration = 0;
+    private boolean isSending = false;
+    private boolean isWaitingRetry = false;
+    private boolean isWaitingNetwork = false;
+    // 每次等待重试时加 1，用于忽略已失效的重试
+    private long retryGeneration = 0;
+    // 服务端错误的重试次数，受 maxRetryCount 限制
+    private int serverRetryCount = 0;
+    // 网络不通的重试次数，不受限制
+    private int networkRetryCount = 0;
+    private boolean isSpilling = false;
+    // 下一个批次的序号，也是磁盘中批次的文件名
+    private long spoolSequence = 0;
+    private long spoolSize = 0;
+
+    private final NetworkChangeMonitor.Listener networkListener = new NetworkChangeMonitor.Listener() {
+        @Override
+        public void onNetworkChanged() {
+            // 网络变化在主线程回调，读磁盘等操作在后台执行
+            AsyncRun.runInBack(new Runnable() {
+                @Override
+                public void run() {
+                    long generation;
+                    synchronized (PipelineWriter.this) {
+                        if (!isWaitingNetwork) {
+                            return;
+                        }
+                        generation = retryGeneration;
+                    }
+                    resumeSending(generation);
+                }
+            });
+        }
+    };
+
+    PipelineWriter(Pipeline pipeline, Configuration config, String repo, String token) {
+        this.pipeline = pipeline;
+        this.config = config;
+        this.repo = repo;
+        this.token = token;
+        this.spoolDirectory = createSpoolDirectory(config, repo);
+        loadSpoolFiles();
+    }
+
+    public void setToken(String token) {
+        if (token != null && token.length() > 0) {
+            this.token = token;
+        }
+    }
+
+    /**
+     * 设置每批数据发送结束的回调，网络不通时数据会保留并重试，不回调
+     */
+    public void setCompleteHandler(Pipeline.PumpCompleteHandler completeHandler) {
+        this.completeHandler = completeHandler;
+    }
+
+    public <V> void write(Map<String, V> data) {
+        if (data == null || data.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            pointBuilder.setLength(0);
+            Points.formatPoint(data, pointBuilder);
+            appendPoint();
+        }
+    }
+
+    public void write(Object data) {
+        if (data == null) {
+            return;
+        }
+        synchronized (this) {
+            pointBuilder.setLength(0);
+            try {
+                Points.formatPoint(data, pointBuilder);
+            } catch (Exception e) {
+                LogUtil.w("pipeline format point error:" + e.getMessage());
+                return;
+            }
+            appendPoint();
+        }
+    }
+
+    /**
+     * 立即发送当前批次
+     */
+    public synchronized void flush() {
+        sealCurrentBatch();
+    }
+
+    private void appendPoint() {
+        if (pointBuilder.length() == 0) {
+            return;
+        }
+        if (currentBuffer == null) {
+            currentBuffer = new PointsBuffer(Math.min(Math.max(config.batchMaxSize, 1), 64 * 1024));
+            currentCount = 0;
+            scheduleFlush(++batchGeneration);
+        }
+        currentBuffer.writeUtf8(pointBuilder);
+        currentCount += 1;
+
+        if (currentBuffer.size() >= config.batchMaxSize || currentCount >= config.batchMaxCount) {
+            sealCurrentBatch();
+        }
+    }
+
+    private void scheduleFlush(final long generation) {
+        AsyncRun.runInBack(Math.max(config.batchFlushInterval, 0), new Runnable() {
+            @Override
+            public void run() {
+                synchronized (PipelineWriter.this) {
+                    if (generation == batchGeneration) {
+                        sealCurrentBatch();
+                    }
+                }
+            }
+        });
+    }
+
+    private void sealCurrentBatch() {
+        if (currentBuffer == null || currentBuffer.size() == 0) {
+            return;
+        }
+
+        Batch batch = new Batch(currentBuffer, spoolSequence++);
+        currentBuffer = null;
+        currentCount = 0;
+        batchGeneration += 1;
+        pendingBatches.add(batch);
+
+        // 在后台写磁盘及发送，不阻塞写入线程
+        AsyncRun.runInBack(new Runnable() {
+            @Override
+            public void run() {
+                spillIfNeeded();
+                sendNextIfNeeded();
+            }
+        });
+    }
+
+    /**
+     * 发送队首批次，调用时不能持有 Pipeline 的锁
+     *
+     * @return 是否开始发送
+     */
+    boolean sendNextIfNeeded() {
+        final Batch batch;
+        final PointsBuffer memoryData;
+        final String currentToken;
+        synchronized (this) {
+            if (isSending || isWaitingRetry || pendingBatches.isEmpty()) {
+                return false;
+            }
+            if (!pipeline.acquireSendSlot(this)) {
+                return false;
+            }
+            isSending = true;
+            batch = pendingBatches.peek();
+            memoryData = batch.data;
+            currentToken = token;
+        }
+
+        PointsBuffer data = memoryData;
+        if (data == null) {
+            try {
+                data = PointsBuffer.readFile(batch.file);
+            } catch (IOException e) {
+                onSendComplete(batch, ResponseInfo.localIOError(e.getMessage()));
+                return true;
+            }
+        }
+
+        pipeline.post(repo, currentToken, data, new Pipeline.PumpCompleteHandler() {
+            @Override
+            public void complete(final ResponseInfo info) {
+                // 响应可能在主线程回调，写磁盘等操作在后台执行
+                AsyncRun.runInBack(new Runnable() {
+                    @Override
+                    public void run() {
+                        onSendComplete(batch, info);
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+    private void onSendComplete(Batch batch, ResponseInfo info) {
+        boolean shouldNotify = false;
+        boolean isOffline = false;
+        synchronized (this) {
+            isSending = false;
+            if (info != null && info.statusCode >= 200 && info.statusCode < 300) {
+                removeBatch(batch);
+                serverRetryCount = 0;
+                networkRetryCount = 0;
+                shouldNotify = true;
+            } else if (isNetworkUnavailable(info)) {
+                // 网络不通时保留数据，写入磁盘后等待网络变化
+                networkRetryCount += 1;
+                isOffline = true;
+                waitForNetwork();
+            } else if (isRetryable(info) && serverRetryCount < config.maxRetryCount) {
+                serverRetryCount += 1;
+                scheduleRetry(Math.min(MinRetryDelay << Math.min(serverRetryCount - 1, 6), MaxRetryDelay));
+            } else {
+                LogUtil.w("pipeline repo:" + repo + " drop batch response:" + info);
+                removeBatch(batch);
+                serverRetryCount = 0;
+                networkRetryCount = 0;
+                shouldNotify = true;
+            }
+        }
+
+        pipeline.releaseSendSlot();
+
+        if (isOffline) {
+            NetworkChangeMonitor.addListener(networkListener);
+            spillIfNeeded();
+        }
+
+        Pipeline.PumpCompleteHandler handler = completeHandler;
+        if (shouldNotify && handler != null) {
+            handler.complete(info);
+        }
+        sendNextIfNeeded();
+    }
+
+    private void waitForNetwork() {
+        isWaitingNetwork = true;
+        // 第一次网络不通时可能只是短暂的波动，先按最小间隔重试一次
+        scheduleRetry(networkRetryCount == 1 ? MinRetryDelay : OfflineRetryDelay);
+    }
+
+    private void scheduleRetry(long delay) {
+        isWaitingRetry = true;
+        final long generation = ++retryGeneration;
+        AsyncRun.runInBack((int) delay, new Runnable() {
+            @Override
+            public void run() {
+                resumeSending(generation);
+            }
+        });
+    }
+
+    private void resumeSending(long generation) {
+        synchronized (this) {
+            if (generation != retryGeneration || !isWaitingRetry) {
+                return;
+            }
+            isWaitingRetry = false;
+            isWaitingNetwork = false;
+        }
+        NetworkChangeMonitor.removeListener(networkListener);
+        sendNextIfNeeded();
+    }
+
+    private static boolean isNetworkUnavailable(ResponseInfo info) {
+        if (info == null) {
+            return false;
+        }
+        switch (info.statusCode) {
+            case ResponseInfo.NetworkError:
+            case ResponseInfo.TimedOut:
+            case ResponseInfo.UnknownHost:
+            case ResponseInfo.CannotConnectToHost:
+            case ResponseInfo.NetworkConnectionLost:
+            case ResponseInfo.NetworkSlow:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isRetryable(ResponseInfo info) {
+        return info != null && (info.isServerError() || info.statusCode == 406 || info.statusCode == 429);
+    }
+
+    /**
+     * 内存中的批次超过 MaxMemoryBatchCount 或网络不通时将批次写入磁盘，在后台执行，写文件时不持有锁
+     */
+    private void spillIfNeeded() {
+        synchronized (this) {
+            if (isSpilling) {
+                return;
+            }
+            isSpilling = true;
+        }
+
+        while (true) {
+            Batch batch;
+            PointsBuffer data;
+            synchronized (this) {
+                batch = nextBatchToSpill();
+                if (batch == null) {
+                    isSpilling = false;
+                    return;
+                }
+                data = batch.data;
+            }
+
+            File file = writeSpoolFile(batch.sequence, data);
+
+            synchronized (this) {
+                if (file == null) {
+                    // 超出内存上限的批次无法写入磁盘时丢弃，网络不通时保留在内存中
+                    if (!isWaitingNetwork && pendingBatches.peek() != batch) {
+                        LogUtil.w("pipeline repo:" + repo + " drop batch size:" + data.size());
+                        removeBatch(batch);
+                    }
+                    isSpilling = false;
+                    return;
+                }
+                if (!pendingBatches.contains(batch)) {
+                    // 写磁盘期间已发送成功
+                    file.delete();
+                    continue;
+                }
+                batch.file = file;
+                batch.data = null;
+                spoolSize += file.length();
+                trimSpool();
+            }
+        }
+    }
+
+    // 网络不通时为最早的内存中的批次，否则内存中的批次超过上限时为最新的批次（不含队首）
+    private Batch nextBatchToSpill() {
+        if (isWaitingNetwork) {
+            for (Batch batch : pendingBatches) {
+                if (batch.data != null) {
+                    return batch;
+                }
+            }
+            return null;
+        }
+
+        int count = 0;
+        Batch newestBatch = null;
+        for (Batch batch : pendingBatches) {
+            if (batch.data != null) {
+                count += 1;
+                newestBatch = batch;
+            }
+        }
+        if (count <= MaxMemoryBatchCount || newestBatch == pendingBatches.peek()) {
+            return null;
+        }
+        return newestBatch;
+    }
+
+    /**
+     * 将批次数据写入磁盘，文件名为批次序号
+     *
+     * @return 写入失败返回 null
+     */
+    private File writeSpoolFile(long sequence, PointsBuffer data) {
+        if (spoolDirectory == null || data == null) {
+            return null;
+        }
+        if (!spoolDirectory.exists() && !spoolDirectory.mkdirs()) {
+            return null;
+        }
+
+        File file = new File(spoolDirectory, String.format(Locale.ENGLISH, "%019d%s", sequence, SpoolFileSuffix));
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            out.write(data.buffer(), 0, data.size());
+        } catch (IOException e) {
+            LogUtil.w("pipeline spool error:" + e.getMessage());
+            file.delete();
+            return null;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return file;
+    }
+
+    // 离线数据超过 maxSpoolSize 时删除最旧的数据，正在发送的批次除外
+    private void trimSpool() {
+        Iterator<Batch> iterator = pendingBatches.iterator();
+        boolean isHead = true;
+        while (spoolSize > config.maxSpoolSize && iterator.hasNext()) {
+            Batch batch = iterator.next();
+            boolean isInUse = isHead && (isSending || isWaitingRetry);
+            isHead = false;
+            if (isInUse || batch.file == null) {
+                continue;
+            }
+            LogUtil.w("pipeline repo:" + repo + " drop spool file:" + batch.file.getName());
+            iterator.remove();
+            spoolSize -= batch.file.length();
+            batch.file.delete();
+        }
+    }
+
+    private void removeBatch(Batch batch) {
+        pendingBatches.remove(batch);
+        if (batch.file != null) {
+            spoolSize -= batch.file.length();
+            batch.file.delete();
+            batch.file = null;
+        }
+        batch.data = null;
+    }
+
+    private void loadSpoolFiles() {
+        if (spoolDirectory == null) {
+            return;
+        }
+        File[] files = spoolDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SpoolFileSuffix);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.length() == 0) {
+                file.delete();
+                continue;
+            }
+            long sequence;
+            try {
+                String name = file.getName();
+                sequence = Long.parseLong(name.substring(0, name.length() - SpoolFileSuffix.length()));
+            } catch (NumberFormatException e) {
+                file.delete();
+                continue;
+            }
+            pendingBatches.add(new Batch(file, sequence));
+            spoolSize += file.length();
+            spoolSequence = Math.max(spoolSequence, sequence + 1);
+        }
+    }
+
+    private static File createSpoolDirectory(Configuration config, String repo) {
+        String directory = config.spoolDirectory;
+        if (directory == null) {
+            try {
+                directory = Utils.sdkDirectory() + "/pipeline";
+            } catch (Exception e) {
+                return null;
+            }
+        }
+        return new File(directory, UrlSafeBase64.encodeToString(repo));
+    }
+
+    private static class Batch {
+        // 封存时分配的序号，按写入顺序递增
+        private final long sequence;
+        // 内存中的数据，写入磁盘后为 null
+        private PointsBuffer data;
+        // 磁盘中的数据
+        private File file;
+
+        private Batch(PointsBuffer data, long sequence) {
+            this.data = data;
+            this.sequence = sequence;
+        }
+
+        private Batch(File file, long sequence) {
+            this.file = file;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.qiniu.android.bigdata.pipeline;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 数据点的请求体缓存：数据点格式化后直接以 UTF-8 编码写入，发送时直接使用内部数组，
+ * 不经过 String 及 byte[] 的中间拷贝
+ */
+final class PointsBuffer extends ByteArrayOutputStream {
+
+    PointsBuffer(int size) {
+        super(Math.max(size, 32));
+    }
+
+    /**
+     * 内部数组，有效数据为 [0, size())
+     */
+    byte[] buffer() {
+        return buf;
+    }
+
+    /**
+     * 以 UTF-8 编码写入字符，无法配对的代理字符写为 '?'
+     */
+    void writeUtf8(CharSequence chars) {
+        int length = chars.length();
+        ensureCapacity(count + length * 3);
+
+        byte[] buffer = buf;
+        int position = count;
+        for (int i = 0; i < length; i++) {
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xc0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+                buffer[position++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                buffer[position++] = '?';
+            } else {
+                buffer[position++] = (byte) (0xe0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[position++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        count = position;
+    }
+
+    /**
+     * gzip 压缩后的数据
+     */
+    PointsBuffer gzip() throws IOException {
+        PointsBuffer out = new PointsBuffer(count / 4 + 64);
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        try {
+            gzip.write(buf, 0, count);
+        } finally {
+            gzip.close();
+        }
+        return out;
+    }
+
+    static PointsBuffer readFile(File file) throws IOException {
+        long length = file.length();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("file is too large");
+        }
+
+        PointsBuffer buffer = new PointsBuffer((int) length);
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int len;
+            while (buffer.count < buffer.buf.length
+                    && (len = in.read(buffer.buf, buffer.count, buffer.buf.length - buffer.count)) > 0) {
+                buffer.count += len;
+            }
+        } finally {
+            in.close();
+        }
+        return buffer;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length << 1, capacity));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.qiniu.android.collect;
+
+import com.qiniu.android.utils.AsyncRun;
+import com.qiniu.android.utils.NetworkChangeMonitor;
+import com.qiniu.android.utils.Utils;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 打点使用的设备及网络信息快照，快照不可变，所有请求共享同一份；
+ * 网络变化或快照超过 RefreshInterval 后在后台重新采集，采集完成前继续使用旧快照
+ */
+public final class ReportContext {
+
+    // 快照的有效期，单位：毫秒
+    private static final long RefreshInterval = 30 * 1000;
+
+    private static volatile ReportContext current;
+    private static final AtomicBoolean isRefreshing = new AtomicBoolean(false);
+
+    public final String osName;
+    public final String osVersion;
+    public final String sdkName;
+    public final String sdkVersion;
+    public final Integer pid;
+    public final String networkType;
+    public final Integer signalStrength;
+    // 采集时间，单位：毫秒
+    public final long createTime;
+
+    private ReportContext() {
+        this.osName = Utils.systemName();
+        this.osVersion = Utils.systemVersion();
+        this.sdkName = Utils.sdkLanguage();
+        this.sdkVersion = Utils.sdkVerion();
+        this.pid = Utils.getCurrentProcessID();
+        this.networkType = Utils.getCurrentNetworkType();
+        this.signalStrength = Utils.getCurrentSignalStrength();
+        this.createTime = Utils.currentTimestamp();
+    }
+
+    /**
+     * 当前快照，首次调用时同步采集，之后快照过期时在后台刷新
+     *
+     * @return 快照
+     */
+    public static ReportContext current() {
+        ReportContext context = current;
+        if (context == null) {
+            synchronized (ReportContext.class) {
+                if (current == null) {
+                    current = new ReportContext();
+                    addNetworkChangeListener();
+                }
+                context = current;
+            }
+        } else if (Utils.currentTimestamp() - context.createTime > RefreshInterval) {
+            refreshInBackground();
+        }
+        return context;
+    }
+
+    /**
+     * 网络变化时调用，后台重新采集快照
+     */
+    public static void refresh() {
+        if (current == null) {
+            return;
+        }
+        refreshInBackground();
+    }
+
+    private static void refreshInBackground() {
+        if (!isRefreshing.compareAndSet(false, true)) {
+            return;
+        }
+        AsyncRun.runInBack(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    current = new ReportContext();
+                } finally {
+                    isRefreshing.set(false);
+                }
+            }
+        });
+    }
+
+    private static void addNetworkChangeListener() {
+        NetworkChangeMonitor.addListener(new NetworkChangeMonitor.Listener() {
+            @Override
+            public void onNetworkChanged() {
+                refresh();
+            }
+        });
+    }
+}
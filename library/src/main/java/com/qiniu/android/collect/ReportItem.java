@@ -4,11 +4,21 @@ import com.qiniu.android.http.ResponseInfo;
 
 import org.json.JSONObject;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * 打点记录，按 key 在 schema 中的下标存储，不为每条记录创建 HashMap；
+ * schema 为所有记录共享，首次使用某个 key 时注册
+ */
 public class ReportItem {
 
-    private HashMap<String, Object> keyValues = new HashMap<>();
+    // key -> 下标
+    private static final ConcurrentHashMap<String, Integer> schemaIndexes = new ConcurrentHashMap<>();
+    // 下标 -> key
+    private static volatile String[] schemaKeys = new String[0];
+
+    private Object[] values = new Object[schemaKeys.length];
 
     public ReportItem(){}
 
@@ -16,23 +26,73 @@ public class ReportItem {
         if (key == null || value == null){
             return;
         }
-        keyValues.put(key, value);
+        int index = schemaIndex(key);
+        if (index >= values.length) {
+            values = Arrays.copyOf(values, Math.max(index + 1, schemaKeys.length));
+        }
+        values[index] = value;
     }
 
     public void removeReportValue(String key){
         if (key == null){
             return;
         }
-        keyValues.remove(key);
+        int index = schemaIndex(key);
+        if (index < values.length) {
+            values[index] = null;
+        }
     }
 
     public String toJson(){
-        String jsonString = "{}";
-        if (keyValues == null || keyValues.size() == 0){
-            return jsonString;
+        String[] keys = schemaKeys;
+        StringBuilder builder = null;
+        for (int i = 0; i < values.length && i < keys.length; i++) {
+            Object value = values[i];
+            if (value == null) {
+                continue;
+            }
+            if (value instanceof Double || value instanceof Float) {
+                double doubleValue = ((Number) value).doubleValue();
+                if (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue)) {
+                    continue;
+                }
+            }
+
+            if (builder == null) {
+                builder = new StringBuilder(values.length * 24);
+                builder.append('{');
+            } else {
+                builder.append(',');
+            }
+            builder.append(JSONObject.quote(keys[i])).append(':');
+            if (value instanceof Number || value instanceof Boolean) {
+                builder.append(value.toString());
+            } else {
+                builder.append(JSONObject.quote(value.toString()));
+            }
+        }
+        if (builder == null) {
+            return "{}";
+        }
+        return builder.append('}').toString();
+    }
+
+    private static int schemaIndex(String key) {
+        Integer index = schemaIndexes.get(key);
+        if (index != null) {
+            return index;
+        }
+        synchronized (schemaIndexes) {
+            index = schemaIndexes.get(key);
+            if (index == null) {
+                index = schemaKeys.length;
+                String[] keys = Arrays.copyOf(schemaKeys, index + 1);
+                keys[index] = key;
+                schemaKeys = keys;
+                schemaIndexes.put(key, index);
+            }
+            return index;
         }
-        jsonString = new JSONObject(keyValues).toString();
-        return jsonString;
     }
 
     // 日志类型
@@ -82,6 +142,7 @@ public class ReportItem {
     public static final String RequestKeyPrefetchedBefore = "prefetched_before";
     public static final String RequestKeyPrefetchedErrorMessage = "prefetched_error_message";
     public static final String RequestKeyNetworkMeasuring = "network_measuring";
+    public static final String RequestKeyRetryDelay = "retry_delay";
 
     // 分块上传统计⽇志
     public static final String BlockKeyLogType = "log_type";
@@ -12,22 +12,59 @@ import com.qiniu.android.utils.StringUtils;
 
 import org.json.JSONObject;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
-
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 上传打点：report 只将打点放入内存中的无锁环形队列，由单个后台写入任务批量取出、序列化并追加到记录文件，
+ * 每批只 flush 一次，记录文件的输出流在写入之间保持打开；队列超过 SampleWatermark 后按 SampleInterval 采样，队列满时丢弃；
+ * 记录文件达到上报条件且没有待上报的分段时轮转为分段文件，有待上报的分段（如：离线）时记录文件写满才轮转；
+ * 上报时从分段文件流式读取并压缩发送，上报过程不影响新打点的写入
+ */
 public class UploadInfoReporter {
 
+    // 内存中缓存的打点个数上限
+    private static final int BufferCapacity = 1024;
+    // 缓存的打点超过此比例后开始采样
+    private static final double SampleWatermark = 0.75;
+    // 采样时每 SampleInterval 条保留 1 条
+    private static final int SampleInterval = 4;
+    // 每批最多写入的打点个数
+    private static final int MaxBatchCount = 256;
+    // 写入任务在第一条打点加入后延迟执行，以合并同一时段的打点，单位：毫秒
+    private static final int BatchDelay = 500;
+    // 待上报的分段文件个数上限，分段总大小上限为 maxRecordFileSize * MaxSegmentCount，超过时删除最旧的分段
+    private static final int MaxSegmentCount = 8;
+    private static final String SegmentFilePrefix = "qiniuTemp";
+    private static final String SegmentFileSuffix = ".log";
+
+    private final ReportRingBuffer<ReportItem> buffer = new ReportRingBuffer<>(BufferCapacity);
+    private final AtomicBoolean isWriteScheduled = new AtomicBoolean(false);
+    private final AtomicInteger sampleCounter = new AtomicInteger(0);
+    private final AtomicLong droppedCount = new AtomicLong(0);
+    private volatile String tokenString;
+
+    // 记录文件的输出流，记录文件改名或删除前关闭
+    private FileOutputStream recorderStream;
+    private long recorderFileSize;
+
     private ReportConfig config = ReportConfig.getInstance();
     private long lastReportTime = 0;
     private File recordDirectory = new File(config.recordDirectory);
     private File recorderFile = new File(config.recordDirectory + "/qiniu.log");
-    private File recorderTempFile = new File(config.recordDirectory + "/qiniuTemp.log");
+    // 分段文件名中的序号，避免同一毫秒内轮转的分段重名
+    private int segmentIndex = 0;
     private String X_Log_Client_Id;
     private RequestTransaction transaction;
 
@@ -43,32 +80,83 @@ public class UploadInfoReporter {
         return instance;
     }
 
-    public synchronized void report(final ReportItem reportItem,
-                                    final String tokenString) {
-        if (reportItem == null) {
+    public void report(final ReportItem reportItem,
+                       final String tokenString) {
+        if (reportItem == null || !checkReportAvailable()) {
             return;
         }
+        if (tokenString != null) {
+            this.tokenString = tokenString;
+        }
 
-        final String jsonString = reportItem.toJson();
-        if (!checkReportAvailable() || jsonString == null) {
+        if (buffer.size() >= buffer.capacity() * SampleWatermark
+                && sampleCounter.incrementAndGet() % SampleInterval != 0) {
+            droppedCount.incrementAndGet();
             return;
         }
+        if (!buffer.offer(reportItem)) {
+            droppedCount.incrementAndGet();
+            return;
+        }
+        scheduleWrite();
+    }
 
-        AsyncRun.runInBack(new Runnable() {
+    public synchronized void clean() {
+        closeRecorderStream();
+        cleanRecorderFile();
+        cleanSegmentFiles();
+    }
+
+    private void scheduleWrite() {
+        if (!isWriteScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        AsyncRun.runInBack(BatchDelay, new Runnable() {
             @Override
             public void run() {
-                LogUtil.i("up log:" + StringUtils.toNonnullString(jsonString));
-                synchronized (this) {
-                    saveReportJsonString(jsonString);
-                    reportToServerIfNeeded(tokenString);
-                }
+                writeBufferedItems();
             }
         });
     }
 
-    public void clean() {
-        cleanRecorderFile();
-        cleanTempLogFile();
+    // 只在写入任务中执行，同一时刻只有一个写入任务
+    private void writeBufferedItems() {
+        StringBuilder lines = new StringBuilder();
+        int count = 0;
+        ReportItem item;
+        while ((item = buffer.poll()) != null) {
+            String jsonString = item.toJson();
+            if (jsonString == null) {
+                continue;
+            }
+            LogUtil.i("up log:" + StringUtils.toNonnullString(jsonString));
+            lines.append(jsonString).append("\n");
+            count += 1;
+            if (count >= MaxBatchCount) {
+                saveReportLines(lines.toString());
+                lines.setLength(0);
+                count = 0;
+            }
+        }
+        if (count > 0) {
+            saveReportLines(lines.toString());
+        }
+
+        long dropped = droppedCount.getAndSet(0);
+        if (dropped > 0) {
+            LogUtil.w("up log dropped count:" + dropped);
+        }
+
+        String token = tokenString;
+        if (token != null) {
+            reportToServerIfNeeded(token);
+        }
+
+        isWriteScheduled.set(false);
+        // 写入过程中新加入的打点
+        if (buffer.size() > 0) {
+            scheduleWrite();
+        }
     }
 
     private void cleanRecorderFile() {
@@ -77,9 +165,81 @@ public class UploadInfoReporter {
         }
     }
 
-    private void cleanTempLogFile() {
-        if (recorderTempFile.exists()) {
-            recorderTempFile.delete();
+    private void cleanSegmentFiles() {
+        for (File segment : segmentFiles()) {
+            segment.delete();
+        }
+    }
+
+    /**
+     * 待上报的分段文件，按轮转时间排序，最旧的在前；兼容旧版本的 qiniuTemp.log
+     */
+    private File[] segmentFiles() {
+        File[] files = recordDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SegmentFilePrefix) && name.endsWith(SegmentFileSuffix);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        sortSegmentFiles(files);
+        return files;
+    }
+
+    /**
+     * 分段文件名中的时间戳使轮转的分段按文件名排序即为时间顺序；旧版本的 qiniuTemp.log 一定早于轮转的分段，
+     * 但按文件名排序时 '.' 排在 '-' 之后，需单独排在最前
+     */
+    static void sortSegmentFiles(File[] files) {
+        final String legacyName = SegmentFilePrefix + SegmentFileSuffix;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                boolean isLegacy1 = legacyName.equals(f1.getName());
+                boolean isLegacy2 = legacyName.equals(f2.getName());
+                if (isLegacy1 != isLegacy2) {
+                    return isLegacy1 ? -1 : 1;
+                }
+                return f1.getName().compareTo(f2.getName());
+            }
+        });
+    }
+
+    /**
+     * 将记录文件轮转为分段文件，之后的打点写入新的记录文件
+     */
+    private synchronized void rotateRecorderFile() {
+        closeRecorderStream();
+        if (recorderFile.length() == 0) {
+            return;
+        }
+
+        String segmentName = String.format(Locale.ENGLISH, "%s-%013d-%03d%s", SegmentFilePrefix, new Date().getTime(),
+                segmentIndex++ % 1000, SegmentFileSuffix);
+        if (!recorderFile.renameTo(new File(recordDirectory, segmentName))) {
+            return;
+        }
+
+        trimSegmentFiles();
+    }
+
+    // 按总大小限制保留的分段，删除最旧的分段
+    private void trimSegmentFiles() {
+        File[] segments = segmentFiles();
+        long totalSize = 0;
+        for (File segment : segments) {
+            totalSize += segment.length();
+        }
+
+        long maxTotalSize = config.maxRecordFileSize * MaxSegmentCount;
+        int count = segments.length;
+        for (int i = 0; i < segments.length && (totalSize > maxTotalSize || count > MaxSegmentCount); i++) {
+            LogUtil.w("up log drop segment:" + segments[i].getName());
+            totalSize -= segments[i].length();
+            count -= 1;
+            segments[i].delete();
         }
     }
 
@@ -94,7 +254,7 @@ public class UploadInfoReporter {
         return true;
     }
 
-    private void saveReportJsonString(final String jsonString) {
+    private synchronized void saveReportLines(String lines) {
 
         if (!recordDirectory.exists() && !recordDirectory.mkdirs()) {
             return;
@@ -105,124 +265,117 @@ public class UploadInfoReporter {
             return;
         }
 
-        if (!recorderFile.exists()) {
-            try {
-                boolean isSuccess = recorderFile.createNewFile();
-                if (!isSuccess) {
-                    return;
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
+        if (!openRecorderStream()) {
+            return;
+        }
+
+        if (recorderFileSize > config.maxRecordFileSize) {
+            // 记录文件已满时轮转，轮转失败则丢弃
+            rotateRecorderFile();
+            if (!openRecorderStream() || recorderFileSize > config.maxRecordFileSize) {
                 return;
             }
         }
 
-        if (recorderFile.length() > config.maxRecordFileSize) {
-            return;
+        try {
+            byte[] data = lines.getBytes();
+            recorderStream.write(data);
+            recorderStream.flush();
+            recorderFileSize += data.length;
+        } catch (IOException e) {
+            closeRecorderStream();
         }
+    }
 
-        FileOutputStream fos = null;
+    private synchronized boolean openRecorderStream() {
+        if (recorderStream != null) {
+            return true;
+        }
         try {
-            fos = new FileOutputStream(recorderFile, true);
-            fos.write((jsonString + "\n").getBytes());
-            fos.flush();
-        } catch (FileNotFoundException ignored) {
-        } catch (IOException ignored) {
-        } finally {
-            if (fos != null) {
-                try {
-                    fos.close();
-                } catch (IOException ignored) {
-                }
-            }
+            recorderStream = new FileOutputStream(recorderFile, true);
+            recorderFileSize = recorderFile.length();
+            return true;
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+            return false;
         }
     }
 
-    private void reportToServerIfNeeded(String tokenString) {
-        if (isReporting) {
+    private synchronized void closeRecorderStream() {
+        if (recorderStream == null) {
             return;
         }
-        boolean needToReport = false;
-        long currentTime = new Date().getTime();
+        try {
+            recorderStream.close();
+        } catch (IOException ignored) {
+        }
+        recorderStream = null;
+        recorderFileSize = 0;
+    }
 
-        if (recorderTempFile.exists()) {
-            needToReport = true;
-        } else if ((recorderFile.length() > config.uploadThreshold)
-                || (lastReportTime == 0 || (currentTime - lastReportTime) > config.interval * 60)) {
-            boolean isSuccess = recorderFile.renameTo(recorderTempFile);
-            if (isSuccess) {
-                needToReport = true;
+    private synchronized void reportToServerIfNeeded(String tokenString) {
+        // 有未上报的分段时不轮转，记录文件写满时在 saveReportLines 中轮转，避免离线时产生大量很小的分段
+        File[] segments = segmentFiles();
+        if (segments.length == 0) {
+            long currentTime = new Date().getTime();
+            long recorderFileLength = recorderFile.length();
+            if (recorderFileLength > config.uploadThreshold
+                    || (recorderFileLength > 0 && (lastReportTime == 0 || (currentTime - lastReportTime) > config.interval * 60 * 1000))) {
+                rotateRecorderFile();
+                segments = segmentFiles();
             }
         }
-        if (needToReport && !this.isReporting) {
-            reportToServer(tokenString);
+
+        if (isReporting) {
+            return;
+        }
+        if (segments.length > 0) {
+            reportToServer(tokenString, segments[0]);
         }
     }
 
-    private void reportToServer(String tokenString) {
+    private void reportToServer(final String tokenString, final File segment) {
 
         isReporting = true;
 
         RequestTransaction transaction = createUploadRequestTransaction(tokenString);
         if (transaction == null) {
+            isReporting = false;
             return;
         }
 
-        byte[] logData = getLogData();
-        if (logData == null || logData.length == 0) {
+        if (segment.length() == 0) {
+            segment.delete();
+            isReporting = false;
             return;
         }
 
-        transaction.reportLog(logData, X_Log_Client_Id, true, new RequestTransaction.RequestCompleteHandler() {
+        transaction.reportLog(segment, X_Log_Client_Id, true, new RequestTransaction.RequestCompleteHandler() {
             @Override
             public void complete(ResponseInfo responseInfo, UploadRegionRequestMetrics requestMetrics, JSONObject response) {
-                if (responseInfo.isOK()) {
+                boolean isSuccess = responseInfo.isOK();
+                if (isSuccess) {
                     lastReportTime = new Date().getTime();
                     if (X_Log_Client_Id == null
                             && responseInfo.responseHeader != null
                             && responseInfo.responseHeader.get("x-log-client-id") != null) {
                         X_Log_Client_Id = responseInfo.responseHeader.get("x-log-client-id");
                     }
-                    cleanTempLogFile();
+                    segment.delete();
+                }
+                synchronized (UploadInfoReporter.this) {
+                    isReporting = false;
                 }
-                isReporting = false;
 
                 destroyTransactionResource();
-            }
-        });
 
-    }
-
-    private byte[] getLogData() {
-        if (recorderTempFile == null || recorderTempFile.length() == 0) {
-            return null;
-        }
-
-        int fileSize = (int) recorderTempFile.length();
-        RandomAccessFile randomAccessFile = null;
-        byte[] data = null;
-        try {
-            randomAccessFile = new RandomAccessFile(recorderTempFile, "r");
-            ByteArrayOutputStream out = new ByteArrayOutputStream(fileSize);
-            int len = 0;
-            byte[] buff = new byte[fileSize];
-            while ((len = randomAccessFile.read(buff)) >= 0) {
-                out.write(buff, 0, len);
-            }
-            data = out.toByteArray();
-        } catch (FileNotFoundException ignored) {
-        } catch (IOException e) {
-            data = null;
-        } finally {
-            if (randomAccessFile != null) {
-                try {
-                    randomAccessFile.close();
-                } catch (IOException e) {
+                // 继续上报剩余的分段
+                if (isSuccess) {
+                    reportToServerIfNeeded(tokenString);
                 }
             }
-        }
+        });
 
-        return data;
     }
 
     private RequestTransaction createUploadRequestTransaction(String tokenString) {
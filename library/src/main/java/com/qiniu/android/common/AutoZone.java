@@ -4,6 +4,7 @@ import com.qiniu.android.http.ResponseInfo;
 import com.qiniu.android.http.request.RequestTransaction;
 import com.qiniu.android.http.metrics.UploadRegionRequestMetrics;
 import com.qiniu.android.storage.UpToken;
+import com.qiniu.android.transaction.TransactionManager;
 import com.qiniu.android.utils.SingleFlight;
 
 import org.json.JSONObject;
@@ -25,6 +26,7 @@ public final class AutoZone extends Zone {
     private ArrayList<RequestTransaction> transactions = new ArrayList<>();
 
     private static final SingleFlight SingleFlight = new SingleFlight();
+    private static boolean isRecentZonesPrefetched = false;
 
     //私有云可能改变ucServer
     public void setUcServer(String ucServer) {
@@ -55,27 +57,80 @@ public final class AutoZone extends Zone {
 
     @Override
     public void preQuery(final UpToken token, final QueryHandler completeHandler) {
+        preQuery(token, true, completeHandler);
+    }
+
+    /**
+     * @param recordBucket 是否记录为最近使用的 bucket，预取时不记录，避免改变最近使用的顺序
+     */
+    private void preQuery(final UpToken token, boolean recordBucket, final QueryHandler completeHandler) {
         if (token == null || !token.isValid()) {
             completeHandler.complete(-1, ResponseInfo.invalidToken("invalid token"), null);
             return;
         }
 
         final String cacheKey = token.index();
-        ZonesInfo zonesInfo = getZonesInfo(token);
+        if (recordBucket) {
+            AutoZoneCache.getInstance().recordBucket(token);
+        }
 
-        if (zonesInfo == null) {
-            zonesInfo = GlobalCache.getInstance().zonesInfoForKey(cacheKey);
-            if (zonesInfo != null && zonesInfo.isValid()) {
+        AutoZoneCache.Entry cacheEntry = AutoZoneCache.getInstance().get(cacheKey);
+        if (cacheEntry != null && cacheEntry.isUsable()) {
+            ZonesInfo zonesInfo = cacheEntry.zonesInfo();
+            if (zonesInfo.isValid()) {
                 zonesInfoMap.put(cacheKey, zonesInfo);
+                if (cacheEntry.isExpired()) {
+                    // 先使用过期的结果，同时在后台刷新
+                    queryZonesInfo(token, null);
+                }
+                completeHandler.complete(0, ResponseInfo.successResponse(), null);
+                return;
             }
         }
 
-        if (zonesInfo != null && zonesInfo.isValid()) {
+        // 无缓存时使用查询失败时设置的默认 zone
+        ZonesInfo zonesInfo = getZonesInfo(token);
+        if (cacheEntry == null && zonesInfo != null && zonesInfo.isValid()) {
             completeHandler.complete(0, ResponseInfo.successResponse(), null);
             return;
         }
 
+        queryZonesInfo(token, completeHandler);
+    }
+
+    /**
+     * 预取最近使用过的 bucket 的上传域名：加载磁盘缓存，已过期的在后台刷新，每个进程只执行一次
+     */
+    public void prefetchRecentZones() {
+        synchronized (AutoZone.class) {
+            if (isRecentZonesPrefetched) {
+                return;
+            }
+            isRecentZonesPrefetched = true;
+        }
+
+        TransactionManager.Transaction prefetch = new TransactionManager.Transaction("autoZonePrefetch", 0, new Runnable() {
+            @Override
+            public void run() {
+                for (UpToken token : AutoZoneCache.getInstance().recentBucketTokens()) {
+                    preQuery(token, false, new QueryHandler() {
+                        @Override
+                        public void complete(int code, ResponseInfo responseInfo, UploadRegionRequestMetrics metrics) {
+                        }
+                    });
+                }
+            }
+        });
+        TransactionManager.getInstance().addTransaction(prefetch);
+    }
 
+    /**
+     * 查询上传域名，同一 bucket 同时只有一个查询
+     *
+     * @param completeHandler 为 null 时为后台刷新，查询失败时保留原有结果
+     */
+    private void queryZonesInfo(final UpToken token, final QueryHandler completeHandler) {
+        final String cacheKey = token.index();
         try {
             SingleFlight.perform(cacheKey, new SingleFlight.ActionHandler() {
                 @Override
@@ -107,9 +162,11 @@ public final class AutoZone extends Zone {
                     if (responseInfo != null && responseInfo.isOK() && response != null) {
                         ZonesInfo zonesInfoP = ZonesInfo.createZonesInfo(response);
                         zonesInfoMap.put(cacheKey, zonesInfoP);
-                        GlobalCache.getInstance().cache(response, cacheKey);
-                        completeHandler.complete(0, responseInfo, requestMetrics);
-                    } else {
+                        AutoZoneCache.getInstance().set(cacheKey, response);
+                        if (completeHandler != null) {
+                            completeHandler.complete(0, responseInfo, requestMetrics);
+                        }
+                    } else if (completeHandler != null) {
                         if (responseInfo.isNetworkBroken()) {
                             completeHandler.complete(ResponseInfo.NetworkError, responseInfo, requestMetrics);
                         } else {
@@ -123,7 +180,9 @@ public final class AutoZone extends Zone {
 
         } catch (Exception e) {
             /// 此处永远不会执行，回调只为占位
-            completeHandler.complete(ResponseInfo.NetworkError, ResponseInfo.localIOError(e.toString()), null);
+            if (completeHandler != null) {
+                completeHandler.complete(ResponseInfo.NetworkError, ResponseInfo.localIOError(e.toString()), null);
+            }
         }
     }
 
@@ -131,12 +190,16 @@ public final class AutoZone extends Zone {
         List<String> hosts = getUcServerList();
 
         RequestTransaction transaction = new RequestTransaction(hosts, ZoneInfo.EmptyRegionId, token);
-        transactions.add(transaction);
+        synchronized (transactions) {
+            transactions.add(transaction);
+        }
         return transaction;
     }
 
     private void destroyUploadRequestTransaction(RequestTransaction transaction) {
-        transactions.remove(transaction);
+        synchronized (transactions) {
+            transactions.remove(transaction);
+        }
     }
 
     private static class SingleFlightValue {
@@ -144,33 +207,4 @@ public final class AutoZone extends Zone {
         private JSONObject response;
         private UploadRegionRequestMetrics metrics;
     }
-
-    private static class GlobalCache {
-        private static GlobalCache globalCache = new GlobalCache();
-        private ConcurrentHashMap<String, JSONObject> cache = new ConcurrentHashMap<>();
-
-        private static GlobalCache getInstance() {
-            return globalCache;
-        }
-
-        private void cache(JSONObject zonesInfo, String cacheKey) {
-            if (cacheKey == null || cacheKey.isEmpty()) {
-                return;
-            }
-
-            if (zonesInfo == null) {
-                cache.remove(cacheKey);
-            } else {
-                cache.put(cacheKey, zonesInfo);
-            }
-        }
-
-        private ZonesInfo zonesInfoForKey(String cacheKey) {
-            if (cacheKey == null || cacheKey.isEmpty()) {
-                return null;
-            }
-
-            return ZonesInfo.createZonesInfo(cache.get(cacheKey));
-        }
-    }
 }
@@ -0,0 +1,261 @@
+package com.qiniu.android.common;
+
+import com.qiniu.android.storage.FileRecorder;
+import com.qiniu.android.storage.GlobalConfiguration;
+import com.qiniu.android.storage.Recorder;
+import com.qiniu.android.storage.UpToken;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * AutoZone 查询结果的两级缓存：内存 + 磁盘（GlobalConfiguration.zoneCacheDir），磁盘缓存多进程共享；
+ * 缓存按查询结果中的 ttl 过期，过期后 MaxStaleTime 内仍可使用，由调用方在后台刷新；
+ * 同时记录最近使用的 bucket，用于启动时预取
+ */
+final class AutoZoneCache {
+
+    // 过期后仍可使用的最长时间，单位：毫秒
+    static final long MaxStaleTime = 24 * 3600 * 1000;
+
+    private static final String kRecentBucketsKey = "recentBuckets";
+    private static final String kZoneKeyPrefix = "zone:";
+    private static final int MaxRecentBucketCount = 8;
+
+    private static final AutoZoneCache instance = new AutoZoneCache();
+
+    private final ConcurrentHashMap<String, Entry> memoryCache = new ConcurrentHashMap<>();
+    private Recorder diskCache;
+    private boolean isDiskCacheLoaded = false;
+    // 最近使用的 bucket，最近使用的在前，元素为 {accessKey, bucket}
+    private ArrayList<String[]> recentBuckets;
+
+    private AutoZoneCache() {
+    }
+
+    /**
+     * 使用指定的磁盘缓存，不与共享的缓存互相影响，用于测试
+     *
+     * @param diskCache 磁盘缓存，为 null 时只使用内存缓存
+     */
+    AutoZoneCache(Recorder diskCache) {
+        this.diskCache = diskCache;
+        this.isDiskCacheLoaded = true;
+    }
+
+    static AutoZoneCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * 获取缓存，内存缓存已过期时检查磁盘缓存是否已被其他进程更新
+     *
+     * @param cacheKey 缓存 key
+     * @return 没有缓存返回 null
+     */
+    Entry get(String cacheKey) {
+        if (cacheKey == null || cacheKey.length() == 0) {
+            return null;
+        }
+
+        Entry entry = memoryCache.get(cacheKey);
+        if (entry != null && !entry.isExpired()) {
+            return entry;
+        }
+
+        Entry diskEntry = Entry.fromBytes(diskGet(kZoneKeyPrefix + cacheKey));
+        if (diskEntry != null && (entry == null || diskEntry.queryTime > entry.queryTime)) {
+            memoryCache.put(cacheKey, diskEntry);
+            entry = diskEntry;
+        }
+        return entry;
+    }
+
+    /**
+     * 缓存查询结果
+     *
+     * @param cacheKey 缓存 key
+     * @param response UC 查询结果
+     */
+    void set(String cacheKey, JSONObject response) {
+        if (cacheKey == null || cacheKey.length() == 0 || response == null) {
+            return;
+        }
+
+        Entry entry = new Entry(response, new Date().getTime());
+        memoryCache.put(cacheKey, entry);
+        diskSet(kZoneKeyPrefix + cacheKey, entry.toBytes());
+    }
+
+    /**
+     * 记录最近使用的 bucket，顺序不变时不写磁盘
+     */
+    synchronized void recordBucket(UpToken token) {
+        if (token == null || !token.isValid()) {
+            return;
+        }
+
+        ArrayList<String[]> buckets = loadRecentBuckets();
+        if (buckets.size() > 0 && isSameBucket(buckets.get(0), token)) {
+            return;
+        }
+        for (int i = 0; i < buckets.size(); i++) {
+            if (isSameBucket(buckets.get(i), token)) {
+                buckets.remove(i);
+                break;
+            }
+        }
+        buckets.add(0, new String[]{token.accessKey, token.bucket});
+        while (buckets.size() > MaxRecentBucketCount) {
+            buckets.remove(buckets.size() - 1);
+        }
+
+        JSONArray array = new JSONArray();
+        for (String[] bucket : buckets) {
+            JSONArray item = new JSONArray();
+            item.put(bucket[0]);
+            item.put(bucket[1]);
+            array.put(item);
+        }
+        diskSet(kRecentBucketsKey, array.toString().getBytes());
+    }
+
+    /**
+     * 最近使用的 bucket 对应的查询 token
+     */
+    synchronized List<UpToken> recentBucketTokens() {
+        ArrayList<UpToken> tokens = new ArrayList<>();
+        for (String[] bucket : loadRecentBuckets()) {
+            tokens.add(UpToken.queryToken(bucket[0], bucket[1]));
+        }
+        return tokens;
+    }
+
+    private ArrayList<String[]> loadRecentBuckets() {
+        if (recentBuckets != null) {
+            return recentBuckets;
+        }
+
+        recentBuckets = new ArrayList<>();
+        byte[] data = diskGet(kRecentBucketsKey);
+        if (data == null) {
+            return recentBuckets;
+        }
+        try {
+            JSONArray array = new JSONArray(new String(data));
+            for (int i = 0; i < array.length() && recentBuckets.size() < MaxRecentBucketCount; i++) {
+                JSONArray item = array.getJSONArray(i);
+                recentBuckets.add(new String[]{item.getString(0), item.getString(1)});
+            }
+        } catch (Exception ignored) {
+        }
+        return recentBuckets;
+    }
+
+    private static boolean isSameBucket(String[] bucket, UpToken token) {
+        return bucket[0].equals(token.accessKey) && bucket[1].equals(token.bucket);
+    }
+
+    private byte[] diskGet(String key) {
+        Recorder recorder = diskCache();
+        if (recorder == null) {
+            return null;
+        }
+        return recorder.get(key);
+    }
+
+    private void diskSet(String key, byte[] data) {
+        Recorder recorder = diskCache();
+        if (recorder == null) {
+            return;
+        }
+        recorder.set(key, data);
+    }
+
+    // 磁盘缓存不可用时只使用内存缓存
+    private synchronized Recorder diskCache() {
+        if (isDiskCacheLoaded) {
+            return diskCache;
+        }
+        isDiskCacheLoaded = true;
+        try {
+            diskCache = new FileRecorder(GlobalConfiguration.getInstance().zoneCacheDir);
+        } catch (Exception e) {
+            diskCache = null;
+        }
+        return diskCache;
+    }
+
+    static class Entry {
+        // UC 查询结果
+        final JSONObject response;
+        // 查询时间，单位：毫秒
+        final long queryTime;
+        // 查询结果中各区域最小的 ttl，单位：毫秒
+        final long ttl;
+
+        private Entry(JSONObject response, long queryTime) {
+            this.response = response;
+            this.queryTime = queryTime;
+            this.ttl = minTtl(response) * 1000L;
+        }
+
+        ZonesInfo zonesInfo() {
+            return ZonesInfo.createZonesInfo(response);
+        }
+
+        boolean isExpired() {
+            return new Date().getTime() - queryTime >= ttl;
+        }
+
+        /**
+         * @return 未过期或过期时间不超过 MaxStaleTime
+         */
+        boolean isUsable() {
+            return new Date().getTime() - queryTime < ttl + MaxStaleTime;
+        }
+
+        private byte[] toBytes() {
+            JSONObject json = new JSONObject();
+            try {
+                json.put("queryTime", queryTime);
+                json.put("response", response);
+            } catch (Exception ignored) {
+            }
+            return json.toString().getBytes();
+        }
+
+        private static Entry fromBytes(byte[] data) {
+            if (data == null) {
+                return null;
+            }
+            try {
+                JSONObject json = new JSONObject(new String(data));
+                return new Entry(json.getJSONObject("response"), json.getLong("queryTime"));
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        private static long minTtl(JSONObject response) {
+            long ttl = 0;
+            JSONArray hosts = response.optJSONArray("hosts");
+            if (hosts == null) {
+                return 0;
+            }
+            for (int i = 0; i < hosts.length(); i++) {
+                JSONObject host = hosts.optJSONObject(i);
+                long hostTtl = host != null ? host.optLong("ttl") : 0;
+                if (hostTtl > 0 && (ttl == 0 || hostTtl < ttl)) {
+                    ttl = hostTtl;
+                }
+            }
+            return ttl;
+        }
+    }
+}
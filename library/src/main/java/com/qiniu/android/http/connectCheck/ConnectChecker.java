@@ -7,20 +7,50 @@ import com.qiniu.android.http.request.Request;
 import com.qiniu.android.http.request.httpclient.SystemHttpClient;
 import com.qiniu.android.storage.GlobalConfiguration;
 import com.qiniu.android.utils.LogUtil;
+import com.qiniu.android.utils.NetworkChangeMonitor;
 import com.qiniu.android.utils.SingleFlight;
+import com.qiniu.android.utils.Utils;
 import com.qiniu.android.utils.Wait;
 
 import org.json.JSONObject;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 网络连通性检测：并发向 connectCheckURLStrings 发送 HEAD 请求，任意一个成功则认为网络连通；
+ * 检测结果缓存一段时间（连通 ConnectedCacheTime，不连通 NotConnectedCacheTime），
+ * 有效期内的检测直接返回缓存结果，系统网络变化或 connectCheckURLStrings 变化时缓存失效；
+ * 同一时刻的多个检测合并为一次
+ */
 public class ConnectChecker {
 
+    // 连通结果的缓存时间，单位：毫秒
+    private static final long ConnectedCacheTime = 10 * 1000;
+    // 不连通结果的缓存时间，较短以便网络恢复后尽快感知，单位：毫秒
+    private static final long NotConnectedCacheTime = 3 * 1000;
+
     private static SingleFlight<UploadSingleRequestMetrics> singleFlight = new SingleFlight<>();
+    private static volatile CheckVerdict lastVerdict;
+    // 网络变化的次数，检测过程中网络发生变化时不缓存检测结果
+    private static final AtomicInteger networkChangeCount = new AtomicInteger(0);
+    private static final AtomicBoolean isListening = new AtomicBoolean(false);
 
     public static boolean isConnected(UploadSingleRequestMetrics metrics) {
         return metrics != null && metrics.response != null && metrics.response.statusCode > 99;
     }
 
+    /**
+     * 同步检测，有缓存时直接返回，否则阻塞当前线程直到检测结束
+     *
+     * @return 检测的 metrics，通过 isConnected 判断是否连通
+     */
     public static UploadSingleRequestMetrics check() {
+        CheckVerdict verdict = validVerdict();
+        if (verdict != null) {
+            return verdict.metrics;
+        }
 
         final CheckResult result = new CheckResult();
 
@@ -37,8 +67,25 @@ public class ConnectChecker {
         return result.metrics;
     }
 
-    private static void check(final CheckCompleteHandler completeHandler) {
+    /**
+     * 异步检测，不阻塞当前线程；有缓存时在当前线程直接回调，否则在检测请求的回调线程中回调
+     *
+     * @param completeHandler 检测结束回调，参数为检测的 metrics，通过 isConnected 判断是否连通
+     */
+    public static void check(final CheckCompleteHandler completeHandler) {
+        if (completeHandler == null) {
+            return;
+        }
 
+        CheckVerdict verdict = validVerdict();
+        if (verdict != null) {
+            completeHandler.complete(verdict.metrics);
+            return;
+        }
+
+        listenNetworkChangeIfNeeded();
+        final String hostsKey = hostsKey();
+        final int changeCount = networkChangeCount.get();
         try {
             singleFlight.perform("connect_check", new SingleFlight.ActionHandler<UploadSingleRequestMetrics>() {
                 @Override
@@ -46,6 +93,9 @@ public class ConnectChecker {
                     checkAllHosts(new CheckCompleteHandler() {
                         @Override
                         public void complete(UploadSingleRequestMetrics metrics) {
+                            if (hostsKey != null && changeCount == networkChangeCount.get()) {
+                                lastVerdict = new CheckVerdict(hostsKey, metrics);
+                            }
                             singleFlightComplete.complete(metrics);
                         }
                     });
@@ -61,9 +111,45 @@ public class ConnectChecker {
         }
     }
 
-    private static void checkAllHosts(final CheckCompleteHandler completeHandler) {
+    /**
+     * 使缓存的检测结果失效
+     */
+    public static void invalidate() {
+        networkChangeCount.incrementAndGet();
+        lastVerdict = null;
+    }
+
+    private static CheckVerdict validVerdict() {
+        CheckVerdict verdict = lastVerdict;
+        if (verdict == null || !verdict.isValid() || !verdict.hostsKey.equals(hostsKey())) {
+            return null;
+        }
+        return verdict;
+    }
+
+    private static String hostsKey() {
         String[] allHosts = GlobalConfiguration.getInstance().connectCheckURLStrings;
         if (allHosts == null) {
+            return null;
+        }
+        return Arrays.toString(allHosts);
+    }
+
+    private static void listenNetworkChangeIfNeeded() {
+        if (!isListening.compareAndSet(false, true)) {
+            return;
+        }
+        NetworkChangeMonitor.addListener(new NetworkChangeMonitor.Listener() {
+            @Override
+            public void onNetworkChanged() {
+                invalidate();
+            }
+        });
+    }
+
+    private static void checkAllHosts(final CheckCompleteHandler completeHandler) {
+        String[] allHosts = GlobalConfiguration.getInstance().connectCheckURLStrings;
+        if (allHosts == null || allHosts.length == 0) {
             completeHandler.complete(null);
             return;
         }
@@ -120,10 +206,27 @@ public class ConnectChecker {
     }
 
 
-    private interface CheckCompleteHandler {
+    public interface CheckCompleteHandler {
         void complete(UploadSingleRequestMetrics metrics);
     }
 
+    private static class CheckVerdict {
+        private final String hostsKey;
+        private final UploadSingleRequestMetrics metrics;
+        private final long expireTime;
+
+        private CheckVerdict(String hostsKey, UploadSingleRequestMetrics metrics) {
+            this.hostsKey = hostsKey;
+            this.metrics = metrics;
+            long cacheTime = isConnected(metrics) ? ConnectedCacheTime : NotConnectedCacheTime;
+            this.expireTime = Utils.currentTimestamp() + cacheTime;
+        }
+
+        private boolean isValid() {
+            return Utils.currentTimestamp() < expireTime;
+        }
+    }
+
     private static class CheckStatus {
         private int totalCount = 0;
         private int completeCount = 0;
@@ -10,6 +10,7 @@ import com.qiniu.android.http.metrics.UploadRegionRequestMetrics;
 import com.qiniu.android.storage.GlobalConfiguration;
 import com.qiniu.android.storage.UpToken;
 import com.qiniu.android.utils.AndroidNetwork;
+import com.qiniu.android.utils.AsyncRun;
 import com.qiniu.android.utils.Utils;
 import com.qiniu.android.utils.Wait;
 
@@ -17,21 +18,58 @@ import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by yangsen on 2020/5/28
  */
 public class DnsPrefetcher {
 
+    // 同时解析的 host 个数
+    private static final int MaxConcurrentLookupCount = 4;
+    // 在 ttl 到期前提前刷新的最长时间，单位：秒
+    private static final long MaxRefreshAheadTime = 30;
+    // 定时刷新的最短间隔，单位：秒
+    private static final long MinRefreshInterval = 5;
+    // 超过此时间未被使用的 host 不再定时刷新，下次预解析时再刷新，单位：毫秒
+    private static final long MaxIdleRefreshTime = 10 * 60 * 1000;
+
     private boolean isPrefetching = false;
     private DnsCacheInfo dnsCacheInfo = null;
     private ConcurrentHashMap<String, List<IDnsNetworkAddress>> addressDictionary = new ConcurrentHashMap<>();
     private final HappyDns happyDns = new HappyDns();
 
+    // dns 解析会阻塞线程，使用单独的线程池，不占用 AsyncRun 的后台线程
+    private final ThreadPoolExecutor lookupExecutor;
+    // 正在解析的 host，同一 host 同时只解析一次
+    private final ConcurrentHashMap<String, Boolean> resolvingHosts = new ConcurrentHashMap<>();
+    // 已安排定时刷新的 host 及其刷新时间，单位：秒
+    private final ConcurrentHashMap<String, Long> scheduledRefreshTimes = new ConcurrentHashMap<>();
+    // host 最近一次被使用的时间，单位：毫秒
+    private final ConcurrentHashMap<String, Long> lastLookupTimes = new ConcurrentHashMap<>();
+    // 在此时间之前解析的地址需重新解析（如：本地 IP 变化），新地址解析成功前继续使用，单位：秒
+    private volatile long staleBeforeTime = 0;
+
     private final static DnsPrefetcher dnsPrefetcher = new DnsPrefetcher();
     private DnsPrefetcher(){
+        lookupExecutor = new ThreadPoolExecutor(MaxConcurrentLookupCount, MaxConcurrentLookupCount, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "qiniu-dns-prefetch");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        lookupExecutor.allowCoreThreadTimeOut(true);
+
         happyDns.setQueryErrorHandler(new HappyDns.DnsQueryErrorHandler() {
             @Override
             public void queryError(Exception e, String host) {
@@ -94,9 +132,12 @@ public class DnsPrefetcher {
         }
         String host = address.getHostValue();
         List<IDnsNetworkAddress> addressList = addressDictionary.get(host);
+        if (addressList == null){
+            return;
+        }
         ArrayList<IDnsNetworkAddress> addressListNew = new ArrayList<>();
         for (IDnsNetworkAddress addressP : addressList){
-            if (!addressP.getIpValue().equals(addressP.getIpValue())){
+            if (addressP.getIpValue() != null && !addressP.getIpValue().equals(address.getIpValue())){
                 addressListNew.add(addressP);
             }
         }
@@ -110,6 +151,12 @@ public class DnsPrefetcher {
 
         List<IDnsNetworkAddress> addressList = addressDictionary.get(host);
         if (addressList != null && addressList.size() > 0){
+            long now = Utils.currentTimestamp();
+            Long lastLookupTime = lastLookupTimes.put(host, now);
+            // host 由空闲变为使用中时重新安排定时刷新
+            if (lastLookupTime == null || now - lastLookupTime > MaxIdleRefreshTime){
+                scheduleRefresh(host);
+            }
             return addressList;
         } else {
             return null;
@@ -139,7 +186,7 @@ public class DnsPrefetcher {
 
         String localIp = AndroidNetwork.getHostIP();
         if (localIp == null || getDnsCacheInfo() == null || !(localIp.equals(getDnsCacheInfo().getLocalIp()))){
-            clearPreHosts();
+            markPreHostsStale();
         }
 
         setPrefetching(true);
@@ -150,49 +197,82 @@ public class DnsPrefetcher {
         setPrefetching(false);
     }
 
+    /**
+     * 并行解析需要刷新的 host，最多等待 dnsPrefetchTimeout，超时未完成的 host 在后台继续解析
+     */
     private void preFetchHosts(String[] fetchHosts){
-        String[] nextFetchHosts = fetchHosts;
+        if (fetchHosts == null || fetchHosts.length == 0){
+            return;
+        }
 
-        nextFetchHosts = preFetchHosts(nextFetchHosts, GlobalConfiguration.getInstance().dns);
-        nextFetchHosts = preFetchHosts(nextFetchHosts, happyDns);
-    }
+        LinkedHashSet<String> hosts = new LinkedHashSet<>();
+        for (String host : fetchHosts){
+            if (host != null && host.length() > 0 && shouldRefreshHost(host)){
+                hosts.add(host);
+            }
+        }
+        if (hosts.size() == 0){
+            return;
+        }
 
-    private String[] preFetchHosts(String[] preHosts, Dns dns){
-        if (preHosts == null || preHosts.length == 0){
-            return null;
+        final CountDownLatch latch = new CountDownLatch(hosts.size());
+        for (final String host : hosts){
+            lookupExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refreshHost(host);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
         }
-        if (dns == null){
-            return preHosts;
+
+        try {
+            latch.await(GlobalConfiguration.getInstance().dnsPrefetchTimeout, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {
         }
+    }
 
-        ArrayList<String> failHosts = new ArrayList<>();
-        for (String host : preHosts){
-            int rePreNum = 0;
-            boolean isSuccess = false;
+    // 先使用自定义 dns，失败后使用 happyDns；解析成功后在 ttl 到期前安排下一次刷新
+    private boolean refreshHost(String host){
+        if (resolvingHosts.putIfAbsent(host, true) != null){
+            return false;
+        }
 
-            while (rePreNum < GlobalConfiguration.getInstance().dnsRepreHostNum){
-                if (preFetchHost(host, dns)){
-                    isSuccess = true;
-                    break;
-                }
-                rePreNum += 1;
-            }
+        boolean isSuccess;
+        try {
+            isSuccess = preFetchHost(host, GlobalConfiguration.getInstance().dns) || preFetchHost(host, happyDns);
+        } finally {
+            resolvingHosts.remove(host);
+        }
 
-            if (!isSuccess){
-                failHosts.add(host);
-            }
+        if (isSuccess){
+            scheduleRefresh(host);
         }
-        return failHosts.toArray(new String[0]);
-     }
+        return isSuccess;
+    }
 
     private boolean preFetchHost(String preHost, Dns dns){
-        if (preHost == null || preHost.length() == 0){
+        if (dns == null){
             return false;
         }
 
-        List<IDnsNetworkAddress> preAddressList = addressDictionary.get(preHost);
-        if (preAddressList != null && preAddressList.size() > 0){
-            return true;
+        int rePreNum = 0;
+        while (rePreNum < GlobalConfiguration.getInstance().dnsRepreHostNum){
+            if (lookupHost(preHost, dns)){
+                return true;
+            }
+            rePreNum += 1;
+        }
+        return false;
+    }
+
+    // 解析成功才替换 host 的地址，失败时继续使用旧地址
+    private boolean lookupHost(String preHost, Dns dns){
+        if (preHost == null || preHost.length() == 0){
+            return false;
         }
 
         List<IDnsNetworkAddress> addressList = new ArrayList<>();
@@ -200,16 +280,19 @@ public class DnsPrefetcher {
             List<IDnsNetworkAddress> preIAddressList = dns.lookup(preHost);
             if (preIAddressList != null && preIAddressList.size() > 0){
                 for (IDnsNetworkAddress preIAddress : preIAddressList) {
-                    DnsNetworkAddress address = new DnsNetworkAddress(preIAddress.getHostValue(),
+                    if (preIAddress == null || preIAddress.getIpValue() == null){
+                        continue;
+                    }
+                    DnsNetworkAddress address = new DnsNetworkAddress(preIAddress.getHostValue() != null ? preIAddress.getHostValue() : preHost,
                             preIAddress.getIpValue(),
                             preIAddress.getTtlValue() != null ? preIAddress.getTtlValue() : GlobalConfiguration.getInstance().dnsCacheTime,
                             preIAddress.getSourceValue(),
-                            preIAddress.getTimestampValue());
+                            Utils.currentTimestamp());
                     addressList.add(address);
                 }
             }
-        } catch (UnknownHostException e) {}
-        if (addressList != null && addressList.size() > 0){
+        } catch (UnknownHostException ignored) {}
+        if (addressList.size() > 0){
             addressDictionary.put(preHost, addressList);
             return true;
         } else {
@@ -217,6 +300,83 @@ public class DnsPrefetcher {
         }
     }
 
+    /**
+     * host 是否需要重新解析：没有地址、地址在网络变化前解析或者任一地址即将过期
+     */
+    private boolean shouldRefreshHost(String host){
+        List<IDnsNetworkAddress> addressList = addressDictionary.get(host);
+        if (addressList == null || addressList.size() == 0){
+            return true;
+        }
+
+        for (IDnsNetworkAddress address : addressList){
+            Long timestamp = timestampSecond(address);
+            if (timestamp == null || timestamp < staleBeforeTime){
+                return true;
+            }
+        }
+        return currentSecond() >= refreshTime(addressList);
+    }
+
+    // 最早过期的地址的刷新时间：ttl 到期前 ttl/10（最多 MaxRefreshAheadTime），单位：秒
+    private long refreshTime(List<IDnsNetworkAddress> addressList){
+        long refreshTime = Long.MAX_VALUE;
+        for (IDnsNetworkAddress address : addressList){
+            Long timestamp = timestampSecond(address);
+            if (timestamp == null){
+                return 0;
+            }
+            long ttl = address.getTtlValue() != null ? address.getTtlValue() : GlobalConfiguration.getInstance().dnsCacheTime;
+            long ahead = Math.min(ttl / 10, MaxRefreshAheadTime);
+            refreshTime = Math.min(refreshTime, timestamp + ttl - ahead);
+        }
+        return refreshTime;
+    }
+
+    /**
+     * 在 host 的地址过期前安排刷新，同一 host 只保留最早的一次；最近未被使用的 host 不再刷新
+     */
+    private void scheduleRefresh(final String host){
+        if (isIdleHost(host)){
+            return;
+        }
+        List<IDnsNetworkAddress> addressList = addressDictionary.get(host);
+        if (addressList == null || addressList.size() == 0){
+            return;
+        }
+
+        long now = currentSecond();
+        final long refreshTime = Math.max(refreshTime(addressList), now + MinRefreshInterval);
+        Long scheduledTime = scheduledRefreshTimes.get(host);
+        if (scheduledTime != null && scheduledTime > now && scheduledTime <= refreshTime){
+            return;
+        }
+        scheduledRefreshTimes.put(host, refreshTime);
+
+        long delay = Math.min((refreshTime - now) * 1000, Integer.MAX_VALUE);
+        AsyncRun.runInBack((int) delay, new Runnable() {
+            @Override
+            public void run() {
+                if (!scheduledRefreshTimes.remove(host, refreshTime) || !isDnsOpen() || isIdleHost(host)){
+                    return;
+                }
+                lookupExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (shouldRefreshHost(host) && refreshHost(host)){
+                            recorderDnsCache();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private boolean isIdleHost(String host){
+        Long lastLookupTime = lastLookupTimes.get(host);
+        return lastLookupTime == null || Utils.currentTimestamp() - lastLookupTime > MaxIdleRefreshTime;
+    }
+
     private boolean recoverDnsCache(byte[] data){
 
         DnsCacheInfo dnsCacheInfo = DnsCacheInfo.createDnsCacheInfoByData(data);
@@ -231,7 +391,7 @@ public class DnsPrefetcher {
         return false;
     }
 
-    private boolean recorderDnsCache(){
+    private synchronized boolean recorderDnsCache(){
         String currentTime = Utils.currentTimestamp() + "";
         String localIp = AndroidNetwork.getHostIP();
 
@@ -259,8 +419,22 @@ public class DnsPrefetcher {
         return true;
     }
 
-    private void clearPreHosts(){
-        addressDictionary.clear();
+    // 网络变化后已解析的地址可能不再是最优的，标记为需刷新，刷新成功前继续使用
+    private void markPreHostsStale(){
+        staleBeforeTime = currentSecond();
+    }
+
+    // 地址的解析时间，保存时以毫秒为单位，兼容以秒为单位的旧缓存，单位：秒
+    private static Long timestampSecond(IDnsNetworkAddress address){
+        Long timestamp = address.getTimestampValue();
+        if (timestamp == null){
+            return null;
+        }
+        return timestamp > 100000000000L ? timestamp / 1000 : timestamp;
+    }
+
+    private static long currentSecond(){
+        return Utils.currentTimestamp() / 1000;
     }
 
 
@@ -31,6 +31,14 @@ public class UploadRegionRequestMetrics {
         return metricsList.size();
     }
 
+    /**
+     * @return 最后一次请求的 metrics，没有请求时为 null
+     */
+    public UploadSingleRequestMetrics lastMetrics(){
+        int size = metricsList.size();
+        return size > 0 ? metricsList.get(size - 1) : null;
+    }
+
     public Long bytesSend(){
         if (metricsList.size() == 0){
             return 0l;
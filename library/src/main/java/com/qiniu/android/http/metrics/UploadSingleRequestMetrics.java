@@ -18,6 +18,9 @@ public class UploadSingleRequestMetrics {
     public Request request;
     public ResponseInfo response;
 
+    // 请求失败后，重试前等待的时间，单位：毫秒；未重试时为 0
+    public long retryDelay = 0;
+
     public String clientName;
     public String clientVersion;
 
@@ -78,6 +81,8 @@ public class UploadSingleRequestMetrics {
     public void setRequest(Request request){
         if (request != null){
             this.request = new Request(request.urlString, request.httpMethod, request.allHeaders, null, request.timeout);
+            this.request.httpBodyRegion = request.httpBodyRegion;
+            this.request.httpForm = request.httpForm;
         }
     }
 
@@ -90,7 +95,9 @@ public class UploadSingleRequestMetrics {
         if (request.allHeaders != null){
             headerLength = (new JSONObject(request.allHeaders)).toString().length();
         }
-        if (request.httpBody != null){
+        if (request.httpBodyRegion != null){
+            bodyLength = request.httpBodyRegion.size;
+        } else if (request.httpBody != null){
             bodyLength = request.httpBody.length;
         }
         return (headerLength + bodyLength);
@@ -12,10 +12,28 @@ import java.util.Date;
 import java.util.Iterator;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * 按 IP 类型（见 Utils.getIpType）统计网络状态：吞吐量、RTT 及失败率的 EWMA，样本的权重随时间衰减，用于选择上传 server
+ */
 public class NetworkStatusManager {
 
     private static String kNetworkStatusDiskKey = "NetworkStatus:v1.0.0";
 
+    // 样本权重衰减一半的时间，单位：毫秒
+    static final long SampleHalfLife = 10 * 60 * 1000;
+    // EWMA 的最小平滑系数，样本较多时新样本的权重不低于此值，以跟踪网络变化
+    static final double MinSmoothingFactor = 0.2;
+    // 吞吐量样本权重为 1 的数据量，数据量较小的请求权重按比例降低
+    static final long FullWeightSpeedSampleBytes = 1024 * 1024;
+    // 选择 server 时进行探索的概率
+    static final double ExplorationRate = 0.05;
+    // 有效样本数低于此值的 server 参与探索
+    static final double ExplorationSampleCount = 3;
+    // 有效样本数低于此值的网络状态不再持久化
+    private static final double MinRecordSampleCount = 0.01;
+    // 持久化的合并间隔，单位：毫秒
+    private static final int RecordDelay = 5000;
+
     private boolean hasInit = false;
     private boolean isHandlingNetworkInfoOfDisk = false;
     private Recorder recorder;
@@ -31,6 +49,7 @@ public class NetworkStatusManager {
         if (hasInit){
             return;
         }
+        hasInit = true;
         networkStatusManager.networkStatusInfo = new ConcurrentHashMap<>();
         networkStatusManager.asyncRecoverNetworkStatusFromDisk();
     }
@@ -50,21 +69,78 @@ public class NetworkStatusManager {
         return status;
     }
 
+    /**
+     * 记录一个吞吐量样本
+     *
+     * @param type  网络状态类型
+     * @param speed 吞吐量，单位：byte/s
+     */
     public void updateNetworkStatus(String type, int speed) {
+        if (type == null || type.length() == 0 || speed <= 0) {
+            return;
+        }
+        getOrCreateNetworkStatus(type).addSample(true, speed, 1, 0);
+        asyncRecordNetworkStatusInfo();
+    }
+
+    /**
+     * 更新建立连接的耗时，如：连接竞速的结果
+     *
+     * @param type        网络状态类型
+     * @param connectTime 建立连接耗时，单位：毫秒
+     */
+    public void updateNetworkConnectTime(String type, int connectTime) {
+        if (type == null || type.length() == 0 || connectTime < 0) {
+            return;
+        }
+        getOrCreateNetworkStatus(type).addSample(true, 0, 0, Math.max(connectTime, 1));
+        asyncRecordNetworkStatusInfo();
+    }
+
+    /**
+     * 记录一次请求的结果，所有请求均会更新失败率及 RTT，吞吐量样本的权重与发送的数据量成正比
+     *
+     * @param type        网络状态类型
+     * @param isSuccess   是否成功连接到服务器并收到响应
+     * @param bytes       发送的数据量，单位：byte
+     * @param elapsedTime 请求耗时，单位：毫秒
+     * @param rtt         RTT，单位：毫秒，0 表示未知
+     */
+    public void updateNetworkStatus(String type, boolean isSuccess, long bytes, long elapsedTime, long rtt) {
         if (type == null || type.length() == 0) {
             return;
         }
+        int speed = 0;
+        double speedWeight = 0;
+        if (isSuccess && bytes > 0 && elapsedTime > 0) {
+            speed = (int) Math.min(bytes * 1000 / elapsedTime, Integer.MAX_VALUE);
+            speedWeight = Math.min((double) bytes / FullWeightSpeedSampleBytes, 1);
+        }
+        getOrCreateNetworkStatus(type).addSample(isSuccess, speed, speedWeight, (int) Math.min(Math.max(rtt, 0), Integer.MAX_VALUE));
+        asyncRecordNetworkStatusInfo();
+    }
+
+    /**
+     * 是否进行探索：以 ExplorationRate 的概率优先选择样本较少的 server，使网络状态变化后也能发现更优的 server
+     */
+    public static boolean shouldExplore() {
+        return Math.random() < ExplorationRate;
+    }
+
+    private NetworkStatus getOrCreateNetworkStatus(String type) {
         NetworkStatus status = networkStatusInfo.get(type);
         if (status == null) {
             status = new NetworkStatus();
-            networkStatusInfo.put(type, status);
+            NetworkStatus oldStatus = networkStatusInfo.putIfAbsent(type, status);
+            if (oldStatus != null) {
+                status = oldStatus;
+            }
         }
-        status.setSpeed(speed);
-
-        asyncRecordNetworkStatusInfo();
+        return status;
     }
 
     // ---------- 持久化 -----------
+    // 一段时间内的多次更新合并为一次写入
     private void asyncRecordNetworkStatusInfo() {
         synchronized (this) {
             if (isHandlingNetworkInfoOfDisk) {
@@ -72,11 +148,13 @@ public class NetworkStatusManager {
             }
             isHandlingNetworkInfoOfDisk = true;
         }
-        AsyncRun.runInBack(new Runnable() {
+        AsyncRun.runInBack(RecordDelay, new Runnable() {
             @Override
             public void run() {
                 recordNetworkStatusInfo();
-                isHandlingNetworkInfoOfDisk = false;
+                synchronized (NetworkStatusManager.this) {
+                    isHandlingNetworkInfoOfDisk = false;
+                }
             }
         });
     }
@@ -92,7 +170,9 @@ public class NetworkStatusManager {
             @Override
             public void run() {
                 recoverNetworkStatusFromDisk();
-                isHandlingNetworkInfoOfDisk = true;
+                synchronized (NetworkStatusManager.this) {
+                    isHandlingNetworkInfoOfDisk = false;
+                }
             }
         });
     }
@@ -108,11 +188,16 @@ public class NetworkStatusManager {
         JSONObject networkStatusInfoJson = new JSONObject();
         for (String key : networkStatusInfo.keySet()) {
             NetworkStatus status = networkStatusInfo.get(key);
-            if (status != null) {
-                try {
-                    networkStatusInfoJson.put(key, status.toJson());
-                } catch (Exception ignored) {
-                }
+            if (status == null) {
+                continue;
+            }
+            if (status.getSampleCount() < MinRecordSampleCount) {
+                networkStatusInfo.remove(key, status);
+                continue;
+            }
+            try {
+                networkStatusInfoJson.put(key, status.toJson());
+            } catch (Exception ignored) {
             }
         }
         recorder.set(kNetworkStatusDiskKey, networkStatusInfoJson.toString().getBytes());
@@ -140,7 +225,8 @@ public class NetworkStatusManager {
                 JSONObject statusJson = networkStatusInfoJSON.getJSONObject(key);
                 NetworkStatus status = NetworkStatus.statusFromJson(statusJson);
                 if (status != null) {
-                    networkStatusInfo.put(key, status);
+                    // 已有本进程的样本时不覆盖
+                    networkStatusInfo.putIfAbsent(key, status);
                 }
             } catch (JSONException ignored) {
             }
@@ -157,22 +243,124 @@ public class NetworkStatusManager {
         }
     }
 
+    /**
+     * 网络状态估计：吞吐量、RTT 及失败率均为 EWMA，平滑系数为 样本权重 / 有效样本数（不低于 MinSmoothingFactor），
+     * 有效样本数每 SampleHalfLife 衰减一半，长时间未更新的估计会被新样本快速替换
+     */
     public static class NetworkStatus {
 
-        private int speed;
+        // 未知时使用的默认值，同时作为样本较少时的先验
+        private static final int DefaultSpeed = 512 * 1024;
+        private static final int DefaultRtt = 200;
+        // 评分使用的参考请求大小，单位：byte
+        private static final long ScoreRequestBytes = 512 * 1024;
 
-        public int getSpeed() {
+        // 吞吐量，单位：byte/s，0 表示未知
+        private int speed;
+        // RTT，单位：毫秒，0 表示未知
+        private int rtt;
+        // 失败率 [0, 1]
+        private double failureRate;
+        // 各估计的有效样本数，在 updateTime 时的值
+        private double speedCount;
+        private double rttCount;
+        private double sampleCount;
+        // 最后一次更新时间，单位：毫秒
+        private long updateTime;
+
+        public synchronized int getSpeed() {
             return speed;
         }
 
-        public void setSpeed(int speed) {
-            this.speed = speed;
+        public synchronized void setSpeed(int speed) {
+            addSample(true, speed, 1, 0);
+        }
+
+        public synchronized int getRtt() {
+            return rtt;
+        }
+
+        public synchronized double getFailureRate() {
+            return failureRate;
+        }
+
+        /**
+         * @return 当前的有效样本数（已按时间衰减）
+         */
+        public synchronized double getSampleCount() {
+            return sampleCount(Utils.currentTimestamp());
+        }
+
+        /**
+         * 评分：参考大小的请求预计耗时（RTT + 传输时间），按失败率放大，单位：毫秒，越小越优；
+         * 样本较少时向默认值靠拢，避免一次偶然的样本决定 server 的选择
+         */
+        public synchronized double score() {
+            long now = Utils.currentTimestamp();
+            double decay = decay(now);
+            double speedValue = blend(speed, speedCount * decay, DefaultSpeed);
+            double rttValue = blend(rtt, rttCount * decay, DefaultRtt);
+            double failureValue = failureRate * decay;
+            double time = rttValue + ScoreRequestBytes * 1000 / Math.max(speedValue, 1);
+            return time / Math.max(1 - failureValue, 0.05);
+        }
+
+        synchronized void addSample(boolean isSuccess, int speedSample, double speedWeight, int rttSample) {
+            long now = Utils.currentTimestamp();
+            double decay = decay(now);
+            speedCount *= decay;
+            rttCount *= decay;
+            sampleCount *= decay;
+            updateTime = now;
+
+            sampleCount += 1;
+            failureRate = ewma(failureRate, isSuccess ? 0 : 1, 1, sampleCount);
+            if (speedSample > 0 && speedWeight > 0) {
+                speedCount += speedWeight;
+                speed = (int) ewma(speed, speedSample, speedWeight, speedCount);
+            }
+            if (rttSample > 0) {
+                rttCount += 1;
+                rtt = (int) ewma(rtt, rttSample, 1, rttCount);
+            }
+        }
+
+        private double sampleCount(long now) {
+            return sampleCount * decay(now);
+        }
+
+        private double decay(long now) {
+            if (updateTime <= 0 || now <= updateTime) {
+                return 1;
+            }
+            return Math.pow(0.5, (double) (now - updateTime) / SampleHalfLife);
+        }
+
+        private static double ewma(double value, double sample, double weight, double count) {
+            if (count <= weight) {
+                return sample;
+            }
+            double alpha = Math.max(weight / count, MinSmoothingFactor * weight);
+            return value + alpha * (sample - value);
+        }
+
+        private static double blend(double value, double count, double prior) {
+            if (value <= 0 || count <= 0) {
+                return prior;
+            }
+            return (value * count + prior) / (count + 1);
         }
 
-        private JSONObject toJson() {
+        private synchronized JSONObject toJson() {
             JSONObject jsonObject = new JSONObject();
             try {
                 jsonObject.put("speed", speed);
+                jsonObject.put("r", rtt);
+                jsonObject.put("f", Math.round(failureRate * 1000) / 1000.0);
+                jsonObject.put("sn", Math.round(speedCount * 100) / 100.0);
+                jsonObject.put("rn", Math.round(rttCount * 100) / 100.0);
+                jsonObject.put("n", Math.round(sampleCount * 100) / 100.0);
+                jsonObject.put("t", updateTime / 1000);
             } catch (Exception ignored) {
             }
             return jsonObject;
@@ -186,6 +374,15 @@ public class NetworkStatusManager {
             NetworkStatus status = new NetworkStatus();
             try {
                 status.speed = jsonObject.getInt("speed");
+                status.rtt = jsonObject.optInt("r", 0);
+                status.failureRate = Math.min(Math.max(jsonObject.optDouble("f", 0), 0), 1);
+                // 旧版本只记录了 speed，视为一个样本
+                status.speedCount = jsonObject.optDouble("sn", status.speed > 0 ? 1 : 0);
+                status.rttCount = jsonObject.optDouble("rn", 0);
+                status.sampleCount = jsonObject.optDouble("n", status.speedCount);
+                // 旧版本没有更新时间，按已衰减一半处理
+                long updateTime = jsonObject.optLong("t", 0) * 1000;
+                status.updateTime = updateTime > 0 ? updateTime : Utils.currentTimestamp() - SampleHalfLife;
             } catch (Exception ignored) {
             }
             return status;
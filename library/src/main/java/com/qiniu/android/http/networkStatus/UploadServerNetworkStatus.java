@@ -27,6 +27,14 @@ public class UploadServerNetworkStatus {
         NetworkStatusManager.NetworkStatus serverStatusA = NetworkStatusManager.getInstance().getNetworkStatus(serverTypeA);
         NetworkStatusManager.NetworkStatus serverStatusB = NetworkStatusManager.getInstance().getNetworkStatus(serverTypeB);
 
-        return serverStatusB.getSpeed() < serverStatusA.getSpeed();
+        // 探索：偶尔优先选择样本较少的 server
+        double sampleCountA = serverStatusA.getSampleCount();
+        double sampleCountB = serverStatusB.getSampleCount();
+        if (sampleCountA < sampleCountB && sampleCountA < NetworkStatusManager.ExplorationSampleCount
+                && NetworkStatusManager.shouldExplore()) {
+            return true;
+        }
+
+        return serverStatusA.score() < serverStatusB.score();
     }
 }
@@ -0,0 +1,26 @@
+package com.qiniu.android.http.request;
+
+import com.qiniu.android.storage.stream.StreamRegion;
+
+import java.util.Map;
+
+/**
+ * multipart 表单请求体：表单参数及表单文件，文件数据在发送时从 file 流式读取
+ */
+public class FormData {
+
+    public final Map<String, String> params;
+    public final String fileName;
+    public final String mimeType;
+    public final StreamRegion file;
+
+    public FormData(Map<String, String> params,
+                    String fileName,
+                    String mimeType,
+                    StreamRegion file) {
+        this.params = params;
+        this.fileName = fileName;
+        this.mimeType = mimeType;
+        this.file = file;
+    }
+}
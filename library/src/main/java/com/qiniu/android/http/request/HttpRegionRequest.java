@@ -3,11 +3,13 @@ package com.qiniu.android.http.request;
 import com.qiniu.android.http.ResponseInfo;
 import com.qiniu.android.http.request.handler.RequestProgressHandler;
 import com.qiniu.android.http.request.handler.RequestShouldRetryHandler;
+import com.qiniu.android.http.request.httpclient.SystemHttpClient;
 import com.qiniu.android.http.metrics.UploadRegionRequestMetrics;
 import com.qiniu.android.http.metrics.UploadSingleRequestMetrics;
 import com.qiniu.android.storage.Configuration;
 import com.qiniu.android.storage.UpToken;
 import com.qiniu.android.storage.UploadOptions;
+import com.qiniu.android.storage.stream.StreamRegion;
 import com.qiniu.android.utils.LogUtil;
 import com.qiniu.android.utils.StringUtils;
 
@@ -15,9 +17,13 @@ import org.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class HttpRegionRequest {
 
+    // 连接竞速的最长超时时间，单位：秒
+    private static final int MaxConnectRaceTimeout = 3;
+
     private final Configuration config;
     private final UploadOptions uploadOption;
     private final UpToken token;
@@ -41,6 +47,11 @@ class HttpRegionRequest {
         this.region = region;
         this.requestInfo = requestInfo;
         this.requestState = requestState;
+        // 使用代理或 urlConverter 时请求不指定 IP，不进行连接竞速
+        if (config.useConnectRace && config.proxy == null && config.urlConverter == null && requestState != null) {
+            int timeout = Math.max(Math.min(config.connectTimeout, MaxConnectRaceTimeout), 1);
+            requestState.setConnectRace(config.useHttps ? 443 : 80, timeout * 1000);
+        }
 
         singleRequest = new HttpSingleRequest(config, uploadOption, token, requestInfo, requestState);
     }
@@ -51,7 +62,7 @@ class HttpRegionRequest {
              RequestShouldRetryHandler shouldRetryHandler,
              RequestCompleteHandler completeHandler){
         requestMetrics = new UploadRegionRequestMetrics(region);
-        performRequest(getNextServer(null), action, isAsync, null, header, "GET", shouldRetryHandler, null, completeHandler);
+        performRequest(getNextServer(null), action, isAsync, null, null, false, null, header, "GET", shouldRetryHandler, null, completeHandler);
     }
 
     void post(String action,
@@ -62,7 +73,43 @@ class HttpRegionRequest {
               RequestProgressHandler progressHandler,
               RequestCompleteHandler completeHandler){
         requestMetrics = new UploadRegionRequestMetrics(region);
-        performRequest(getNextServer(null), action, isAsync, data, header, "POST", shouldRetryHandler, progressHandler, completeHandler);
+        performRequest(getNextServer(null), action, isAsync, data, null, false, null, header, "POST", shouldRetryHandler, progressHandler, completeHandler);
+    }
+
+    void post(String action,
+              boolean isAsync,
+              StreamRegion dataRegion,
+              Map<String, String>header,
+              RequestShouldRetryHandler shouldRetryHandler,
+              RequestProgressHandler progressHandler,
+              RequestCompleteHandler completeHandler){
+        requestMetrics = new UploadRegionRequestMetrics(region);
+        performRequest(getNextServer(null), action, isAsync, null, dataRegion, false, null, header, "POST", shouldRetryHandler, progressHandler, completeHandler);
+    }
+
+    /**
+     * 流式发送 dataRegion，发送时进行 gzip 压缩
+     */
+    void postGzip(String action,
+                  boolean isAsync,
+                  StreamRegion dataRegion,
+                  Map<String, String>header,
+                  RequestShouldRetryHandler shouldRetryHandler,
+                  RequestProgressHandler progressHandler,
+                  RequestCompleteHandler completeHandler){
+        requestMetrics = new UploadRegionRequestMetrics(region);
+        performRequest(getNextServer(null), action, isAsync, null, dataRegion, true, null, header, "POST", shouldRetryHandler, progressHandler, completeHandler);
+    }
+
+    void postForm(String action,
+                  boolean isAsync,
+                  FormData form,
+                  Map<String, String>header,
+                  RequestShouldRetryHandler shouldRetryHandler,
+                  RequestProgressHandler progressHandler,
+                  RequestCompleteHandler completeHandler){
+        requestMetrics = new UploadRegionRequestMetrics(region);
+        performRequest(getNextServer(null), action, isAsync, null, null, false, form, header, "POST", shouldRetryHandler, progressHandler, completeHandler);
     }
 
     void put(String action,
@@ -73,13 +120,92 @@ class HttpRegionRequest {
              RequestProgressHandler progressHandler,
              RequestCompleteHandler completeHandler){
         requestMetrics = new UploadRegionRequestMetrics(region);
-        performRequest(getNextServer(null), action, isAsync, data, header, "PUT", shouldRetryHandler, progressHandler, completeHandler);
+        performRequest(getNextServer(null), action, isAsync, data, null, false, null, header, "PUT", shouldRetryHandler, progressHandler, completeHandler);
+    }
+
+    void put(String action,
+             boolean isAsync,
+             StreamRegion dataRegion,
+             Map<String, String>header,
+             RequestShouldRetryHandler shouldRetryHandler,
+             RequestProgressHandler progressHandler,
+             RequestCompleteHandler completeHandler){
+        requestMetrics = new UploadRegionRequestMetrics(region);
+        performRequest(getNextServer(null), action, isAsync, null, dataRegion, false, null, header, "PUT", shouldRetryHandler, progressHandler, completeHandler);
+    }
+
+    /**
+     * 预连接：向最优的上传服务器发起 count 个并发的轻量请求，建立的连接（含 TLS 握手）保留在共享连接池中；
+     * 连接池按 host 及指定的 IP 复用连接，region 会记录预连接的 server，之后的请求选择同一 server 以复用连接
+     */
+    void preconnect(int count){
+        preconnect(count, null);
+    }
+
+    /**
+     * @param completeHandler 所有预连接请求结束后回调，可为 null
+     */
+    void preconnect(int count, final PreconnectCompleteHandler completeHandler){
+        if (count <= 0) {
+            preconnectComplete(completeHandler);
+            return;
+        }
+        if (requestState != null) {
+            requestState.setPreconnect(true);
+        }
+        final IUploadServer server = getNextServer(null);
+        if (requestState != null) {
+            requestState.setPreconnect(false);
+        }
+        if (server == null || server.getHost() == null || server.getHost().length() == 0) {
+            preconnectComplete(completeHandler);
+            return;
+        }
+
+        String serverHost = server.getHost();
+        String serverIP = server.getIp();
+
+        if (config.urlConverter != null){
+            serverIP = null;
+            serverHost = config.urlConverter.convert(serverHost);
+        }
+
+        String scheme = config.useHttps ? "https://" : "http://";
+        final String urlString = scheme + serverHost + "/";
+        final AtomicInteger remainingCount = new AtomicInteger(count);
+        for (int i = 0; i < count; i++) {
+            Request request = new Request(urlString, Request.HttpMethodHEAD, null, null, config.connectTimeout);
+            request.host = serverHost;
+            request.ip = serverIP;
+
+            new SystemHttpClient().request(request, true, config.proxy, null, new IRequestClient.RequestClientCompleteHandler() {
+                @Override
+                public void complete(ResponseInfo responseInfo, UploadSingleRequestMetrics metrics, JSONObject response) {
+                    LogUtil.i("key:" + StringUtils.toNonnullString(requestInfo.key) +
+                            " preconnect url:" + urlString +
+                            " ip:" + StringUtils.toNonnullString(server.getIp()) +
+                            " statusCode:" + (responseInfo != null ? responseInfo.statusCode : ""));
+                    if (remainingCount.decrementAndGet() == 0) {
+                        preconnectComplete(completeHandler);
+                    }
+                }
+            });
+        }
+    }
+
+    private void preconnectComplete(PreconnectCompleteHandler completeHandler) {
+        if (completeHandler != null) {
+            completeHandler.complete();
+        }
     }
 
     private void performRequest(IUploadServer server,
                                 final String action,
                                 final boolean isAsync,
                                 final byte[] data,
+                                final StreamRegion dataRegion,
+                                final boolean bodyGzip,
+                                final FormData form,
                                 final Map<String, String>header,
                                 final String method,
                                 final RequestShouldRetryHandler shouldRetryHandler,
@@ -105,6 +231,9 @@ class HttpRegionRequest {
         String scheme = config.useHttps ? "https://" : "http://";
         String urlString = scheme + serverHost + (action != null ? action : "");
         final Request request = new Request(urlString, method, header, data, config.connectTimeout);
+        request.httpBodyRegion = dataRegion;
+        request.httpBodyGzip = bodyGzip;
+        request.httpForm = form;
         request.host = serverHost;
         request.ip = serverIP;
 
@@ -125,7 +254,7 @@ class HttpRegionRequest {
 
                     IUploadServer newServer = getNextServer(responseInfo);
                     if (newServer != null){
-                        performRequest(newServer, action, isAsync, request.httpBody, header, method, shouldRetryHandler, progressHandler, completeHandler);
+                        performRequest(newServer, action, isAsync, request.httpBody, request.httpBodyRegion, request.httpBodyGzip, request.httpForm, header, method, shouldRetryHandler, progressHandler, completeHandler);
                         request.httpBody = null;
                     } else {
                         request.httpBody = null;
@@ -166,4 +295,8 @@ class HttpRegionRequest {
                       UploadRegionRequestMetrics requestMetrics,
                       JSONObject response);
     }
+
+    interface PreconnectCompleteHandler {
+        void complete();
+    }
 }
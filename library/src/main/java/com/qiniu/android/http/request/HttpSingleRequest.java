@@ -1,6 +1,7 @@
 package com.qiniu.android.http.request;
 
 
+import com.qiniu.android.collect.ReportContext;
 import com.qiniu.android.collect.ReportItem;
 import com.qiniu.android.collect.UploadInfoReporter;
 import com.qiniu.android.http.ResponseInfo;
@@ -15,6 +16,7 @@ import com.qiniu.android.http.metrics.UploadSingleRequestMetrics;
 import com.qiniu.android.storage.Configuration;
 import com.qiniu.android.storage.UpToken;
 import com.qiniu.android.storage.UploadOptions;
+import com.qiniu.android.utils.AsyncRun;
 import com.qiniu.android.utils.LogUtil;
 import com.qiniu.android.utils.StringUtils;
 import com.qiniu.android.utils.Utils;
@@ -22,7 +24,6 @@ import com.qiniu.android.utils.Utils;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
-import java.util.Locale;
 
 
 class HttpSingleRequest {
@@ -78,11 +79,7 @@ class HttpSingleRequest {
         final CheckCancelHandler checkCancelHandler = new CheckCancelHandler() {
             @Override
             public boolean checkCancel() {
-                boolean isCancelled = requestState.isUserCancel();
-                if (!isCancelled && uploadOption.cancellationSignal != null) {
-                    isCancelled = uploadOption.cancellationSignal.isCancelled();
-                }
-                return isCancelled;
+                return isCancelled();
             }
         };
 
@@ -105,40 +102,114 @@ class HttpSingleRequest {
             }
         }, new IRequestClient.RequestClientCompleteHandler() {
             @Override
-            public void complete(ResponseInfo responseInfo, UploadSingleRequestMetrics metrics, JSONObject response) {
+            public void complete(final ResponseInfo responseInfo, final UploadSingleRequestMetrics metrics, final JSONObject response) {
                 if (metrics != null) {
                     requestMetricsList.add(metrics);
                 }
 
-                if (shouldCheckConnect(responseInfo)) {
+                if (!shouldCheckConnect(responseInfo)) {
+                    handleResponse(responseInfo, response, metrics, request, server, isAsync, shouldRetryHandler, progressHandler, completeHandler);
+                } else if (isAsync) {
+                    // 异步请求不阻塞回调线程，检测结束后再决定是否重试
+                    ConnectChecker.check(new ConnectChecker.CheckCompleteHandler() {
+                        @Override
+                        public void complete(UploadSingleRequestMetrics checkMetrics) {
+                            ResponseInfo checkedResponseInfo = checkConnectResponseInfo(responseInfo, metrics, checkMetrics);
+                            handleResponse(checkedResponseInfo, response, metrics, request, server, isAsync, shouldRetryHandler, progressHandler, completeHandler);
+                        }
+                    });
+                } else {
                     UploadSingleRequestMetrics checkMetrics = ConnectChecker.check();
-                    if (metrics != null) {
-                        metrics.connectCheckMetrics = checkMetrics;
-                    }
-                    if (!ConnectChecker.isConnected(checkMetrics)) {
-                        String message = "check origin statusCode:" + responseInfo.statusCode + " error:" + responseInfo.error;
-                        responseInfo = ResponseInfo.errorInfo(ResponseInfo.NetworkSlow, message);
-                    }
+                    ResponseInfo checkedResponseInfo = checkConnectResponseInfo(responseInfo, metrics, checkMetrics);
+                    handleResponse(checkedResponseInfo, response, metrics, request, server, isAsync, shouldRetryHandler, progressHandler, completeHandler);
                 }
+            }
+        });
 
-                LogUtil.i("key:" + StringUtils.toNonnullString(requestInfo.key) +
-                        " response:" + StringUtils.toNonnullString(responseInfo));
-                if (shouldRetryHandler != null && shouldRetryHandler.shouldRetry(responseInfo, response)
-                        && currentRetryTime < config.retryMax
-                        && responseInfo.couldHostRetry()) {
-                    currentRetryTime += 1;
+    }
 
-                    try {
-                        Thread.sleep(config.retryInterval);
-                    } catch (InterruptedException ignored) {
-                    }
-                    retryRequest(request, server, isAsync, shouldRetryHandler, progressHandler, completeHandler);
-                } else {
-                    completeAction(server, responseInfo, response, metrics, completeHandler);
+    private ResponseInfo checkConnectResponseInfo(ResponseInfo responseInfo,
+                                                  UploadSingleRequestMetrics metrics,
+                                                  UploadSingleRequestMetrics checkMetrics) {
+        if (metrics != null) {
+            metrics.connectCheckMetrics = checkMetrics;
+        }
+        if (!ConnectChecker.isConnected(checkMetrics)) {
+            String message = "check origin statusCode:" + responseInfo.statusCode + " error:" + responseInfo.error;
+            return ResponseInfo.errorInfo(ResponseInfo.NetworkSlow, message);
+        }
+        return responseInfo;
+    }
+
+    private void handleResponse(ResponseInfo responseInfo,
+                                JSONObject response,
+                                UploadSingleRequestMetrics metrics,
+                                Request request,
+                                IUploadServer server,
+                                boolean isAsync,
+                                RequestShouldRetryHandler shouldRetryHandler,
+                                RequestProgressHandler progressHandler,
+                                RequestCompleteHandler completeHandler) {
+        LogUtil.i("key:" + StringUtils.toNonnullString(requestInfo.key) +
+                " response:" + StringUtils.toNonnullString(responseInfo));
+        if (shouldRetryHandler != null && shouldRetryHandler.shouldRetry(responseInfo, response)
+                && currentRetryTime < config.retryMax
+                && responseInfo.couldHostRetry()) {
+            currentRetryTime += 1;
+
+            long retryDelay = RetryBackoff.retryDelay(config, currentRetryTime, responseInfo);
+            if (metrics != null) {
+                metrics.retryDelay = retryDelay;
+            }
+            scheduleRetry(retryDelay, metrics, request, server, isAsync, shouldRetryHandler, progressHandler, completeHandler);
+        } else {
+            completeAction(server, responseInfo, response, metrics, completeHandler);
+        }
+    }
+
+    /**
+     * 异步请求在定时线程中等待，不阻塞 OkHttp 回调线程及 AsyncRun 线程；同步请求在调用线程等待
+     */
+    private void scheduleRetry(long retryDelay,
+                               final UploadSingleRequestMetrics metrics,
+                               final Request request,
+                               final IUploadServer server,
+                               final boolean isAsync,
+                               final RequestShouldRetryHandler shouldRetryHandler,
+                               final RequestProgressHandler progressHandler,
+                               final RequestCompleteHandler completeHandler) {
+        Runnable retry = new Runnable() {
+            @Override
+            public void run() {
+                if (isCancelled()) {
+                    requestState.setUserCancel(true);
+                    ResponseInfo responseInfo = ResponseInfo.cancelled();
+                    completeAction(server, responseInfo, responseInfo.response, metrics, completeHandler);
+                    return;
                 }
+                retryRequest(request, server, isAsync, shouldRetryHandler, progressHandler, completeHandler);
             }
-        });
+        };
+
+        if (retryDelay <= 0) {
+            retry.run();
+        } else if (isAsync) {
+            AsyncRun.runInBack((int) Math.min(retryDelay, Integer.MAX_VALUE), retry);
+        } else {
+            try {
+                Thread.sleep(retryDelay);
+            } catch (InterruptedException ignored) {
+            }
+            retry.run();
+        }
+    }
 
+    private boolean isCancelled() {
+        boolean isCancelled = requestState.isUserCancel();
+        if (!isCancelled && uploadOption.cancellationSignal != null) {
+            isCancelled = uploadOption.cancellationSignal.isCancelled();
+        }
+        return isCancelled;
     }
 
     private boolean shouldCheckConnect(ResponseInfo responseInfo) {
@@ -171,17 +242,18 @@ class HttpSingleRequest {
         }
     }
 
+    // 所有连接到服务器或连接失败的请求均记录网络状态，用户取消的请求不记录
     private void updateHostNetworkStatus(ResponseInfo responseInfo, IUploadServer server, UploadSingleRequestMetrics requestMetrics) {
-        if (requestMetrics == null) {
+        if (requestMetrics == null || responseInfo == null || server == null || responseInfo.isCancelled()) {
             return;
         }
+        boolean isSuccess = responseInfo.canConnectToHost() && !responseInfo.isHostUnavailable();
         long byteCount = requestMetrics.bytesSend();
         long second = requestMetrics.totalElapsedTime();
-        if (second > 0 && byteCount >= 1024 * 1024) {
-            int speed = (int) (byteCount * 1000 / second);
-            String type = NetworkStatusManager.getNetworkStatusType(server.getHost(), server.getIp());
-            NetworkStatusManager.getInstance().updateNetworkStatus(type, speed);
-        }
+        // 新建连接时 TCP 握手耗时约为一个 RTT
+        long rtt = requestMetrics.totalConnectTime();
+        String type = NetworkStatusManager.getNetworkStatusType(server.getHost(), server.getIp());
+        NetworkStatusManager.getInstance().updateNetworkStatus(type, isSuccess, byteCount, second, rtt);
     }
 
     private void reportRequest(ResponseInfo responseInfo,
@@ -193,6 +265,7 @@ class HttpSingleRequest {
         }
 
         long currentTimestamp = Utils.currentTimestamp();
+        ReportContext context = ReportContext.current();
         ReportItem item = new ReportItem();
         item.setReport(ReportItem.LogTypeRequest, ReportItem.RequestKeyLogType);
         item.setReport((currentTimestamp / 1000), ReportItem.RequestKeyUpTime);
@@ -214,7 +287,7 @@ class HttpSingleRequest {
         item.setReport(requestInfo.fileOffset, ReportItem.RequestKeyFileOffset);
         item.setReport(requestMetrics.bytesSend(), ReportItem.RequestKeyBytesSent);
         item.setReport(requestMetrics.totalBytes(), ReportItem.RequestKeyBytesTotal);
-        item.setReport(Utils.getCurrentProcessID(), ReportItem.RequestKeyPid);
+        item.setReport(context.pid, ReportItem.RequestKeyPid);
         item.setReport(Utils.getCurrentThreadID(), ReportItem.RequestKeyTid);
         item.setReport(requestInfo.targetRegionId, ReportItem.RequestKeyTargetRegionId);
         item.setReport(requestInfo.currentRegionId, ReportItem.RequestKeyCurrentRegionId);
@@ -226,13 +299,13 @@ class HttpSingleRequest {
         }
         item.setReport(errorDesc, ReportItem.RequestKeyErrorDescription);
         item.setReport(requestInfo.requestType, ReportItem.RequestKeyUpType);
-        item.setReport(Utils.systemName(), ReportItem.RequestKeyOsName);
-        item.setReport(Utils.systemVersion(), ReportItem.RequestKeyOsVersion);
-        item.setReport(Utils.sdkLanguage(), ReportItem.RequestKeySDKName);
-        item.setReport(Utils.sdkVerion(), ReportItem.RequestKeySDKVersion);
+        item.setReport(context.osName, ReportItem.RequestKeyOsName);
+        item.setReport(context.osVersion, ReportItem.RequestKeyOsVersion);
+        item.setReport(context.sdkName, ReportItem.RequestKeySDKName);
+        item.setReport(context.sdkVersion, ReportItem.RequestKeySDKVersion);
         item.setReport(currentTimestamp, ReportItem.RequestKeyClientTime);
-        item.setReport(Utils.getCurrentNetworkType(), ReportItem.RequestKeyNetworkType);
-        item.setReport(Utils.getCurrentSignalStrength(), ReportItem.RequestKeySignalStrength);
+        item.setReport(context.networkType, ReportItem.RequestKeyNetworkType);
+        item.setReport(context.signalStrength, ReportItem.RequestKeySignalStrength);
 
         item.setReport(server.getSource(), ReportItem.RequestKeyPrefetchedDnsSource);
         if (server.getIpPrefetchedTime() != null) {
@@ -245,17 +318,24 @@ class HttpSingleRequest {
         item.setReport(requestMetrics.clientVersion, ReportItem.RequestKeyHttpClientVersion);
 
         if (requestMetrics.connectCheckMetrics != null) {
-            String connectCheckDuration = String.format(Locale.ENGLISH,"%d", requestMetrics.connectCheckMetrics.totalElapsedTime());
             String connectCheckStatusCode = "";
             if (requestMetrics.connectCheckMetrics.response != null) {
-                connectCheckStatusCode = String.format(Locale.ENGLISH,"%d", requestMetrics.connectCheckMetrics.response.statusCode);
+                connectCheckStatusCode = String.valueOf(requestMetrics.connectCheckMetrics.response.statusCode);
             }
-            String networkMeasuring = String.format("duration:%s status_code:%s", connectCheckDuration, connectCheckStatusCode);
+            String networkMeasuring = "duration:" + requestMetrics.connectCheckMetrics.totalElapsedTime() +
+                    " status_code:" + connectCheckStatusCode;
             item.setReport(networkMeasuring, ReportItem.RequestKeyNetworkMeasuring);
         }
 
         item.setReport(requestMetrics.httpVersion, ReportItem.RequestKeyHttpVersion);
 
+        // 只在请求结束时打点，记录本次请求所有重试前等待的总时间
+        long retryDelay = 0;
+        for (UploadSingleRequestMetrics metrics : requestMetricsList) {
+            retryDelay += metrics.retryDelay;
+        }
+        item.setReport(retryDelay, ReportItem.RequestKeyRetryDelay);
+
         UploadInfoReporter.getInstance().report(item, token.token);
     }
 
@@ -1,5 +1,7 @@
 package com.qiniu.android.http.request;
 
+import com.qiniu.android.storage.stream.StreamRegion;
+
 import java.net.InetAddress;
 import java.util.HashMap;
 import java.util.Map;
@@ -16,6 +18,12 @@ public class Request {
     public final Map<String, String> allHeaders;
     public final int timeout;
     public byte[] httpBody;
+    // 不为空时，请求体数据在发送时从 httpBodyRegion 读取，httpBody 无效
+    public StreamRegion httpBodyRegion;
+    // 发送时对请求体（httpBody 或 httpBodyRegion）进行 gzip 压缩，以 chunked 方式发送
+    public boolean httpBodyGzip;
+    // 不为空时，请求体为 multipart 表单，httpBody 及 httpBodyRegion 无效
+    public FormData httpForm;
 
     public String host;
     public String ip;
@@ -33,6 +41,21 @@ public class Request {
         this.timeout = timeout;
     }
 
+    /**
+     * 请求体长度，表单请求为表单文件的长度
+     */
+    public long getHttpBodyLength() {
+        if (httpForm != null) {
+            return httpForm.file != null ? httpForm.file.size : 0;
+        } else if (httpBodyRegion != null) {
+            return httpBodyRegion.size;
+        } else if (httpBody != null) {
+            return httpBody.length;
+        } else {
+            return 0;
+        }
+    }
+
     public InetAddress getInetAddress(){
         if (host == null || ip == null || ip.length() == 0) {
             return null;
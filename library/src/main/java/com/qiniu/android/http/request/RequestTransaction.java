@@ -10,9 +10,10 @@ import com.qiniu.android.http.serverRegion.UploadDomainRegion;
 import com.qiniu.android.storage.Configuration;
 import com.qiniu.android.storage.UpToken;
 import com.qiniu.android.storage.UploadOptions;
-import com.qiniu.android.utils.Crc32;
+import com.qiniu.android.storage.stream.StreamRegion;
+import com.qiniu.android.storage.stream.impl.ByteStreamFactory;
+import com.qiniu.android.storage.stream.impl.FileStreamFactory;
 import com.qiniu.android.utils.GZipUtil;
-import com.qiniu.android.utils.MD5;
 import com.qiniu.android.utils.StringUtils;
 import com.qiniu.android.utils.UrlSafeBase64;
 import com.qiniu.android.utils.Utils;
@@ -20,6 +21,7 @@ import com.qiniu.android.utils.Utils;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
 import java.security.MessageDigest;
 import java.util.HashMap;
 import java.util.List;
@@ -96,6 +98,15 @@ public class RequestTransaction {
     }
 
 
+    /**
+     * 预连接当前 region 最优的上传服务器，建立的连接放入连接池供后续请求复用
+     *
+     * @param count 连接个数
+     */
+    public void preconnect(int count) {
+        regionRequest.preconnect(count);
+    }
+
     public void queryUploadHosts(boolean isAsync,
                                  final RequestCompleteHandler completeHandler) {
         requestInfo.requestType = UploadRequestInfo.RequestTypeUCQuery;
@@ -123,6 +134,17 @@ public class RequestTransaction {
                                boolean isAsync,
                                final RequestProgressHandler progressHandler,
                                final RequestCompleteHandler completeHandler) {
+        uploadFormData(dataRegion(data), fileName, isAsync, progressHandler, completeHandler);
+    }
+
+    /**
+     * 表单上传，文件数据在发送时从 dataRegion 流式读取，不会完整读入内存
+     */
+    public void uploadFormData(StreamRegion dataRegion,
+                               String fileName,
+                               boolean isAsync,
+                               final RequestProgressHandler progressHandler,
+                               final RequestCompleteHandler completeHandler) {
 
         requestInfo.requestType = UploadRequestInfo.RequestTypeForm;
 
@@ -141,37 +163,19 @@ public class RequestTransaction {
         param.put("token", token.token != null ? token.token : "");
 
         if (uploadOption.checkCrc) {
-            param.put("crc32", String.valueOf(Crc32.bytes(data)));
-        }
-
-        String boundary = "werghnvt54wef654rjuhgb56trtg34tweuyrgf";
-        String disposition = "Content-Disposition: form-data";
-
-        StringBuilder paramPairString = new StringBuilder();
-        Set<String> paramKeySet = param.keySet();
-        for (String key : paramKeySet) {
-            String value = param.get(key);
-            paramPairString.append(String.format("--%s\r\n%s; name=\"%s\"\r\n\r\n", boundary, disposition, key));
-            paramPairString.append(String.format("%s\r\n", value));
+            // crc32 参数在文件之前发送，需提前流式读取一次文件
+            Long crc32 = dataRegion.calculateCrc32();
+            if (crc32 == null) {
+                ResponseInfo responseInfo = ResponseInfo.localIOError("read form data error");
+                completeAction(responseInfo, null, responseInfo.response, completeHandler);
+                return;
+            }
+            param.put("crc32", String.valueOf(crc32));
         }
 
-        fileName = Utils.formEscape(fileName);
-
-        String filePairFrontString = String.format("--%s\r\n%s; name=\"%s\"; filename=\"%s\"\nContent-Type:%s\r\n\r\n", boundary, disposition, "file", fileName, uploadOption.mimeType);
-        String filePairBehindString = String.format("\r\n--%s--\r\n", boundary);
-
-        byte[] paramPair = paramPairString.toString().getBytes();
-        byte[] filePairFront = filePairFrontString.getBytes();
-        byte[] filePairBehind = filePairBehindString.getBytes();
-        byte[] body = new byte[paramPair.length + filePairFront.length + data.length + filePairBehind.length];
-        System.arraycopy(paramPair, 0, body, 0, paramPair.length);
-        System.arraycopy(filePairFront, 0, body, paramPair.length, filePairFront.length);
-        System.arraycopy(data, 0, body, (paramPair.length + filePairFront.length), data.length);
-        System.arraycopy(filePairBehind, 0, body, (paramPair.length + filePairFront.length + data.length), filePairBehind.length);
+        FormData form = new FormData(param, fileName, uploadOption.mimeType, dataRegion);
 
         HashMap<String, String> header = new HashMap<String, String>();
-        header.put("Content-Type", ("multipart/form-data; boundary=" + boundary));
-        header.put("Content-Length", String.valueOf(body.length));
         header.put("User-Agent", userAgent);
 
         RequestShouldRetryHandler shouldRetryHandler = new RequestShouldRetryHandler() {
@@ -181,7 +185,7 @@ public class RequestTransaction {
             }
         };
 
-        regionRequest.post(null, isAsync, body, header, shouldRetryHandler, progressHandler, new HttpRegionRequest.RequestCompleteHandler() {
+        regionRequest.postForm(null, isAsync, form, header, shouldRetryHandler, progressHandler, new HttpRegionRequest.RequestCompleteHandler() {
             @Override
             public void complete(ResponseInfo responseInfo, UploadRegionRequestMetrics requestMetrics, JSONObject response) {
                 completeAction(responseInfo, requestMetrics, response, completeHandler);
@@ -195,6 +199,15 @@ public class RequestTransaction {
                           boolean isAsync,
                           final RequestProgressHandler progressHandler,
                           final RequestCompleteHandler completeHandler) {
+        makeBlock(blockOffset, blockSize, dataRegion(firstChunkData), isAsync, progressHandler, completeHandler);
+    }
+
+    public void makeBlock(long blockOffset,
+                          long blockSize,
+                          final StreamRegion firstChunkRegion,
+                          boolean isAsync,
+                          final RequestProgressHandler progressHandler,
+                          final RequestCompleteHandler completeHandler) {
 
         requestInfo.requestType = UploadRequestInfo.RequestTypeMkblk;
         requestInfo.fileOffset = blockOffset;
@@ -206,7 +219,6 @@ public class RequestTransaction {
         header.put("User-Agent", userAgent);
 
         String action = "/mkblk/" + blockSize;
-        final String chunkCrc = "" + Crc32.bytes(firstChunkData);
         RequestShouldRetryHandler shouldRetryHandler = new RequestShouldRetryHandler() {
             @Override
             public boolean shouldRetry(ResponseInfo responseInfo, JSONObject response) {
@@ -222,11 +234,13 @@ public class RequestTransaction {
                 } catch (JSONException e) {
                 }
 
+                // crc32 在发送数据时计算
+                String chunkCrc = String.valueOf(firstChunkRegion.crc32());
                 return !responseInfo.isOK() || ctx == null || crcServer == null || !chunkCrc.equals(crcServer);
             }
         };
 
-        regionRequest.post(action, isAsync, firstChunkData, header, shouldRetryHandler, progressHandler, new HttpRegionRequest.RequestCompleteHandler() {
+        regionRequest.post(action, isAsync, firstChunkRegion, header, shouldRetryHandler, progressHandler, new HttpRegionRequest.RequestCompleteHandler() {
             @Override
             public void complete(ResponseInfo responseInfo, UploadRegionRequestMetrics requestMetrics, JSONObject response) {
                 completeAction(responseInfo, requestMetrics, response, completeHandler);
@@ -241,6 +255,16 @@ public class RequestTransaction {
                             boolean isAsync,
                             final RequestProgressHandler progressHandler,
                             final RequestCompleteHandler completeHandler) {
+        uploadChunk(blockContext, blockOffset, dataRegion(chunkData), chunkOffset, isAsync, progressHandler, completeHandler);
+    }
+
+    public void uploadChunk(String blockContext,
+                            long blockOffset,
+                            final StreamRegion chunkRegion,
+                            long chunkOffset,
+                            boolean isAsync,
+                            final RequestProgressHandler progressHandler,
+                            final RequestCompleteHandler completeHandler) {
 
         requestInfo.requestType = UploadRequestInfo.RequestTypeBput;
         requestInfo.fileOffset = blockOffset + chunkOffset;
@@ -252,8 +276,6 @@ public class RequestTransaction {
         header.put("User-Agent", userAgent);
 
         String action = String.format("/bput/%s/%s", blockContext, chunkOffset+"");
-        final String chunkCrc = "" + Crc32.bytes(chunkData);
-
         RequestShouldRetryHandler shouldRetryHandler = new RequestShouldRetryHandler() {
             @Override
             public boolean shouldRetry(ResponseInfo responseInfo, JSONObject response) {
@@ -269,11 +291,13 @@ public class RequestTransaction {
                 } catch (JSONException e) {
                 }
 
+                // crc32 在发送数据时计算
+                String chunkCrc = String.valueOf(chunkRegion.crc32());
                 return !responseInfo.isOK() || ctx == null || crcServer == null || !chunkCrc.equals(crcServer);
             }
         };
 
-        regionRequest.post(action, isAsync, chunkData, header, shouldRetryHandler, progressHandler, new HttpRegionRequest.RequestCompleteHandler() {
+        regionRequest.post(action, isAsync, chunkRegion, header, shouldRetryHandler, progressHandler, new HttpRegionRequest.RequestCompleteHandler() {
             @Override
             public void complete(ResponseInfo responseInfo, UploadRegionRequestMetrics requestMetrics, JSONObject response) {
                 completeAction(responseInfo, requestMetrics, response, completeHandler);
@@ -372,7 +396,7 @@ public class RequestTransaction {
             }
         };
 
-        regionRequest.post(action, isAsync, null, header, shouldRetryHandler, null, new HttpRegionRequest.RequestCompleteHandler() {
+        regionRequest.post(action, isAsync, (byte[]) null, header, shouldRetryHandler, null, new HttpRegionRequest.RequestCompleteHandler() {
             @Override
             public void complete(ResponseInfo responseInfo, UploadRegionRequestMetrics requestMetrics, JSONObject response) {
                 completeHandler.complete(responseInfo, requestMetrics, response);
@@ -387,6 +411,15 @@ public class RequestTransaction {
                            byte[] partData,
                            final RequestProgressHandler progressHandler,
                            final RequestCompleteHandler completeHandler) {
+        uploadPart(isAsync, uploadId, partIndex, dataRegion(partData), progressHandler, completeHandler);
+    }
+
+    public void uploadPart(boolean isAsync,
+                           String uploadId,
+                           int partIndex,
+                           StreamRegion partRegion,
+                           final RequestProgressHandler progressHandler,
+                           final RequestCompleteHandler completeHandler) {
 
         requestInfo.requestType = UploadRequestInfo.RequestTypeUploadPart;
 
@@ -396,7 +429,8 @@ public class RequestTransaction {
         header.put("Content-Type", "application/octet-stream");
         header.put("User-Agent", userAgent);
         if (uploadOption.checkCrc) {
-            String md5 = MD5.encrypt(partData);
+            // Content-MD5 需在发送前确定，需额外读取一遍数据
+            String md5 = partRegion.md5();
             if (md5 != null) {
                 header.put("Content-MD5", md5);
             }
@@ -425,7 +459,7 @@ public class RequestTransaction {
                 return !responseInfo.isOK() || etag == null || serverMd5 == null;
             }
         };
-        regionRequest.put(action, isAsync, partData, header, shouldRetryHandler, progressHandler, new HttpRegionRequest.RequestCompleteHandler() {
+        regionRequest.put(action, isAsync, partRegion, header, shouldRetryHandler, progressHandler, new HttpRegionRequest.RequestCompleteHandler() {
             @Override
             public void complete(ResponseInfo responseInfo, UploadRegionRequestMetrics requestMetrics, JSONObject response) {
                 completeHandler.complete(responseInfo, requestMetrics, response);
@@ -526,6 +560,51 @@ public class RequestTransaction {
         });
     }
 
+    /**
+     * 上报日志，发送时从 logFile 流式读取并进行 gzip 压缩，不会将日志完整读入内存
+     */
+    public void reportLog(File logFile,
+                          String logClientId,
+                          boolean isAsync,
+                          final RequestCompleteHandler completeHandler) {
+
+        requestInfo.requestType = UploadRequestInfo.RequestTypeUpLog;
+
+        String token = String.format("UpToken %s", (this.token.token != null ? this.token.token : ""));
+        HashMap<String, String> header = new HashMap<String, String>();
+        header.put("Authorization", token);
+        header.put("Content-Type", "text/plain");
+        header.put("User-Agent", userAgent);
+
+        if (logClientId != null) {
+            header.put("X-Log-Client-Id", logClientId);
+        }
+
+        RequestShouldRetryHandler shouldRetryHandler = new RequestShouldRetryHandler() {
+            @Override
+            public boolean shouldRetry(ResponseInfo responseInfo, JSONObject response) {
+                return !responseInfo.isOK();
+            }
+        };
+
+        final FileStreamFactory logFactory = new FileStreamFactory(logFile);
+        StreamRegion logRegion = new StreamRegion(logFactory, 0, logFile.length());
+        regionRequest.postGzip("/log/4?compressed=gzip", isAsync, logRegion, header, shouldRetryHandler, null, new HttpRegionRequest.RequestCompleteHandler() {
+            @Override
+            public void complete(ResponseInfo responseInfo, UploadRegionRequestMetrics requestMetrics, JSONObject response) {
+                logFactory.close();
+                completeAction(responseInfo, requestMetrics, response, completeHandler);
+            }
+        });
+    }
+
+    private StreamRegion dataRegion(byte[] data) {
+        if (data == null) {
+            data = new byte[0];
+        }
+        return new StreamRegion(new ByteStreamFactory(data), 0, data.length);
+    }
+
     private String resumeV2EncodeKey(String key) {
         String encodeKey = null;
         if (key == null) {
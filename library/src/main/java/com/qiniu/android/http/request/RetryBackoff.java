@@ -0,0 +1,88 @@
+package com.qiniu.android.http.request;
+
+import com.qiniu.android.http.ResponseInfo;
+import com.qiniu.android.storage.Configuration;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * 重试等待时间：retryInterval * retryBackoffMultiplier ^ (retryCount - 1)，加上随机抖动，不超过 retryMaxInterval；
+ * 服务端返回 Retry-After 时，等待时间不小于 Retry-After（同样不超过 retryMaxInterval）
+ */
+public final class RetryBackoff {
+
+    private static final Random random = new Random();
+
+    private RetryBackoff() {
+    }
+
+    /**
+     * @param config       配置
+     * @param retryCount   第几次重试，从 1 开始
+     * @param responseInfo 上一次请求的响应
+     * @return 重试前等待的时间，单位：毫秒
+     */
+    public static long retryDelay(Configuration config, int retryCount, ResponseInfo responseInfo) {
+        if (config == null) {
+            return 0;
+        }
+
+        double delay = Math.max(config.retryInterval, 0);
+        if (config.retryBackoffMultiplier > 1 && retryCount > 1) {
+            delay = delay * Math.pow(config.retryBackoffMultiplier, retryCount - 1);
+        }
+        if (config.retryJitter > 0) {
+            // 在 [1 - jitter, 1 + jitter] 范围内随机，避免大量请求同时重试
+            double factor;
+            synchronized (random) {
+                factor = 1 + config.retryJitter * (random.nextDouble() * 2 - 1);
+            }
+            delay = delay * factor;
+        }
+
+        if (responseInfo != null && responseInfo.responseHeader != null) {
+            long retryAfter = parseRetryAfter(responseInfo.responseHeader.get("retry-after"), new Date().getTime());
+            delay = Math.max(delay, retryAfter);
+        }
+
+        if (config.retryMaxInterval > 0) {
+            delay = Math.min(delay, config.retryMaxInterval);
+        }
+        return Math.max((long) delay, 0);
+    }
+
+    /**
+     * 解析 Retry-After，支持秒数及 HTTP 日期两种格式
+     *
+     * @param retryAfter  Retry-After 的值
+     * @param currentTime 当前时间，单位：毫秒
+     * @return 需等待的时间，单位：毫秒；无法解析时返回 0
+     */
+    public static long parseRetryAfter(String retryAfter, long currentTime) {
+        if (retryAfter == null) {
+            return 0;
+        }
+        retryAfter = retryAfter.trim();
+        if (retryAfter.length() == 0) {
+            return 0;
+        }
+
+        try {
+            return Math.max(Long.parseLong(retryAfter) * 1000, 0);
+        } catch (NumberFormatException ignored) {
+        }
+
+        try {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            Date date = format.parse(retryAfter);
+            if (date != null) {
+                return Math.max(date.getTime() - currentTime, 0);
+            }
+        } catch (Exception ignored) {
+        }
+        return 0;
+    }
+}
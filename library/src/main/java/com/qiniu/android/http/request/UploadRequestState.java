@@ -4,6 +4,12 @@ public class UploadRequestState {
 
     private boolean isUseOldServer;
     private boolean isUserCancel;
+    // 大于 0 时选择 server 前对候选 IP 进行连接竞速，值为连接的端口
+    private int connectRacePort;
+    // 连接竞速的超时时间，单位：毫秒
+    private int connectRaceTimeout;
+    // 是否为预连接选择 server，region 会记录选中的 server 供之后的请求复用连接
+    private boolean isPreconnect;
 
     boolean isUserCancel(){
         return isUserCancel;
@@ -21,10 +27,34 @@ public class UploadRequestState {
         isUseOldServer = useOldServer;
     }
 
+    public int getConnectRacePort() {
+        return connectRacePort;
+    }
+
+    public int getConnectRaceTimeout() {
+        return connectRaceTimeout;
+    }
+
+    public void setConnectRace(int port, int timeout) {
+        this.connectRacePort = port;
+        this.connectRaceTimeout = timeout;
+    }
+
+    public boolean isPreconnect() {
+        return isPreconnect;
+    }
+
+    void setPreconnect(boolean isPreconnect) {
+        this.isPreconnect = isPreconnect;
+    }
+
     protected UploadRequestState clone() {
         UploadRequestState state = new UploadRequestState();
         state.isUseOldServer = isUseOldServer;
         state.isUserCancel = isUserCancel;
+        state.connectRacePort = connectRacePort;
+        state.connectRaceTimeout = connectRaceTimeout;
+        state.isPreconnect = isPreconnect;
         return state;
     }
 }
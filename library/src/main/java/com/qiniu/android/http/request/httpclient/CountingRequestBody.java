@@ -2,7 +2,6 @@ package com.qiniu.android.http.request.httpclient;
 
 import com.qiniu.android.http.CancellationHandler;
 import com.qiniu.android.http.ProgressHandler;
-import com.qiniu.android.utils.AsyncRun;
 
 import java.io.IOException;
 
@@ -58,7 +57,7 @@ public final class CountingRequestBody extends RequestBody {
 
     protected final class CountingSink extends ForwardingSink {
 
-        private int bytesWritten = 0;
+        private long bytesWritten = 0;
 
         public CountingSink(Sink delegate) {
             super(delegate);
@@ -75,13 +74,9 @@ public final class CountingRequestBody extends RequestBody {
             }
             super.write(source, byteCount);
             bytesWritten += byteCount;
+            // 在写入线程直接回调，由上层合并进度后再分发到回调线程
             if (progress != null) {
-                AsyncRun.runInMain(new Runnable() {
-                    @Override
-                    public void run() {
-                        progress.onProgress(bytesWritten, totalSize);
-                    }
-                });
+                progress.onProgress(bytesWritten, totalSize);
             }
         }
     }
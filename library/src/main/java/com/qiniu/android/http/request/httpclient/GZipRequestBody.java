@@ -0,0 +1,40 @@
+package com.qiniu.android.http.request.httpclient;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * 发送时对被包装的请求体进行 gzip 压缩，压缩后的长度未知，以 chunked 方式发送；
+ * 压缩在写入 sink 时流式进行，不会将压缩后的数据完整缓存在内存中
+ */
+public class GZipRequestBody extends RequestBody {
+
+    private final RequestBody body;
+
+    public GZipRequestBody(RequestBody body) {
+        this.body = body;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return body.contentType();
+    }
+
+    @Override
+    public long contentLength() {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(BufferedSink bufferedSink) throws IOException {
+        BufferedSink gzipSink = Okio.buffer(new GzipSink(bufferedSink));
+        body.writeTo(gzipSink);
+        // 关闭时写入 gzip 尾部
+        gzipSink.close();
+    }
+}
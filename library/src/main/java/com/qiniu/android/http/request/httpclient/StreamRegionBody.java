@@ -0,0 +1,78 @@
+package com.qiniu.android.http.request.httpclient;
+
+import com.qiniu.android.storage.stream.StreamRegion;
+import com.qiniu.android.utils.BufferPool;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * 以 StreamRegion 为数据源的请求体，发送时直接从数据源读取写入 sink，不会将数据完整读入内存；
+ * 每次发送（包括重试）都会重新读取数据源，并同步计算数据的 crc32
+ */
+public class StreamRegionBody extends RequestBody {
+
+    private final MediaType mediaType;
+    private final StreamRegion region;
+
+    public StreamRegionBody(MediaType mediaType,
+                            StreamRegion region) {
+        this.mediaType = mediaType;
+        this.region = region;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return mediaType;
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        return region.size;
+    }
+
+    @Override
+    public void writeTo(BufferedSink bufferedSink) throws IOException {
+        region.resetCrc32();
+
+        StreamRegion.Reader reader;
+        try {
+            reader = region.newReader();
+        } catch (Exception e) {
+            throw new StreamReadException(e.getMessage());
+        }
+
+        byte[] buffer = BufferPool.getInstance().obtain(region.bufferSize());
+        try {
+            while (reader.remaining() > 0) {
+                int len;
+                try {
+                    len = reader.read(buffer, 0, buffer.length);
+                } catch (IOException e) {
+                    throw new StreamReadException(e.getMessage());
+                }
+                if (len <= 0) {
+                    throw new StreamReadException("unexpected EOF");
+                }
+
+                region.updateCrc32(buffer, 0, len);
+                bufferedSink.write(buffer, 0, len);
+            }
+        } finally {
+            reader.close();
+            BufferPool.getInstance().recycle(buffer);
+        }
+    }
+
+    /**
+     * 读取本地数据源异常，区别于网络异常
+     */
+    public static class StreamReadException extends IOException {
+        public StreamReadException(String message) {
+            super(message);
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.qiniu.android.http.ProgressHandler;
 import com.qiniu.android.http.ProxyConfiguration;
 import com.qiniu.android.http.ResponseInfo;
 import com.qiniu.android.http.dns.SystemDns;
+import com.qiniu.android.http.request.FormData;
 import com.qiniu.android.http.request.Request;
 import com.qiniu.android.http.request.IRequestClient;
 import com.qiniu.android.http.metrics.UploadSingleRequestMetrics;
@@ -27,6 +28,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLException;
@@ -35,6 +37,7 @@ import okhttp3.Call;
 import okhttp3.Callback;
 import okhttp3.Connection;
 import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.Dns;
 import okhttp3.EventListener;
 import okhttp3.Handshake;
@@ -57,6 +60,12 @@ public class SystemHttpClient implements IRequestClient {
     public static final String FormMime = "application/x-www-form-urlencoded";
 
     private static ConnectionPool pool;
+    private static Dispatcher dispatcher;
+    private static OkHttpClient baseHttpClient;
+    // 派生 client 的个数上限，超过时清空重建
+    private static final int MaxHttpClientCount = 64;
+    private static final HashMap<String, OkHttpClient> httpClients = new HashMap<>();
+
     private Request currentRequest;
     private OkHttpClient httpClient;
     private Call call;
@@ -76,7 +85,7 @@ public class SystemHttpClient implements IRequestClient {
         metrics.clientVersion = Version.userAgent.replace("okhttp/", "");
         metrics.setRequest(request);
         currentRequest = request;
-        httpClient = createHttpClient(connectionProxy);
+        httpClient = httpClient(request, connectionProxy);
         requestProgress = progress;
         completeHandler = complete;
 
@@ -88,6 +97,7 @@ public class SystemHttpClient implements IRequestClient {
         }
 
         ResponseTag tag = new ResponseTag();
+        tag.metrics = metrics;
         call = httpClient.newCall(requestBuilder.tag(tag).build());
 
         if (isAsync) {
@@ -140,36 +150,93 @@ public class SystemHttpClient implements IRequestClient {
         }
     }
 
-    private OkHttpClient createHttpClient(ProxyConfiguration connectionProxy) {
-        if (currentRequest == null) {
+    /**
+     * 获取请求使用的 client，timeout、代理及指定 IP 相同的请求共用同一个 client
+     */
+    static OkHttpClient httpClient(Request request, ProxyConfiguration connectionProxy) {
+        if (request == null) {
             return null;
         }
 
-        OkHttpClient.Builder clientBuilder = new OkHttpClient.Builder();
-        if (connectionProxy != null) {
-            clientBuilder.proxy(connectionProxy.proxy());
-            if (connectionProxy.user != null && connectionProxy.password != null) {
-                clientBuilder.proxyAuthenticator(connectionProxy.authenticator());
+        InetAddress pinnedAddress = request.getInetAddress();
+        String clientKey = httpClientKey(connectionProxy, request.timeout, request.host, pinnedAddress);
+        synchronized (httpClients) {
+            OkHttpClient client = httpClients.get(clientKey);
+            if (client != null) {
+                return client;
+            }
+
+            // 由 baseHttpClient 派生，共享 Dispatcher、ConnectionPool、拦截器及 TLS 配置
+            OkHttpClient.Builder clientBuilder = getBaseHttpClient().newBuilder();
+            if (connectionProxy != null) {
+                clientBuilder.proxy(connectionProxy.proxy());
+                if (connectionProxy.user != null && connectionProxy.password != null) {
+                    clientBuilder.proxyAuthenticator(connectionProxy.authenticator());
+                }
+            }
+
+            clientBuilder.connectTimeout(request.timeout, TimeUnit.SECONDS);
+            clientBuilder.readTimeout(request.timeout, TimeUnit.SECONDS);
+            clientBuilder.writeTimeout(60, TimeUnit.SECONDS);
+            // 请求指定 IP 时 Dns 参与连接池的 Address 比较，只复用连接到相同 IP 的连接
+            if (pinnedAddress != null) {
+                clientBuilder.dns(new PinnedDns(request.host, pinnedAddress));
+            }
+
+            client = clientBuilder.build();
+            if (httpClients.size() >= MaxHttpClientCount) {
+                httpClients.clear();
             }
+            httpClients.put(clientKey, client);
+            return client;
         }
+    }
 
+    private static String httpClientKey(ProxyConfiguration connectionProxy, int timeout,
+                                        String host, InetAddress pinnedAddress) {
+        StringBuilder key = new StringBuilder();
+        key.append("timeout:").append(timeout);
+        if (pinnedAddress != null) {
+            key.append(" host:").append(host)
+                    .append(" ip:").append(pinnedAddress.getHostAddress());
+        }
+        if (connectionProxy != null) {
+            key.append(" proxy:").append(connectionProxy.type)
+                    .append(":").append(connectionProxy.hostAddress)
+                    .append(":").append(connectionProxy.port)
+                    .append(":").append(connectionProxy.user)
+                    .append(":").append(connectionProxy.password);
+        }
+        return key.toString();
+    }
 
-        clientBuilder.eventListener(createEventLister());
+    private synchronized static OkHttpClient getBaseHttpClient() {
+        if (baseHttpClient != null) {
+            return baseHttpClient;
+        }
 
-        clientBuilder.dns(new Dns() {
+        OkHttpClient.Builder clientBuilder = new OkHttpClient.Builder();
+        clientBuilder.dispatcher(getDispatcher());
+        clientBuilder.connectionPool(getConnectPool());
+
+        clientBuilder.eventListenerFactory(new EventListener.Factory() {
             @Override
-            public List<InetAddress> lookup(String s) throws UnknownHostException {
-                if (currentRequest.getInetAddress() != null && s.equals(currentRequest.host)) {
-                    List<InetAddress> inetAddressList = new ArrayList<>();
-                    inetAddressList.add(currentRequest.getInetAddress());
-                    return inetAddressList;
+            public EventListener create(Call call) {
+                Object tag = call.request().tag();
+                if (tag instanceof ResponseTag && ((ResponseTag) tag).metrics != null) {
+                    return new MetricsEventListener(((ResponseTag) tag).metrics);
                 } else {
-                    return new SystemDns().lookupInetAddress(s);
+                    return EventListener.NONE;
                 }
             }
         });
 
-        clientBuilder.connectionPool(SystemHttpClient.getConnectPool());
+        clientBuilder.dns(new Dns() {
+            @Override
+            public List<InetAddress> lookup(String s) throws UnknownHostException {
+                return new SystemDns().lookupInetAddress(s);
+            }
+        });
 
         clientBuilder.networkInterceptors().add(new Interceptor() {
             @Override
@@ -179,6 +246,9 @@ public class SystemHttpClient implements IRequestClient {
                 okhttp3.Response response = chain.proceed(request);
                 final long after = System.currentTimeMillis();
 
+                if (!(request.tag() instanceof ResponseTag)) {
+                    return response;
+                }
                 ResponseTag tag = (ResponseTag) request.tag();
                 String ip = "";
                 try {
@@ -192,11 +262,17 @@ public class SystemHttpClient implements IRequestClient {
             }
         });
 
-        clientBuilder.connectTimeout(currentRequest.timeout, TimeUnit.SECONDS);
-        clientBuilder.readTimeout(currentRequest.timeout, TimeUnit.SECONDS);
-        clientBuilder.writeTimeout(60, TimeUnit.SECONDS);
+        baseHttpClient = clientBuilder.build();
+        return baseHttpClient;
+    }
 
-        return clientBuilder.build();
+    private synchronized static Dispatcher getDispatcher() {
+        if (dispatcher == null) {
+            dispatcher = new Dispatcher();
+            // 上传域名较少且并发分片均请求相同域名，放开单域名并发限制
+            dispatcher.setMaxRequestsPerHost(dispatcher.getMaxRequests());
+        }
+        return dispatcher;
     }
 
     private synchronized static ConnectionPool getConnectPool() {
@@ -206,6 +282,21 @@ public class SystemHttpClient implements IRequestClient {
         return pool;
     }
 
+    // 表单文件以 StreamRegionBody 作为 part，发送时流式读取
+    private static MultipartBody createFormBody(FormData form) {
+        MultipartBody.Builder builder = new MultipartBody.Builder();
+        builder.setType(MultipartBody.FORM);
+        if (form.params != null) {
+            for (Map.Entry<String, String> param : form.params.entrySet()) {
+                builder.addFormDataPart(param.getKey(), param.getValue() != null ? param.getValue() : "");
+            }
+        }
+        String fileName = form.fileName != null ? form.fileName : "?";
+        MediaType type = MediaType.parse(form.mimeType != null ? form.mimeType : DefaultMime);
+        builder.addFormDataPart("file", fileName, new StreamRegionBody(type, form.file));
+        return builder.build();
+    }
+
     private okhttp3.Request.Builder createRequestBuilder(final RequestClientProgress progress) {
         if (currentRequest == null) {
             return null;
@@ -227,13 +318,27 @@ public class SystemHttpClient implements IRequestClient {
             requestBuilder = requestBuilder.headers(allHeaders);
 
             RequestBody rbody;
-            if (currentRequest.httpBody.length > 0) {
+            long bodyLength = currentRequest.getHttpBodyLength();
+            if (currentRequest.httpForm != null) {
+                rbody = createFormBody(currentRequest.httpForm);
+                try {
+                    bodyLength = rbody.contentLength();
+                } catch (IOException ignored) {
+                }
+            } else if (bodyLength > 0) {
                 MediaType type = MediaType.parse(DefaultMime);
                 String contentType = currentRequest.allHeaders.get(ContentTypeHeader);
                 if (contentType != null) {
                     type = MediaType.parse(contentType);
                 }
-                rbody = new ByteBody(type, currentRequest.httpBody);
+                if (currentRequest.httpBodyRegion != null) {
+                    rbody = new StreamRegionBody(type, currentRequest.httpBodyRegion);
+                } else {
+                    rbody = new ByteBody(type, currentRequest.httpBody);
+                }
+                if (currentRequest.httpBodyGzip) {
+                    rbody = new GZipRequestBody(rbody);
+                }
             } else {
                 rbody = new ByteBody(null, new byte[0]);
             }
@@ -244,7 +349,7 @@ public class SystemHttpClient implements IRequestClient {
                         progress.progress(bytesWritten, totalSize);
                     }
                 }
-            }, currentRequest.httpBody.length, null);
+            }, bodyLength, null);
 
             if (currentRequest.httpMethod.equals(Request.HttpMethodPOST)) {
                 requestBuilder = requestBuilder.post(rbody);
@@ -256,132 +361,6 @@ public class SystemHttpClient implements IRequestClient {
         return requestBuilder;
     }
 
-    private EventListener createEventLister() {
-        return new EventListener() {
-            @Override
-            public void callStart(Call call) {
-                metrics.startDate = new Date();
-            }
-
-            @Override
-            public void dnsStart(Call call,
-                                 String domainName) {
-                metrics.domainLookupStartDate = new Date();
-            }
-
-            @Override
-            public void dnsEnd(Call call,
-                               String domainName,
-                               List<InetAddress> inetAddressList) {
-                metrics.domainLookupEndDate = new Date();
-            }
-
-            @Override
-            public void connectStart(Call call,
-                                     InetSocketAddress inetSocketAddress,
-                                     Proxy proxy) {
-                metrics.connectStartDate = new Date();
-                metrics.remoteAddress = inetSocketAddress.getAddress().getHostAddress();
-                metrics.remotePort = inetSocketAddress.getPort();
-                metrics.localAddress = AndroidNetwork.getHostIP();
-            }
-
-            @Override
-            public void secureConnectStart(Call call) {
-                metrics.connectEndDate = new Date();
-            }
-
-            @Override
-            public void secureConnectEnd(Call call,
-                                         Handshake handshake) {
-                metrics.secureConnectionStartDate = new Date();
-            }
-
-            @Override
-            public void connectEnd(Call call,
-                                   InetSocketAddress inetSocketAddress,
-                                   Proxy proxy,
-                                   Protocol protocol) {
-                metrics.secureConnectionEndDate = new Date();
-            }
-
-            @Override
-            public void connectFailed(Call call,
-                                      InetSocketAddress inetSocketAddress,
-                                      Proxy proxy,
-                                      Protocol protocol,
-                                      IOException ioe) {
-                metrics.connectEndDate = new Date();
-            }
-
-            @Override
-            public void connectionAcquired(Call call, Connection connection) {
-            }
-
-            @Override
-            public void connectionReleased(Call call, Connection connection) {
-            }
-
-            @Override
-            public void requestHeadersStart(Call call) {
-                metrics.requestStartDate = new Date();
-            }
-
-            @Override
-            public void requestHeadersEnd(Call call, okhttp3.Request request) {
-                metrics.countOfRequestHeaderBytesSent = request.headers().toString().length();
-            }
-
-            @Override
-            public void requestBodyStart(Call call) {
-            }
-
-            @Override
-            public void requestBodyEnd(Call call, long byteCount) {
-                metrics.requestEndDate = new Date();
-                metrics.countOfRequestBodyBytesSent = byteCount;
-            }
-
-            public void requestFailed(Call call, IOException ioe) {
-                metrics.requestEndDate = new Date();
-                metrics.countOfRequestBodyBytesSent = 0;
-            }
-
-            @Override
-            public void responseHeadersStart(Call call) {
-                metrics.responseStartDate = new Date();
-            }
-
-            @Override
-            public void responseHeadersEnd(Call call, Response response) {
-
-            }
-
-            @Override
-            public void responseBodyStart(Call call) {
-            }
-
-            @Override
-            public void responseBodyEnd(Call call, long byteCount) {
-                metrics.responseEndDate = new Date();
-            }
-
-            public void responseFailed(Call call, IOException ioe) {
-                metrics.responseEndDate = new Date();
-            }
-
-            @Override
-            public void callEnd(Call call) {
-                metrics.endDate = new Date();
-            }
-
-            @Override
-            public void callFailed(Call call, IOException ioe) {
-                metrics.endDate = new Date();
-            }
-        };
-    }
-
     private synchronized void handleError(Request request,
                                           int responseCode,
                                           String errorMsg,
@@ -479,7 +458,9 @@ public class SystemHttpClient implements IRequestClient {
     private int getStatusCodeByException(Exception e) {
         int statusCode = NetworkError;
         String msg = e.getMessage();
-        if (msg != null && msg.contains("Canceled")) {
+        if (e instanceof StreamRegionBody.StreamReadException) {
+            statusCode = ResponseInfo.LocalIOError;
+        } else if (msg != null && msg.contains("Canceled")) {
             statusCode = ResponseInfo.Cancelled;
         } else if (e instanceof CancellationHandler.CancellationException) {
             statusCode = ResponseInfo.Cancelled;
@@ -509,8 +490,191 @@ public class SystemHttpClient implements IRequestClient {
     }
 
 
+    private static class MetricsEventListener extends EventListener {
+
+        private final UploadSingleRequestMetrics metrics;
+
+        private MetricsEventListener(UploadSingleRequestMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void callStart(Call call) {
+            metrics.startDate = new Date();
+        }
+
+        @Override
+        public void dnsStart(Call call,
+                             String domainName) {
+            metrics.domainLookupStartDate = new Date();
+        }
+
+        @Override
+        public void dnsEnd(Call call,
+                           String domainName,
+                           List<InetAddress> inetAddressList) {
+            metrics.domainLookupEndDate = new Date();
+        }
+
+        @Override
+        public void connectStart(Call call,
+                                 InetSocketAddress inetSocketAddress,
+                                 Proxy proxy) {
+            metrics.connectStartDate = new Date();
+            metrics.remoteAddress = inetSocketAddress.getAddress().getHostAddress();
+            metrics.remotePort = inetSocketAddress.getPort();
+            metrics.localAddress = AndroidNetwork.getHostIP();
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            metrics.connectEndDate = new Date();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call,
+                                     Handshake handshake) {
+            metrics.secureConnectionStartDate = new Date();
+        }
+
+        @Override
+        public void connectEnd(Call call,
+                               InetSocketAddress inetSocketAddress,
+                               Proxy proxy,
+                               Protocol protocol) {
+            metrics.secureConnectionEndDate = new Date();
+        }
+
+        @Override
+        public void connectFailed(Call call,
+                                  InetSocketAddress inetSocketAddress,
+                                  Proxy proxy,
+                                  Protocol protocol,
+                                  IOException ioe) {
+            metrics.connectEndDate = new Date();
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            // 复用连接池中的连接时不会回调 connectStart
+            if (metrics.remoteAddress == null && connection.route() != null) {
+                InetSocketAddress socketAddress = connection.route().socketAddress();
+                if (socketAddress != null && socketAddress.getAddress() != null) {
+                    metrics.remoteAddress = socketAddress.getAddress().getHostAddress();
+                    metrics.remotePort = socketAddress.getPort();
+                }
+            }
+        }
+
+        @Override
+        public void connectionReleased(Call call, Connection connection) {
+        }
+
+        @Override
+        public void requestHeadersStart(Call call) {
+            metrics.requestStartDate = new Date();
+        }
+
+        @Override
+        public void requestHeadersEnd(Call call, okhttp3.Request request) {
+            metrics.countOfRequestHeaderBytesSent = request.headers().toString().length();
+        }
+
+        @Override
+        public void requestBodyStart(Call call) {
+        }
+
+        @Override
+        public void requestBodyEnd(Call call, long byteCount) {
+            metrics.requestEndDate = new Date();
+            metrics.countOfRequestBodyBytesSent = byteCount;
+        }
+
+        public void requestFailed(Call call, IOException ioe) {
+            metrics.requestEndDate = new Date();
+            metrics.countOfRequestBodyBytesSent = 0;
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) {
+            metrics.responseStartDate = new Date();
+        }
+
+        @Override
+        public void responseHeadersEnd(Call call, Response response) {
+
+        }
+
+        @Override
+        public void responseBodyStart(Call call) {
+        }
+
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) {
+            metrics.responseEndDate = new Date();
+        }
+
+        public void responseFailed(Call call, IOException ioe) {
+            metrics.responseEndDate = new Date();
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            metrics.endDate = new Date();
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            metrics.endDate = new Date();
+        }
+    }
+
     private static class ResponseTag {
         public String ip = "";
         public long duration = -1;
+        public UploadSingleRequestMetrics metrics;
+    }
+
+    /**
+     * 将 host 解析为指定的 IP；OkHttp 连接池按 Address（包含 Dns）复用连接，
+     * 相同 host 及 IP 的 PinnedDns 相等，因此只有指定相同 IP 的请求才会复用同一连接
+     */
+    private static class PinnedDns implements Dns {
+        private final String host;
+        private final InetAddress address;
+
+        private PinnedDns(String host, InetAddress address) {
+            this.host = host;
+            this.address = address;
+        }
+
+        @Override
+        public List<InetAddress> lookup(String s) throws UnknownHostException {
+            if (s.equals(host)) {
+                List<InetAddress> inetAddressList = new ArrayList<>();
+                inetAddressList.add(address);
+                return inetAddressList;
+            } else {
+                return new SystemDns().lookupInetAddress(s);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PinnedDns)) {
+                return false;
+            }
+            PinnedDns other = (PinnedDns) o;
+            return StringUtils.toNonnullString(host).equals(StringUtils.toNonnullString(other.host))
+                    && address.equals(other.address);
+        }
+
+        @Override
+        public int hashCode() {
+            return StringUtils.toNonnullString(host).hashCode() * 31 + address.hashCode();
+        }
     }
 }
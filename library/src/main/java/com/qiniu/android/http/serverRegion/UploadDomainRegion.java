@@ -4,6 +4,7 @@ import com.qiniu.android.common.ZoneInfo;
 import com.qiniu.android.http.ResponseInfo;
 import com.qiniu.android.http.dns.DnsPrefetcher;
 import com.qiniu.android.http.dns.IDnsNetworkAddress;
+import com.qiniu.android.http.networkStatus.NetworkStatusManager;
 import com.qiniu.android.http.networkStatus.UploadServerNetworkStatus;
 import com.qiniu.android.http.request.IUploadRegion;
 import com.qiniu.android.http.request.IUploadServer;
@@ -16,16 +17,23 @@ import com.qiniu.android.utils.Utils;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class UploadDomainRegion implements IUploadRegion {
     private static int Http3FrozenTime = 3600 * 24;
+    // 参与连接竞速的最多 IP 个数
+    private static final int MaxConnectRaceServerCount = 4;
+    // 连接竞速结果的有效期，有效期内同一域名不再竞速，单位：秒
+    private static final int ConnectRaceResultValidTime = 60;
+    // 预连接 server 的有效期，不超过连接池中空闲连接的保留时间，单位：秒
+    private static final int PreconnectServerValidTime = 5 * 60;
 
     // 是否支持http3
     private boolean http3Enabled;
 
     // 是否冻结过Host，PS：如果没有冻结过 Host,则当前 Region 上传也就不会有错误信息，可能会返回-9，所以必须要再进行一次尝试
-    private boolean hasFreezeHost;
+    private volatile boolean hasFreezeHost;
     private boolean isAllFrozen;
     // 局部冻结管理对象
     private UploadServerFreezeManager partialHttp2Freezer = new UploadServerFreezeManager();
@@ -35,6 +43,12 @@ public class UploadDomainRegion implements IUploadRegion {
     private ArrayList<String> oldDomainHostList;
     private HashMap<String, UploadServerDomain> oldDomainHashMap;
     private ZoneInfo zoneInfo;
+    // 域名的连接竞速胜出 server
+    private final ConcurrentHashMap<String, PreferredServer> raceWinners = new ConcurrentHashMap<>();
+    // 域名预连接的 server，之后的请求选择该 server 以复用预连接建立的连接
+    private final ConcurrentHashMap<String, PreferredServer> preconnectServers = new ConcurrentHashMap<>();
+    // 正在连接竞速的域名，同一域名同时只竞速一次
+    private final ConcurrentHashMap<String, Boolean> racingHosts = new ConcurrentHashMap<>();
 
     @Override
     public boolean isEqual(IUploadRegion region) {
@@ -207,6 +221,20 @@ public class UploadDomainRegion implements IUploadRegion {
             unfreezeServer(server);
         }
 
+        UploadServer preconnectServer = null;
+        if (server != null && !requestState.isPreconnect()) {
+            preconnectServer = getPreconnectServer(server.getHost());
+        }
+        if (preconnectServer != null) {
+            server = preconnectServer;
+        } else if (server != null && requestState.getConnectRacePort() > 0) {
+            server = raceServerIfNeeded(requestState, server, domainInfo.get(server.getHost()));
+        }
+
+        if (server != null && server.getIp() != null && requestState.isPreconnect()) {
+            preconnectServers.put(server.getHost(), new PreferredServer(server, PreconnectServerValidTime));
+        }
+
         if (server != null) {
             server.setHttpVersion(IUploadServer.HttpVersion2);
             LogUtil.i("get server host:" + StringUtils.toNonnullString(server.getHost()) + " ip:" + StringUtils.toNonnullString(server.getIp()));
@@ -219,6 +247,107 @@ public class UploadDomainRegion implements IUploadRegion {
     }
 
 
+    /**
+     * 域名解析到多个 IP 段时，对选中的 server 及其他未冻结 IP 段的一个 IP 在后台进行连接竞速，竞速结束前使用选中的 server，
+     * 之后的请求使用最先连接成功的 IP；竞速失败（均连接失败或超时）时仍使用选中的 server，由请求重试处理
+     */
+    private UploadServer raceServerIfNeeded(UploadRequestState requestState, UploadServer server, UploadServerDomain domain) {
+        if (domain == null || server.getIp() == null) {
+            return server;
+        }
+
+        final String host = server.getHost();
+        PreferredServer winner = raceWinners.get(host);
+        if (winner != null && winner.isValid() && !isHttp2ServerFrozen(host, winner.server.getIp())) {
+            return winner.server;
+        }
+
+        String serverType = UploadServerFreezeUtil.getFrozenType(host, server.getIp());
+        ArrayList<UploadServer> otherServers = new ArrayList<>();
+        for (UploadServer otherServer : domain.getServerOfIpGroups()) {
+            String type = UploadServerFreezeUtil.getFrozenType(host, otherServer.getIp());
+            if (!type.equals(serverType) && !isHttp2ServerFrozen(host, otherServer.getIp())) {
+                otherServers.add(otherServer);
+            }
+        }
+        if (otherServers.size() == 0) {
+            return server;
+        }
+
+        // 优先交替 IPv4 / IPv6
+        ArrayList<UploadServer> raceServers = new ArrayList<>();
+        raceServers.add(server);
+        while (otherServers.size() > 0 && raceServers.size() < MaxConnectRaceServerCount) {
+            boolean isLastIpv6 = isIpv6(raceServers.get(raceServers.size() - 1).getIp());
+            int index = 0;
+            for (int i = 0; i < otherServers.size(); i++) {
+                if (isIpv6(otherServers.get(i).getIp()) != isLastIpv6) {
+                    index = i;
+                    break;
+                }
+            }
+            raceServers.add(otherServers.remove(index));
+        }
+
+        if (racingHosts.putIfAbsent(host, true) != null) {
+            return server;
+        }
+        UploadServerConnectRacer.raceInBackground(raceServers, requestState.getConnectRacePort(),
+                requestState.getConnectRaceTimeout(), new UploadServerConnectRacer.ResultHandler() {
+            @Override
+            public void complete(UploadServer server, boolean isConnected, long connectTime) {
+                if (isConnected) {
+                    String type = NetworkStatusManager.getNetworkStatusType(server.getHost(), server.getIp());
+                    NetworkStatusManager.getInstance().updateNetworkConnectTime(type, (int) connectTime);
+                } else {
+                    String type = NetworkStatusManager.getNetworkStatusType(server.getHost(), server.getIp());
+                    NetworkStatusManager.getInstance().updateNetworkStatus(type, false, 0, 0, 0);
+                    hasFreezeHost = true;
+                    LogUtil.i("connect race partial freeze server host:" + StringUtils.toNonnullString(server.getHost()) + " ip:" + StringUtils.toNonnullString(server.getIp()));
+                    String frozenType = UploadServerFreezeUtil.getFrozenType(server.getHost(), server.getIp());
+                    partialHttp2Freezer.freezeType(frozenType, GlobalConfiguration.getInstance().partialHostFrozenTime);
+                }
+            }
+        }, new UploadServerConnectRacer.CompleteHandler() {
+            @Override
+            public void complete(UploadServer winner) {
+                if (winner != null) {
+                    LogUtil.i("connect race winner host:" + StringUtils.toNonnullString(winner.getHost()) + " ip:" + StringUtils.toNonnullString(winner.getIp()));
+                    raceWinners.put(host, new PreferredServer(winner, ConnectRaceResultValidTime));
+                }
+                racingHosts.remove(host);
+            }
+        });
+        return server;
+    }
+
+    /**
+     * 有效期内且未被冻结的预连接 server
+     */
+    private UploadServer getPreconnectServer(String host) {
+        if (host == null) {
+            return null;
+        }
+        PreferredServer preconnectServer = preconnectServers.get(host);
+        if (preconnectServer == null) {
+            return null;
+        }
+        if (!preconnectServer.isValid() || isHttp2ServerFrozen(host, preconnectServer.server.getIp())) {
+            preconnectServers.remove(host, preconnectServer);
+            return null;
+        }
+        return preconnectServer.server;
+    }
+
+    private boolean isHttp2ServerFrozen(String host, String ip) {
+        String frozenType = UploadServerFreezeUtil.getFrozenType(host, ip);
+        return UploadServerFreezeUtil.isTypeFrozenByFreezeManagers(frozenType, new UploadServerFreezeManager[]{partialHttp2Freezer, UploadServerFreezeUtil.globalHttp2Freezer()});
+    }
+
+    private static boolean isIpv6(String ip) {
+        return ip != null && ip.contains(":");
+    }
+
     private void freezeServerIfNeed(ResponseInfo responseInfo, IUploadServer freezeServer) {
         if (responseInfo == null || freezeServer == null || freezeServer.getServerId() == null) {
             return;
@@ -309,6 +438,22 @@ public class UploadDomainRegion implements IUploadRegion {
             return server;
         }
 
+        // 每个 IP 段中的一个 IP
+        protected ArrayList<UploadServer> getServerOfIpGroups() {
+            ArrayList<UploadServer> servers = new ArrayList<>();
+            ArrayList<UploadIpGroup> ipGroupList = this.ipGroupList;
+            if (host == null || ipGroupList == null) {
+                return servers;
+            }
+            for (UploadIpGroup ipGroup : ipGroupList) {
+                IDnsNetworkAddress networkAddress = ipGroup.getNetworkAddress();
+                if (networkAddress != null && networkAddress.getIpValue() != null) {
+                    servers.add(new UploadServer(host, host, networkAddress.getIpValue(), networkAddress.getSourceValue(), networkAddress.getTimestampValue()));
+                }
+            }
+            return servers;
+        }
+
         protected UploadServer getOneServer() {
             if (host == null || host.length() == 0) {
                 return null;
@@ -365,6 +510,24 @@ public class UploadDomainRegion implements IUploadRegion {
         }
     }
 
+    // 连接竞速胜出或预连接的 server，有效期内优先使用
+    private static class PreferredServer {
+        private final UploadServer server;
+        private final long createTime;
+        // 有效期，单位：秒
+        private final int validTime;
+
+        private PreferredServer(UploadServer server, int validTime) {
+            this.server = server;
+            this.createTime = Utils.currentTimestamp();
+            this.validTime = validTime;
+        }
+
+        private boolean isValid() {
+            return Utils.currentTimestamp() - createTime < validTime * 1000L;
+        }
+    }
+
     private static class UploadIpGroup {
         private final String groupType;
         private final ArrayList<IDnsNetworkAddress> addressList;
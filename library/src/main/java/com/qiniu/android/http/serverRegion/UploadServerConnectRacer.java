@@ -0,0 +1,187 @@
+package com.qiniu.android.http.serverRegion;
+
+import com.qiniu.android.utils.LogUtil;
+import com.qiniu.android.utils.StringUtils;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连接竞速（Happy Eyeballs）：按顺序错开 StaggerDelay 向多个候选 IP 发起 TCP 连接，前一个连接失败时立即开始下一个，
+ * 最先连接成功的 IP 胜出；竞速结束后仍在连接的 IP 继续在后台完成，所有 IP 的连接结果均通过 ResultHandler 回调。
+ * 竞速在单独的线程中进行，不阻塞选择 server；竞速建立的连接只用于测速，之后的请求指定胜出的 IP，由连接池按 IP 复用连接
+ */
+class UploadServerConnectRacer {
+
+    // 相邻两次连接的间隔，单位：毫秒
+    static final long StaggerDelay = 250;
+
+    private static final ThreadPoolExecutor connectExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "qiniu-connect-race");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * 在后台竞速，不阻塞调用线程
+     *
+     * @param servers         候选 server，均需有 IP，排在前面的优先发起连接
+     * @param port            连接端口
+     * @param timeout         单个连接及整体竞速的超时时间，单位：毫秒
+     * @param resultHandler   每个 server 的连接结果
+     * @param completeHandler 竞速结束回调，均失败或超时时 winner 为 null
+     */
+    static void raceInBackground(final List<UploadServer> servers,
+                                 final int port,
+                                 final int timeout,
+                                 final ResultHandler resultHandler,
+                                 final CompleteHandler completeHandler) {
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                UploadServer winner = race(servers, port, timeout, resultHandler);
+                completeHandler.complete(winner);
+            }
+        };
+
+        try {
+            connectExecutor.execute(runnable);
+        } catch (Exception e) {
+            completeHandler.complete(null);
+        }
+    }
+
+    /**
+     * 竞速，阻塞至竞速结束
+     *
+     * @param servers       候选 server，均需有 IP，排在前面的优先发起连接
+     * @param port          连接端口
+     * @param timeout       单个连接及整体竞速的超时时间，单位：毫秒
+     * @param resultHandler 每个 server 的连接结果，可能在 race 返回后回调
+     * @return 最先连接成功的 server，均失败或超时返回 null
+     */
+    static UploadServer race(final List<UploadServer> servers,
+                             final int port,
+                             final int timeout,
+                             final ResultHandler resultHandler) {
+        if (servers == null || servers.size() == 0) {
+            return null;
+        }
+
+        final LinkedBlockingQueue<Result> results = new LinkedBlockingQueue<>();
+        long deadline = System.currentTimeMillis() + timeout;
+        int startedCount = 0;
+        int finishedCount = 0;
+        long nextStartTime = 0;
+        while (true) {
+            long now = System.currentTimeMillis();
+            if (startedCount < servers.size() && now >= nextStartTime) {
+                connect(servers.get(startedCount), port, timeout, results, resultHandler);
+                startedCount += 1;
+                nextStartTime = now + StaggerDelay;
+            }
+
+            if (finishedCount == servers.size() || now >= deadline) {
+                return null;
+            }
+
+            long waitTime = deadline - now;
+            if (startedCount < servers.size()) {
+                waitTime = Math.min(waitTime, nextStartTime - now);
+            }
+
+            Result result;
+            try {
+                result = results.poll(Math.max(waitTime, 1), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return null;
+            }
+            if (result == null) {
+                continue;
+            }
+
+            finishedCount += 1;
+            if (result.isConnected) {
+                return result.server;
+            }
+            // 连接失败，立即开始下一个
+            nextStartTime = 0;
+        }
+    }
+
+    private static void connect(final UploadServer server,
+                                final int port,
+                                final int timeout,
+                                final LinkedBlockingQueue<Result> results,
+                                final ResultHandler resultHandler) {
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                long start = System.currentTimeMillis();
+                boolean isConnected = false;
+                Socket socket = new Socket();
+                try {
+                    socket.connect(new InetSocketAddress(InetAddress.getByName(server.getIp()), port), timeout);
+                    isConnected = true;
+                } catch (Exception e) {
+                    LogUtil.i("connect race host:" + StringUtils.toNonnullString(server.getHost()) +
+                            " ip:" + StringUtils.toNonnullString(server.getIp()) + " error:" + e.getMessage());
+                } finally {
+                    try {
+                        socket.close();
+                    } catch (Exception ignored) {
+                    }
+                }
+
+                long connectTime = System.currentTimeMillis() - start;
+                results.offer(new Result(server, isConnected));
+                if (resultHandler != null) {
+                    resultHandler.complete(server, isConnected, connectTime);
+                }
+            }
+        };
+
+        try {
+            connectExecutor.execute(runnable);
+        } catch (Exception e) {
+            results.offer(new Result(server, false));
+        }
+    }
+
+    interface CompleteHandler {
+        /**
+         * @param winner 最先连接成功的 server，均失败或超时为 null
+         */
+        void complete(UploadServer winner);
+    }
+
+    interface ResultHandler {
+        /**
+         * @param server      server
+         * @param isConnected 是否连接成功
+         * @param connectTime 连接耗时，单位：毫秒
+         */
+        void complete(UploadServer server, boolean isConnected, long connectTime);
+    }
+
+    private static class Result {
+        private final UploadServer server;
+        private final boolean isConnected;
+
+        private Result(UploadServer server, boolean isConnected) {
+            this.server = server;
+            this.isConnected = isConnected;
+        }
+    }
+}
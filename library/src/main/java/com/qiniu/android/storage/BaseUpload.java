@@ -7,6 +7,7 @@ import com.qiniu.android.http.ResponseInfo;
 import com.qiniu.android.http.metrics.UploadRegionRequestMetrics;
 import com.qiniu.android.http.metrics.UploadTaskMetrics;
 import com.qiniu.android.http.request.IUploadRegion;
+import com.qiniu.android.http.request.RequestTransaction;
 import com.qiniu.android.http.serverRegion.UploadDomainRegion;
 import com.qiniu.android.storage.stream.IStreamFactory;
 import com.qiniu.android.storage.stream.impl.ByteStreamFactory;
@@ -28,6 +29,7 @@ abstract class BaseUpload implements Runnable {
     protected final Recorder recorder;
     protected final String recorderKey;
     protected final UpTaskCompletionHandler completionHandler;
+    protected final UpProgressDispatcher progressDispatcher;
 
     private UploadRegionRequestMetrics currentRegionRequestMetrics;
     private UploadTaskMetrics metrics = new UploadTaskMetrics(null);
@@ -35,6 +37,9 @@ abstract class BaseUpload implements Runnable {
     private int currentRegionIndex;
     private ArrayList<IUploadRegion> regions;
 
+    // 请求调度，未开启上传队列时为 null
+    UploadScheduler scheduler;
+
     protected BaseUpload(IStreamFactory factory,
                          String fileName,
                          String key,
@@ -53,6 +58,7 @@ abstract class BaseUpload implements Runnable {
         this.recorder = recorder;
         this.recorderKey = recorderKey;
         this.completionHandler = completionHandler;
+        this.progressDispatcher = new UpProgressDispatcher(key, this.option.progressHandler, config);
 
         this.initData();
     }
@@ -91,7 +97,12 @@ abstract class BaseUpload implements Runnable {
                 metrics.addMetrics(requestMetrics);
 
                 if (code == 0) {
-                    int prepareCode = prepareToUpload();
+                    int prepareCode = setupRegions() ? 0 : -1;
+                    if (prepareCode == 0) {
+                        // region 确定后立即预连接，与上传前的准备同时进行
+                        preconnectServerIfNeeded();
+                        prepareCode = prepareToUpload();
+                    }
                     if (prepareCode == 0) {
                         startToUpload();
                     } else {
@@ -105,16 +116,50 @@ abstract class BaseUpload implements Runnable {
         });
     }
 
+    /**
+     * 上传前的准备，在 region 设置完成后执行
+     *
+     * @return 非 0 时上传失败
+     */
     protected int prepareToUpload() {
-        int ret = 0;
-        if (!setupRegions()) {
-            ret = -1;
-        }
-        return ret;
+        return 0;
     }
 
     protected abstract void startToUpload();
 
+    /**
+     * @return 预连接的连接个数，与上传时同时进行的请求数一致
+     */
+    protected int preconnectCount() {
+        return 1;
+    }
+
+    // 预连接为异步请求，不阻塞上传流程；第一个上传请求可能在预连接完成前发出，此时不复用预连接的连接
+    private void preconnectServerIfNeeded() {
+        if (!config.preconnectServer) {
+            return;
+        }
+
+        IUploadRegion currentRegion = getCurrentRegion();
+        if (currentRegion == null) {
+            return;
+        }
+        new RequestTransaction(config, option, getTargetRegion(), currentRegion, key, token).preconnect(preconnectCount());
+
+        if (!config.preconnectBackupServer || !config.allowBackupHost) {
+            return;
+        }
+        IUploadRegion backupRegion = null;
+        synchronized (this) {
+            if (currentRegionIndex + 1 < regions.size()) {
+                backupRegion = regions.get(currentRegionIndex + 1);
+            }
+        }
+        if (backupRegion != null) {
+            new RequestTransaction(config, option, getTargetRegion(), backupRegion, key, token).preconnect(1);
+        }
+    }
+
     protected boolean switchRegionAndUpload() {
         if (currentRegionRequestMetrics != null) {
             metrics.addMetrics(currentRegionRequestMetrics);
@@ -140,7 +185,7 @@ abstract class BaseUpload implements Runnable {
         currentRegionRequestMetrics = null;
     }
 
-    private boolean setupRegions() {
+    protected boolean setupRegions() {
         if (config == null || config.zone == null) {
             return false;
         }
@@ -227,6 +272,27 @@ abstract class BaseUpload implements Runnable {
     }
 
 
+    /**
+     * 发起请求前申请额度，未开启上传队列时直接执行；请求结束后需调用 releaseRequest
+     *
+     * @param isForm 是否为表单上传
+     * @param bytes  请求的数据量
+     * @param action 获得额度后执行
+     */
+    protected void acquireRequest(boolean isForm, long bytes, Runnable action) {
+        if (scheduler == null) {
+            action.run();
+            return;
+        }
+        scheduler.acquire(this, option.priority, isForm, bytes, action);
+    }
+
+    protected void releaseRequest(long bytes) {
+        if (scheduler != null) {
+            scheduler.release(bytes);
+        }
+    }
+
     protected UploadRegionRequestMetrics getCurrentRegionRequestMetrics() {
         return currentRegionRequestMetrics;
     }
@@ -0,0 +1,277 @@
+package com.qiniu.android.storage;
+
+import com.qiniu.android.utils.LogUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 带内存缓存、合并写入的分片上传进度记录，文件格式与 FileRecorder 相同
+ * 1. set 先写临时文件再重命名覆盖，写入过程中崩溃不会破坏已有记录
+ * 2. 同一 key 短时间内的多次 set / append 只在内存中更新，由后台线程在 writeDelay 内合并写入文件
+ * 3. get 优先读取内存缓存，缓存未命中时才读取文件
+ * 4. 写入失败时按指数退避重新写入完整内容，多次失败后放弃，记录仅保留在内存缓存中
+ */
+public final class BufferedFileRecorder implements JournalRecorder {
+
+    /**
+     * 不主动 fsync，由系统决定落盘时机
+     */
+    public static final int SyncNone = 0;
+    /**
+     * 重写记录时 fsync，追加记录时不 fsync
+     */
+    public static final int SyncOnRewrite = 1;
+    /**
+     * 每次写入文件均 fsync
+     */
+    public static final int SyncAlways = 2;
+
+    private static final int DefaultWriteDelay = 500;
+    private static final int MaxCacheCount = 16;
+    private static final long ExpireTime = 1000 * 3600 * 24 * 2;
+    private static final int RetryBaseDelay = 500;
+    private static final int MaxRetryCount = 5;
+
+    private static final ScheduledExecutorService writeExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "qiniu-recorder-writer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public final String directory;
+    public final int writeDelay;
+    public final int syncPolicy;
+
+    private final LinkedHashMap<String, Entry> cache = new LinkedHashMap<String, Entry>(MaxCacheCount, 0.75f, true);
+    // 文件操作锁，需在 synchronized (this) 之前获取；持有 this 时不会进行文件写入
+    private final Object fileLock = new Object();
+
+    public BufferedFileRecorder(String directory) throws IOException {
+        this(directory, DefaultWriteDelay, SyncOnRewrite);
+    }
+
+    /**
+     * @param directory  记录文件目录
+     * @param writeDelay 合并写入的最大延迟，单位：毫秒；小于等于 0 时每次 set / append 立即写入
+     * @param syncPolicy fsync 策略：SyncNone / SyncOnRewrite / SyncAlways
+     */
+    public BufferedFileRecorder(String directory, int writeDelay, int syncPolicy) throws IOException {
+        this.directory = directory;
+        this.writeDelay = writeDelay;
+        this.syncPolicy = syncPolicy;
+        RecorderFiles.checkDirectory(directory);
+    }
+
+    @Override
+    public void set(String key, byte[] data) {
+        if (key == null || data == null) {
+            return;
+        }
+        Entry entry;
+        synchronized (this) {
+            entry = getEntry(key, false);
+            entry.content.reset();
+            entry.content.write(data, 0, data.length);
+            entry.pendingRewrite = true;
+            entry.pendingAppend.reset();
+            entry.modifyTime = new Date().getTime();
+        }
+        scheduleWrite(key, entry);
+    }
+
+    @Override
+    public void append(String key, byte[] data) {
+        if (key == null || data == null) {
+            return;
+        }
+        Entry entry;
+        synchronized (this) {
+            entry = getEntry(key, true);
+            entry.content.write(data, 0, data.length);
+            if (!entry.pendingRewrite) {
+                entry.pendingAppend.write(data, 0, data.length);
+            }
+            entry.modifyTime = new Date().getTime();
+        }
+        scheduleWrite(key, entry);
+    }
+
+    @Override
+    public byte[] get(String key) {
+        if (key == null) {
+            return null;
+        }
+        synchronized (this) {
+            Entry entry = getEntry(key, true);
+            if (entry.modifyTime + ExpireTime >= new Date().getTime()) {
+                return entry.content.size() > 0 ? entry.content.toByteArray() : null;
+            }
+        }
+        // 过期后，记录数据作废
+        del(key);
+        return null;
+    }
+
+    @Override
+    public void del(String key) {
+        if (key == null) {
+            return;
+        }
+        synchronized (fileLock) {
+            synchronized (this) {
+                cache.remove(key);
+            }
+            RecorderFiles.recordFile(directory, key).delete();
+        }
+    }
+
+    /**
+     * 立即将所有未写入的记录写入文件
+     */
+    public void flush() {
+        LinkedHashMap<String, Entry> entries;
+        synchronized (this) {
+            entries = new LinkedHashMap<String, Entry>(cache);
+        }
+        for (Map.Entry<String, Entry> item : entries.entrySet()) {
+            writeEntry(item.getKey(), item.getValue());
+        }
+    }
+
+    @Override
+    public String getFileName() {
+        return null;
+    }
+
+    // 需在 synchronized (this) 中调用
+    private Entry getEntry(String key, boolean load) {
+        Entry entry = cache.get(key);
+        if (entry != null) {
+            return entry;
+        }
+
+        entry = new Entry();
+        if (load) {
+            File f = RecorderFiles.recordFile(directory, key);
+            byte[] data = RecorderFiles.readFile(f);
+            if (data != null) {
+                entry.content.write(data, 0, data.length);
+                entry.modifyTime = f.lastModified();
+            } else {
+                entry.modifyTime = new Date().getTime();
+            }
+        }
+        cache.put(key, entry);
+        trimCache();
+        return entry;
+    }
+
+    // 需在 synchronized (this) 中调用，有未写入内容的记录暂不淘汰
+    private void trimCache() {
+        Iterator<Map.Entry<String, Entry>> iterator = cache.entrySet().iterator();
+        while (cache.size() > MaxCacheCount && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (!entry.hasPendingWrite()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void scheduleWrite(String key, Entry entry) {
+        if (writeDelay <= 0) {
+            writeEntry(key, entry);
+            return;
+        }
+        scheduleWrite(key, entry, writeDelay);
+    }
+
+    private void scheduleWrite(final String key, final Entry entry, long delay) {
+        synchronized (this) {
+            if (entry.isWriteScheduled) {
+                return;
+            }
+            entry.isWriteScheduled = true;
+        }
+        writeExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (BufferedFileRecorder.this) {
+                    entry.isWriteScheduled = false;
+                }
+                writeEntry(key, entry);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void writeEntry(String key, Entry entry) {
+        synchronized (fileLock) {
+            boolean rewrite;
+            byte[] data;
+            synchronized (this) {
+                // 已被删除或被新的记录替换
+                if (cache.get(key) != entry || !entry.hasPendingWrite()) {
+                    return;
+                }
+                rewrite = entry.pendingRewrite;
+                data = rewrite ? entry.content.toByteArray() : entry.pendingAppend.toByteArray();
+                entry.pendingRewrite = false;
+                entry.pendingAppend.reset();
+            }
+
+            File f = RecorderFiles.recordFile(directory, key);
+            boolean success;
+            if (rewrite) {
+                success = RecorderFiles.writeFileAtomically(f, data, syncPolicy != SyncNone);
+            } else {
+                success = RecorderFiles.appendFile(f, data, syncPolicy == SyncAlways);
+            }
+
+            long retryDelay = 0;
+            synchronized (this) {
+                if (success) {
+                    entry.writeFailedCount = 0;
+                } else if (entry.writeFailedCount < MaxRetryCount) {
+                    // 写入失败时延迟重写完整内容
+                    retryDelay = (long) RetryBaseDelay << entry.writeFailedCount;
+                    entry.writeFailedCount++;
+                    entry.pendingRewrite = true;
+                    entry.pendingAppend.reset();
+                } else {
+                    // 多次失败后放弃写入，记录可被淘汰
+                    LogUtil.w("recorder write failed, key:" + key);
+                    entry.writeFailedCount = 0;
+                }
+                trimCache();
+            }
+            if (retryDelay > 0) {
+                scheduleWrite(key, entry, retryDelay);
+            }
+        }
+    }
+
+    private static class Entry {
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream pendingAppend = new ByteArrayOutputStream();
+        private boolean pendingRewrite = false;
+        private boolean isWriteScheduled = false;
+        private int writeFailedCount = 0;
+        private long modifyTime;
+
+        private boolean hasPendingWrite() {
+            return pendingRewrite || pendingAppend.size() > 0;
+        }
+    }
+}
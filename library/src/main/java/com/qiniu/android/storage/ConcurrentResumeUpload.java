@@ -1,15 +1,24 @@
 package com.qiniu.android.storage;
 
+import com.qiniu.android.http.ResponseInfo;
 import com.qiniu.android.storage.stream.IStreamFactory;
-import com.qiniu.android.utils.GroupTaskThread;
+import com.qiniu.android.utils.AsyncRun;
+import com.qiniu.android.utils.GroupTaskExecutor;
 import com.qiniu.android.utils.LogUtil;
 import com.qiniu.android.utils.StringUtils;
 
+import org.json.JSONObject;
+
 import java.io.File;
 
 class ConcurrentResumeUpload extends PartsUpload {
 
-    private GroupTaskThread groupTaskThread;
+    private GroupTaskExecutor groupTaskExecutor;
+
+    // 自适应并发：正在上传的任务数
+    private int activeTaskCount;
+    private boolean isUploadStopped;
+    private boolean isUploadRestDataComplete;
 
     protected ConcurrentResumeUpload(IStreamFactory factory,
                                      String key,
@@ -27,22 +36,37 @@ class ConcurrentResumeUpload extends PartsUpload {
         return super.prepareToUpload();
     }
 
+    @Override
+    protected int preconnectCount() {
+        return config.concurrentTaskCount;
+    }
+
     @Override
     protected void uploadRestData(final UploadFileRestDataCompleteHandler completeHandler) {
         LogUtil.i("key:" + StringUtils.toNonnullString(key));
 
-        GroupTaskThread.GroupTaskCompleteHandler taskCompleteHandler = new GroupTaskThread.GroupTaskCompleteHandler() {
+        if (uploadPerformer.adaptiveController != null) {
+            synchronized (this) {
+                activeTaskCount = 0;
+                isUploadStopped = false;
+                isUploadRestDataComplete = false;
+            }
+            scheduleAdaptiveTasks(completeHandler);
+            return;
+        }
+
+        GroupTaskExecutor.GroupTaskCompleteHandler taskCompleteHandler = new GroupTaskExecutor.GroupTaskCompleteHandler() {
             @Override
             public void complete() {
                 completeHandler.complete();
             }
         };
 
-        groupTaskThread = new GroupTaskThread(taskCompleteHandler);
+        groupTaskExecutor = new GroupTaskExecutor(taskCompleteHandler);
         for (int i = 0; i < config.concurrentTaskCount; i++) {
-            groupTaskThread.addTask(new GroupTaskThread.GroupTask() {
+            groupTaskExecutor.addTask(new GroupTaskExecutor.GroupTask() {
                 @Override
-                public void run(final GroupTaskThread.GroupTask task) {
+                public void run(final GroupTaskExecutor.GroupTask task) {
                     performUploadRestData(new UploadFileRestDataCompleteHandler() {
                         @Override
                         public void complete() {
@@ -53,6 +77,53 @@ class ConcurrentResumeUpload extends PartsUpload {
             });
         }
 
-        groupTaskThread.start();
+        groupTaskExecutor.execute();
+    }
+
+    /**
+     * 按当前的自适应并发数启动上传任务，每个任务上传一个分片，结束后重新调度
+     */
+    private void scheduleAdaptiveTasks(final UploadFileRestDataCompleteHandler completeHandler) {
+        int taskCount = 0;
+        boolean complete = false;
+        synchronized (this) {
+            if (isUploadRestDataComplete) {
+                return;
+            }
+            boolean hasRestData = !isUploadStopped && !isAllUploaded();
+            if (hasRestData) {
+                taskCount = Math.max(uploadPerformer.adaptiveController.concurrency() - activeTaskCount, 0);
+                activeTaskCount += taskCount;
+            }
+            if (activeTaskCount == 0) {
+                isUploadRestDataComplete = true;
+                complete = true;
+            }
+        }
+
+        if (complete) {
+            completeHandler.complete();
+            return;
+        }
+
+        for (int i = 0; i < taskCount; i++) {
+            AsyncRun.runInBack(new Runnable() {
+                @Override
+                public void run() {
+                    uploadNextData(new UploadFileDataCompleteHandler() {
+                        @Override
+                        public void complete(boolean stop, ResponseInfo responseInfo, JSONObject response) {
+                            synchronized (ConcurrentResumeUpload.this) {
+                                activeTaskCount -= 1;
+                                if (stop || (responseInfo != null && !responseInfo.isOK())) {
+                                    isUploadStopped = true;
+                                }
+                            }
+                            scheduleAdaptiveTasks(completeHandler);
+                        }
+                    });
+                }
+            });
+        }
     }
 }
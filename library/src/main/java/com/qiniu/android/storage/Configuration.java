@@ -17,11 +17,39 @@ public final class Configuration {
      */
     public static int RESUME_UPLOAD_VERSION_V2 = 1;
 
+    /**
+     * 进度回调在主线程执行
+     */
+    public static final int PROGRESS_CALLBACK_MAIN = 0;
+    /**
+     * 进度回调在后台线程执行
+     */
+    public static final int PROGRESS_CALLBACK_BACKGROUND = 1;
+    /**
+     * 进度回调在上传数据的线程直接执行，回调中不应有耗时操作
+     */
+    public static final int PROGRESS_CALLBACK_DIRECT = 2;
+
     /**
      * 上传区域
      */
     public final Zone zone;
 
+    /**
+     * 进度回调执行的线程：PROGRESS_CALLBACK_MAIN / PROGRESS_CALLBACK_BACKGROUND / PROGRESS_CALLBACK_DIRECT，默认为主线程
+     */
+    public final int progressCallbackThread;
+
+    /**
+     * 进度回调的最小时间间隔 单位：毫秒 默认100；间隔内的进度变化合并为一次回调
+     */
+    public final int progressInterval;
+
+    /**
+     * 进度增长超过此值时不受 progressInterval 限制立即回调，取值 (0, 1]，默认0.01
+     */
+    public final double progressMinDelta;
+
     /**
      * 断点上传时的分块大小(默认的分块大小, 不建议改变) 【已无效】
      */
@@ -47,6 +75,21 @@ public final class Configuration {
      */
     public final int retryInterval;
 
+    /**
+     * 重试时间间隔的增长倍数，第 n 次重试的间隔为 retryInterval * retryBackoffMultiplier ^ (n - 1)，默认为1，即固定间隔
+     */
+    public final double retryBackoffMultiplier;
+
+    /**
+     * 重试时间间隔的随机抖动比例，取值 [0, 1]，默认为0
+     */
+    public final double retryJitter;
+
+    /**
+     * 重试时间间隔的最大值（包括服务端 Retry-After 指定的时间） 单位：毫秒 小于等于0时不限制 默认0
+     */
+    public final int retryMaxInterval;
+
     /**
      * 连接超时时间 单位 秒
      * 注：每个文件上传肯能存在多个操作，当每个操作失败时，可能存在多个请求重试。
@@ -81,6 +124,51 @@ public final class Configuration {
      */
     public final int concurrentTaskCount;
 
+    /**
+     * 分片上传 V2 是否根据实际上传速度自适应调整分片大小及并发数，默认为false
+     * 开启后 chunkSize 为初始分片大小，concurrentResumeUpload 为true时 concurrentTaskCount 为初始并发数，
+     * 并发数最大为 concurrentTaskCount 的 2 倍
+     */
+    public final boolean useAdaptiveResumeUpload;
+
+    /**
+     * 分片上传时预读的分片个数，默认为0，不预读
+     * 开启后在上传当前分片的同时从数据源读取后续分片，预读及上传中的分片占用的内存不超过
+     * (并发数 + prefetchDataCount) 个分片大小；单个分片大于 8M 时不预读，开启 useAdaptiveResumeUpload 时按当前的分片大小预先划分后续分片
+     */
+    public final int prefetchDataCount;
+
+    /**
+     * 是否预连接上传服务器，默认为 false
+     * 开启后在 region 确定后立即向当前 region 最优的上传服务器建立连接（含 TLS 握手）并放入连接池，之后的请求选择预连接的 IP，首个请求无需等待建立连接；
+     * 并发分片上传时预连接 concurrentTaskCount 个连接，否则预连接 1 个；HTTP/2 下多个连接会被合并为 1 个
+     */
+    public final boolean preconnectServer;
+
+    /**
+     * 是否开启连接竞速，默认为 false
+     * 开启后选择上传服务器时，若该域名解析到多个 IP 段（或 IPv4 / IPv6），间隔 250ms 依次向各 IP 段的一个 IP 发起 TCP 连接，
+     * 竞速在后台进行，不阻塞请求，竞速结束后的请求使用最先连接成功的 IP，连接失败的 IP 段会被局部冻结；
+     * 竞速超时时间为 min(connectTimeout, 3s)，使用代理或 urlConverter 时无效
+     */
+    public final boolean useConnectRace;
+
+    /**
+     * 开启 preconnectServer 时，是否同时向备用 region 的上传服务器预连接 1 个连接，默认为 false；allowBackupHost 为 false 时无效
+     */
+    public final boolean preconnectBackupServer;
+
+    /**
+     * 上传队列：同一 UploadManager 下所有上传任务同时进行的最大请求数，默认为0，不限制
+     * 开启上传队列后，按 UploadOptions.priority 调度，同一优先级中表单上传优先，多个分片上传任务交替上传分片
+     */
+    public final int queueMaxRequestCount;
+
+    /**
+     * 上传队列：同一 UploadManager 下所有上传任务同时进行的请求最大数据量，单位：字节，默认为0，不限制
+     */
+    public final long queueMaxRequestBytes;
+
     /**
      * 重试时是否允许使用备用上传域名，默认为true
      */
@@ -111,6 +199,13 @@ public final class Configuration {
         useConcurrentResumeUpload = builder.useConcurrentResumeUpload;
         resumeUploadVersion = builder.resumeUploadVersion;
         concurrentTaskCount = builder.concurrentTaskCount;
+        useAdaptiveResumeUpload = builder.useAdaptiveResumeUpload;
+        prefetchDataCount = Math.max(builder.prefetchDataCount, 0);
+        preconnectServer = builder.preconnectServer;
+        useConnectRace = builder.useConnectRace;
+        preconnectBackupServer = builder.preconnectBackupServer;
+        queueMaxRequestCount = builder.queueMaxRequestCount;
+        queueMaxRequestBytes = builder.queueMaxRequestBytes;
 
         if (builder.resumeUploadVersion == RESUME_UPLOAD_VERSION_V1) {
             if (builder.chunkSize < 1024) {
@@ -133,6 +228,13 @@ public final class Configuration {
 
         retryMax = builder.retryMax;
         retryInterval = builder.retryInterval;
+        retryBackoffMultiplier = Math.max(builder.retryBackoffMultiplier, 1);
+        retryJitter = Math.min(Math.max(builder.retryJitter, 0), 1);
+        retryMaxInterval = builder.retryMaxInterval;
+
+        progressCallbackThread = builder.progressCallbackThread;
+        progressInterval = Math.max(builder.progressInterval, 0);
+        progressMinDelta = builder.progressMinDelta > 0 ? Math.min(builder.progressMinDelta, 1) : 0.01;
 
         allowBackupHost = builder.allowBackupHost;
 
@@ -170,11 +272,24 @@ public final class Configuration {
         private int responseTimeout = 60;
         private int retryMax = 1;
         private int retryInterval = 500;
+        private double retryBackoffMultiplier = 1;
+        private double retryJitter = 0;
+        private int retryMaxInterval = 0;
+        private int progressCallbackThread = PROGRESS_CALLBACK_MAIN;
+        private int progressInterval = 100;
+        private double progressMinDelta = 0.01;
         private boolean allowBackupHost = true;
         private UrlConverter urlConverter = null;
         private boolean useConcurrentResumeUpload = false;
         private int resumeUploadVersion = RESUME_UPLOAD_VERSION_V1;
         private int concurrentTaskCount = 3;
+        private boolean useAdaptiveResumeUpload = false;
+        private int prefetchDataCount = 0;
+        private boolean preconnectServer = false;
+        private boolean useConnectRace = false;
+        private boolean preconnectBackupServer = false;
+        private int queueMaxRequestCount = 0;
+        private long queueMaxRequestBytes = 0;
 
         public Builder zone(Zone zone) {
             this.zone = zone;
@@ -227,6 +342,36 @@ public final class Configuration {
             return this;
         }
 
+        public Builder retryBackoffMultiplier(double retryBackoffMultiplier) {
+            this.retryBackoffMultiplier = retryBackoffMultiplier;
+            return this;
+        }
+
+        public Builder retryJitter(double retryJitter) {
+            this.retryJitter = retryJitter;
+            return this;
+        }
+
+        public Builder retryMaxInterval(int retryMaxInterval) {
+            this.retryMaxInterval = retryMaxInterval;
+            return this;
+        }
+
+        public Builder progressCallbackThread(int progressCallbackThread) {
+            this.progressCallbackThread = progressCallbackThread;
+            return this;
+        }
+
+        public Builder progressInterval(int progressInterval) {
+            this.progressInterval = progressInterval;
+            return this;
+        }
+
+        public Builder progressMinDelta(double progressMinDelta) {
+            this.progressMinDelta = progressMinDelta;
+            return this;
+        }
+
         public Builder allowBackupHost(boolean isAllow) {
             this.allowBackupHost = isAllow;
             return this;
@@ -252,6 +397,41 @@ public final class Configuration {
             return this;
         }
 
+        public Builder useAdaptiveResumeUpload(boolean useAdaptiveResumeUpload) {
+            this.useAdaptiveResumeUpload = useAdaptiveResumeUpload;
+            return this;
+        }
+
+        public Builder prefetchDataCount(int prefetchDataCount) {
+            this.prefetchDataCount = prefetchDataCount;
+            return this;
+        }
+
+        public Builder preconnectServer(boolean preconnectServer) {
+            this.preconnectServer = preconnectServer;
+            return this;
+        }
+
+        public Builder preconnectBackupServer(boolean preconnectBackupServer) {
+            this.preconnectBackupServer = preconnectBackupServer;
+            return this;
+        }
+
+        public Builder useConnectRace(boolean useConnectRace) {
+            this.useConnectRace = useConnectRace;
+            return this;
+        }
+
+        public Builder queueMaxRequestCount(int queueMaxRequestCount) {
+            this.queueMaxRequestCount = queueMaxRequestCount;
+            return this;
+        }
+
+        public Builder queueMaxRequestBytes(long queueMaxRequestBytes) {
+            this.queueMaxRequestBytes = queueMaxRequestBytes;
+            return this;
+        }
+
         public Builder useHttps(boolean useHttps) {
             this.useHttps = useHttps;
             return this;
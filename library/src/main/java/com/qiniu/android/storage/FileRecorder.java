@@ -1,48 +1,19 @@
 package com.qiniu.android.storage;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.security.MessageDigest;
 import java.util.Date;
 
 /**
  * 实现分片上传时上传进度的接口方法
  */
-public final class FileRecorder implements Recorder {
+public final class FileRecorder implements JournalRecorder {
 
     public String directory;
 
     public FileRecorder(String directory) throws IOException {
         this.directory = directory;
-        File f = new File(directory);
-        if (!f.exists()) {
-            boolean r = f.mkdirs();
-            if (!r) {
-                throw new IOException("mkdir failed");
-            }
-            return;
-        }
-        if (!f.isDirectory()) {
-            throw new IOException("does not mkdir");
-        }
-    }
-
-    private static String hash(String base) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-1");
-            byte[] hash = digest.digest(base.getBytes());
-            StringBuffer hexString = new StringBuffer();
-
-            for (int i = 0; i < hash.length; i++) {
-                hexString.append(Integer.toString((hash[i] & 0xff) + 0x100, 16).substring(1));
-            }
-            return hexString.toString();
-        } catch (Exception ex) {
-            ex.printStackTrace();
-        }
-        return null;
+        RecorderFiles.checkDirectory(directory);
     }
 
     /**
@@ -56,21 +27,23 @@ public final class FileRecorder implements Recorder {
         if (key == null) {
             return;
         }
-        File f = new File(directory, hash(key));
-        FileOutputStream fo = null;
-        try {
-            fo = new FileOutputStream(f);
-            fo.write(data);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        if (fo != null) {
-            try {
-                fo.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        File f = RecorderFiles.recordFile(directory, key);
+        // 先写临时文件再重命名，写入过程中崩溃不会破坏已有记录
+        RecorderFiles.writeFileAtomically(f, data, false);
+    }
+
+    /**
+     * 追加分片上传进度
+     *
+     * @param key  上传文件进度文件保存名
+     * @param data 追加的进度数据
+     */
+    @Override
+    public void append(String key, byte[] data) {
+        if (key == null) {
+            return;
         }
+        RecorderFiles.appendFile(RecorderFiles.recordFile(directory, key), data, false);
     }
 
     /**
@@ -80,32 +53,12 @@ public final class FileRecorder implements Recorder {
      */
     @Override
     public byte[] get(String key) {
-        File f = new File(directory, hash(key));
-        FileInputStream fi = null;
-        byte[] data = null;
-        int read = 0;
-        try {
-            if (outOfDate(f)) {
-                f.delete();
-                return null;
-            }
-            data = new byte[(int) f.length()];
-            fi = new FileInputStream(f);
-            read = fi.read(data);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        if (fi != null) {
-            try {
-                fi.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-        if (read == 0) {
+        File f = RecorderFiles.recordFile(directory, key);
+        if (outOfDate(f)) {
+            f.delete();
             return null;
         }
-        return data;
+        return RecorderFiles.readFile(f);
     }
 
     private boolean outOfDate(File f) {
@@ -119,7 +72,7 @@ public final class FileRecorder implements Recorder {
      */
     @Override
     public void del(String key) {
-        File f = new File(directory, hash(key));
+        File f = RecorderFiles.recordFile(directory, key);
         f.delete();
     }
 
@@ -4,19 +4,18 @@ import com.qiniu.android.http.ResponseInfo;
 import com.qiniu.android.http.metrics.UploadRegionRequestMetrics;
 import com.qiniu.android.http.request.RequestTransaction;
 import com.qiniu.android.http.request.handler.RequestProgressHandler;
-import com.qiniu.android.utils.AsyncRun;
+import com.qiniu.android.storage.stream.IPositionalStreamFactory;
+import com.qiniu.android.storage.stream.IStreamFactory;
+import com.qiniu.android.storage.stream.StreamRegion;
 import com.qiniu.android.utils.LogUtil;
 import com.qiniu.android.utils.StringUtils;
 
 import org.json.JSONObject;
 
-import java.io.IOException;
-import java.io.InputStream;
 
 class FormUpload extends BaseUpload {
 
     private boolean isAsync = true;
-    private double previousPercent;
     private RequestTransaction uploadTransaction;
 
     protected FormUpload(byte[] data,
@@ -29,8 +28,27 @@ class FormUpload extends BaseUpload {
         super(data, key, fileName, token, option, config, completionHandler);
     }
 
+    protected FormUpload(IStreamFactory factory,
+                         String key,
+                         String fileName,
+                         UpToken token,
+                         UploadOptions option,
+                         Configuration config,
+                         UpTaskCompletionHandler completionHandler) {
+        super(factory, fileName, key, token, option, config, null, null, completionHandler);
+    }
+
     @Override
     protected void startToUpload() {
+        acquireRequest(true, factory.sizeOfStream(), new Runnable() {
+            @Override
+            public void run() {
+                uploadFormData();
+            }
+        });
+    }
+
+    private void uploadFormData() {
 
         LogUtil.i("key:" + StringUtils.toNonnullString(key) + " form上传");
 
@@ -39,49 +57,39 @@ class FormUpload extends BaseUpload {
         RequestProgressHandler progressHandler = new RequestProgressHandler() {
             @Override
             public void progress(long totalBytesWritten, long totalBytesExpectedToWrite) {
-                if (option.progressHandler != null) {
-                    double percent = (double) totalBytesWritten / (double) totalBytesExpectedToWrite;
-                    if (percent > 0.95) {
-                        percent = 0.95;
-                    }
-                    if (percent > previousPercent) {
-                        previousPercent = percent;
-                    } else {
-                        percent = previousPercent;
-                    }
-                    option.progressHandler.progress(key, percent);
+                double percent = (double) totalBytesWritten / (double) totalBytesExpectedToWrite;
+                if (percent > 0.95) {
+                    percent = 0.95;
                 }
+                progressDispatcher.progress(percent);
             }
         };
-        try {
-            final byte[] data = new byte[(int) factory.sizeOfStream()];
-            InputStream stream = factory.newStreamWithOffset(0);
-            stream.read(data);
-            stream.close();
-            uploadTransaction.uploadFormData(data, fileName, isAsync, progressHandler, new RequestTransaction.RequestCompleteHandler() {
-                @Override
-                public void complete(ResponseInfo responseInfo, UploadRegionRequestMetrics requestMetrics, JSONObject response) {
-                    addRegionRequestMetricsOfOneFlow(requestMetrics);
+        // 文件数据在发送时流式读取，不完整读入内存
+        StreamRegion dataRegion = new StreamRegion(factory, 0, factory.sizeOfStream());
+        uploadTransaction.uploadFormData(dataRegion, fileName, isAsync, progressHandler, new RequestTransaction.RequestCompleteHandler() {
+            @Override
+            public void complete(ResponseInfo responseInfo, UploadRegionRequestMetrics requestMetrics, JSONObject response) {
+                releaseRequest(factory.sizeOfStream());
+                addRegionRequestMetricsOfOneFlow(requestMetrics);
 
-                    if (!responseInfo.isOK()) {
-                        if (!switchRegionAndUploadIfNeededWithErrorResponse(responseInfo)) {
-                            completeAction(responseInfo, response);
-                        }
-                        return;
+                if (!responseInfo.isOK()) {
+                    if (!switchRegionAndUploadIfNeededWithErrorResponse(responseInfo)) {
+                        completeAction(responseInfo, response);
                     }
-
-                    AsyncRun.runInMain(new Runnable() {
-                        @Override
-                        public void run() {
-                            option.progressHandler.progress(key, 1.0);
-                        }
-                    });
-                    completeAction(responseInfo, response);
+                    return;
                 }
-            });
-        } catch (IOException ioe) {
-            ioe.printStackTrace(System.err);
-        }
 
+                progressDispatcher.complete();
+                completeAction(responseInfo, response);
+            }
+        });
+    }
+
+    @Override
+    protected void completeAction(ResponseInfo responseInfo, JSONObject response) {
+        if (factory instanceof IPositionalStreamFactory) {
+            ((IPositionalStreamFactory) factory).close();
+        }
+        super.completeAction(responseInfo, response);
     }
 }
@@ -22,6 +22,11 @@ public class GlobalConfiguration {
      */
     public int dnsCacheTime = 120;
 
+    /**
+     * dns预取时等待所有 host 解析完成的最长时间，超时后未完成的 host 在后台继续解析  单位：秒
+     */
+    public int dnsPrefetchTimeout = 10;
+
     /**
      * 自定义DNS解析客户端host
      */
@@ -32,6 +37,11 @@ public class GlobalConfiguration {
      */
     public String dnsCacheDir = Utils.sdkDirectory() + "/dnsCache/";
 
+    /**
+     * AutoZone 上传域名查询结果的缓存目录，多进程共享
+     */
+    public String zoneCacheDir = Utils.sdkDirectory() + "/zoneCache/";
+
     /**
      * Host全局冻结时间  单位：秒   默认：30  推荐范围：[10 ~ 60]
      * 当某个Host的上传失败后并且可能短时间无法恢复，会冻结该Host，globalHostFrozenTime为全局冻结时间
@@ -0,0 +1,15 @@
+package com.qiniu.android.storage;
+
+/**
+ * 支持追加写入的 Recorder，分片上传时每完成一个分片仅追加一条记录，不再重写完整的上传进度
+ */
+public interface JournalRecorder extends Recorder {
+
+    /**
+     * 在已有的持久化内容后追加内容，get 返回 set 的内容及其后追加的所有内容
+     *
+     * @param key  持久化的键
+     * @param data 追加的内容
+     */
+    void append(String key, byte[] data);
+}
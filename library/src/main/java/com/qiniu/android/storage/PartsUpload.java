@@ -1,11 +1,12 @@
 package com.qiniu.android.storage;
 
+import com.qiniu.android.collect.ReportContext;
 import com.qiniu.android.collect.ReportItem;
 import com.qiniu.android.collect.UploadInfoReporter;
 import com.qiniu.android.http.ResponseInfo;
 import com.qiniu.android.http.metrics.UploadRegionRequestMetrics;
+import com.qiniu.android.storage.stream.IPositionalStreamFactory;
 import com.qiniu.android.storage.stream.IStreamFactory;
-import com.qiniu.android.utils.AsyncRun;
 import com.qiniu.android.utils.LogUtil;
 import com.qiniu.android.utils.StringUtils;
 import com.qiniu.android.utils.Utils;
@@ -45,6 +46,7 @@ class PartsUpload extends BaseUpload {
             LogUtil.i("key:" + StringUtils.toNonnullString(key) + " 分片V2");
             uploadPerformer = new PartsUploadPerformerV2(factory, fileName, key, token, option, config, recorderKey);
         }
+        uploadPerformer.progressDispatcher = progressDispatcher;
     }
 
     boolean isAllUploaded() {
@@ -71,12 +73,12 @@ class PartsUpload extends BaseUpload {
     }
 
     @Override
-    protected int prepareToUpload() {
-        int code = super.prepareToUpload();
-        if (code != 0) {
-            return code;
+    protected boolean setupRegions() {
+        if (!super.setupRegions()) {
+            return false;
         }
 
+        // 优先使用上传记录中的 region，预连接时已确定
         if (uploadPerformer.currentRegion != null && uploadPerformer.currentRegion.isValid()) {
             insertRegionAtFirst(uploadPerformer.currentRegion);
             LogUtil.i("key:" + StringUtils.toNonnullString(key) + " 使用缓存region");
@@ -87,6 +89,15 @@ class PartsUpload extends BaseUpload {
         if (uploadPerformer != null && uploadPerformer.currentRegion != null && uploadPerformer.currentRegion.getZoneInfo() != null) {
             LogUtil.i("key:" + StringUtils.toNonnullString(key) + " region:" + StringUtils.toNonnullString(uploadPerformer.currentRegion.getZoneInfo().regionId));
         }
+        return true;
+    }
+
+    @Override
+    protected int prepareToUpload() {
+        int code = super.prepareToUpload();
+        if (code != 0) {
+            return code;
+        }
 
         if (factory == null) {
             code = ResponseInfo.LocalIOError;
@@ -159,12 +170,7 @@ class PartsUpload extends BaseUpload {
                                     return;
                                 }
 
-                                AsyncRun.runInMain(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        option.progressHandler.progress(key, 1.0);
-                                    }
-                                });
+                                progressDispatcher.complete();
                                 completeAction(responseInfo, response);
                             }
                         });
@@ -200,10 +206,20 @@ class PartsUpload extends BaseUpload {
 
 
     protected void serverInit(final UploadFileCompleteHandler completeHandler) {
+        acquireRequest(false, 0, new Runnable() {
+            @Override
+            public void run() {
+                performServerInit(completeHandler);
+            }
+        });
+    }
+
+    private void performServerInit(final UploadFileCompleteHandler completeHandler) {
 
         uploadPerformer.serverInit(new PartsUploadPerformer.PartsUploadPerformerCompleteHandler() {
             @Override
             public void complete(ResponseInfo responseInfo, UploadRegionRequestMetrics requestMetrics, JSONObject response) {
+                releaseRequest(0);
                 if (responseInfo != null && !responseInfo.isOK()) {
                     setErrorResponse(responseInfo, response);
                 }
@@ -214,10 +230,21 @@ class PartsUpload extends BaseUpload {
     }
 
     protected void uploadNextData(final UploadFileDataCompleteHandler completeHandler) {
+        final long bytes = uploadPerformer.nextDataSize();
+        acquireRequest(false, bytes, new Runnable() {
+            @Override
+            public void run() {
+                performUploadNextData(bytes, completeHandler);
+            }
+        });
+    }
+
+    private void performUploadNextData(final long bytes, final UploadFileDataCompleteHandler completeHandler) {
 
         uploadPerformer.uploadNextData(new PartsUploadPerformer.PartsUploadPerformerDataCompleteHandler() {
             @Override
             public void complete(boolean stop, ResponseInfo responseInfo, UploadRegionRequestMetrics requestMetrics, JSONObject response) {
+                releaseRequest(bytes);
                 if (responseInfo != null && !responseInfo.isOK()) {
                     setErrorResponse(responseInfo, response);
                 }
@@ -228,10 +255,20 @@ class PartsUpload extends BaseUpload {
     }
 
     protected void completeUpload(final UploadFileCompleteHandler completeHandler) {
+        acquireRequest(false, 0, new Runnable() {
+            @Override
+            public void run() {
+                performCompleteUpload(completeHandler);
+            }
+        });
+    }
+
+    private void performCompleteUpload(final UploadFileCompleteHandler completeHandler) {
 
         uploadPerformer.completeUpload(new PartsUploadPerformer.PartsUploadPerformerCompleteHandler() {
             @Override
             public void complete(ResponseInfo responseInfo, UploadRegionRequestMetrics requestMetrics, JSONObject response) {
+                releaseRequest(0);
                 if (responseInfo != null && !responseInfo.isOK()) {
                     setErrorResponse(responseInfo, response);
                 }
@@ -247,6 +284,10 @@ class PartsUpload extends BaseUpload {
         if (shouldRemoveUploadInfoRecord(responseInfo)) {
             uploadPerformer.removeUploadInfoRecord();
         }
+        uploadPerformer.closePrefetcher();
+        if (factory instanceof IPositionalStreamFactory) {
+            ((IPositionalStreamFactory) factory).close();
+        }
         super.completeAction(responseInfo, response);
     }
 
@@ -274,6 +315,7 @@ class PartsUpload extends BaseUpload {
             targetZoneRegionId = getTargetRegion().getZoneInfo().regionId;
         }
 
+        ReportContext context = ReportContext.current();
         ReportItem item = new ReportItem();
         item.setReport(ReportItem.LogTypeBlock, ReportItem.BlockKeyLogType);
         item.setReport((Utils.currentTimestamp() / 1000), ReportItem.BlockKeyUpTime);
@@ -285,7 +327,7 @@ class PartsUpload extends BaseUpload {
         item.setReport(metrics.bytesSend(), ReportItem.BlockKeyBytesSent);
         item.setReport(uploadPerformer.recoveredFrom, ReportItem.BlockKeyRecoveredFrom);
         item.setReport(factory.sizeOfStream(), ReportItem.BlockKeyFileSize);
-        item.setReport(Utils.getCurrentProcessID(), ReportItem.BlockKeyPid);
+        item.setReport(context.pid, ReportItem.BlockKeyPid);
         item.setReport(Utils.getCurrentThreadID(), ReportItem.BlockKeyTid);
 
         if (config != null && config.resumeUploadVersion == Configuration.RESUME_UPLOAD_VERSION_V1) {
@@ -296,10 +338,10 @@ class PartsUpload extends BaseUpload {
 
         item.setReport(Utils.currentTimestamp(), ReportItem.BlockKeyClientTime);
 
-        item.setReport(Utils.systemName(), ReportItem.BlockKeyOsName);
-        item.setReport(Utils.systemVersion(), ReportItem.BlockKeyOsVersion);
-        item.setReport(Utils.sdkLanguage(), ReportItem.BlockKeySDKName);
-        item.setReport(Utils.sdkVerion(), ReportItem.BlockKeySDKVersion);
+        item.setReport(context.osName, ReportItem.BlockKeyOsName);
+        item.setReport(context.osVersion, ReportItem.BlockKeyOsVersion);
+        item.setReport(context.sdkName, ReportItem.BlockKeySDKName);
+        item.setReport(context.sdkVersion, ReportItem.BlockKeySDKVersion);
 
         UploadInfoReporter.getInstance().report(item, token.token);
     }
@@ -7,7 +7,7 @@ import com.qiniu.android.http.request.IUploadRegion;
 import com.qiniu.android.http.request.RequestTransaction;
 import com.qiniu.android.http.serverRegion.UploadDomainRegion;
 import com.qiniu.android.storage.stream.IStreamFactory;
-import com.qiniu.android.utils.AsyncRun;
+import com.qiniu.android.storage.stream.StreamRegion;
 import com.qiniu.android.utils.LogUtil;
 import com.qiniu.android.utils.StringUtils;
 
@@ -20,6 +20,8 @@ import java.util.List;
 abstract class PartsUploadPerformer {
     private static final String kRecordFileInfoKey = "recordFileInfo";
     private static final String kRecordZoneInfoKey = "recordZoneInfo";
+    // 追加的记录数达到分片数（至少 kJournalMinCompactCount 条）时重写快照
+    private static final int kJournalMinCompactCount = 64;
 
     final String key;
     final String fileName;
@@ -33,10 +35,18 @@ abstract class PartsUploadPerformer {
 
     private IUploadRegion targetRegion;
     protected IUploadRegion currentRegion;
-    private double previousPercent;
+    UpProgressDispatcher progressDispatcher;
 
     Long recoveredFrom;
+    // 上传进度日志：快照写入后，每完成一个分片仅追加一条记录
+    private final Object recordLock = new Object();
+    private boolean isJournalStarted = false;
+    private int journalRecordCount = 0;
     UploadFileInfo fileInfo;
+    // 自适应分片大小及并发数，未开启时为 null
+    UploadAdaptiveController adaptiveController;
+    // 分片数据预读，未开启时为 null
+    UploadDataPrefetcher prefetcher;
     List<RequestTransaction> uploadTransactions;
 
     PartsUploadPerformer(IStreamFactory factory,
@@ -56,6 +66,15 @@ abstract class PartsUploadPerformer {
         this.recorderKey = recorderKey;
 
         this.initData();
+
+        if (config.prefetchDataCount > 0) {
+            int concurrency = config.useConcurrentResumeUpload ? config.concurrentTaskCount : 1;
+            // 自适应时并发数最多为初始并发数的 2 倍
+            if (config.useAdaptiveResumeUpload) {
+                concurrency *= 2;
+            }
+            prefetcher = new UploadDataPrefetcher(factory, config.prefetchDataCount, concurrency);
+        }
     }
 
     void initData() {
@@ -67,39 +86,102 @@ abstract class PartsUploadPerformer {
     }
 
     void switchRegion(IUploadRegion region) {
+        if (prefetcher != null) {
+            prefetcher.clear();
+        }
         if (fileInfo != null) {
             fileInfo.clearUploadState();
         }
         currentRegion = region;
         recoveredFrom = null;
+        synchronized (recordLock) {
+            isJournalStarted = false;
+        }
         if (targetRegion == null) {
             targetRegion = region;
         }
     }
 
+    /**
+     * 分片的数据区间，已预读时使用预读的数据，并继续预读后续分片；上传结束后需调用 releaseDataRegion
+     *
+     * @param offset 分片在数据源中的偏移量
+     * @param size   分片大小
+     * @return 分片的数据区间
+     */
+    StreamRegion dataRegion(long offset, long size) {
+        StreamRegion region = null;
+        if (prefetcher != null) {
+            region = prefetcher.take(offset, size);
+            prefetchNextData();
+        }
+        return region != null ? region : new StreamRegion(factory, offset, size);
+    }
+
+    void releaseDataRegion(StreamRegion region) {
+        if (prefetcher != null) {
+            prefetcher.release(region);
+            prefetchNextData();
+        }
+    }
+
+    /**
+     * 上传结束，丢弃预读的数据
+     */
+    void closePrefetcher() {
+        if (prefetcher != null) {
+            prefetcher.close();
+        }
+    }
+
+    /**
+     * 按上传顺序预读后续等待上传的分片
+     */
+    void prefetchNextData() {
+    }
+
     void notifyProgress() {
-        if (fileInfo == null) {
+        if (fileInfo == null || progressDispatcher == null) {
             return;
         }
-        double percent = fileInfo.progress();
-        if (percent > 0.95) {
-            percent = 0.95;
-        }
-        if (percent > previousPercent) {
-            previousPercent = percent;
-        } else {
-            percent = previousPercent;
+        // 进度只增不减，完成前最大为 0.95
+        progressDispatcher.progress(Math.min(fileInfo.progress(), 0.95));
+    }
+
+    /**
+     * 记录一个分片上传完成，recorder 支持追加时仅追加一条记录，否则记录完整上传进度
+     *
+     * @param blockPosition block 位置，无 block 时为 -1
+     * @param data          分片
+     * @param value         分片的 ctx 或 etag
+     */
+    void recordUploadInfo(int blockPosition, UploadData data, String value) {
+        String key = recorderKey;
+        if (!(recorder instanceof JournalRecorder) || key == null || key.length() == 0) {
+            recordUploadInfo();
+            return;
         }
 
-        final double notifyPercent = percent;
-        AsyncRun.runInMain(new Runnable() {
-            @Override
-            public void run() {
-                if (options != null && options.progressHandler != null) {
-                    options.progressHandler.progress(key, notifyPercent);
-                }
+        synchronized (recordLock) {
+            int compactCount = Math.max(kJournalMinCompactCount, fileInfo != null ? fileInfo.dataCount() : 0);
+            if (!isJournalStarted || journalRecordCount >= compactCount) {
+                recordUploadInfo();
+                return;
             }
-        });
+            ((JournalRecorder) recorder).append(key, UploadInfoJournal.record(blockPosition, data, value));
+            journalRecordCount += 1;
+        }
+    }
+
+    /**
+     * 记录按需划分的分片，recorder 支持追加时追加分片的偏移量及大小，不重写快照；否则在分片完成时记录
+     *
+     * @param data 新划分的分片
+     */
+    void recordPartitionedData(UploadData data) {
+        if (recorder instanceof JournalRecorder) {
+            recordUploadInfo(-1, data, null);
+        }
     }
 
     void recordUploadInfo() {
@@ -108,6 +190,17 @@ abstract class PartsUploadPerformer {
             return;
         }
 
+        synchronized (recordLock) {
+            recordUploadInfoSnapshot(key);
+        }
+
+        LogUtil.i("key:" + StringUtils.toNonnullString(key) +
+                " recorderKey:" + StringUtils.toNonnullString(recorderKey) +
+                " recordUploadInfo");
+    }
+
+    private void recordUploadInfoSnapshot(String key) {
+
         JSONObject zoneInfoJson = null;
         JSONObject fileInfoJson = null;
         if (currentRegion != null && currentRegion.getZoneInfo() != null) {
@@ -123,12 +216,15 @@ abstract class PartsUploadPerformer {
                 info.put(kRecordFileInfoKey, fileInfoJson);
             } catch (JSONException ignored) {
             }
-            recorder.set(key, info.toString().getBytes());
+            byte[] snapshot = info.toString().getBytes();
+            if (recorder instanceof JournalRecorder) {
+                recorder.set(key, UploadInfoJournal.header(snapshot));
+                isJournalStarted = true;
+                journalRecordCount = 0;
+            } else {
+                recorder.set(key, snapshot);
+            }
         }
-
-        LogUtil.i("key:" + StringUtils.toNonnullString(key) +
-                " recorderKey:" + StringUtils.toNonnullString(recorderKey) +
-                " recordUploadInfo");
     }
 
     void removeUploadInfoRecord() {
@@ -137,7 +233,10 @@ abstract class PartsUploadPerformer {
             fileInfo.clearUploadState();
         }
         if (recorder != null && recorderKey != null) {
-            recorder.del(recorderKey);
+            synchronized (recordLock) {
+                recorder.del(recorderKey);
+                isJournalStarted = false;
+            }
         }
         LogUtil.i("key:" + StringUtils.toNonnullString(key) +
                 " recorderKey:" + StringUtils.toNonnullString(recorderKey) +
@@ -164,9 +263,15 @@ abstract class PartsUploadPerformer {
         }
 
         try {
-            JSONObject info = new JSONObject(new String(data));
+            UploadInfoJournal journal = UploadInfoJournal.parse(data);
+            JSONObject info = new JSONObject(new String(journal != null ? journal.snapshot : data));
             ZoneInfo zoneInfo = ZoneInfo.buildFromJson(info.getJSONObject(kRecordZoneInfoKey));
             UploadFileInfo recoverFileInfo = getFileFromJson(info.getJSONObject(kRecordFileInfoKey));
+            if (journal != null && recoverFileInfo != null) {
+                for (UploadInfoJournal.Record record : journal.records) {
+                    recoverFileInfo.applyJournalRecord(record);
+                }
+            }
             if (zoneInfo != null && recoverFileInfo != null && !recoverFileInfo.isEmpty() && factory != null &&
                     recoverFileInfo.size == factory.sizeOfStream() &&
                     recoverFileInfo.modifyTime == factory.lastModifyTime()) {
@@ -181,6 +286,10 @@ abstract class PartsUploadPerformer {
                 currentRegion = region;
                 targetRegion = region;
                 recoveredFrom = (long) ((recoverFileInfo.progress() * recoverFileInfo.size));
+                synchronized (recordLock) {
+                    isJournalStarted = journal != null;
+                    journalRecordCount = journal != null ? journal.records.size() : 0;
+                }
             } else {
                 LogUtil.i("key:" + StringUtils.toNonnullString(key) +
                         " recorderKey:" + StringUtils.toNonnullString(recorderKey) +
@@ -229,6 +338,13 @@ abstract class PartsUploadPerformer {
 
     abstract void serverInit(PartsUploadPerformerCompleteHandler completeHandler);
 
+    /**
+     * 下一个待上传分片的大小，用于申请请求额度
+     *
+     * @return 没有待上传的分片时为 0
+     */
+    abstract long nextDataSize();
+
     abstract void uploadNextData(PartsUploadPerformerDataCompleteHandler completeHandler);
 
     abstract void completeUpload(PartsUploadPerformerCompleteHandler completeHandler);
@@ -5,17 +5,13 @@ import com.qiniu.android.http.metrics.UploadRegionRequestMetrics;
 import com.qiniu.android.http.request.RequestTransaction;
 import com.qiniu.android.http.request.handler.RequestProgressHandler;
 import com.qiniu.android.storage.stream.IStreamFactory;
-import com.qiniu.android.storage.stream.utils.StreamUtils;
+import com.qiniu.android.storage.stream.StreamRegion;
 import com.qiniu.android.utils.LogUtil;
 import com.qiniu.android.utils.StringUtils;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 
 class PartsUploadPerformerV1 extends PartsUploadPerformer {
@@ -51,6 +47,13 @@ class PartsUploadPerformerV1 extends PartsUploadPerformer {
         completeHandler.complete(responseInfo, null, null);
     }
 
+    @Override
+    synchronized long nextDataSize() {
+        UploadBlock block = ((UploadFileInfoPartV1) fileInfo).nextUploadBlock();
+        UploadData chunk = block != null ? block.nextUploadData() : null;
+        return chunk != null ? chunk.size : 0;
+    }
+
     @Override
     void uploadNextData(final PartsUploadPerformerDataCompleteHandler completeHandler) {
         UploadFileInfoPartV1 uploadFileInfo = (UploadFileInfoPartV1) fileInfo;
@@ -62,8 +65,7 @@ class PartsUploadPerformerV1 extends PartsUploadPerformer {
             if (block != null) {
                 chunk = block.nextUploadData();
                 if (chunk != null) {
-                    chunk.isUploading = true;
-                    chunk.isCompleted = false;
+                    chunk.startUpload();
                 }
             }
         }
@@ -75,23 +77,12 @@ class PartsUploadPerformerV1 extends PartsUploadPerformer {
             return;
         }
 
-        chunk.data = getDataWithChunk(chunk, block);
-        if (chunk.data == null) {
-            LogUtil.i("key:" + StringUtils.toNonnullString(key) + " no chunk left");
-
-            chunk.isUploading = false;
-            chunk.isCompleted = false;
-            ResponseInfo responseInfo = ResponseInfo.localIOError("get data error");
-            completeHandler.complete(true, responseInfo, null, null);
-            return;
-        }
-
         final UploadBlock uploadBlock = block;
         final UploadData uploadChunk = chunk;
         RequestProgressHandler progressHandler = new RequestProgressHandler() {
             @Override
             public void progress(long totalBytesWritten, long totalBytesExpectedToWrite) {
-                uploadChunk.progress = (double) totalBytesWritten / (double) totalBytesExpectedToWrite;
+                uploadChunk.updateProgress((double) totalBytesWritten / (double) totalBytesExpectedToWrite);
                 notifyProgress();
             }
         };
@@ -99,8 +90,6 @@ class PartsUploadPerformerV1 extends PartsUploadPerformer {
             @Override
             public void complete(ResponseInfo responseInfo, UploadRegionRequestMetrics requestMetrics, JSONObject response) {
 
-                uploadChunk.data = null;
-
                 String blockContext = null;
                 if (response != null) {
                     try {
@@ -110,14 +99,11 @@ class PartsUploadPerformerV1 extends PartsUploadPerformer {
                 }
                 if (responseInfo.isOK() && blockContext != null) {
                     uploadBlock.context = blockContext;
-                    uploadChunk.progress = 1;
-                    uploadChunk.isUploading = false;
-                    uploadChunk.isCompleted = true;
-                    recordUploadInfo();
+                    uploadChunk.completeUpload(null);
+                    recordUploadInfo(uploadBlock.position, uploadChunk, blockContext);
                     notifyProgress();
                 } else {
-                    uploadChunk.isUploading = false;
-                    uploadChunk.isCompleted = false;
+                    uploadChunk.cancelUpload();
 
                 }
                 completeHandler.complete(false, responseInfo, requestMetrics, response);
@@ -155,17 +141,35 @@ class PartsUploadPerformerV1 extends PartsUploadPerformer {
         });
     }
 
+    @Override
+    void prefetchNextData() {
+        UploadFileInfoPartV1 uploadFileInfo = (UploadFileInfoPartV1) fileInfo;
+        if (prefetcher == null || uploadFileInfo == null) {
+            return;
+        }
+        int count = prefetcher.prefetchCount();
+        for (UploadBlock block : uploadFileInfo.waitingBlocks(count)) {
+            for (UploadData chunk : block.uploadDataTable.waitingData(count)) {
+                if (!prefetcher.prefetch(block.offset + chunk.offset, chunk.size)) {
+                    return;
+                }
+            }
+        }
+    }
+
     private void makeBlock(final UploadBlock block,
                            final UploadData chunk,
                            final RequestProgressHandler progressHandler,
                            final PartsUploadPerformerCompleteHandler completeHandler) {
 
         final RequestTransaction transaction = createUploadRequestTransaction();
-        transaction.makeBlock(block.offset, block.size, chunk.data, true, progressHandler, new RequestTransaction.RequestCompleteHandler() {
+        final StreamRegion chunkRegion = dataRegion(block.offset + chunk.offset, chunk.size);
+        transaction.makeBlock(block.offset, block.size, chunkRegion, true, progressHandler, new RequestTransaction.RequestCompleteHandler() {
             @Override
             public void complete(ResponseInfo responseInfo, UploadRegionRequestMetrics requestMetrics, JSONObject response) {
 
                 destroyUploadRequestTransaction(transaction);
+                releaseDataRegion(chunkRegion);
                 completeHandler.complete(responseInfo, requestMetrics, response);
             }
         });
@@ -177,36 +181,19 @@ class PartsUploadPerformerV1 extends PartsUploadPerformer {
                              final PartsUploadPerformerCompleteHandler completeHandler) {
 
         final RequestTransaction transaction = createUploadRequestTransaction();
-        transaction.uploadChunk(block.context, block.offset, chunk.data, chunk.offset, true, progressHandler, new RequestTransaction.RequestCompleteHandler() {
+        final StreamRegion chunkRegion = dataRegion(block.offset + chunk.offset, chunk.size);
+        transaction.uploadChunk(block.context, block.offset, chunkRegion, chunk.offset, true, progressHandler, new RequestTransaction.RequestCompleteHandler() {
             @Override
             public void complete(ResponseInfo responseInfo, UploadRegionRequestMetrics requestMetrics, JSONObject response) {
 
                 destroyUploadRequestTransaction(transaction);
+                releaseDataRegion(chunkRegion);
                 completeHandler.complete(responseInfo, requestMetrics, response);
             }
         });
 
     }
 
-    private byte[] getDataWithChunk(UploadData chunk,
-                                    UploadBlock block) {
-        if (factory == null || chunk == null || block == null) {
-            return null;
-        }
-        try {
-            byte[] data;
-            synchronized (factory) {
-                final long offset = chunk.offset + block.offset;
-                InputStream stream = factory.newStreamWithOffset(offset);
-                data = StreamUtils.read(stream, (int) chunk.size);
-            }
-            return data;
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return null;
-    }
-
     private long getUploadChunkSize() {
         if (config.useConcurrentResumeUpload) {
             return BlockSize;
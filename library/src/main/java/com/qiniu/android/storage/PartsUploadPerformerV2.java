@@ -1,21 +1,17 @@
 package com.qiniu.android.storage;
 
-import android.util.Log;
-
 import com.qiniu.android.http.ResponseInfo;
 import com.qiniu.android.http.metrics.UploadRegionRequestMetrics;
 import com.qiniu.android.http.request.RequestTransaction;
 import com.qiniu.android.http.request.handler.RequestProgressHandler;
 import com.qiniu.android.storage.stream.IStreamFactory;
-import com.qiniu.android.storage.stream.utils.StreamUtils;
+import com.qiniu.android.storage.stream.StreamRegion;
 import com.qiniu.android.utils.LogUtil;
 import com.qiniu.android.utils.StringUtils;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -29,6 +25,11 @@ class PartsUploadPerformerV2 extends PartsUploadPerformer {
                            Configuration config,
                            String recorderKey) {
         super(factory, fileName, key, token, options, config, recorderKey);
+
+        if (config.useAdaptiveResumeUpload) {
+            int concurrency = config.useConcurrentResumeUpload ? config.concurrentTaskCount : 1;
+            adaptiveController = new UploadAdaptiveController(config.chunkSize, concurrency, concurrency * 2, config.responseTimeout);
+        }
     }
 
     @Override
@@ -41,6 +42,10 @@ class PartsUploadPerformerV2 extends PartsUploadPerformer {
 
     @Override
     UploadFileInfo getDefaultUploadFileInfo() {
+        if (config.useAdaptiveResumeUpload) {
+            // 分片大小在上传时根据速度决定
+            return new UploadFileInfoPartV2(factory.sizeOfStream(), factory.lastModifyTime());
+        }
         return new UploadFileInfoPartV2(factory.sizeOfStream(), config.chunkSize, factory.lastModifyTime());
     }
 
@@ -80,6 +85,34 @@ class PartsUploadPerformerV2 extends PartsUploadPerformer {
         });
     }
 
+    @Override
+    synchronized long nextDataSize() {
+        UploadFileInfoPartV2 uploadFileInfo = (UploadFileInfoPartV2) fileInfo;
+        UploadData data = uploadFileInfo.nextUploadData();
+        if (data != null) {
+            return data.size;
+        }
+        long restSize = uploadFileInfo.unpartitionedSize();
+        long dataSize = config.chunkSize;
+        if (adaptiveController != null) {
+            dataSize = adaptiveController.peekPartSize(restSize, uploadFileInfo.dataCount());
+        }
+        return Math.min(dataSize, restSize);
+    }
+
+    // 按需划分下一个分片，调用时需持有 this 的锁
+    UploadData partitionNextData(UploadFileInfoPartV2 uploadFileInfo) {
+        long dataSize = config.chunkSize;
+        if (adaptiveController != null) {
+            dataSize = adaptiveController.nextPartSize(uploadFileInfo.unpartitionedSize(), uploadFileInfo.dataCount());
+        }
+        UploadData data = uploadFileInfo.appendUploadData(dataSize);
+        if (data != null) {
+            recordPartitionedData(data);
+        }
+        return data;
+    }
+
     @Override
     void uploadNextData(final PartsUploadPerformerDataCompleteHandler completeHandler) {
         UploadFileInfoPartV2 uploadFileInfo = (UploadFileInfoPartV2) fileInfo;
@@ -87,9 +120,11 @@ class PartsUploadPerformerV2 extends PartsUploadPerformer {
         UploadData data = null;
         synchronized (this) {
             data = uploadFileInfo.nextUploadData();
+            if (data == null) {
+                data = partitionNextData(uploadFileInfo);
+            }
             if (data != null) {
-                data.isUploading = true;
-                data.isCompleted = false;
+                data.startUpload();
             }
         }
 
@@ -101,33 +136,23 @@ class PartsUploadPerformerV2 extends PartsUploadPerformer {
             return;
         }
 
-        data.data = getUploadData(data);
-        if (data.data == null) {
-            LogUtil.i("key:" + StringUtils.toNonnullString(key) + " get data error");
-
-            data.isUploading = false;
-            data.isCompleted = false;
-            ResponseInfo responseInfo = ResponseInfo.localIOError("get data error");
-            completeHandler.complete(true, responseInfo, null, responseInfo.response);
-            return;
-        }
-
         final UploadData uploadData = data;
         RequestProgressHandler progressHandler = new RequestProgressHandler() {
             @Override
             public void progress(long totalBytesWritten, long totalBytesExpectedToWrite) {
-                uploadData.progress = (double) totalBytesWritten / (double) totalBytesExpectedToWrite;
+                uploadData.updateProgress((double) totalBytesWritten / (double) totalBytesExpectedToWrite);
                 notifyProgress();
             }
         };
 
+        final StreamRegion dataRegion = dataRegion(data.offset, data.size);
+        final long startTime = System.currentTimeMillis();
         final RequestTransaction transaction = createUploadRequestTransaction();
-        transaction.uploadPart(true, uploadFileInfo.uploadId, data.index, data.data, progressHandler, new RequestTransaction.RequestCompleteHandler() {
+        transaction.uploadPart(true, uploadFileInfo.uploadId, data.index, dataRegion, progressHandler, new RequestTransaction.RequestCompleteHandler() {
             @Override
             public void complete(ResponseInfo responseInfo, UploadRegionRequestMetrics requestMetrics, JSONObject response) {
-
-                uploadData.data = null;
                 destroyUploadRequestTransaction(transaction);
+                releaseDataRegion(dataRegion);
 
                 String etag = null;
                 String md5 = null;
@@ -139,22 +164,50 @@ class PartsUploadPerformerV2 extends PartsUploadPerformer {
                     }
                 }
 
-                if (responseInfo.isOK() && etag != null && md5 != null) {
-                    uploadData.progress = 1;
-                    uploadData.etag = etag;
-                    uploadData.isUploading = false;
-                    uploadData.isCompleted = true;
-                    recordUploadInfo();
+                boolean success = responseInfo.isOK() && etag != null && md5 != null;
+                if (adaptiveController != null) {
+                    adaptiveController.partComplete(uploadData.size, System.currentTimeMillis() - startTime, success);
+                }
+
+                if (success) {
+                    uploadData.completeUpload(etag);
+                    recordUploadInfo(-1, uploadData, etag);
                     notifyProgress();
                 } else {
-                    uploadData.isUploading = false;
-                    uploadData.isCompleted = false;
+                    uploadData.cancelUpload();
                 }
                 completeHandler.complete(false, responseInfo, requestMetrics, response);
             }
         });
     }
 
+    @Override
+    void prefetchNextData() {
+        UploadFileInfoPartV2 uploadFileInfo = (UploadFileInfoPartV2) fileInfo;
+        if (prefetcher == null || uploadFileInfo == null) {
+            return;
+        }
+        int count = 0;
+        for (UploadData data : uploadFileInfo.uploadDataTable.waitingData(prefetcher.prefetchCount())) {
+            if (!prefetcher.prefetch(data.offset, data.size)) {
+                return;
+            }
+            count += 1;
+        }
+
+        // 自适应分片时分片按需划分，按当前的分片大小预先划分后续分片用于预读
+        while (adaptiveController != null && count < prefetcher.prefetchCount()) {
+            UploadData data;
+            synchronized (this) {
+                data = partitionNextData(uploadFileInfo);
+            }
+            if (data == null || !prefetcher.prefetch(data.offset, data.size)) {
+                return;
+            }
+            count += 1;
+        }
+    }
+
     @Override
     void completeUpload(final PartsUploadPerformerCompleteHandler completeHandler) {
         final UploadFileInfoPartV2 uploadFileInfo = (UploadFileInfoPartV2) fileInfo;
@@ -171,23 +224,4 @@ class PartsUploadPerformerV2 extends PartsUploadPerformer {
             }
         });
     }
-
-    private byte[] getUploadData(UploadData data) {
-        if (data == null) {
-            return null;
-        }
-        try {
-            byte[] uploadData;
-            synchronized (factory) {
-                final long offset = data.offset;
-                InputStream stream = factory.newStreamWithOffset(offset);
-                Log.e("DEBUG_TAG", "offset : " + offset);
-                uploadData = StreamUtils.read(stream, (int) data.size);
-            }
-            return uploadData;
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return null;
-    }
 }
@@ -0,0 +1,148 @@
+package com.qiniu.android.storage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+
+/**
+ * FileRecorder 与 BufferedFileRecorder 共用的记录文件操作，保证两者文件格式相同
+ */
+final class RecorderFiles {
+
+    private RecorderFiles() {
+    }
+
+    /**
+     * 检查记录目录，不存在时创建
+     */
+    static void checkDirectory(String directory) throws IOException {
+        File f = new File(directory);
+        if (!f.exists()) {
+            boolean r = f.mkdirs();
+            if (!r) {
+                throw new IOException("mkdir failed");
+            }
+            return;
+        }
+        if (!f.isDirectory()) {
+            throw new IOException("does not mkdir");
+        }
+    }
+
+    /**
+     * key 对应的记录文件
+     */
+    static File recordFile(String directory, String key) {
+        return new File(directory, hash(key));
+    }
+
+    static String hash(String base) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(base.getBytes());
+            StringBuffer hexString = new StringBuffer();
+
+            for (int i = 0; i < hash.length; i++) {
+                hexString.append(Integer.toString((hash[i] & 0xff) + 0x100, 16).substring(1));
+            }
+            return hexString.toString();
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 先写入临时文件，再重命名覆盖目标文件
+     */
+    static boolean writeFileAtomically(File f, byte[] data, boolean sync) {
+        File tmp = new File(f.getPath() + ".tmp");
+        FileOutputStream fo = null;
+        boolean success = false;
+        try {
+            fo = new FileOutputStream(tmp);
+            fo.write(data);
+            fo.flush();
+            if (sync) {
+                fo.getFD().sync();
+            }
+            success = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (fo != null) {
+            try {
+                fo.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+                success = false;
+            }
+        }
+        if (success) {
+            success = tmp.renameTo(f);
+        }
+        if (!success) {
+            tmp.delete();
+        }
+        return success;
+    }
+
+    static boolean appendFile(File f, byte[] data, boolean sync) {
+        FileOutputStream fo = null;
+        boolean success = false;
+        try {
+            fo = new FileOutputStream(f, true);
+            fo.write(data);
+            fo.flush();
+            if (sync) {
+                fo.getFD().sync();
+            }
+            success = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (fo != null) {
+            try {
+                fo.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+                success = false;
+            }
+        }
+        return success;
+    }
+
+    static byte[] readFile(File f) {
+        if (!f.exists() || f.length() == 0) {
+            return null;
+        }
+        FileInputStream fi = null;
+        byte[] data = new byte[(int) f.length()];
+        int read = 0;
+        try {
+            fi = new FileInputStream(f);
+            while (read < data.length) {
+                int len = fi.read(data, read, data.length - read);
+                if (len < 0) {
+                    break;
+                }
+                read += len;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (fi != null) {
+            try {
+                fi.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (read != data.length) {
+            return null;
+        }
+        return data;
+    }
+}
@@ -0,0 +1,152 @@
+package com.qiniu.android.storage;
+
+import com.qiniu.android.utils.AsyncRun;
+
+/**
+ * 单个上传任务的进度分发：
+ * 进度变化时只记录最新值，距上次回调超过 progressInterval 或进度增长超过 progressMinDelta 时立即回调；
+ * 被合并的进度在 progressInterval 到期后回调，同一时刻最多只有一个待执行的立即回调及一个延迟回调；
+ * 回调串行执行且读取最新的进度，回调的进度只增不减
+ */
+class UpProgressDispatcher {
+
+    private final String key;
+    private final UpProgressHandler progressHandler;
+    private final int callbackThread;
+    private final int interval;
+    private final double minDelta;
+
+    private double latestPercent = 0;
+    private double dispatchedPercent = 0;
+    private long lastDispatchTime = 0;
+    private boolean isDispatchScheduled = false;
+    private boolean isDelayedDispatchScheduled = false;
+    // 回调锁，保证回调串行执行，需在 synchronized (this) 之前获取
+    private final Object callbackLock = new Object();
+
+    // 复用同一个 Runnable，回调时读取最新的进度
+    private final Runnable dispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (UpProgressDispatcher.this) {
+                isDispatchScheduled = false;
+            }
+            dispatchLatest();
+        }
+    };
+
+    private final Runnable delayedDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (UpProgressDispatcher.this) {
+                isDelayedDispatchScheduled = false;
+            }
+            dispatchLatest();
+        }
+    };
+
+    UpProgressDispatcher(String key, UpProgressHandler progressHandler, Configuration config) {
+        this.key = key;
+        this.progressHandler = progressHandler;
+        if (config != null) {
+            this.callbackThread = config.progressCallbackThread;
+            this.interval = config.progressInterval;
+            this.minDelta = config.progressMinDelta;
+        } else {
+            this.callbackThread = Configuration.PROGRESS_CALLBACK_MAIN;
+            this.interval = 0;
+            this.minDelta = 0;
+        }
+    }
+
+    /**
+     * 更新进度，进度只增不减
+     *
+     * @param percent 上传进度，取值范围[0, 1.0]
+     */
+    void progress(double percent) {
+        if (progressHandler == null) {
+            return;
+        }
+
+        long delay;
+        synchronized (this) {
+            if (percent <= latestPercent) {
+                return;
+            }
+            latestPercent = percent;
+
+            delay = interval - (System.currentTimeMillis() - lastDispatchTime);
+            if (percent - dispatchedPercent >= minDelta) {
+                delay = 0;
+            }
+            // 已有待执行的回调时，由其回调最新的进度
+            if (delay > 0) {
+                if (isDelayedDispatchScheduled) {
+                    return;
+                }
+                isDelayedDispatchScheduled = true;
+            } else if (callbackThread != Configuration.PROGRESS_CALLBACK_DIRECT) {
+                if (isDispatchScheduled) {
+                    return;
+                }
+                isDispatchScheduled = true;
+            }
+        }
+        dispatch(delay);
+    }
+
+    /**
+     * 上传完成，立即回调进度 1.0，不受频率限制
+     */
+    void complete() {
+        if (progressHandler == null) {
+            return;
+        }
+        synchronized (this) {
+            latestPercent = 1.0;
+            if (callbackThread != Configuration.PROGRESS_CALLBACK_DIRECT) {
+                if (isDispatchScheduled) {
+                    return;
+                }
+                isDispatchScheduled = true;
+            }
+        }
+        dispatch(0);
+    }
+
+    private void dispatchLatest() {
+        synchronized (callbackLock) {
+            double percent;
+            synchronized (this) {
+                if (latestPercent <= dispatchedPercent) {
+                    return;
+                }
+                percent = latestPercent;
+                dispatchedPercent = percent;
+                lastDispatchTime = System.currentTimeMillis();
+            }
+            progressHandler.progress(key, percent);
+        }
+    }
+
+    private void dispatch(long delay) {
+        if (delay > 0) {
+            // 直接回调时，被合并的进度在后台线程回调
+            if (callbackThread == Configuration.PROGRESS_CALLBACK_MAIN) {
+                AsyncRun.runInMain((int) delay, delayedDispatchRunnable);
+            } else {
+                AsyncRun.runInBack((int) delay, delayedDispatchRunnable);
+            }
+            return;
+        }
+
+        if (callbackThread == Configuration.PROGRESS_CALLBACK_MAIN) {
+            AsyncRun.runInMain(dispatchRunnable);
+        } else if (callbackThread == Configuration.PROGRESS_CALLBACK_BACKGROUND) {
+            AsyncRun.runInBack(dispatchRunnable);
+        } else {
+            dispatchRunnable.run();
+        }
+    }
+}
@@ -65,6 +65,17 @@ public final class UpToken {
         return new UpToken(obj.optString("returnUrl"), token, t[0], bucket);
     }
 
+    /**
+     * 仅用于查询上传域名的 token，只包含 accessKey 及 bucket，不能用于上传
+     *
+     * @param accessKey accessKey
+     * @param bucket    bucket
+     * @return token
+     */
+    public static UpToken queryToken(String accessKey, String bucket) {
+        return new UpToken("", "", accessKey, bucket);
+    }
+
     public static boolean isInvalid(UpToken token) {
         return token == null || !token.isValid();
     }
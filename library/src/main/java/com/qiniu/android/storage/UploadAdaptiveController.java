@@ -0,0 +1,145 @@
+package com.qiniu.android.storage;
+
+/**
+ * 分片上传 V2 的自适应控制：
+ * 1. 分片大小：根据单个连接的实际上传速度，使单个分片的上传耗时接近 targetPartDuration
+ * 2. 并发数：AIMD，一轮（并发数个）分片均上传成功且整体速度有提升时并发数加 1，分片上传失败时并发数减半
+ */
+class UploadAdaptiveController {
+
+    // 服务端限制
+    static final long MinPartSize = 1024 * 1024;
+    static final long MaxPartSize = 1024 * 1024 * 1024;
+    static final int MaxPartCount = 10000;
+
+    private static final long MaxTargetPartDuration = 8 * 1000;
+    private static final double SpeedWeight = 0.3;
+    private static final double GoodputIncreaseRatio = 1.05;
+
+    private final long initPartSize;
+    private final long targetPartDuration;
+    private final int maxConcurrency;
+
+    // 单个连接的速度，单位：byte/ms，小于 0 表示还未统计
+    private double speed = -1;
+    private long lastPartSize;
+    private int concurrency;
+
+    // 当前一轮的统计
+    private long windowStartTime = 0;
+    private long windowBytes = 0;
+    private int windowPartCount = 0;
+    private double lastWindowGoodput = -1;
+
+    /**
+     * @param initPartSize      初始分片大小
+     * @param initConcurrency   初始并发数
+     * @param maxConcurrency    最大并发数
+     * @param requestTimeout    请求超时时间，单位：秒
+     */
+    UploadAdaptiveController(long initPartSize, int initConcurrency, int maxConcurrency, int requestTimeout) {
+        this.initPartSize = Math.max(initPartSize, MinPartSize);
+        this.maxConcurrency = Math.max(maxConcurrency, 1);
+        this.concurrency = Math.min(Math.max(initConcurrency, 1), this.maxConcurrency);
+        this.lastPartSize = this.initPartSize;
+        // 分片耗时不超过超时时间的 1/4，避免慢速网络下超时
+        this.targetPartDuration = Math.max(1000, Math.min(MaxTargetPartDuration, requestTimeout * 1000L / 4));
+    }
+
+    synchronized int concurrency() {
+        return concurrency;
+    }
+
+    int maxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * 下一个分片的大小
+     *
+     * @param restSize      未划分分片的数据大小
+     * @param partitioned   已划分的分片个数
+     * @return 分片大小
+     */
+    synchronized long nextPartSize(long restSize, int partitioned) {
+        long partSize = peekPartSize(restSize, partitioned);
+        lastPartSize = partSize;
+        return partSize;
+    }
+
+    /**
+     * 下一个分片的大小，不影响后续分片大小的计算，用于预估请求的数据量
+     *
+     * @param restSize      未划分分片的数据大小
+     * @param partitioned   已划分的分片个数
+     * @return 分片大小
+     */
+    synchronized long peekPartSize(long restSize, int partitioned) {
+        long partSize = initPartSize;
+        if (speed > 0) {
+            partSize = (long) (speed * targetPartDuration);
+            // 避免分片大小剧烈变化
+            partSize = Math.min(partSize, lastPartSize * 2);
+            partSize = Math.max(partSize, lastPartSize / 2);
+        }
+        partSize = partSize / MinPartSize * MinPartSize;
+
+        // 分片个数不超过服务端限制
+        int restPartCount = Math.max(MaxPartCount - partitioned, 1);
+        long minPartSize = (restSize + restPartCount - 1) / restPartCount;
+        partSize = Math.max(partSize, minPartSize);
+
+        return Math.max(MinPartSize, Math.min(MaxPartSize, partSize));
+    }
+
+    /**
+     * 分片上传结束
+     *
+     * @param size     分片大小
+     * @param duration 分片上传耗时，单位：毫秒
+     * @param success  是否上传成功
+     */
+    synchronized void partComplete(long size, long duration, boolean success) {
+        long now = currentTimestamp();
+        if (!success) {
+            concurrency = Math.max(1, concurrency / 2);
+            if (speed > 0) {
+                speed = speed / 2;
+            }
+            resetWindow(now);
+            return;
+        }
+
+        if (duration > 0) {
+            double partSpeed = (double) size / duration;
+            speed = speed < 0 ? partSpeed : speed * (1 - SpeedWeight) + partSpeed * SpeedWeight;
+        }
+
+        if (windowStartTime == 0) {
+            windowStartTime = now - Math.max(duration, 1);
+        }
+        windowBytes += size;
+        windowPartCount += 1;
+        if (windowPartCount < concurrency) {
+            return;
+        }
+
+        double goodput = (double) windowBytes / Math.max(now - windowStartTime, 1);
+        if (lastWindowGoodput < 0 || goodput > lastWindowGoodput * GoodputIncreaseRatio) {
+            concurrency = Math.min(maxConcurrency, concurrency + 1);
+        }
+        lastWindowGoodput = goodput;
+        resetWindow(now);
+    }
+
+    // 当前时间，单位：毫秒
+    long currentTimestamp() {
+        return System.currentTimeMillis();
+    }
+
+    private void resetWindow(long now) {
+        windowStartTime = now;
+        windowBytes = 0;
+        windowPartCount = 0;
+    }
+}
@@ -12,8 +12,11 @@ class UploadBlock {
     final long size;
     final int index;
     final ArrayList<UploadData> uploadDataList;
+    final UploadDataTable uploadDataTable;
 
     String context;
+    // 在所属 UploadFileInfoPartV1 中的位置
+    int position;
 
     UploadBlock(long offset,
                 long blockSize,
@@ -23,6 +26,7 @@ class UploadBlock {
         this.size = blockSize;
         this.index = index;
         this.uploadDataList = createDataList(dataSize);
+        this.uploadDataTable = new UploadDataTable(uploadDataList, size);
     }
 
     private UploadBlock(long offset,
@@ -33,6 +37,7 @@ class UploadBlock {
         this.size = blockSize;
         this.index = index;
         this.uploadDataList = uploadDataList;
+        this.uploadDataTable = new UploadDataTable(uploadDataList, size);
     }
 
     static UploadBlock blockFromJson(JSONObject jsonObject) {
@@ -68,28 +73,19 @@ class UploadBlock {
     }
 
     boolean isCompleted() {
-        if (uploadDataList == null) {
-            return true;
-        }
-        boolean isCompleted = true;
-        for (UploadData data : uploadDataList) {
-            if (!data.isCompleted) {
-                isCompleted = false;
-                break;
-            }
-        }
-        return isCompleted;
+        return uploadDataTable.isAllCompleted();
+    }
+
+    boolean hasWaitingData() {
+        return uploadDataTable.hasWaitingData();
+    }
+
+    long uploadedBytes() {
+        return uploadDataTable.uploadedBytes();
     }
 
     double progress() {
-        if (uploadDataList == null) {
-            return 0;
-        }
-        double progress = 0;
-        for (UploadData data : uploadDataList) {
-            progress += data.progress * ((double) data.size / size);
-        }
-        return progress;
+        return uploadDataTable.progress();
     }
 
     private ArrayList<UploadData> createDataList(long dataSize) {
@@ -132,17 +128,7 @@ class UploadBlock {
     }
 
     protected UploadData nextUploadData() {
-        if (uploadDataList == null || uploadDataList.size() == 0) {
-            return null;
-        }
-        UploadData data = null;
-        for (UploadData dataP : uploadDataList) {
-            if (!dataP.isCompleted && !dataP.isUploading) {
-                data = dataP;
-                break;
-            }
-        }
-        return data;
+        return uploadDataTable.nextUploadData();
     }
 
     protected void clearUploadState() {
@@ -9,12 +9,16 @@ class UploadData {
     final long size;
     final int index;
 
+    // 状态字段只读，修改需通过 startUpload / updateProgress / completeUpload / cancelUpload / clearUploadState，
+    // 以便所属的 UploadBlock、UploadFileInfoPartV2 同步更新统计信息
     String etag;
     boolean isCompleted;
     boolean isUploading;
     double progress;
 
-    byte[] data;
+    // 在所属列表中的位置，由所属者设置
+    int position;
+    StateListener stateListener;
 
     UploadData(long offset,
                long size,
@@ -57,10 +61,59 @@ class UploadData {
         return index == 1;
     }
 
-    void clearUploadState() {
+    boolean isWaiting() {
+        return !isCompleted && !isUploading;
+    }
+
+    synchronized void startUpload() {
+        boolean oldWaiting = isWaiting();
+        boolean oldCompleted = isCompleted;
+        double oldProgress = progress;
+        isUploading = true;
+        isCompleted = false;
+        notifyStateChanged(oldWaiting, oldCompleted, oldProgress);
+    }
+
+    synchronized void updateProgress(double progress) {
+        double oldProgress = this.progress;
+        this.progress = progress;
+        notifyStateChanged(isWaiting(), isCompleted, oldProgress);
+    }
+
+    synchronized void completeUpload(String etag) {
+        boolean oldWaiting = isWaiting();
+        boolean oldCompleted = isCompleted;
+        double oldProgress = progress;
+        this.etag = etag;
+        progress = 1;
+        isUploading = false;
+        isCompleted = true;
+        notifyStateChanged(oldWaiting, oldCompleted, oldProgress);
+    }
+
+    synchronized void cancelUpload() {
+        boolean oldWaiting = isWaiting();
+        boolean oldCompleted = isCompleted;
+        double oldProgress = progress;
+        isUploading = false;
+        isCompleted = false;
+        notifyStateChanged(oldWaiting, oldCompleted, oldProgress);
+    }
+
+    synchronized void clearUploadState() {
+        boolean oldWaiting = isWaiting();
+        boolean oldCompleted = isCompleted;
+        double oldProgress = progress;
         etag = null;
         isCompleted = false;
         isUploading = false;
+        notifyStateChanged(oldWaiting, oldCompleted, oldProgress);
+    }
+
+    private void notifyStateChanged(boolean oldWaiting, boolean oldCompleted, double oldProgress) {
+        if (stateListener != null) {
+            stateListener.stateChanged(this, oldWaiting, oldCompleted, oldProgress);
+        }
     }
 
     JSONObject toJsonObject() {
@@ -77,4 +130,8 @@ class UploadData {
         }
         return jsonObject;
     }
+
+    interface StateListener {
+        void stateChanged(UploadData data, boolean oldWaiting, boolean oldCompleted, double oldProgress);
+    }
 }
@@ -0,0 +1,228 @@
+package com.qiniu.android.storage;
+
+import com.qiniu.android.storage.stream.IStreamFactory;
+import com.qiniu.android.storage.stream.StreamRegion;
+import com.qiniu.android.utils.AsyncRun;
+import com.qiniu.android.utils.BufferPool;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * 分片数据预读：上传当前分片的同时在后台线程从数据源读取后续分片，读取耗时与网络发送重叠；
+ * 预读及上传中的分片占用的 buffer 个数不超过 bufferCount，buffer 用满后不再预读，上传结束的分片 release 后才继续预读；
+ * buffer 从 BufferPool 获取，release / 丢弃时归还
+ */
+class UploadDataPrefetcher {
+
+    // 单个分片超过此大小时不预读，上传时直接从数据源流式读取
+    static final long MaxPrefetchDataSize = BufferPool.MaxBufferSize;
+
+    private static final int StateWaiting = 0;
+    private static final int StateReading = 1;
+    private static final int StateReady = 2;
+    private static final int StateFailed = 3;
+
+    private final IStreamFactory factory;
+    private final int prefetchCount;
+    private final int bufferCount;
+
+    // 预读中及已预读、还未被上传使用的分片，key 为分片在数据源中的偏移量
+    private final HashMap<Long, Entry> entries = new HashMap<>();
+    // 预读中、已预读及上传中的分片占用的 buffer 个数
+    private int usedBufferCount = 0;
+    private boolean isClosed = false;
+
+    /**
+     * @param factory       数据源
+     * @param prefetchCount 最多预读的分片个数
+     * @param concurrency   同时上传的分片个数
+     */
+    UploadDataPrefetcher(IStreamFactory factory, int prefetchCount, int concurrency) {
+        this.factory = factory;
+        this.prefetchCount = Math.max(prefetchCount, 1);
+        this.bufferCount = this.prefetchCount + Math.max(concurrency, 1);
+    }
+
+    int prefetchCount() {
+        return prefetchCount;
+    }
+
+    /**
+     * 预读分片数据，已预读或分片过大时跳过
+     *
+     * @param offset 分片在数据源中的偏移量
+     * @param size   分片大小
+     * @return 是否可以继续预读后续分片，预读个数或 buffer 已达上限时返回 false
+     */
+    boolean prefetch(long offset, long size) {
+        final Entry entry;
+        synchronized (this) {
+            if (isClosed) {
+                return false;
+            }
+            if (size <= 0 || size > MaxPrefetchDataSize || entries.containsKey(offset)) {
+                return true;
+            }
+            if (entries.size() >= prefetchCount || usedBufferCount >= bufferCount) {
+                return false;
+            }
+            entry = new Entry(offset, size, BufferPool.getInstance().obtain((int) size));
+            entries.put(offset, entry);
+            usedBufferCount += 1;
+        }
+
+        AsyncRun.runInBack(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (UploadDataPrefetcher.this) {
+                    if (entry.state != StateWaiting) {
+                        return;
+                    }
+                    entry.state = StateReading;
+                }
+                readEntry(entry);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 获取预读的分片数据，分片正在预读时等待预读完成，还未开始预读时在当前线程读取
+     *
+     * @param offset 分片在数据源中的偏移量
+     * @param size   分片大小
+     * @return 使用预读数据的区间，未预读或预读失败返回 null；上传结束后需调用 release
+     */
+    StreamRegion take(long offset, long size) {
+        Entry entry;
+        boolean shouldRead = false;
+        synchronized (this) {
+            entry = entries.remove(offset);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.size != size) {
+                discard(entry);
+                return null;
+            }
+
+            if (entry.state == StateWaiting) {
+                // 后台任务可能排在上传任务之后，不等待，直接读取
+                entry.state = StateReading;
+                shouldRead = true;
+            } else {
+                while (entry.state == StateReading) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        discard(entry);
+                        return null;
+                    }
+                }
+            }
+        }
+
+        if (shouldRead) {
+            readEntry(entry);
+        }
+
+        synchronized (this) {
+            if (entry.state != StateReady) {
+                recycle(entry.buffer);
+                return null;
+            }
+        }
+        return new StreamRegion(factory, offset, size, entry.buffer);
+    }
+
+    /**
+     * 分片上传结束，回收预读数据占用的 buffer
+     */
+    void release(StreamRegion region) {
+        if (region == null || region.prefetchedData() == null) {
+            return;
+        }
+        synchronized (this) {
+            recycle(region.prefetchedData());
+        }
+    }
+
+    /**
+     * 丢弃所有未被使用的预读数据，如：切换 region 时
+     */
+    synchronized void clear() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            discard(entry);
+        }
+    }
+
+    /**
+     * 上传结束，丢弃所有预读数据，之后不再预读
+     */
+    synchronized void close() {
+        clear();
+        isClosed = true;
+    }
+
+    private void readEntry(Entry entry) {
+        boolean success = false;
+        StreamRegion.Reader reader = null;
+        try {
+            reader = new StreamRegion(factory, entry.offset, entry.size).newReader();
+            int read = 0;
+            int len;
+            while ((len = reader.read(entry.buffer, read, (int) entry.size - read)) > 0) {
+                read += len;
+            }
+            success = reader.remaining() == 0;
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (reader != null) {
+                reader.close();
+            }
+        }
+
+        synchronized (this) {
+            entry.state = success ? StateReady : StateFailed;
+            if (entry.isDiscarded) {
+                recycle(entry.buffer);
+            }
+            notifyAll();
+        }
+    }
+
+    // 需在 synchronized (this) 中调用，预读中的分片在读取结束后回收
+    private void discard(Entry entry) {
+        entry.isDiscarded = true;
+        if (entry.state == StateReading) {
+            return;
+        }
+        entry.state = StateFailed;
+        recycle(entry.buffer);
+    }
+
+    // 需在 synchronized (this) 中调用
+    private void recycle(byte[] buffer) {
+        usedBufferCount = Math.max(usedBufferCount - 1, 0);
+        BufferPool.getInstance().recycle(buffer);
+    }
+
+    private static class Entry {
+        private final long offset;
+        private final long size;
+        private final byte[] buffer;
+        private int state = StateWaiting;
+        private boolean isDiscarded = false;
+
+        private Entry(long offset, long size, byte[] buffer) {
+            this.offset = offset;
+            this.size = size;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.qiniu.android.storage;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * UploadData 列表的索引，UploadData 状态变化时增量维护等待上传的位置、已完成数量及已上传字节数，
+ * 获取下一个待上传数据、是否全部完成及进度均不需要遍历列表
+ */
+class UploadDataTable implements UploadData.StateListener {
+
+    private final ArrayList<UploadData> dataList;
+    private final long totalSize;
+
+    private final BitSet waitingSet = new BitSet();
+    // waitingSet 中第一个可能为 true 的位置
+    private int waitingCursor = 0;
+    private int waitingCount = 0;
+    private int completedCount = 0;
+    private long uploadedBytes = 0;
+
+    private ChangeListener changeListener;
+
+    UploadDataTable(ArrayList<UploadData> dataList, long totalSize) {
+        this.dataList = dataList != null ? dataList : new ArrayList<UploadData>();
+        this.totalSize = totalSize;
+
+        for (int i = 0; i < this.dataList.size(); i++) {
+            UploadData data = this.dataList.get(i);
+            data.position = i;
+            data.stateListener = this;
+            if (data.isWaiting()) {
+                waitingSet.set(i);
+                waitingCount += 1;
+            }
+            if (data.isCompleted) {
+                completedCount += 1;
+            }
+            uploadedBytes += uploadedBytes(data, data.progress);
+        }
+    }
+
+    /**
+     * 在列表末尾追加数据，用于按需划分分片
+     */
+    synchronized void addData(UploadData data) {
+        data.position = dataList.size();
+        data.stateListener = this;
+        dataList.add(data);
+        if (data.isWaiting()) {
+            waitingSet.set(data.position);
+            waitingCount += 1;
+            waitingCursor = Math.min(waitingCursor, data.position);
+        }
+        if (data.isCompleted) {
+            completedCount += 1;
+        }
+        uploadedBytes += uploadedBytes(data, data.progress);
+    }
+
+    synchronized UploadData getData(int position) {
+        if (position < 0 || position >= dataList.size()) {
+            return null;
+        }
+        return dataList.get(position);
+    }
+
+    /**
+     * 列表的副本，列表可能被追加，遍历时需使用副本
+     */
+    synchronized ArrayList<UploadData> allData() {
+        return new ArrayList<UploadData>(dataList);
+    }
+
+    synchronized int dataCount() {
+        return dataList.size();
+    }
+
+    void setChangeListener(ChangeListener changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    synchronized UploadData nextUploadData() {
+        int position = waitingSet.nextSetBit(waitingCursor);
+        if (position < 0) {
+            waitingCursor = dataList.size();
+            return null;
+        }
+        waitingCursor = position;
+        return dataList.get(position);
+    }
+
+    /**
+     * 等待上传的数据，按位置排序
+     *
+     * @param count 最多获取的个数
+     */
+    synchronized ArrayList<UploadData> waitingData(int count) {
+        ArrayList<UploadData> list = new ArrayList<>();
+        int position = waitingSet.nextSetBit(waitingCursor);
+        while (position >= 0 && list.size() < count) {
+            list.add(dataList.get(position));
+            position = waitingSet.nextSetBit(position + 1);
+        }
+        return list;
+    }
+
+    synchronized boolean hasWaitingData() {
+        return waitingCount > 0;
+    }
+
+    synchronized boolean isAllCompleted() {
+        return completedCount == dataList.size();
+    }
+
+    synchronized long uploadedBytes() {
+        return uploadedBytes;
+    }
+
+    synchronized double progress() {
+        if (totalSize <= 0) {
+            return 0;
+        }
+        return Math.min((double) uploadedBytes / totalSize, 1);
+    }
+
+    @Override
+    public synchronized void stateChanged(UploadData data, boolean oldWaiting, boolean oldCompleted, double oldProgress) {
+        boolean oldHasWaiting = waitingCount > 0;
+        boolean oldAllCompleted = completedCount == dataList.size();
+
+        boolean waiting = data.isWaiting();
+        if (waiting != oldWaiting) {
+            if (waiting) {
+                waitingSet.set(data.position);
+                waitingCount += 1;
+                waitingCursor = Math.min(waitingCursor, data.position);
+            } else {
+                waitingSet.clear(data.position);
+                waitingCount -= 1;
+            }
+        }
+        if (data.isCompleted != oldCompleted) {
+            completedCount += data.isCompleted ? 1 : -1;
+        }
+        long uploadedBytesDelta = uploadedBytes(data, data.progress) - uploadedBytes(data, oldProgress);
+        uploadedBytes += uploadedBytesDelta;
+
+        // 在锁内回调，保证所属者收到的变化顺序与实际一致
+        if (changeListener != null) {
+            changeListener.tableChanged(this, oldHasWaiting, oldAllCompleted, uploadedBytesDelta);
+        }
+    }
+
+    private static long uploadedBytes(UploadData data, double progress) {
+        return (long) (progress * data.size);
+    }
+
+    interface ChangeListener {
+        void tableChanged(UploadDataTable table, boolean oldHasWaiting, boolean oldAllCompleted, long uploadedBytesDelta);
+    }
+}
@@ -8,11 +8,14 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 abstract class UploadFileInfo {
 
     final long size;
     final long modifyTime;
+    // 已上传的字节数，分片进度变化时增量更新，读取进度时不需要加锁或遍历分片
+    final AtomicLong uploadedBytes = new AtomicLong(0);
 
     UploadFileInfo(long fileSize,
                    long modifyTime) {
@@ -25,7 +28,10 @@ abstract class UploadFileInfo {
     }
 
     double progress() {
-        return 0;
+        if (size <= 0) {
+            return 0;
+        }
+        return Math.min((double) uploadedBytes.get() / size, 1);
     }
 
     abstract boolean isEmpty();
@@ -36,5 +42,17 @@ abstract class UploadFileInfo {
 
     abstract boolean isAllUploaded();
 
+    /**
+     * 分片（chunk / part）总数
+     */
+    abstract int dataCount();
+
+    /**
+     * 应用上传进度日志中的一条记录：分片完成或按需划分新的分片
+     *
+     * @return 记录无效返回 false
+     */
+    abstract boolean applyJournalRecord(UploadInfoJournal.Record record);
+
     abstract JSONObject toJsonObject();
 }
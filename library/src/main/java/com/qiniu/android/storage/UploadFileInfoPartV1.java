@@ -5,16 +5,24 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 
 class UploadFileInfoPartV1 extends UploadFileInfo {
 
     final ArrayList<UploadBlock> uploadBlocks;
 
+    // 有待上传 chunk 的 block，随 chunk 状态变化增量维护
+    private final BitSet waitingBlockSet = new BitSet();
+    private int waitingBlockCursor = 0;
+    private int completedBlockCount = 0;
+    private int dataCount = 0;
+
     UploadFileInfoPartV1(long size,
                          long modifyTime,
                          ArrayList<UploadBlock> uploadBlocks) {
         super(size, modifyTime);
-        this.uploadBlocks = uploadBlocks;
+        this.uploadBlocks = uploadBlocks != null ? uploadBlocks : new ArrayList<UploadBlock>();
+        setupBlockIndex();
     }
 
     UploadFileInfoPartV1(long size,
@@ -23,6 +31,50 @@ class UploadFileInfoPartV1 extends UploadFileInfo {
                          long modifyTime) {
         super(size, modifyTime);
         this.uploadBlocks = createBlocks(blockSize, dataSize);
+        setupBlockIndex();
+    }
+
+    private void setupBlockIndex() {
+        for (int i = 0; i < uploadBlocks.size(); i++) {
+            final int position = i;
+            UploadBlock block = uploadBlocks.get(i);
+            block.position = position;
+            dataCount += block.uploadDataList.size();
+            if (block.hasWaitingData()) {
+                waitingBlockSet.set(position);
+            }
+            if (block.isCompleted()) {
+                completedBlockCount += 1;
+            }
+            uploadedBytes.addAndGet(block.uploadedBytes());
+
+            block.uploadDataTable.setChangeListener(new UploadDataTable.ChangeListener() {
+                @Override
+                public void tableChanged(UploadDataTable table, boolean oldHasWaiting, boolean oldAllCompleted, long uploadedBytesDelta) {
+                    uploadedBytes.addAndGet(uploadedBytesDelta);
+                    blockChanged(position, table, oldHasWaiting, oldAllCompleted);
+                }
+            });
+        }
+    }
+
+    private synchronized void blockChanged(int position,
+                                           UploadDataTable table,
+                                           boolean oldHasWaiting,
+                                           boolean oldAllCompleted) {
+        boolean hasWaiting = table.hasWaitingData();
+        if (hasWaiting != oldHasWaiting) {
+            if (hasWaiting) {
+                waitingBlockSet.set(position);
+                waitingBlockCursor = Math.min(waitingBlockCursor, position);
+            } else {
+                waitingBlockSet.clear(position);
+            }
+        }
+        boolean allCompleted = table.isAllCompleted();
+        if (allCompleted != oldAllCompleted) {
+            completedBlockCount += allCompleted ? 1 : -1;
+        }
     }
 
     static UploadFileInfoPartV1 fileFromJson(JSONObject jsonObject) {
@@ -68,17 +120,6 @@ class UploadFileInfoPartV1 extends UploadFileInfo {
         return blocks;
     }
 
-    double progress() {
-        if (uploadBlocks == null || uploadBlocks.size() == 0) {
-            return 0;
-        }
-        double progress = 0;
-        for (UploadBlock block : uploadBlocks) {
-            progress += block.progress() * ((double) block.size / (double) size);
-        }
-        return progress;
-    }
-
     @Override
     boolean isEmpty() {
         return uploadBlocks == null || uploadBlocks.size() == 0;
@@ -89,19 +130,29 @@ class UploadFileInfoPartV1 extends UploadFileInfo {
         return !isEmpty();
     }
 
-    UploadBlock nextUploadBlock() {
-        if (uploadBlocks == null || uploadBlocks.size() == 0) {
+    synchronized UploadBlock nextUploadBlock() {
+        int position = waitingBlockSet.nextSetBit(waitingBlockCursor);
+        if (position < 0) {
+            waitingBlockCursor = uploadBlocks.size();
             return null;
         }
-        UploadBlock block = null;
-        for (UploadBlock blockP : uploadBlocks) {
-            UploadData data = blockP.nextUploadData();
-            if (data != null) {
-                block = blockP;
-                break;
-            }
+        waitingBlockCursor = position;
+        return uploadBlocks.get(position);
+    }
+
+    /**
+     * 有待上传 chunk 的 block，按位置排序
+     *
+     * @param count 最多获取的个数
+     */
+    synchronized ArrayList<UploadBlock> waitingBlocks(int count) {
+        ArrayList<UploadBlock> list = new ArrayList<>();
+        int position = waitingBlockSet.nextSetBit(waitingBlockCursor);
+        while (position >= 0 && list.size() < count) {
+            list.add(uploadBlocks.get(position));
+            position = waitingBlockSet.nextSetBit(position + 1);
         }
-        return block;
+        return list;
     }
 
     void clearUploadState() {
@@ -113,18 +164,29 @@ class UploadFileInfoPartV1 extends UploadFileInfo {
         }
     }
 
-    boolean isAllUploaded() {
-        if (uploadBlocks == null || uploadBlocks.size() == 0) {
-            return true;
+    synchronized boolean isAllUploaded() {
+        return completedBlockCount == uploadBlocks.size();
+    }
+
+    @Override
+    int dataCount() {
+        return dataCount;
+    }
+
+    @Override
+    boolean applyJournalRecord(UploadInfoJournal.Record record) {
+        int blockPosition = record.blockPosition;
+        int dataPosition = record.dataPosition;
+        if (blockPosition < 0 || blockPosition >= uploadBlocks.size() || !record.hasValue()) {
+            return false;
         }
-        boolean isAllUploaded = true;
-        for (UploadBlock block : uploadBlocks) {
-            if (!block.isCompleted()) {
-                isAllUploaded = false;
-                break;
-            }
+        UploadBlock block = uploadBlocks.get(blockPosition);
+        if (dataPosition < 0 || dataPosition >= block.uploadDataList.size()) {
+            return false;
         }
-        return isAllUploaded;
+        block.context = record.value;
+        block.uploadDataList.get(dataPosition).completeUpload(null);
+        return true;
     }
 
     ArrayList<String> allBlocksContexts() {
@@ -12,7 +12,11 @@ import java.util.Map;
 
 public class UploadFileInfoPartV2 extends UploadFileInfo {
 
+    // 可能被追加，遍历时使用 uploadDataTable.allData()
     final ArrayList<UploadData> uploadDataList;
+    final UploadDataTable uploadDataTable;
+    // 已划分为分片的数据大小，小于 size 时按需划分后续分片
+    private long partitionedSize;
 
     String uploadId;
     // 单位：秒
@@ -23,6 +27,9 @@ public class UploadFileInfoPartV2 extends UploadFileInfo {
                                  ArrayList<UploadData> uploadDataList) {
         super(size, modifyTime);
         this.uploadDataList = uploadDataList;
+        this.uploadDataTable = new UploadDataTable(uploadDataList, size);
+        this.partitionedSize = partitionedSize(uploadDataList);
+        setupUploadedBytes();
     }
 
     UploadFileInfoPartV2(long size,
@@ -30,6 +37,27 @@ public class UploadFileInfoPartV2 extends UploadFileInfo {
                          long modifyTime) {
         super(size, modifyTime);
         this.uploadDataList = createDataList(dataSize);
+        this.uploadDataTable = new UploadDataTable(uploadDataList, size);
+        this.partitionedSize = partitionedSize(uploadDataList);
+        setupUploadedBytes();
+    }
+
+    private void setupUploadedBytes() {
+        uploadedBytes.set(uploadDataTable.uploadedBytes());
+        uploadDataTable.setChangeListener(new UploadDataTable.ChangeListener() {
+            @Override
+            public void tableChanged(UploadDataTable table, boolean oldHasWaiting, boolean oldAllCompleted, long uploadedBytesDelta) {
+                uploadedBytes.addAndGet(uploadedBytesDelta);
+            }
+        });
+    }
+
+    /**
+     * 分片在上传时通过 appendUploadData 按需划分
+     */
+    UploadFileInfoPartV2(long size,
+                         long modifyTime) {
+        this(size, modifyTime, new ArrayList<UploadData>());
     }
 
     static UploadFileInfoPartV2 fileFromJson(JSONObject jsonObject) {
@@ -80,20 +108,38 @@ public class UploadFileInfoPartV2 extends UploadFileInfo {
         return dataList;
     }
 
-    double progress() {
-        if (uploadDataList == null) {
-            return 0;
+    private static long partitionedSize(ArrayList<UploadData> dataList) {
+        long partitionedSize = 0;
+        for (UploadData data : dataList) {
+            partitionedSize = Math.max(partitionedSize, data.offset + data.size);
         }
-        double progress = 0;
-        for (UploadData data : uploadDataList) {
-            progress += data.progress * ((double) data.size / size);
+        return partitionedSize;
+    }
+
+    /**
+     * 划分下一个分片
+     *
+     * @param dataSize 分片大小，最后一个分片可能较小
+     * @return 已全部划分返回 null
+     */
+    synchronized UploadData appendUploadData(long dataSize) {
+        if (partitionedSize >= size || dataSize <= 0) {
+            return null;
         }
-        return progress;
+        long dataSizeP = Math.min(size - partitionedSize, dataSize);
+        UploadData data = new UploadData(partitionedSize, dataSizeP, uploadDataTable.dataCount() + 1);
+        uploadDataTable.addData(data);
+        partitionedSize += dataSizeP;
+        return data;
+    }
+
+    synchronized long unpartitionedSize() {
+        return size - partitionedSize;
     }
 
     @Override
     boolean isEmpty() {
-        return uploadDataList == null || uploadDataList.size() == 0;
+        return uploadDataTable.dataCount() == 0;
     }
 
     @Override
@@ -102,37 +148,41 @@ public class UploadFileInfoPartV2 extends UploadFileInfo {
     }
 
     UploadData nextUploadData() {
-        if (uploadDataList == null || uploadDataList.size() == 0) {
-            return null;
-        }
-        UploadData data = null;
-        for (UploadData dataP : uploadDataList) {
-            if (!dataP.isCompleted && !dataP.isUploading) {
-                data = dataP;
-                break;
-            }
-        }
-        return data;
+        return uploadDataTable.nextUploadData();
     }
 
     void clearUploadState() {
-        for (UploadData data : uploadDataList) {
+        for (UploadData data : uploadDataTable.allData()) {
             data.clearUploadState();
         }
     }
 
     boolean isAllUploaded() {
-        if (uploadDataList == null || uploadDataList.size() == 0) {
-            return true;
+        return unpartitionedSize() == 0 && uploadDataTable.isAllCompleted();
+    }
+
+    @Override
+    int dataCount() {
+        return uploadDataTable.dataCount();
+    }
+
+    @Override
+    boolean applyJournalRecord(UploadInfoJournal.Record record) {
+        UploadData data = uploadDataTable.getData(record.dataPosition);
+        if (data == null && record.dataPosition == dataCount() && record.offset == size - unpartitionedSize()) {
+            // 快照之后按需划分的分片
+            data = appendUploadData(record.size);
         }
-        boolean isCompleted = true;
-        for (UploadData data : uploadDataList) {
-            if (!data.isCompleted) {
-                isCompleted = false;
-                break;
-            }
+        if (data == null) {
+            return false;
+        }
+        if (record.offset >= 0 && (data.offset != record.offset || data.size != record.size)) {
+            return false;
+        }
+        if (record.hasValue()) {
+            data.completeUpload(record.value);
         }
-        return isCompleted;
+        return true;
     }
 
     List<Map<String, Object>> getPartInfoArray() {
@@ -140,7 +190,7 @@ public class UploadFileInfoPartV2 extends UploadFileInfo {
             return null;
         }
         ArrayList<Map<String, Object>> infoArray = new ArrayList<>();
-        for (UploadData data : uploadDataList) {
+        for (UploadData data : uploadDataTable.allData()) {
             if (data.etag != null) {
                 HashMap<String, Object> info = new HashMap<>();
                 info.put("etag", data.etag);
@@ -158,9 +208,10 @@ public class UploadFileInfoPartV2 extends UploadFileInfo {
             jsonObject.put("modifyTime", modifyTime);
             jsonObject.put("expireAt", expireAt);
             jsonObject.put("uploadId", uploadId);
-            if (uploadDataList != null && uploadDataList.size() > 0) {
+            ArrayList<UploadData> dataList = uploadDataTable.allData();
+            if (dataList.size() > 0) {
                 JSONArray dataJsonArray = new JSONArray();
-                for (UploadData data : uploadDataList) {
+                for (UploadData data : dataList) {
                     JSONObject dataJson = data.toJsonObject();
                     if (dataJson != null) {
                         dataJsonArray.put(dataJson);
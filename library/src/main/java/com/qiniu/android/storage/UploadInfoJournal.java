@@ -0,0 +1,152 @@
+package com.qiniu.android.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * 上传进度日志格式：
+ * 头部：magic(4) + 快照长度(4) + 快照（完整上传进度 json）
+ * 记录：内容长度(4) + 内容 crc32(4) + 内容（block 位置、data 位置、etag 或 ctx、分片偏移量、分片大小）
+ * 记录只追加，恢复时在快照上依次应用，末尾不完整或校验失败的记录被忽略；
+ * etag 或 ctx 为空的记录表示按需划分了新的分片，恢复时根据偏移量及大小追加分片，不需要重写快照
+ */
+class UploadInfoJournal {
+
+    private static final int Magic = 0x514E4A31;
+
+    final byte[] snapshot;
+    final ArrayList<Record> records;
+
+    private UploadInfoJournal(byte[] snapshot, ArrayList<Record> records) {
+        this.snapshot = snapshot;
+        this.records = records;
+    }
+
+    static byte[] header(byte[] snapshot) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(snapshot.length + 8);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(Magic);
+            out.writeInt(snapshot.length);
+            out.write(snapshot);
+            out.flush();
+        } catch (IOException ignored) {
+        }
+        return bytes.toByteArray();
+    }
+
+    static byte[] record(int blockPosition, UploadData data, String value) {
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            payload.writeInt(blockPosition);
+            payload.writeInt(data.position);
+            payload.writeUTF(value != null ? value : "");
+            payload.writeLong(data.offset);
+            payload.writeLong(data.size);
+            payload.flush();
+
+            byte[] payloadData = payloadBytes.toByteArray();
+            CRC32 crc32 = new CRC32();
+            crc32.update(payloadData, 0, payloadData.length);
+
+            out.writeInt(payloadData.length);
+            out.writeInt((int) crc32.getValue());
+            out.write(payloadData);
+            out.flush();
+        } catch (IOException ignored) {
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 解析上传进度日志
+     *
+     * @param data 持久化的内容
+     * @return 非日志格式（完整 json）返回 null
+     */
+    static UploadInfoJournal parse(byte[] data) {
+        if (data == null || data.length < 8) {
+            return null;
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        byte[] snapshot;
+        try {
+            if (in.readInt() != Magic) {
+                return null;
+            }
+            int snapshotLength = in.readInt();
+            if (snapshotLength < 0 || snapshotLength > data.length - 8) {
+                return null;
+            }
+            snapshot = new byte[snapshotLength];
+            in.readFully(snapshot);
+        } catch (IOException e) {
+            return null;
+        }
+
+        ArrayList<Record> records = new ArrayList<>();
+        try {
+            while (in.available() > 0) {
+                int length = in.readInt();
+                int crc = in.readInt();
+                if (length < 0 || length > in.available()) {
+                    break;
+                }
+                byte[] payloadData = new byte[length];
+                in.readFully(payloadData);
+
+                CRC32 crc32 = new CRC32();
+                crc32.update(payloadData, 0, payloadData.length);
+                if ((int) crc32.getValue() != crc) {
+                    break;
+                }
+
+                DataInputStream payload = new DataInputStream(new ByteArrayInputStream(payloadData));
+                int blockPosition = payload.readInt();
+                int dataPosition = payload.readInt();
+                String value = payload.readUTF();
+                // 旧版本的记录没有分片偏移量及大小
+                long offset = -1;
+                long size = -1;
+                if (payload.available() >= 16) {
+                    offset = payload.readLong();
+                    size = payload.readLong();
+                }
+                records.add(new Record(blockPosition, dataPosition, value, offset, size));
+            }
+        } catch (IOException ignored) {
+            // 末尾记录写入不完整
+        }
+        return new UploadInfoJournal(snapshot, records);
+    }
+
+    static class Record {
+        final int blockPosition;
+        final int dataPosition;
+        final String value;
+        // 分片的偏移量及大小，未记录时为 -1
+        final long offset;
+        final long size;
+
+        Record(int blockPosition, int dataPosition, String value, long offset, long size) {
+            this.blockPosition = blockPosition;
+            this.dataPosition = dataPosition;
+            this.value = value;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        boolean hasValue() {
+            return value != null && value.length() > 0;
+        }
+    }
+}
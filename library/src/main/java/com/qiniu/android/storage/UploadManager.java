@@ -1,11 +1,14 @@
 package com.qiniu.android.storage;
 
+import com.qiniu.android.common.AutoZone;
+import com.qiniu.android.collect.ReportContext;
 import com.qiniu.android.collect.ReportItem;
 import com.qiniu.android.collect.UploadInfoReporter;
 import com.qiniu.android.http.ResponseInfo;
 import com.qiniu.android.http.dns.DnsPrefetchTransaction;
 import com.qiniu.android.http.metrics.UploadTaskMetrics;
 import com.qiniu.android.storage.stream.IStreamFactory;
+import com.qiniu.android.storage.stream.impl.ByteStreamFactory;
 import com.qiniu.android.storage.stream.impl.FileStreamFactory;
 import com.qiniu.android.utils.AsyncRun;
 import com.qiniu.android.utils.Utils;
@@ -14,16 +17,15 @@ import com.qiniu.android.utils.Wait;
 import org.json.JSONObject;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
 import java.util.ArrayList;
 
 
 public class UploadManager {
 
     private final Configuration config;
+    // 上传队列，未开启时为 null
+    private final UploadScheduler scheduler;
 
 
     public UploadManager(Recorder recorder) {
@@ -46,8 +48,16 @@ public class UploadManager {
      */
     public UploadManager(Configuration config) {
         this.config = config != null ? config : new Configuration.Builder().build();
+        if (this.config.queueMaxRequestCount > 0 || this.config.queueMaxRequestBytes > 0) {
+            this.scheduler = new UploadScheduler(this.config.queueMaxRequestCount, this.config.queueMaxRequestBytes);
+        } else {
+            this.scheduler = null;
+        }
         DnsPrefetchTransaction.addDnsLocalLoadTransaction();
         DnsPrefetchTransaction.setDnsCheckWhetherCachedValidTransactionAction();
+        if (this.config.zone instanceof AutoZone) {
+            ((AutoZone) this.config.zone).prefetchRecentZones();
+        }
     }
 
     /**
@@ -67,7 +77,7 @@ public class UploadManager {
         if (checkAndNotifyError(key, token, data, complete)){
             return;
         }
-        putData(data, null, key, token, options, complete);
+        putData(new ByteStreamFactory(data), null, key, token, options, complete);
     }
 
     /**
@@ -154,7 +164,7 @@ public class UploadManager {
         }
 
         final PartsUpload up = new PartsUpload(factory, fileName, key, upToken, options, config, config.recorder, recorderKey, completionHandlerP);
-        AsyncRun.runInBack(up);
+        runUpload(up);
     }
 
     /**
@@ -186,7 +196,7 @@ public class UploadManager {
         };
 
         if (!checkAndNotifyError(key, token, data, completionHandler)){
-            putData(data, null, key, token, options, completionHandler);
+            putData(new ByteStreamFactory(data), null, key, token, options, completionHandler);
         }
 
         wait.startWait();
@@ -254,7 +264,7 @@ public class UploadManager {
     }
 
 
-    private void putData(final byte[] data,
+    private void putData(final IStreamFactory factory,
                          final String fileName,
                          final String key,
                          final String token,
@@ -276,8 +286,8 @@ public class UploadManager {
                 completeAction(token, key, responseInfo, response, requestMetrics, completionHandler);
             }
         };
-        final FormUpload up = new FormUpload(data, key, fileName, t, option, config, completionHandlerP);
-        AsyncRun.runInBack(up);
+        final FormUpload up = new FormUpload(factory, key, fileName, t, option, config, completionHandlerP);
+        runUpload(up);
     }
 
     private void putFile(final File file,
@@ -296,28 +306,8 @@ public class UploadManager {
         DnsPrefetchTransaction.addDnsCheckAndPrefetchTransaction(config.zone, t);
 
         if (file.length() <= config.putThreshold) {
-            ResponseInfo errorInfo = null;
-            byte[] data = new byte[(int) file.length()];
-            RandomAccessFile randomAccessFile = null;
-            try {
-                randomAccessFile = new RandomAccessFile(file, "r");
-                randomAccessFile.read(data);
-            } catch (FileNotFoundException e) {
-                errorInfo = ResponseInfo.localIOError("get upload file data error");
-            } catch (IOException e) {
-                errorInfo = ResponseInfo.localIOError("get upload file data error");
-            } finally {
-                if (randomAccessFile != null){
-                    try {
-                        randomAccessFile.close();
-                    } catch (IOException ignored){}
-                }
-            }
-            if (errorInfo == null){
-                putData(data, file.getName(), key, token, option, completionHandler);
-            } else {
-                completeAction(token, key, errorInfo, null, null, completionHandler);
-            }
+            // 表单上传时流式读取文件，不完整读入内存
+            putData(new FileStreamFactory(file), file.getName(), key, token, option, completionHandler);
             return;
         }
 
@@ -335,13 +325,18 @@ public class UploadManager {
         };
         if (config.useConcurrentResumeUpload) {
             final ConcurrentResumeUpload up = new ConcurrentResumeUpload(factory, key, t, option, config, config.recorder, recorderKey, completionHandlerP);
-            AsyncRun.runInBack(up);
+            runUpload(up);
         } else {
             final PartsUpload up = new PartsUpload(factory, file.getName(), key, t, option, config, config.recorder, recorderKey, completionHandlerP);
-            AsyncRun.runInBack(up);
+            runUpload(up);
         }
     }
 
+    private void runUpload(BaseUpload upload) {
+        upload.scheduler = scheduler;
+        AsyncRun.runInBack(upload);
+    }
+
     private boolean checkAndNotifyError(String key,
                                         String token,
                                         Object input,
@@ -401,6 +396,7 @@ public class UploadManager {
 
         UploadTaskMetrics taskMetricsP = taskMetrics != null ? taskMetrics : new UploadTaskMetrics(null);
 
+        ReportContext context = ReportContext.current();
         ReportItem item = new ReportItem();
         item.setReport(ReportItem.LogTypeQuality, ReportItem.QualityKeyLogType);
         item.setReport((Utils.currentTimestamp()/1000), ReportItem.QualityKeyUpTime);
@@ -412,10 +408,10 @@ public class UploadManager {
         item.setReport(taskMetricsP.regionCount(), ReportItem.QualityKeyRegionsCount);
         item.setReport(taskMetricsP.bytesSend(), ReportItem.QualityKeyBytesSent);
 
-        item.setReport(Utils.systemName(), ReportItem.QualityKeyOsName);
-        item.setReport(Utils.systemVersion(), ReportItem.QualityKeyOsVersion);
-        item.setReport(Utils.sdkLanguage(), ReportItem.QualityKeySDKName);
-        item.setReport(Utils.sdkVerion(), ReportItem.QualityKeySDKVersion);
+        item.setReport(context.osName, ReportItem.QualityKeyOsName);
+        item.setReport(context.osVersion, ReportItem.QualityKeyOsVersion);
+        item.setReport(context.sdkName, ReportItem.QualityKeySDKName);
+        item.setReport(context.sdkVersion, ReportItem.QualityKeySDKVersion);
 
         String errorType = ReportItem.requestReportErrorType(responseInfo);
         item.setReport(errorType, ReportItem.QualityKeyErrorType);
@@ -13,6 +13,13 @@ import java.util.Map;
  */
 public final class UploadOptions {
 
+    /**
+     * 上传队列中的优先级，仅在开启上传队列时有效（Configuration.queueMaxRequestCount 或 queueMaxRequestBytes 大于 0）
+     */
+    public static final int PriorityLow = -1;
+    public static final int PriorityNormal = 0;
+    public static final int PriorityHigh = 1;
+
     /**
      * 用于服务器上传回调通知的自定义参数，参数的key必须以x: 开头  eg: x:foo
      */
@@ -48,6 +55,11 @@ public final class UploadOptions {
      */
     public final NetReadyHandler netReadyHandler;
 
+    /**
+     * 上传队列中的优先级，默认为 PriorityNormal，优先级高的上传任务优先发起请求
+     */
+    public final int priority;
+
     public UploadOptions(Map<String, String> params,
                          String mimeType,
                          boolean checkCrc,
@@ -72,6 +84,17 @@ public final class UploadOptions {
                          UpProgressHandler progressHandler,
                          UpCancellationSignal cancellationSignal,
                          NetReadyHandler netReadyHandler) {
+        this(params, metaDataParam, mimeType, checkCrc, progressHandler, cancellationSignal, netReadyHandler, PriorityNormal);
+    }
+
+    public UploadOptions(final Map<String, String> params,
+                         final Map<String, String> metaDataParam,
+                         String mimeType,
+                         boolean checkCrc,
+                         UpProgressHandler progressHandler,
+                         UpCancellationSignal cancellationSignal,
+                         NetReadyHandler netReadyHandler,
+                         int priority) {
 
         int netReadyCheckTime = 6;
         try {
@@ -84,6 +107,7 @@ public final class UploadOptions {
         this.metaDataParam = filterMetaDataParam(metaDataParam);
         this.mimeType = mime(mimeType);
         this.checkCrc = checkCrc;
+        this.priority = priority;
         this.progressHandler = progressHandler != null ? progressHandler : new UpProgressHandler() {
             @Override
             public void progress(String key, double percent) {
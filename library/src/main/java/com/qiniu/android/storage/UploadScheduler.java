@@ -0,0 +1,172 @@
+package com.qiniu.android.storage;
+
+import com.qiniu.android.utils.AsyncRun;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 同一 UploadManager 下所有上传任务的请求调度：
+ * 1. 同时进行的请求数及请求数据量不超过限制
+ * 2. 优先级高的任务优先；同一优先级中，表单上传（小文件）优先于分片上传
+ * 3. 同一优先级的分片上传按任务轮流发起请求，多个文件交替上传分片
+ */
+class UploadScheduler {
+
+    private final int maxRequestCount;
+    private final long maxRequestBytes;
+
+    private int requestCount = 0;
+    private long requestBytes = 0;
+    // 优先级从高到低
+    private final TreeMap<Integer, Level> levels = new TreeMap<>(Collections.<Integer>reverseOrder());
+
+    /**
+     * @param maxRequestCount 同时进行的最大请求数，小于等于 0 不限制
+     * @param maxRequestBytes 同时进行的请求最大数据量，小于等于 0 不限制
+     */
+    UploadScheduler(int maxRequestCount, long maxRequestBytes) {
+        this.maxRequestCount = maxRequestCount;
+        this.maxRequestBytes = maxRequestBytes;
+    }
+
+    /**
+     * 申请发起请求，额度满足时在后台线程执行 action，请求结束后需调用 release
+     *
+     * @param owner    发起请求的上传任务
+     * @param priority 上传任务优先级
+     * @param isForm   是否为表单上传
+     * @param bytes    请求的数据量
+     * @param action   获得额度后执行
+     */
+    void acquire(Object owner, int priority, boolean isForm, long bytes, Runnable action) {
+        Permit permit = new Permit(bytes, action);
+        synchronized (this) {
+            Level level = levels.get(priority);
+            if (level == null) {
+                level = new Level();
+                levels.put(priority, level);
+            }
+            level.add(owner, isForm, permit);
+        }
+        dispatch();
+    }
+
+    void release(long bytes) {
+        synchronized (this) {
+            requestCount = Math.max(requestCount - 1, 0);
+            requestBytes = Math.max(requestBytes - bytes, 0);
+        }
+        dispatch();
+    }
+
+    synchronized int requestCount() {
+        return requestCount;
+    }
+
+    synchronized long requestBytes() {
+        return requestBytes;
+    }
+
+    private void dispatch() {
+        while (true) {
+            Permit permit;
+            synchronized (this) {
+                permit = nextPermit();
+                if (permit == null) {
+                    return;
+                }
+                requestCount += 1;
+                requestBytes += permit.bytes;
+            }
+            // 避免在 release 调用栈中递归发起请求
+            AsyncRun.runInBack(permit.action);
+        }
+    }
+
+    // 需在 synchronized (this) 中调用，队首请求额度不足时不跳过，防止大请求饿死
+    private Permit nextPermit() {
+        Iterator<Map.Entry<Integer, Level>> iterator = levels.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Level level = iterator.next().getValue();
+            Permit permit = level.peek();
+            if (permit == null) {
+                iterator.remove();
+                continue;
+            }
+            if (!canGrant(permit)) {
+                return null;
+            }
+            return level.poll();
+        }
+        return null;
+    }
+
+    private boolean canGrant(Permit permit) {
+        if (maxRequestCount > 0 && requestCount >= maxRequestCount) {
+            return false;
+        }
+        // 单个请求的数据量超过限制时，在没有其他请求时允许发起
+        return maxRequestBytes <= 0 || requestCount == 0 || requestBytes + permit.bytes <= maxRequestBytes;
+    }
+
+    private static class Level {
+        private final ArrayDeque<Permit> formPermits = new ArrayDeque<>();
+        // 按任务轮流：取出队首任务的一个请求后，将任务移至末尾
+        private final LinkedHashMap<Object, ArrayDeque<Permit>> ownerPermits = new LinkedHashMap<>();
+
+        private void add(Object owner, boolean isForm, Permit permit) {
+            if (isForm) {
+                formPermits.add(permit);
+                return;
+            }
+            ArrayDeque<Permit> permits = ownerPermits.get(owner);
+            if (permits == null) {
+                permits = new ArrayDeque<>();
+                ownerPermits.put(owner, permits);
+            }
+            permits.add(permit);
+        }
+
+        private Permit peek() {
+            if (!formPermits.isEmpty()) {
+                return formPermits.peek();
+            }
+            Iterator<ArrayDeque<Permit>> iterator = ownerPermits.values().iterator();
+            return iterator.hasNext() ? iterator.next().peek() : null;
+        }
+
+        private Permit poll() {
+            if (!formPermits.isEmpty()) {
+                return formPermits.poll();
+            }
+            Iterator<Map.Entry<Object, ArrayDeque<Permit>>> iterator = ownerPermits.entrySet().iterator();
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            Map.Entry<Object, ArrayDeque<Permit>> entry = iterator.next();
+            Object owner = entry.getKey();
+            ArrayDeque<Permit> permits = entry.getValue();
+            Permit permit = permits.poll();
+            iterator.remove();
+            if (!permits.isEmpty()) {
+                ownerPermits.put(owner, permits);
+            }
+            return permit;
+        }
+    }
+
+    private static class Permit {
+        private final long bytes;
+        private final Runnable action;
+
+        private Permit(long bytes, Runnable action) {
+            this.bytes = bytes;
+            this.action = action;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.qiniu.android.storage.stream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 支持按位置读取的数据源，读取不依赖流的当前位置，可被多个线程同时调用；
+ * 分片上传时优先使用此方式读取分片数据
+ */
+public interface IPositionalStreamFactory extends IStreamFactory {
+
+    /**
+     * 从 offset 处读取数据写入 dst，最多读取 dst.remaining() 个字节
+     *
+     * @param offset 数据源中的读取位置
+     * @param dst    读取数据存放的 buffer
+     * @return 读取的字节数，已到数据末尾返回 -1
+     * @throws IOException 读取异常
+     */
+    int read(long offset, ByteBuffer dst) throws IOException;
+
+    /**
+     * 释放读取使用的资源，释放后不可再调用 read
+     */
+    void close();
+}
@@ -0,0 +1,265 @@
+package com.qiniu.android.storage.stream;
+
+import com.qiniu.android.dns.util.Hex;
+import com.qiniu.android.utils.BufferPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.zip.CRC32;
+
+/**
+ * IStreamFactory 中 [offset, offset + size) 区间的数据，数据在发送时才从数据源读取，不会缓存在内存中；
+ * 区间数据已预读时直接读取预读的数据，不再访问数据源；
+ * 发送数据时会同步计算数据的 crc32，发送结束后可通过 crc32() 获取
+ */
+public class StreamRegion {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public final IStreamFactory factory;
+    public final long offset;
+    public final long size;
+
+    // 预读的区间数据，长度可能大于 size
+    private final byte[] prefetchedData;
+    private final CRC32 crc32 = new CRC32();
+
+    public StreamRegion(IStreamFactory factory, long offset, long size) {
+        this(factory, offset, size, null);
+    }
+
+    /**
+     * @param prefetchedData 预读的区间数据，前 size 个字节为区间数据，为 null 时从数据源读取
+     */
+    public StreamRegion(IStreamFactory factory, long offset, long size, byte[] prefetchedData) {
+        this.factory = factory;
+        this.offset = offset;
+        this.size = size;
+        this.prefetchedData = (prefetchedData != null && prefetchedData.length >= size) ? prefetchedData : null;
+    }
+
+    /**
+     * 预读的区间数据
+     *
+     * @return 未预读返回 null
+     */
+    public byte[] prefetchedData() {
+        return prefetchedData;
+    }
+
+    /**
+     * 打开区间数据流，每次调用均会重新打开数据源，调用方负责关闭
+     *
+     * @return 起始位置为 offset 的数据流
+     * @throws IOException 打开数据源异常
+     */
+    public InputStream newStream() throws IOException {
+        if (factory == null) {
+            throw new IOException("stream factory is null");
+        }
+        return factory.newStreamWithOffset(offset);
+    }
+
+    /**
+     * 打开区间数据读取器，数据源支持按位置读取时不会打开新的数据流，调用方负责关闭
+     *
+     * @return 区间数据读取器
+     * @throws IOException 打开数据源异常
+     */
+    public Reader newReader() throws IOException {
+        if (prefetchedData != null) {
+            return new PrefetchedReader();
+        } else if (factory instanceof IPositionalStreamFactory) {
+            return new PositionalReader((IPositionalStreamFactory) factory);
+        } else {
+            return new StreamReader(newStream());
+        }
+    }
+
+    /**
+     * 读取区间数据时的 buffer 大小
+     *
+     * @return buffer 大小
+     */
+    public int bufferSize() {
+        return (int) Math.min(BUFFER_SIZE, Math.max(size, 1));
+    }
+
+    /**
+     * 开始发送数据前重置 crc32
+     */
+    public synchronized void resetCrc32() {
+        crc32.reset();
+    }
+
+    /**
+     * 发送数据时更新 crc32
+     */
+    public synchronized void updateCrc32(byte[] data, int offset, int length) {
+        crc32.update(data, offset, length);
+    }
+
+    /**
+     * 最近一次发送数据的 crc32
+     *
+     * @return crc32
+     */
+    public synchronized long crc32() {
+        return crc32.getValue();
+    }
+
+    /**
+     * 流式读取区间数据计算 crc32，不会将区间数据完整读入内存，不影响 crc32() 的值
+     *
+     * @return crc32，读取失败返回 null
+     */
+    public Long calculateCrc32() {
+        Reader reader = null;
+        byte[] buffer = null;
+        try {
+            CRC32 crc = new CRC32();
+            reader = newReader();
+            buffer = BufferPool.getInstance().obtain(bufferSize());
+            int len;
+            while ((len = reader.read(buffer, 0, buffer.length)) > 0) {
+                crc.update(buffer, 0, len);
+            }
+            if (reader.remaining() > 0) {
+                return null;
+            }
+            return crc.getValue();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (reader != null) {
+                reader.close();
+            }
+            BufferPool.getInstance().recycle(buffer);
+        }
+    }
+
+    /**
+     * 流式读取区间数据计算 md5，不会将区间数据完整读入内存
+     *
+     * @return md5 十六进制字符串，读取失败返回 null
+     */
+    public String md5() {
+        Reader reader = null;
+        byte[] buffer = null;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            reader = newReader();
+            buffer = BufferPool.getInstance().obtain(bufferSize());
+            int len;
+            while ((len = reader.read(buffer, 0, buffer.length)) > 0) {
+                digest.update(buffer, 0, len);
+            }
+            if (reader.remaining() > 0) {
+                return null;
+            }
+            return Hex.encodeHexString(digest.digest());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (reader != null) {
+                reader.close();
+            }
+            BufferPool.getInstance().recycle(buffer);
+        }
+    }
+
+    /**
+     * 区间数据读取器，非线程安全
+     */
+    public abstract class Reader {
+
+        private long read = 0;
+
+        /**
+         * 读取区间内的下一段数据
+         *
+         * @return 读取的字节数，区间已读完返回 0，数据源提前结束返回 -1
+         * @throws IOException 读取异常
+         */
+        public int read(byte[] buffer, int bufferOffset, int length) throws IOException {
+            if (read >= size) {
+                return 0;
+            }
+            int len = readSource(read, buffer, bufferOffset, (int) Math.min(length, size - read));
+            if (len > 0) {
+                read += len;
+            }
+            return len;
+        }
+
+        /**
+         * 区间内未读取的字节数
+         */
+        public long remaining() {
+            return size - read;
+        }
+
+        abstract int readSource(long position, byte[] buffer, int bufferOffset, int length) throws IOException;
+
+        public abstract void close();
+    }
+
+    private class PrefetchedReader extends Reader {
+
+        @Override
+        int readSource(long position, byte[] buffer, int bufferOffset, int length) {
+            System.arraycopy(prefetchedData, (int) position, buffer, bufferOffset, length);
+            return length;
+        }
+
+        @Override
+        public void close() {
+            // 预读数据由预读方回收
+        }
+    }
+
+    private class PositionalReader extends Reader {
+
+        private final IPositionalStreamFactory source;
+
+        private PositionalReader(IPositionalStreamFactory source) {
+            this.source = source;
+        }
+
+        @Override
+        int readSource(long position, byte[] buffer, int bufferOffset, int length) throws IOException {
+            return source.read(offset + position, ByteBuffer.wrap(buffer, bufferOffset, length));
+        }
+
+        @Override
+        public void close() {
+            // 数据源由上传任务统一释放
+        }
+    }
+
+    private class StreamReader extends Reader {
+
+        private final InputStream stream;
+
+        private StreamReader(InputStream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        int readSource(long position, byte[] buffer, int bufferOffset, int length) throws IOException {
+            return stream.read(buffer, bufferOffset, length);
+        }
+
+        @Override
+        public void close() {
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
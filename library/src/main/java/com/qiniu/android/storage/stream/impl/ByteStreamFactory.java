@@ -1,13 +1,14 @@
 package com.qiniu.android.storage.stream.impl;
 
-import com.qiniu.android.storage.stream.IStreamFactory;
+import com.qiniu.android.storage.stream.IPositionalStreamFactory;
 import com.qiniu.android.utils.Crc32;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
-public class ByteStreamFactory implements IStreamFactory {
+public class ByteStreamFactory implements IPositionalStreamFactory {
 
     private final byte[] data;
 
@@ -30,7 +31,24 @@ public class ByteStreamFactory implements IStreamFactory {
         if (offset >= data.length) {
             throw new IOException("offset is bigger than data.length");
         }
-        return new ByteArrayInputStream(data, 0, (int) (data.length - offset));
+        return new ByteArrayInputStream(data, (int) offset, (int) (data.length - offset));
+    }
+
+    @Override
+    public int read(long offset, ByteBuffer dst) throws IOException {
+        if (offset < 0) {
+            throw new IOException("offset is negative");
+        }
+        if (offset >= data.length) {
+            return -1;
+        }
+        int len = (int) Math.min(dst.remaining(), data.length - offset);
+        dst.put(data, (int) offset, len);
+        return len;
+    }
+
+    @Override
+    public void close() {
     }
 
     @Override
@@ -1,16 +1,23 @@
 package com.qiniu.android.storage.stream.impl;
 
-import com.qiniu.android.storage.stream.IStreamFactory;
+import com.qiniu.android.storage.stream.IPositionalStreamFactory;
 import com.qiniu.android.storage.stream.utils.StreamUtils;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 
-public class FileStreamFactory implements IStreamFactory {
+public class FileStreamFactory implements IPositionalStreamFactory {
 
     private final File file;
+    // 所有分片共用，FileChannel 按位置读取是线程安全的
+    private RandomAccessFile randomAccessFile;
+    private boolean isClosed = false;
 
     public FileStreamFactory(File file) {
         this.file = file;
@@ -33,8 +40,51 @@ public class FileStreamFactory implements IStreamFactory {
         return fis;
     }
 
+    @Override
+    public int read(long offset, ByteBuffer dst) throws IOException {
+        try {
+            return getChannel().read(dst, offset);
+        } catch (ClosedChannelException e) {
+            // 其它读取线程被中断导致 channel 被关闭，重新打开后重试
+            if (Thread.currentThread().isInterrupted()) {
+                throw e;
+            }
+            return getChannel().read(dst, offset);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        isClosed = true;
+        closeFile();
+    }
+
     @Override
     public String identity() {
         return file.getAbsolutePath();
     }
+
+    private synchronized FileChannel getChannel() throws IOException {
+        if (isClosed) {
+            throw new IOException("file stream factory is closed");
+        }
+        // 读取线程被中断时 channel 会被关闭（ClosedByInterruptException），需重新打开
+        if (randomAccessFile != null && !randomAccessFile.getChannel().isOpen()) {
+            closeFile();
+        }
+        if (randomAccessFile == null) {
+            randomAccessFile = new RandomAccessFile(file, "r");
+        }
+        return randomAccessFile.getChannel();
+    }
+
+    private void closeFile() {
+        if (randomAccessFile != null) {
+            try {
+                randomAccessFile.close();
+            } catch (IOException ignored) {
+            }
+            randomAccessFile = null;
+        }
+    }
 }
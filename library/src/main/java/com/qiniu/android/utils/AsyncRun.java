@@ -16,6 +16,8 @@ public final class AsyncRun {
 
     private static final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
     private static final ExecutorService executorService = Executors.newFixedThreadPool(3);
+    // 延时任务共用一个定时线程，任务到期后仅投递到主线程或 executorService
+    private static final Timer timer = new Timer("qiniu-async-timer", true);
 
     public static void runInMain(Runnable r) {
         if (Looper.getMainLooper() == Looper.myLooper()){
@@ -60,8 +62,7 @@ public final class AsyncRun {
     }
 
     private static void delayTimerTask(int delay, TimerTask timerTask){
-        Timer timer = new Timer();
-        timer.schedule(timerTask, delay);
+        timer.schedule(timerTask, Math.max(delay, 0));
     }
 
 }
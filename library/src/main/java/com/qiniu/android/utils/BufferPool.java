@@ -0,0 +1,137 @@
+package com.qiniu.android.utils;
+
+import java.util.ArrayDeque;
+
+/**
+ * 按大小分级复用的 byte[] 缓冲池，用于读取分片数据、计算 crc32 / etag 及 gzip 等场景，减少大块内存的反复申请；
+ * buffer 大小按 2 的幂向上取整（MinBufferSize ~ MaxBufferSize），超过 MaxBufferSize 的 buffer 不复用；
+ * obtain 与 recycle 需成对调用，outstandingCount / outstandingBytes 为未归还的 buffer，可用于检查泄漏
+ */
+public final class BufferPool {
+
+    public static final int MinBufferSize = 4 * 1024;
+    public static final int MaxBufferSize = 8 * 1024 * 1024;
+
+    // 每个大小等级最多缓存的 buffer 个数
+    private static final int MaxPooledCountPerClass = 8;
+    // 所有等级缓存的 buffer 总大小上限
+    private static final long MaxPooledBytes = 16 * 1024 * 1024;
+
+    private static final BufferPool instance = new BufferPool();
+
+    private final ArrayDeque<byte[]>[] pools;
+    private long pooledBytes = 0;
+    private long outstandingCount = 0;
+    private long outstandingBytes = 0;
+
+    @SuppressWarnings("unchecked")
+    private BufferPool() {
+        int classCount = sizeClass(MaxBufferSize) + 1;
+        pools = new ArrayDeque[classCount];
+        for (int i = 0; i < classCount; i++) {
+            pools[i] = new ArrayDeque<byte[]>();
+        }
+    }
+
+    public static BufferPool getInstance() {
+        return instance;
+    }
+
+    /**
+     * 获取 buffer，使用结束后需调用 recycle 归还
+     *
+     * @param size 需要的大小
+     * @return 长度不小于 size 的 buffer，内容未清空
+     */
+    public byte[] obtain(int size) {
+        if (size > MaxBufferSize) {
+            return new byte[size];
+        }
+
+        int sizeClass = sizeClass(size);
+        byte[] buffer;
+        synchronized (this) {
+            buffer = pools[sizeClass].poll();
+            if (buffer != null) {
+                pooledBytes -= buffer.length;
+            }
+            outstandingCount += 1;
+            outstandingBytes += classSize(sizeClass);
+        }
+        if (buffer == null) {
+            buffer = new byte[classSize(sizeClass)];
+        }
+        return buffer;
+    }
+
+    /**
+     * 归还 obtain 获取的 buffer，归还后不可再使用
+     *
+     * @param buffer buffer
+     */
+    public void recycle(byte[] buffer) {
+        if (buffer == null || buffer.length > MaxBufferSize) {
+            return;
+        }
+        int sizeClass = sizeClass(buffer.length);
+        if (classSize(sizeClass) != buffer.length) {
+            // 非 obtain 获取的 buffer
+            return;
+        }
+
+        synchronized (this) {
+            outstandingCount = Math.max(outstandingCount - 1, 0);
+            outstandingBytes = Math.max(outstandingBytes - buffer.length, 0);
+            ArrayDeque<byte[]> pool = pools[sizeClass];
+            if (pool.size() < MaxPooledCountPerClass && pooledBytes + buffer.length <= MaxPooledBytes) {
+                pool.push(buffer);
+                pooledBytes += buffer.length;
+            }
+        }
+    }
+
+    /**
+     * 清空缓存的 buffer，如：内存不足时
+     */
+    public synchronized void trim() {
+        for (ArrayDeque<byte[]> pool : pools) {
+            pool.clear();
+        }
+        pooledBytes = 0;
+    }
+
+    /**
+     * @return 已获取未归还的 buffer 个数
+     */
+    public synchronized long outstandingCount() {
+        return outstandingCount;
+    }
+
+    /**
+     * @return 已获取未归还的 buffer 总大小，单位：字节
+     */
+    public synchronized long outstandingBytes() {
+        return outstandingBytes;
+    }
+
+    /**
+     * @return 缓存中可复用的 buffer 总大小，单位：字节
+     */
+    public synchronized long pooledBytes() {
+        return pooledBytes;
+    }
+
+    private static int sizeClass(int size) {
+        int sizeClass = 0;
+        int classSize = MinBufferSize;
+        while (classSize < size) {
+            classSize = classSize << 1;
+            sizeClass += 1;
+        }
+        return sizeClass;
+    }
+
+    private static int classSize(int sizeClass) {
+        return MinBufferSize << sizeClass;
+    }
+}
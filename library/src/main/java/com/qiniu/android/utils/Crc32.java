@@ -43,7 +43,7 @@ public final class Crc32 {
      */
     public static long file(File f) throws IOException {
         FileInputStream fi = new FileInputStream(f);
-        byte[] buff = new byte[64 * 1024];
+        byte[] buff = BufferPool.getInstance().obtain(64 * 1024);
         int len;
         CRC32 crc32 = new CRC32();
         try {
@@ -54,6 +54,7 @@ public final class Crc32 {
             e.printStackTrace();
         } finally {
             fi.close();
+            BufferPool.getInstance().recycle(buff);
         }
 
         return crc32.getValue();
@@ -3,12 +3,25 @@ package com.qiniu.android.utils;
 import com.qiniu.android.storage.Configuration;
 
 import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 计算文件内容或者二进制数据的etag, etag算法是七牛用来标志数据唯一性的算法。
@@ -16,6 +29,42 @@ import java.security.NoSuchAlgorithmException;
  */
 public final class Etag {
 
+    // 并行计算各块 hash 的线程池，线程数不超过 CPU 核数
+    private static final ThreadPoolExecutor blockExecutor;
+
+    static {
+        int threadCount = Math.max(1, Runtime.getRuntime().availableProcessors());
+        blockExecutor = new ThreadPoolExecutor(threadCount, threadCount, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "qiniu-etag");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        blockExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private static final ThreadLocal<MessageDigest> threadSha1 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("sha-1");
+            } catch (NoSuchAlgorithmException e) {
+                // never reach
+                throw new RuntimeException(e);
+            }
+        }
+    };
+
+    private static final ThreadLocal<ByteBuffer> threadBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(64 * 1024);
+        }
+    };
+
     /**
      * 计算二进制数据的etag
      *
@@ -62,14 +111,31 @@ public final class Etag {
      * @throws IOException 文件读取异常
      */
     public static String file(File file) throws IOException {
-        InputStream in = null;
+        long len = file.length();
+        if (len <= Configuration.BLOCK_SIZE) {
+            InputStream in = null;
+            try {
+                in = new FileInputStream(file);
+                return stream(in, len);
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        RandomAccessFile randomAccessFile = null;
         try {
-            in = new FileInputStream(file);
-            return stream(in, file.length());
+            randomAccessFile = new RandomAccessFile(file, "r");
+            return channel(randomAccessFile.getChannel(), len);
         } finally {
-            if (in != null) {
+            if (randomAccessFile != null) {
                 try {
-                    in.close();
+                    randomAccessFile.close();
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
@@ -101,16 +167,74 @@ public final class Etag {
         if (len == 0) {
             return "Fto5o-5ea0sNMlW_75VgGJCv2AcJ";
         }
-        byte[] buffer = new byte[64 * 1024];
-        byte[][] blocks = new byte[(int) ((len + Configuration.BLOCK_SIZE - 1) / Configuration.BLOCK_SIZE)][];
-        for (int i = 0; i < blocks.length; i++) {
-            long left = len - (long) Configuration.BLOCK_SIZE * i;
-            long read = left > Configuration.BLOCK_SIZE ? Configuration.BLOCK_SIZE : left;
-            blocks[i] = oneBlock(buffer, in, (int) read);
+        byte[] buffer = BufferPool.getInstance().obtain(64 * 1024);
+        try {
+            byte[][] blocks = new byte[blockCount(len)][];
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i] = oneBlock(buffer, in, (int) blockSize(len, i));
+            }
+            return resultEncode(blocks);
+        } finally {
+            BufferPool.getInstance().recycle(buffer);
+        }
+    }
+
+    /**
+     * 计算文件内容的etag，各个 4M 块在后台线程中并行计算
+     *
+     * @param channel 文件
+     * @param len     数据长度
+     * @return 数据的etag值
+     * @throws IOException 文件读取异常
+     */
+    public static String channel(final FileChannel channel, final long len) throws IOException {
+        if (len == 0) {
+            return "Fto5o-5ea0sNMlW_75VgGJCv2AcJ";
+        }
+
+        int blockCount = blockCount(len);
+        ArrayList<Future<byte[]>> futures = new ArrayList<>(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            final long offset = (long) Configuration.BLOCK_SIZE * i;
+            final int size = (int) blockSize(len, i);
+            futures.add(blockExecutor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return oneBlock(channel, offset, size);
+                }
+            }));
+        }
+
+        byte[][] blocks = new byte[blockCount][];
+        try {
+            for (int i = 0; i < blockCount; i++) {
+                blocks[i] = futures.get(i).get();
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause != null ? cause.getMessage() : e.getMessage());
+        } finally {
+            for (Future<byte[]> future : futures) {
+                future.cancel(false);
+            }
         }
         return resultEncode(blocks);
     }
 
+    private static int blockCount(long len) {
+        return (int) ((len + Configuration.BLOCK_SIZE - 1) / Configuration.BLOCK_SIZE);
+    }
+
+    private static long blockSize(long len, int index) {
+        long left = len - (long) Configuration.BLOCK_SIZE * index;
+        return left > Configuration.BLOCK_SIZE ? Configuration.BLOCK_SIZE : left;
+    }
+
     /**
      * 单块计算hash
      *
@@ -121,26 +245,49 @@ public final class Etag {
      * @throws IOException 读取出错
      */
     private static byte[] oneBlock(byte[] buffer, InputStream in, int len) throws IOException {
-        MessageDigest sha1 = null;
-        try {
-            sha1 = MessageDigest.getInstance("sha-1");
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-            //never reach
-            return null;
-        }
+        MessageDigest sha1 = sha1();
         int buffSize = buffer.length;
         while (len != 0) {
             int next = buffSize > len ? len : buffSize;
-            //noinspection ResultOfMethodCallIgnored
-            in.read(buffer, 0, next);
-            sha1.update(buffer, 0, next);
-            len -= next;
+            int read = in.read(buffer, 0, next);
+            if (read < 0) {
+                throw new EOFException("unexpected end of stream");
+            }
+            sha1.update(buffer, 0, read);
+            len -= read;
         }
 
         return sha1.digest();
     }
 
+    /**
+     * 按位置读取单块计算hash，可在多个线程中同时调用
+     */
+    private static byte[] oneBlock(FileChannel channel, long offset, int len) throws IOException {
+        MessageDigest sha1 = sha1();
+        ByteBuffer buffer = threadBuffer.get();
+        byte[] bytes = buffer.array();
+        while (len != 0) {
+            buffer.clear();
+            buffer.limit(Math.min(buffer.capacity(), len));
+            int read = channel.read(buffer, offset);
+            if (read < 0) {
+                throw new EOFException("unexpected end of file");
+            }
+            sha1.update(bytes, 0, read);
+            offset += read;
+            len -= read;
+        }
+        return sha1.digest();
+    }
+
+    // 每个线程复用 MessageDigest，使用前已 reset
+    private static MessageDigest sha1() {
+        MessageDigest sha1 = threadSha1.get();
+        sha1.reset();
+        return sha1;
+    }
+
     /**
      * 合并结果
      *
@@ -155,14 +302,7 @@ public final class Etag {
         byte[] ret = new byte[len + 1];
         if (sha1s.length != 1) {
             head = (byte) 0x96;
-            MessageDigest sha1 = null;
-            try {
-                sha1 = MessageDigest.getInstance("sha-1");
-            } catch (NoSuchAlgorithmException e) {
-                e.printStackTrace();
-                // never reach
-                return null;
-            }
+            MessageDigest sha1 = sha1();
             for (byte[] s : sha1s) {
                 sha1.update(s);
             }
@@ -172,4 +312,102 @@ public final class Etag {
         System.arraycopy(finalHash, 0, ret, 1, len);
         return UrlSafeBase64.encodeToString(ret);
     }
+
+    /**
+     * 增量计算 etag：数据可按任意块的顺序传入（如并发上传的分片），每个 4M 块内的数据需从块起始位置连续传入；
+     * 所有数据传入后可获取 etag，无需再次读取数据
+     */
+    public static final class Hasher {
+
+        private final long size;
+        private final MessageDigest[] digests;
+        private final byte[][] blocks;
+        // 每个块已计算的数据长度
+        private final long[] hashedSizes;
+        private int completedCount = 0;
+
+        /**
+         * @param size 数据总长度
+         */
+        public Hasher(long size) {
+            this.size = Math.max(size, 0);
+            int blockCount = blockCount(this.size);
+            this.digests = new MessageDigest[blockCount];
+            this.blocks = new byte[blockCount][];
+            this.hashedSizes = new long[blockCount];
+        }
+
+        /**
+         * 传入一段数据
+         *
+         * @param offset 数据在整体中的偏移量
+         * @param data   数据
+         * @param off    data 中的起始位置
+         * @param len    数据长度
+         * @return 是否计算成功；数据越界或与块内已传入的数据不连续时返回 false，且不计算该段数据
+         */
+        public synchronized boolean update(long offset, byte[] data, int off, int len) {
+            if (data == null || offset < 0 || off < 0 || len < 0 || off + len > data.length || offset + len > size) {
+                return false;
+            }
+
+            // 先检查，避免部分数据被计算
+            long position = offset;
+            int left = len;
+            while (left > 0) {
+                int index = (int) (position / Configuration.BLOCK_SIZE);
+                long blockOffset = position - (long) Configuration.BLOCK_SIZE * index;
+                if (hashedSizes[index] != blockOffset) {
+                    return false;
+                }
+                int count = (int) Math.min(left, Configuration.BLOCK_SIZE - blockOffset);
+                position += count;
+                left -= count;
+            }
+
+            position = offset;
+            left = len;
+            while (left > 0) {
+                int index = (int) (position / Configuration.BLOCK_SIZE);
+                long blockOffset = position - (long) Configuration.BLOCK_SIZE * index;
+                int count = (int) Math.min(left, Configuration.BLOCK_SIZE - blockOffset);
+                if (digests[index] == null) {
+                    digests[index] = newSha1();
+                }
+                digests[index].update(data, off, count);
+                hashedSizes[index] += count;
+                if (hashedSizes[index] == blockSize(size, index)) {
+                    blocks[index] = digests[index].digest();
+                    digests[index] = null;
+                    completedCount += 1;
+                }
+                position += count;
+                off += count;
+                left -= count;
+            }
+            return true;
+        }
+
+        /**
+         * @return 数据的etag值；数据未全部传入时返回 null
+         */
+        public synchronized String etag() {
+            if (size == 0) {
+                return "Fto5o-5ea0sNMlW_75VgGJCv2AcJ";
+            }
+            if (completedCount < blocks.length) {
+                return null;
+            }
+            return resultEncode(blocks);
+        }
+
+        private static MessageDigest newSha1() {
+            try {
+                return MessageDigest.getInstance("sha-1");
+            } catch (NoSuchAlgorithmException e) {
+                // never reach
+                throw new RuntimeException(e);
+            }
+        }
+    }
 }
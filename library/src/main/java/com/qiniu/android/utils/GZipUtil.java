@@ -55,9 +55,9 @@ public class GZipUtil {
         ByteArrayInputStream in = new ByteArrayInputStream(bytes);
 
         GZIPInputStream gunzip = null;
+        byte[] buffer = BufferPool.getInstance().obtain(BufferPool.MinBufferSize);
         try {
             gunzip = new GZIPInputStream(in);
-            byte[] buffer = new byte[256];
             int n;
             while ((n = gunzip.read(buffer)) >= 0) {
                 out.write(buffer, 0, n);
@@ -70,6 +70,7 @@ public class GZipUtil {
                 } catch (IOException e) {
                 }
             }
+            BufferPool.getInstance().recycle(buffer);
         }
 
         return out.toByteArray();
@@ -0,0 +1,99 @@
+package com.qiniu.android.utils;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 任务组执行器：任务在 AsyncRun 的共享线程池中启动，每个任务结束时调用 taskComplete()，
+ * 最后一个任务结束时由该任务所在线程直接回调 completeHandler，不占用单独线程，也不轮询
+ */
+public class GroupTaskExecutor {
+
+    public final GroupTaskCompleteHandler completeHandler;
+
+    private final ArrayList<GroupTask> tasks = new ArrayList<GroupTask>();
+    private final AtomicInteger runningCount = new AtomicInteger(0);
+    private boolean isExecuted = false;
+
+    public GroupTaskExecutor(GroupTaskCompleteHandler completeHandler) {
+        this.completeHandler = completeHandler;
+    }
+
+    public synchronized void addTask(GroupTask task) {
+        if (task == null || isExecuted) {
+            return;
+        }
+        tasks.add(task);
+    }
+
+    public void execute() {
+        ArrayList<GroupTask> executeTasks;
+        synchronized (this) {
+            if (isExecuted) {
+                return;
+            }
+            isExecuted = true;
+            executeTasks = new ArrayList<GroupTask>(tasks);
+        }
+
+        if (executeTasks.size() == 0) {
+            completeAction();
+            return;
+        }
+
+        runningCount.set(executeTasks.size());
+        for (final GroupTask task : executeTasks) {
+            task.executor = this;
+            AsyncRun.runInBack(new Runnable() {
+                @Override
+                public void run() {
+                    task.run(task);
+                }
+            });
+        }
+    }
+
+    private void taskComplete() {
+        if (runningCount.decrementAndGet() == 0) {
+            completeAction();
+        }
+    }
+
+    private void completeAction() {
+        if (completeHandler != null) {
+            completeHandler.complete();
+        }
+    }
+
+
+    public abstract static class GroupTask {
+
+        public final String id;
+
+        private final AtomicBoolean isCompleted = new AtomicBoolean(false);
+        private GroupTaskExecutor executor;
+
+        public GroupTask() {
+            this.id = null;
+        }
+
+        public GroupTask(String id) {
+            this.id = id;
+        }
+
+        public abstract void run(GroupTask task);
+
+        public void taskComplete() {
+            // 重复调用只计一次
+            if (isCompleted.compareAndSet(false, true) && executor != null) {
+                executor.taskComplete();
+            }
+        }
+    }
+
+
+    public interface GroupTaskCompleteHandler {
+        void complete();
+    }
+}
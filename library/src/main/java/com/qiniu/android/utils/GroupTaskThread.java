@@ -2,6 +2,10 @@ package com.qiniu.android.utils;
 
 import java.util.ArrayList;
 
+/**
+ * 轮询任务状态，已废弃，请使用 {@link GroupTaskExecutor}
+ */
+@Deprecated
 public class GroupTaskThread extends Thread {
 
     public final GroupTaskCompleteHandler completeHandler;
@@ -0,0 +1,73 @@
+package com.qiniu.android.utils;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 监听系统网络变化（CONNECTIVITY_ACTION），第一次添加 listener 时注册广播；
+ * 无法获取 Context 时不会回调，依赖网络状态的缓存需同时设置有效期
+ */
+public final class NetworkChangeMonitor {
+
+    private static final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private static final AtomicBoolean isReceiverRegistered = new AtomicBoolean(false);
+
+    private NetworkChangeMonitor() {
+    }
+
+    public static void addListener(Listener listener) {
+        if (listener == null || listeners.contains(listener)) {
+            return;
+        }
+        listeners.add(listener);
+        registerReceiver();
+    }
+
+    public static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 通知所有 listener 网络已变化
+     */
+    public static void notifyNetworkChanged() {
+        for (Listener listener : listeners) {
+            try {
+                listener.onNetworkChanged();
+            } catch (Exception e) {
+                LogUtil.w("network change listener error:" + e.getMessage());
+            }
+        }
+    }
+
+    private static void registerReceiver() {
+        if (!isReceiverRegistered.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Context context = ContextGetter.applicationContext();
+            if (context == null) {
+                isReceiverRegistered.set(false);
+                return;
+            }
+            context.registerReceiver(new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    notifyNetworkChanged();
+                }
+            }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        } catch (Exception e) {
+            LogUtil.w("register network change receiver error:" + e.getMessage());
+        }
+    }
+
+    public interface Listener {
+        void onNetworkChanged();
+    }
+}